@@ -34,6 +34,19 @@ public class OuganextSugoiMapper {
 
   private static final Logger logger = LoggerFactory.getLogger(OuganextSugoiMapper.class);
 
+  /** Declared fields of the ouganext classes, made accessible once per class */
+  private static final ClassValue<Field[]> accessibleFields =
+      new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+          Field[] fields = type.getDeclaredFields();
+          for (Field field : fields) {
+            field.setAccessible(true);
+          }
+          return fields;
+        }
+      };
+
   /**
    * Convert Ouganext O object to Sugoi N object
    *
@@ -53,10 +66,9 @@ public class OuganextSugoiMapper {
     try {
       N sugoiObject = clazz.getDeclaredConstructor().newInstance();
       Class<? extends Object> ouganextObjectClass = ouganextObject.getClass();
-      Field[] ouganextObjectFields = ouganextObjectClass.getDeclaredFields();
+      Field[] ouganextObjectFields = accessibleFields.get(ouganextObjectClass);
       for (Field ouganextObjectField : ouganextObjectFields) {
         try {
-          ouganextObjectField.setAccessible(true);
           Object ouganextFieldObject = ouganextObjectField.get(ouganextObject);
 
           if (ouganextObjectField.getDeclaredAnnotationsByType(MapFromAttribute.class).length > 0) {
@@ -112,10 +124,9 @@ public class OuganextSugoiMapper {
   public <O extends SugoiObject, N> N serializeToOuganext(O sugoiObject, Class<N> clazz) {
     try {
       N ouganextObject = clazz.getDeclaredConstructor().newInstance();
-      Field[] ouganextObjectFields = clazz.getDeclaredFields();
+      Field[] ouganextObjectFields = accessibleFields.get(clazz);
       for (Field ouganextObjectField : ouganextObjectFields) {
         try {
-          ouganextObjectField.setAccessible(true);
           if (ouganextObjectField.getDeclaredAnnotationsByType(MapFromAttribute.class).length > 0) {
             Optional<Object> sugoiFieldObject =
                 sugoiObject.get(getAnnotationAttributeName(ouganextObjectField));
@@ -175,9 +186,8 @@ public class OuganextSugoiMapper {
   public <O> Map<String, String> serializeOuganextToMap(O ouganextObject) {
     Map<String, String> map = new HashMap<>();
     try {
-      Field[] ouganextObjectFields = ouganextObject.getClass().getDeclaredFields();
+      Field[] ouganextObjectFields = accessibleFields.get(ouganextObject.getClass());
       for (Field ouganextObjectField : ouganextObjectFields) {
-        ouganextObjectField.setAccessible(true);
         String fieldValue;
         if (ouganextObjectField.get(ouganextObject) != null) {
           fieldValue = ouganextObjectField.get(ouganextObject).toString();
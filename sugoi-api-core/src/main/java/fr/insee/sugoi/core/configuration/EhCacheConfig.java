@@ -13,13 +13,29 @@
 */
 package fr.insee.sugoi.core.configuration;
 
+import jakarta.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
 import org.ehcache.jsr107.Eh107Configuration;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.cache.JCacheManagerCustomizer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachingConfigurer;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.interceptor.CacheOperationInvocationContext;
+import org.springframework.cache.interceptor.CacheResolver;
+import org.springframework.cache.interceptor.SimpleCacheResolver;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -27,6 +43,24 @@ import org.springframework.context.annotation.Configuration;
 @EnableCaching
 public class EhCacheConfig implements CachingConfigurer {
 
+  /** Caches of the realm configuration, whose values are refreshed ahead of their expiration */
+  private static final Set<String> REALM_CACHES = Set.of("Realm", "Realms");
+
+  @Value("${fr.insee.sugoi.realm.config.cache.ttl:600000}")
+  private long realmCacheTtl;
+
+  @Autowired private ObjectProvider<CacheManager> cacheManager;
+
+  private final Map<Cache, Cache> refreshAheadCaches = new ConcurrentHashMap<>();
+
+  private final ExecutorService realmReloadExecutor =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "realm-reload");
+            thread.setDaemon(true);
+            return thread;
+          });
+
   @Bean
   public JCacheManagerCustomizer cacheManagerCustomizer() {
     javax.cache.configuration.Configuration<String, Object> realmsConfiguration =
@@ -49,4 +83,28 @@ public class EhCacheConfig implements CachingConfigurer {
       cm.createCache("Realm", realmConfiguration);
     };
   }
+
+  @Override
+  public CacheResolver cacheResolver() {
+    return new SimpleCacheResolver(cacheManager.getObject()) {
+      @Override
+      public Collection<? extends Cache> resolveCaches(
+          CacheOperationInvocationContext<?> context) {
+        return super.resolveCaches(context).stream()
+            .map(
+                cache ->
+                    REALM_CACHES.contains(cache.getName())
+                        ? refreshAheadCaches.computeIfAbsent(
+                            cache,
+                            c -> new RefreshAheadCache(c, realmCacheTtl, realmReloadExecutor))
+                        : cache)
+            .collect(Collectors.toList());
+      }
+    };
+  }
+
+  @PreDestroy
+  public void shutdownRealmReloadExecutor() {
+    realmReloadExecutor.shutdown();
+  }
 }
@@ -0,0 +1,205 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.configuration;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+/**
+ * Cache decorator giving a time to live to the values of another cache. A value read through a
+ * synchronized Cacheable after half its time to live is returned as is and reloaded in background,
+ * so frequently read values never expire on a read. Concurrent loads of the same key are collapsed
+ * into a single call to the value loader. Values never expire if the time to live is not positive.
+ *
+ * <p>Values loaded before an evict of their key or a clear are returned to the callers waiting for
+ * them but not cached, so that a load racing with a modification does not keep the old value.
+ * Callers arriving after the evict or the clear start a new load instead of waiting for them.
+ */
+public class RefreshAheadCache implements Cache {
+
+  private static final Logger logger = LoggerFactory.getLogger(RefreshAheadCache.class);
+
+  private final Cache delegate;
+  private final long ttl;
+  private final Executor executor;
+  private final Map<Object, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+  private final Map<Object, Boolean> reloading = new ConcurrentHashMap<>();
+
+  /** Time of the last clear, values loaded before are not cached */
+  private volatile long lastClear = System.nanoTime();
+
+  /** Time of the last evict of each key since the clear, values loaded before are not cached */
+  private final Map<Object, Long> evictions = new ConcurrentHashMap<>();
+
+  /**
+   * @param delegate the cache holding the values
+   * @param ttl time to live of the values in milliseconds
+   * @param executor runs the background reloads
+   */
+  public RefreshAheadCache(Cache delegate, long ttl, Executor executor) {
+    this.delegate = delegate;
+    this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    this.executor = executor;
+  }
+
+  @Override
+  public String getName() {
+    return delegate.getName();
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return delegate.getNativeCache();
+  }
+
+  @Override
+  public ValueWrapper get(Object key) {
+    TimedValue cached = getFresh(key);
+    return cached != null ? new SimpleValueWrapper(cached.value) : null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Class<T> type) {
+    TimedValue cached = getFresh(key);
+    if (cached == null || cached.value == null) {
+      return null;
+    }
+    if (type != null && !type.isInstance(cached.value)) {
+      throw new IllegalStateException(
+          "Cached value is not of required type [" + type.getName() + "]: " + cached.value);
+    }
+    return (T) cached.value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    TimedValue cached = getTimed(key);
+    long age = cached != null ? System.nanoTime() - cached.loadTime : Long.MAX_VALUE;
+    if (cached == null || isExpired(age)) {
+      return (T) load(key, valueLoader);
+    }
+    if (ttl > 0 && age >= ttl / 2 && reloading.putIfAbsent(key, Boolean.TRUE) == null) {
+      CompletableFuture.runAsync(
+          () -> {
+            try {
+              load(key, valueLoader);
+            } catch (RuntimeException e) {
+              logger.debug("Failed to reload {} in cache {}", key, getName(), e);
+            } finally {
+              reloading.remove(key);
+            }
+          },
+          executor);
+    }
+    return (T) cached.value;
+  }
+
+  @Override
+  public void put(Object key, Object value) {
+    delegate.put(key, new TimedValue(value, System.nanoTime()));
+  }
+
+  @Override
+  public void evict(Object key) {
+    evictions.compute(
+        key,
+        (evictedKey, previousEviction) -> {
+          delegate.evict(evictedKey);
+          loading.remove(evictedKey);
+          return System.nanoTime();
+        });
+  }
+
+  @Override
+  public void clear() {
+    lastClear = System.nanoTime();
+    delegate.clear();
+    loading.clear();
+    evictions.clear();
+  }
+
+  private TimedValue getTimed(Object key) {
+    ValueWrapper wrapper = delegate.get(key);
+    return wrapper != null && wrapper.get() instanceof TimedValue
+        ? (TimedValue) wrapper.get()
+        : null;
+  }
+
+  private TimedValue getFresh(Object key) {
+    TimedValue cached = getTimed(key);
+    return cached != null && !isExpired(System.nanoTime() - cached.loadTime) ? cached : null;
+  }
+
+  private boolean isExpired(long age) {
+    return ttl > 0 && age >= ttl;
+  }
+
+  /** Load the value of key, or wait for the load already running for this key */
+  private Object load(Object key, Callable<?> valueLoader) {
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    CompletableFuture<Object> running = loading.putIfAbsent(key, future);
+    if (running != null) {
+      try {
+        return running.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof ValueRetrievalException
+            ? (ValueRetrievalException) e.getCause()
+            : new ValueRetrievalException(key, valueLoader, e.getCause());
+      }
+    }
+    try {
+      long loadTime = System.nanoTime();
+      Object value = valueLoader.call();
+      // Checked and cached under the lock of evict, later loads of the key start after the evict
+      evictions.compute(
+          key,
+          (loadedKey, eviction) -> {
+            if ((eviction == null || loadTime - eviction > 0) && loadTime - lastClear > 0) {
+              delegate.put(loadedKey, new TimedValue(value, loadTime));
+            }
+            // Kept for the loads started before the evict and still running
+            return eviction;
+          });
+      future.complete(value);
+      return value;
+    } catch (Exception e) {
+      ValueRetrievalException exception = new ValueRetrievalException(key, valueLoader, e);
+      future.completeExceptionally(exception);
+      throw exception;
+    } finally {
+      loading.remove(key, future);
+    }
+  }
+
+  private static class TimedValue {
+    private final Object value;
+    private final long loadTime;
+
+    private TimedValue(Object value, long loadTime) {
+      this.value = value;
+      this.loadTime = loadTime;
+    }
+  }
+}
@@ -20,6 +20,8 @@ public class ProviderRequest implements Serializable {
   private SugoiUser sugoiUser;
   private boolean asynchronousAllowed;
   private String transactionId;
+  // The caller does not need the written entity in the response
+  private boolean minimalResponse;
 
   public ProviderRequest() {}
 
@@ -52,4 +54,12 @@ public class ProviderRequest implements Serializable {
   public void setTransactionId(String transactionId) {
     this.transactionId = transactionId;
   }
+
+  public boolean isMinimalResponse() {
+    return this.minimalResponse;
+  }
+
+  public void setMinimalResponse(boolean minimalResponse) {
+    this.minimalResponse = minimalResponse;
+  }
 }
@@ -0,0 +1,69 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.realm;
+
+/** Notification that the configuration of a realm, or of one of its user storages, has changed. */
+public class RealmChange {
+
+  /** Id of the instance where the change was made */
+  private String origin;
+
+  private String realmName;
+
+  /** Name of the user storage which changed, null if the whole realm may have changed */
+  private String userStorageName;
+
+  public RealmChange(String origin, String realmName, String userStorageName) {
+    this.origin = origin;
+    this.realmName = realmName;
+    this.userStorageName = userStorageName;
+  }
+
+  public RealmChange() {}
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public void setOrigin(String origin) {
+    this.origin = origin;
+  }
+
+  public String getRealmName() {
+    return realmName;
+  }
+
+  public void setRealmName(String realmName) {
+    this.realmName = realmName;
+  }
+
+  public String getUserStorageName() {
+    return userStorageName;
+  }
+
+  public void setUserStorageName(String userStorageName) {
+    this.userStorageName = userStorageName;
+  }
+
+  @Override
+  public String toString() {
+    return "RealmChange [origin="
+        + origin
+        + ", realmName="
+        + realmName
+        + ", userStorageName="
+        + userStorageName
+        + "]";
+  }
+}
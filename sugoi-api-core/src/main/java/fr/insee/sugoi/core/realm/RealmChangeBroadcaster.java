@@ -0,0 +1,28 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.realm;
+
+/**
+ * Sends realm changes to the other instances, which pass them to their RealmChangeBus receive.
+ * Without a broadcaster bean, changes only apply to the instance where they are made.
+ */
+public interface RealmChangeBroadcaster {
+
+  /**
+   * Send the change to the other instances. Called after the change has been applied locally.
+   *
+   * @param change the change made on this instance
+   */
+  public void broadcast(RealmChange change);
+}
@@ -0,0 +1,81 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.realm;
+
+import fr.insee.sugoi.core.store.StoreStorage;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies changes of realm configuration : the cached realm is evicted and the stores of the
+ * changed user storages are rebuilt on their next use. Changes made on this instance are passed to
+ * the RealmChangeBroadcaster beans so that other instances apply them as well.
+ */
+@Component
+public class RealmChangeBus {
+
+  private static final Logger logger = LoggerFactory.getLogger(RealmChangeBus.class);
+
+  /** Id of this instance, to ignore its own changes when they come back from a broadcaster */
+  private final String instanceId = UUID.randomUUID().toString();
+
+  @Autowired private RealmProvider realmProvider;
+
+  @Autowired private StoreStorage storeStorage;
+
+  @Autowired private ObjectProvider<RealmChangeBroadcaster> broadcasters;
+
+  /**
+   * Apply a change made on this instance and broadcast it. A failure to broadcast is logged and
+   * does not fail the change.
+   *
+   * @param realmName the realm which changed
+   * @param userStorageName the user storage which changed or null if the whole realm may have
+   *     changed
+   */
+  public void publish(String realmName, String userStorageName) {
+    RealmChange change = new RealmChange(instanceId, realmName, userStorageName);
+    apply(change);
+    broadcasters.forEach(
+        broadcaster -> {
+          try {
+            broadcaster.broadcast(change);
+          } catch (RuntimeException e) {
+            logger.warn("Failed to broadcast {}", change, e);
+          }
+        });
+  }
+
+  /**
+   * Apply a change received from another instance.
+   *
+   * @param change the change, ignored if it was made on this instance
+   */
+  public void receive(RealmChange change) {
+    if (instanceId.equals(change.getOrigin()) || change.getRealmName() == null) {
+      return;
+    }
+    logger.debug("Applying {}", change);
+    apply(change);
+  }
+
+  private void apply(RealmChange change) {
+    realmProvider.evict(change.getRealmName());
+    storeStorage.evict(change.getRealmName(), change.getUserStorageName());
+  }
+}
@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Optional;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 
 /**
  * This is called to fetch realms configuration.
@@ -39,12 +40,13 @@ public interface RealmProvider {
 
   /**
    * Load the realm. Even if the returned object is cached, Implementations should take care of not
-   * solliciting too much resources as this is called often.
+   * solliciting too much resources as this is called often. Concurrent loads of the same realm
+   * are collapsed into one and the cached realm is reloaded in background before it expires.
    *
    * @param realmName, the realm name to return (case insensitive)
    * @return the realm found
    */
-  @Cacheable(value = "Realm", key = "#realmName")
+  @Cacheable(value = "Realm", key = "#realmName.toLowerCase()", sync = true)
   public Optional<Realm> load(String realmName);
 
   /**
@@ -53,12 +55,14 @@ public interface RealmProvider {
    *
    * @return List<Realm>, the realm list
    */
-  @Cacheable(value = "Realms", key = "#root.methodName")
+  @Cacheable(value = "Realms", key = "#root.methodName", sync = true)
   public List<Realm> findAll();
 
-  @CacheEvict(
-      value = {"Realms", "Realm"},
-      allEntries = true)
+  @Caching(
+      evict = {
+        @CacheEvict(value = "Realm", key = "#realm.name.toLowerCase()"),
+        @CacheEvict(value = "Realms", allEntries = true)
+      })
   public ProviderResponse createRealm(Realm realm, ProviderRequest providerRequest);
 
   /**
@@ -69,13 +73,30 @@ public interface RealmProvider {
    * @throws RealmNotFoundException if realm does not exist
    * @return a response containing the updated realm and the status of the action
    */
-  @CacheEvict(
-      value = {"Realms", "Realm"},
-      allEntries = true)
+  @Caching(
+      evict = {
+        @CacheEvict(value = "Realm", key = "#realm.name.toLowerCase()"),
+        @CacheEvict(value = "Realms", allEntries = true)
+      })
   public ProviderResponse updateRealm(Realm realm, ProviderRequest providerRequest);
 
-  @CacheEvict(
-      value = {"Realms", "Realm"},
-      allEntries = true)
+  @Caching(
+      evict = {
+        @CacheEvict(value = "Realm", key = "#realmName.toLowerCase()"),
+        @CacheEvict(value = "Realms", allEntries = true)
+      })
   public ProviderResponse deleteRealm(String realmName, ProviderRequest providerRequest);
+
+  /**
+   * Drop the cached realm and the cached realm list, for instance when the realm has been changed
+   * by another instance. Implementations have nothing to do.
+   *
+   * @param realmName the realm to drop from the cache (case insensitive)
+   */
+  @Caching(
+      evict = {
+        @CacheEvict(value = "Realm", key = "#realmName.toLowerCase()"),
+        @CacheEvict(value = "Realms", allEntries = true)
+      })
+  public default void evict(String realmName) {}
 }
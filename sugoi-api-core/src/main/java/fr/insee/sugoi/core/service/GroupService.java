@@ -21,6 +21,7 @@ import fr.insee.sugoi.model.exceptions.GroupNotFoundException;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
+import java.util.List;
 
 public interface GroupService {
 
@@ -68,6 +69,17 @@ public interface GroupService {
    */
   Group findById(String realm, String appName, String id);
 
+  /**
+   * Tell if the members of a group can manage its members, without reading the members of the
+   * group. Answers are cached for a short time.
+   *
+   * @param realm
+   * @param appName
+   * @param id
+   * @return true if the group is self-managed, false if it is not or if it does not exist
+   */
+  boolean isSelfManaged(String realm, String appName, String id);
+
   /**
    * Find a groups matching criterias
    *
@@ -116,6 +128,66 @@ public interface GroupService {
       String groupName,
       ProviderRequest providerRequest);
 
+  /**
+   * Check if users and group exist and add the users to the group. When storage is null, the
+   * userstorage of each user is found with one search per userstorage.
+   *
+   * @param realm
+   * @param storage userstorage of all the users, may be null
+   * @param userIds
+   * @param appName
+   * @param groupName
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist realm
+   */
+  ProviderResponse addUsersToGroup(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest);
+
+  /**
+   * Check if users and group exist and remove the users from the group. When storage is null, the
+   * userstorage of each user is found with one search per userstorage.
+   *
+   * @param realm
+   * @param storage userstorage of all the users, may be null
+   * @param userIds
+   * @param appName
+   * @param groupName
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist realm
+   */
+  ProviderResponse deleteUsersFromGroup(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest);
+
+  /**
+   * Check if users and group exist and make the users the only members of the group. When storage
+   * is set, only the members of this userstorage are replaced.
+   *
+   * @param realm
+   * @param storage userstorage of all the users, may be null
+   * @param userIds
+   * @param appName
+   * @param groupName
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist realm
+   */
+  ProviderResponse replaceGroupMembers(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest);
+
   /**
    * Add a user to the group manager of one Application
    *
@@ -18,9 +18,13 @@ import fr.insee.sugoi.core.model.ProviderResponse;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.exceptions.UserAlreadyExistException;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
+import fr.insee.sugoi.model.exceptions.UserStorageNotFoundException;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
 import fr.insee.sugoi.model.paging.SearchType;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface UserService {
 
@@ -45,6 +49,27 @@ public interface UserService {
    */
   ProviderResponse update(String realm, String storage, User user, ProviderRequest providerRequest);
 
+  /**
+   * Create the users in the storage, or update the ones of the storage which already exist if
+   * upsert is set. Users are read and written by batches, the unicity of the usernames and mails of
+   * a batch being checked at once.
+   *
+   * @param realm
+   * @param storage
+   * @param users users to import, a username is generated for users without one
+   * @param upsert whether existing users of the storage are updated, they are rejected otherwise
+   * @param results receives the response of each user, in the order of users. A rejected user gets
+   *     a KO response holding the exception.
+   * @throws UserStorageNotFoundException if the storage does not exist in the realm
+   */
+  void importUsers(
+      String realm,
+      String storage,
+      Iterator<User> users,
+      boolean upsert,
+      ProviderRequest providerRequest,
+      Consumer<ProviderResponse> results);
+
   /**
    * Delete an existing user (if the user already exists in the realm)
    *
@@ -97,6 +122,22 @@ public interface UserService {
       SearchType typeRecherche,
       boolean fuzzySearchEnabled);
 
+  /**
+   * Stream all users matching criterias in a realm, without paging nor output size limit. Users
+   * are read while the stream is consumed, the stream must be closed once used. When streaming
+   * every userstorage, the stream should be consumed with forEachOrdered : iterating it holds the
+   * users of a whole userstorage in memory.
+   *
+   * @param realm
+   * @param storageName if null, users of every userstorage of the realm are streamed one
+   *     userstorage after the other
+   * @param userProperties
+   * @param typeRecherche
+   * @return a stream of users
+   */
+  Stream<User> streamByProperties(
+      String realm, String storageName, User userProperties, SearchType typeRecherche);
+
   /**
    * Allow to add only the app-managed attribute of an user, this attribute must follow the
    * app-managed-pattern. All attribute are needed
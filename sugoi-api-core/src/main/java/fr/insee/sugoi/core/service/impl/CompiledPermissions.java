@@ -0,0 +1,102 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.service.impl;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The permissions of a set of roles, compiled once and shared by every request made with these
+ * roles. Roles are upper cased once, the roles which can match the templates of a permission level
+ * are selected on the first check of this level, and each decision, identified by the permission
+ * level and the realm, userstorage, application and group it applies to, is computed once and then
+ * read from a map.
+ */
+final class CompiledPermissions {
+
+  /** Decisions are only kept up to this number, as realms and groups can come from requests */
+  private static final int MAX_CACHED_DECISIONS = 4096;
+
+  private final List<String> roles;
+  private final Set<String> roleSet;
+  private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+  private final Map<RoleTemplateMatcher, RoleTemplateMatcher.Selection> selections =
+      new ConcurrentHashMap<>();
+  private final Map<RoleTemplateMatcher, List<String>> rights = new ConcurrentHashMap<>();
+
+  CompiledPermissions(List<String> roles) {
+    this.roles = roles.stream().map(String::toUpperCase).toList();
+    this.roleSet = new HashSet<>(this.roles);
+  }
+
+  List<String> getRoles() {
+    return roles;
+  }
+
+  boolean hasRole(String role) {
+    return roleSet.contains(role.toUpperCase());
+  }
+
+  /**
+   * @param matcher the role templates of a permission level
+   * @return true if one of the roles matches one of the templates for this scope
+   */
+  boolean hasAnyRole(
+      RoleTemplateMatcher matcher,
+      String realm,
+      String userStorage,
+      String application,
+      String group) {
+    return matcher.matches(
+        selections.computeIfAbsent(matcher, key -> key.select(roles)),
+        realm,
+        userStorage,
+        application,
+        group);
+  }
+
+  /**
+   * Get a decision, computing it on the first call. The computation may itself get other decisions.
+   *
+   * @param decider computes the decision
+   * @param level the permission level checked
+   * @param scope realm, userstorage, application or group the decision applies to, may be null
+   */
+  boolean decide(Supplier<Boolean> decider, String level, String... scope) {
+    StringBuilder key = new StringBuilder(level);
+    for (String value : scope) {
+      key.append('\0').append(value != null ? value : "\1");
+    }
+    Boolean decision = decisions.get(key.toString());
+    if (decision == null) {
+      decision = decider.get();
+      if (decisions.size() < MAX_CACHED_DECISIONS) {
+        decisions.put(key.toString(), decision);
+      }
+    }
+    return decision;
+  }
+
+  /**
+   * @param matcher the role templates of a permission level
+   * @return the rights given by the roles on this level, computed on the first call
+   */
+  List<String> getRights(RoleTemplateMatcher matcher) {
+    return rights.computeIfAbsent(matcher, key -> List.copyOf(key.getRights(roles)));
+  }
+}
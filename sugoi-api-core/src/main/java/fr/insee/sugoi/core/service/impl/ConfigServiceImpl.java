@@ -16,6 +16,7 @@ package fr.insee.sugoi.core.service.impl;
 import fr.insee.sugoi.core.model.ProviderRequest;
 import fr.insee.sugoi.core.model.ProviderResponse;
 import fr.insee.sugoi.core.model.ProviderResponse.ProviderResponseStatus;
+import fr.insee.sugoi.core.realm.RealmChangeBus;
 import fr.insee.sugoi.core.realm.RealmProvider;
 import fr.insee.sugoi.core.service.ConfigService;
 import fr.insee.sugoi.model.Realm;
@@ -30,6 +31,8 @@ public class ConfigServiceImpl implements ConfigService {
 
   @Autowired private RealmProvider realmProvider;
 
+  @Autowired private RealmChangeBus realmChangeBus;
+
   @Override
   public Realm getRealm(String name) {
     return realmProvider.load(name).orElseThrow(() -> new RealmNotFoundException(name));
@@ -42,12 +45,15 @@ public class ConfigServiceImpl implements ConfigService {
 
   @Override
   public ProviderResponse deleteRealm(String realmName, ProviderRequest providerRequest) {
-    return realmProvider.deleteRealm(realmName, providerRequest);
+    ProviderResponse response = realmProvider.deleteRealm(realmName, providerRequest);
+    publishChange(realmName, response);
+    return response;
   }
 
   @Override
   public ProviderResponse updateRealm(Realm realm, ProviderRequest providerRequest) {
     ProviderResponse response = realmProvider.updateRealm(realm, providerRequest);
+    publishChange(realm.getName(), response);
     if (!providerRequest.isAsynchronousAllowed()
         && response.getStatus().equals(ProviderResponseStatus.OK)) {
       response.setEntity(getRealm(realm.getName()));
@@ -58,10 +64,18 @@ public class ConfigServiceImpl implements ConfigService {
   @Override
   public ProviderResponse createRealm(Realm realm, ProviderRequest providerRequest) {
     ProviderResponse response = realmProvider.createRealm(realm, providerRequest);
+    publishChange(realm.getName(), response);
     if (!providerRequest.isAsynchronousAllowed()
         && response.getStatus().equals(ProviderResponseStatus.OK)) {
       response.setEntity(getRealm(realm.getName()));
     }
     return response;
   }
+
+  /** Changes of realms are applied to the stores and to the other instances once done */
+  private void publishChange(String realmName, ProviderResponse response) {
+    if (response.getStatus().equals(ProviderResponseStatus.OK)) {
+      realmChangeBus.publish(realmName, null);
+    }
+  }
 }
@@ -21,16 +21,28 @@ import fr.insee.sugoi.core.realm.RealmProvider;
 import fr.insee.sugoi.core.service.GroupService;
 import fr.insee.sugoi.core.service.UserService;
 import fr.insee.sugoi.core.store.StoreProvider;
+import fr.insee.sugoi.core.store.WriterStore;
 import fr.insee.sugoi.model.Group;
 import fr.insee.sugoi.model.Realm;
 import fr.insee.sugoi.model.User;
+import fr.insee.sugoi.model.UserStorage;
+import fr.insee.sugoi.model.exceptions.ApplicationNotFoundException;
 import fr.insee.sugoi.model.exceptions.GroupNotFoundException;
 import fr.insee.sugoi.model.exceptions.ManagerGroupNotFoundException;
 import fr.insee.sugoi.model.exceptions.RealmNotFoundException;
+import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
 import fr.insee.sugoi.model.paging.SearchType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -42,22 +54,38 @@ public class GroupServiceImpl implements GroupService {
 
   @Autowired private RealmProvider realmProvider;
 
+  @Value("${fr.insee.sugoi.api.self-managed.cache.ttl:30000}")
+  private long selfManagedCacheTtl;
+
+  /** Self-managed groups are only kept up to this number */
+  private static final int SELF_MANAGED_CACHE_MAX_SIZE = 10000;
+
+  /** Whether groups are self-managed, with the time it was read, by realm, application and group */
+  private final Map<String, CachedFlag> selfManagedCache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFlag> eldest) {
+          return size() > SELF_MANAGED_CACHE_MAX_SIZE;
+        }
+      };
+
   @Override
   public ProviderResponse create(
       String realm, String appName, Group group, ProviderRequest providerRequest) {
     ProviderResponse response =
         storeProvider.getWriterStore(realm).createGroup(appName, group, providerRequest);
-    if (!providerRequest.isAsynchronousAllowed()
-        && response.getStatus().equals(ProviderResponseStatus.OK)) {
-      response.setEntity(findById(realm, appName, group.getName()));
-    }
+    invalidateSelfManaged(realm, appName, group.getName());
+    setWrittenGroup(realm, appName, group.getName(), response, providerRequest);
     return response;
   }
 
   @Override
   public ProviderResponse delete(
       String realm, String appName, String id, ProviderRequest providerRequest) {
-    return storeProvider.getWriterStore(realm).deleteGroup(appName, id, providerRequest);
+    ProviderResponse response =
+        storeProvider.getWriterStore(realm).deleteGroup(appName, id, providerRequest);
+    invalidateSelfManaged(realm, appName, id);
+    return response;
   }
 
   @Override
@@ -68,6 +96,32 @@ public class GroupServiceImpl implements GroupService {
         .orElseThrow(() -> new GroupNotFoundException(realm, appName, id));
   }
 
+  @Override
+  public boolean isSelfManaged(String realm, String appName, String id) {
+    String key = getSelfManagedKey(realm, appName, id);
+    long now = System.nanoTime();
+    synchronized (selfManagedCache) {
+      CachedFlag cached = selfManagedCache.get(key);
+      if (cached != null
+          && now - cached.readTime < TimeUnit.MILLISECONDS.toNanos(selfManagedCacheTtl)) {
+        return cached.flag;
+      }
+    }
+    boolean isSelfManaged;
+    try {
+      isSelfManaged =
+          storeProvider.getReaderStore(realm).isGroupSelfManaged(appName, id).orElse(false);
+    } catch (ApplicationNotFoundException | GroupNotFoundException e) {
+      isSelfManaged = false;
+    }
+    if (selfManagedCacheTtl > 0) {
+      synchronized (selfManagedCache) {
+        selfManagedCache.put(key, new CachedFlag(isSelfManaged, now));
+      }
+    }
+    return isSelfManaged;
+  }
+
   @Override
   public PageResult<Group> findByProperties(
       String realm, String appName, Group groupFilter, PageableResult pageableResult) {
@@ -86,13 +140,30 @@ public class GroupServiceImpl implements GroupService {
       String realm, String appName, Group group, ProviderRequest providerRequest) {
     ProviderResponse response =
         storeProvider.getWriterStore(realm).updateGroup(appName, group, providerRequest);
-    if (!providerRequest.isAsynchronousAllowed()
-        && response.getStatus().equals(ProviderResponseStatus.OK)) {
-      response.setEntity(findById(realm, appName, group.getName()));
-    }
+    invalidateSelfManaged(realm, appName, group.getName());
+    setWrittenGroup(realm, appName, group.getName(), response, providerRequest);
     return response;
   }
 
+  /**
+   * Set the group as written in the response of a synchronous write, unless the caller asked for a
+   * minimal response. The group is only read again if the writer store did not return it.
+   */
+  private void setWrittenGroup(
+      String realm,
+      String appName,
+      String id,
+      ProviderResponse response,
+      ProviderRequest providerRequest) {
+    if (providerRequest.isAsynchronousAllowed()
+        || providerRequest.isMinimalResponse()
+        || !response.getStatus().equals(ProviderResponseStatus.OK)) {
+      response.setEntity(null);
+    } else if (!(response.getEntity() instanceof Group)) {
+      response.setEntity(findById(realm, appName, id));
+    }
+  }
+
   @Override
   public ProviderResponse addUserToGroup(
       String realm,
@@ -127,6 +198,123 @@ public class GroupServiceImpl implements GroupService {
         .deleteUserFromGroup(appName, groupName, userId, providerRequest);
   }
 
+  @Override
+  public ProviderResponse addUsersToGroup(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest) {
+    return writeGroupMembers(
+        realm,
+        storage,
+        userIds,
+        groupName,
+        false,
+        (writerStore, storageUserIds) ->
+            writerStore.addUsersToGroup(appName, groupName, storageUserIds, providerRequest));
+  }
+
+  @Override
+  public ProviderResponse deleteUsersFromGroup(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest) {
+    return writeGroupMembers(
+        realm,
+        storage,
+        userIds,
+        groupName,
+        false,
+        (writerStore, storageUserIds) ->
+            writerStore.deleteUsersFromGroup(appName, groupName, storageUserIds, providerRequest));
+  }
+
+  @Override
+  public ProviderResponse replaceGroupMembers(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String appName,
+      String groupName,
+      ProviderRequest providerRequest) {
+    return writeGroupMembers(
+        realm,
+        storage,
+        userIds,
+        groupName,
+        true,
+        (writerStore, storageUserIds) ->
+            writerStore.replaceGroupMembers(appName, groupName, storageUserIds, providerRequest));
+  }
+
+  /**
+   * Write the members of each userstorage with a single call to its writer store. Userstorages
+   * without any of the users are written only if allStorages is set, as needed to replace the
+   * members. The response is the first one which is not OK, or the last one.
+   */
+  private ProviderResponse writeGroupMembers(
+      String realm,
+      String storage,
+      List<String> userIds,
+      String groupName,
+      boolean allStorages,
+      BiFunction<WriterStore, List<String>, ProviderResponse> write) {
+    ProviderResponse response = null;
+    for (Map.Entry<String, List<String>> storageUserIds :
+        getUserIdsByStorage(realm, storage, userIds).entrySet()) {
+      if (allStorages || !storageUserIds.getValue().isEmpty()) {
+        ProviderResponse storageResponse =
+            write.apply(
+                storeProvider.getWriterStore(realm, storageUserIds.getKey()),
+                storageUserIds.getValue());
+        if (response == null || response.getStatus().equals(ProviderResponseStatus.OK)) {
+          response = storageResponse;
+        }
+      }
+    }
+    if (response == null) {
+      response = new ProviderResponse();
+      response.setStatus(ProviderResponseStatus.OK);
+      response.setEntityId(groupName);
+    }
+    return response;
+  }
+
+  /**
+   * @return the ids of the users of each userstorage of the realm, or all the ids for storage if it
+   *     is set
+   * @throws UserNotFoundException if a user is in no userstorage
+   */
+  private Map<String, List<String>> getUserIdsByStorage(
+      String realm, String storage, List<String> userIds) {
+    Map<String, List<String>> userIdsByStorage = new LinkedHashMap<>();
+    if (storage != null) {
+      userIdsByStorage.put(storage, userIds);
+      return userIdsByStorage;
+    }
+    Realm r = realmProvider.load(realm).orElseThrow(() -> new RealmNotFoundException(realm));
+    List<String> remainingIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+    for (UserStorage userStorage : r.getUserStorages()) {
+      List<String> storageUserIds =
+          remainingIds.isEmpty()
+              ? new ArrayList<>()
+              : storeProvider
+                  .getReaderStore(realm, userStorage.getName())
+                  .getExistingUserIds(remainingIds);
+      userIdsByStorage.put(userStorage.getName(), storageUserIds);
+      remainingIds.removeAll(storageUserIds);
+    }
+    if (!remainingIds.isEmpty()) {
+      throw new UserNotFoundException(realm, remainingIds.get(0));
+    }
+    return userIdsByStorage;
+  }
+
   @Override
   public ProviderResponse addUserToGroupManager(
       String realm,
@@ -166,4 +354,24 @@ public class GroupServiceImpl implements GroupService {
         .getManagerGroup(applicationName)
         .orElseThrow(() -> new ManagerGroupNotFoundException(realm, applicationName));
   }
+
+  private void invalidateSelfManaged(String realm, String appName, String id) {
+    synchronized (selfManagedCache) {
+      selfManagedCache.remove(getSelfManagedKey(realm, appName, id));
+    }
+  }
+
+  private static String getSelfManagedKey(String realm, String appName, String id) {
+    return (realm + "\0" + appName + "\0" + id).toLowerCase();
+  }
+
+  private static class CachedFlag {
+    private final boolean flag;
+    private final long readTime;
+
+    private CachedFlag(boolean flag, long readTime) {
+      this.flag = flag;
+      this.readTime = readTime;
+    }
+  }
 }
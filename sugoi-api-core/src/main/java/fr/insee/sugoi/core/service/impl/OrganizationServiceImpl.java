@@ -69,6 +69,14 @@ public class OrganizationServiceImpl implements OrganizationService {
 
   @Override
   public Organization findById(String realm, String storage, String id) {
+    return findById(realm, storage, id, false);
+  }
+
+  /**
+   * Binaries such as the gpg key are only retrieved when withBinaries is set, they are left out of
+   * other reads.
+   */
+  private Organization findById(String realm, String storage, String id, boolean withBinaries) {
     Realm r = realmProvider.load(realm).orElseThrow(() -> new RealmNotFoundException(realm));
     String nonNullStorage =
         storage != null
@@ -78,10 +86,11 @@ public class OrganizationServiceImpl implements OrganizationService {
                 .findFirst()
                 .orElseThrow(() -> new OrganizationNotFoundException(realm, id))
                 .getName();
+    ReaderStore readerStore = storeProvider.getReaderStore(realm, nonNullStorage);
     Organization org =
-        storeProvider
-            .getReaderStore(realm, nonNullStorage)
-            .getOrganization(id)
+        (withBinaries
+                ? readerStore.getOrganizationWithBinaries(id)
+                : readerStore.getOrganization(id))
             .orElseThrow(() -> new OrganizationNotFoundException(realm, id));
     org.addMetadatas(EventKeysConfig.REALM, realm.toLowerCase());
     org.addMetadatas(EventKeysConfig.USERSTORAGE, nonNullStorage.toLowerCase());
@@ -166,12 +175,12 @@ public class OrganizationServiceImpl implements OrganizationService {
       String realm, String storage, String id, ProviderRequest providerRequest) {
     return storeProvider
         .getWriterStore(realm, storage)
-        .deleteOrganizationGpgKey(findById(realm, storage, id), providerRequest);
+        .deleteOrganizationGpgKey(findById(realm, storage, id, true), providerRequest);
   }
 
   @Override
   public byte[] getGpgkey(String realm, String storage, String id) {
-    return findById(realm, storage, id).getGpgkey();
+    return findById(realm, storage, id, true).getGpgkey();
   }
 
   @Override
@@ -14,21 +14,17 @@
 package fr.insee.sugoi.core.service.impl;
 
 import fr.insee.sugoi.core.model.SugoiUser;
-import fr.insee.sugoi.core.service.ApplicationService;
 import fr.insee.sugoi.core.service.GroupService;
 import fr.insee.sugoi.core.service.PermissionService;
-import fr.insee.sugoi.model.exceptions.ApplicationNotFoundException;
-import fr.insee.sugoi.model.exceptions.GroupNotFoundException;
+import jakarta.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.text.StrSubstitutor;
-import org.apache.commons.lang3.BooleanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,8 +34,6 @@ import org.springframework.stereotype.Service;
 @Service
 public class PermissionServiceImpl implements PermissionService {
 
-  @Autowired ApplicationService applicationService;
-
   @Autowired GroupService groupService;
 
   @Value("${fr.insee.sugoi.api.regexp.role.reader:}")
@@ -66,189 +60,218 @@ public class PermissionServiceImpl implements PermissionService {
   @Value("${fr.insee.sugoi.api.regexp.role.group.manager:}")
   private List<String> groupManagerRoleList;
 
+  @Value("${fr.insee.sugoi.api.permissions.cache.ttl:300000}")
+  private long permissionsCacheTtl;
+
+  @Value("${fr.insee.sugoi.api.permissions.cache.max-size:10000}")
+  private int permissionsCacheMaxSize;
+
   public static final Logger logger = LoggerFactory.getLogger(PermissionServiceImpl.class);
 
+  private RoleTemplateMatcher readerMatcher;
+  private RoleTemplateMatcher writerMatcher;
+  private RoleTemplateMatcher adminRealmMatcher;
+  private RoleTemplateMatcher adminMatcher;
+  private RoleTemplateMatcher passwordManagerMatcher;
+  private RoleTemplateMatcher passwordValidatorMatcher;
+  private RoleTemplateMatcher applicationManagerMatcher;
+  private RoleTemplateMatcher groupManagerMatcher;
+
+  /**
+   * Compiled permissions by roles. A principal keeps the same roles as long as its token or session
+   * is valid, so its permissions are compiled on its first request and then reused.
+   */
+  private final Map<List<String>, CachedPermissions> permissionsCache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, CachedPermissions> eldest) {
+          return size() > permissionsCacheMaxSize;
+        }
+      };
+
+  @PostConstruct
+  public void compileRoleTemplates() {
+    readerMatcher = RoleTemplateMatcher.compile(regexpReaderList);
+    writerMatcher = RoleTemplateMatcher.compile(regexpWriterList);
+    adminRealmMatcher = RoleTemplateMatcher.compile(regexpAdminRealmList);
+    adminMatcher = RoleTemplateMatcher.compile(adminRoleList);
+    passwordManagerMatcher = RoleTemplateMatcher.compile(passwordManagerRoleList);
+    passwordValidatorMatcher = RoleTemplateMatcher.compile(passwordValidatorRoleList);
+    applicationManagerMatcher = RoleTemplateMatcher.compile(applicationManagerRoleList);
+    groupManagerMatcher = RoleTemplateMatcher.compile(groupManagerRoleList);
+  }
+
   @Override
   public boolean isReader(SugoiUser sugoiUser, String realm, String userStorage) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, userStorage, null, null, regexpReaderList);
-    return this.checkIfUserGetRoles(sugoiUser, searchRoleList)
-        || isWriter(sugoiUser, realm, userStorage);
+    return isReader(getPermissions(sugoiUser), realm, userStorage);
+  }
+
+  private boolean isReader(CompiledPermissions permissions, String realm, String userStorage) {
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(permissions, readerMatcher, realm, userStorage, null, null)
+                || isWriter(permissions, realm, userStorage),
+        "reader",
+        realm,
+        userStorage);
   }
 
   @Override
   public boolean isPasswordManager(SugoiUser sugoiUser, String realm, String userStorage) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, userStorage, null, null, passwordManagerRoleList);
-    return checkIfUserGetRoles(sugoiUser, searchRoleList);
+    CompiledPermissions permissions = getPermissions(sugoiUser);
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(
+                permissions, passwordManagerMatcher, realm, userStorage, null, null),
+        "passwordManager",
+        realm,
+        userStorage);
   }
 
   @Override
   public boolean isPasswordValidator(SugoiUser sugoiUser, String realm, String userStorage) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, userStorage, null, null, passwordValidatorRoleList);
-    return checkIfUserGetRoles(sugoiUser, searchRoleList);
+    CompiledPermissions permissions = getPermissions(sugoiUser);
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(
+                permissions, passwordValidatorMatcher, realm, userStorage, null, null),
+        "passwordValidator",
+        realm,
+        userStorage);
   }
 
   @Override
   public boolean isApplicationManager(SugoiUser sugoiUser, String realm, String application) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, null, application, null, applicationManagerRoleList);
-    return checkIfUserGetRoles(sugoiUser, searchRoleList);
+    CompiledPermissions permissions = getPermissions(sugoiUser);
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(
+                permissions, applicationManagerMatcher, realm, null, application, null),
+        "applicationManager",
+        realm,
+        application);
   }
 
   public boolean isMemberOfSelfManagedGroup(
       SugoiUser sugoiUser, String realm, String application, String groupName) {
-    try {
-      var group = groupService.findById(realm, application, groupName);
-      if (group == null) {
-        return false;
-      }
-      Boolean isGroupSelfManaged = group.getIsSelfManaged();
-      return BooleanUtils.isTrue(
-              (isGroupSelfManaged == null
-                  ? applicationService.findById(realm, application).getIsSelfManagedGroupsApp()
-                  : isGroupSelfManaged))
-          && sugoiUser.getRoles().stream().anyMatch(r -> r.equalsIgnoreCase("ROLE_" + groupName));
-    } catch (GroupNotFoundException | ApplicationNotFoundException e) {
-      return false;
-    }
+    return getPermissions(sugoiUser).hasRole("ROLE_" + groupName)
+        && groupService.isSelfManaged(realm, application, groupName);
   }
 
   @Override
   public boolean isGroupManager(
       SugoiUser sugoiUser, String realm, String application, String groupName) {
-    return checkIfUserGetRoles(
-        sugoiUser, getSearchRoleList(realm, null, application, groupName, groupManagerRoleList));
+    CompiledPermissions permissions = getPermissions(sugoiUser);
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(
+                permissions, groupManagerMatcher, realm, null, application, groupName),
+        "groupManager",
+        realm,
+        application,
+        groupName);
   }
 
   @Override
   public boolean isWriter(SugoiUser sugoiUser, String realm, String userStorage) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, userStorage, null, null, regexpWriterList);
-    return checkIfUserGetRoles(sugoiUser, searchRoleList)
-        || this.isAdminRealm(sugoiUser, realm, userStorage);
+    return isWriter(getPermissions(sugoiUser), realm, userStorage);
+  }
+
+  private boolean isWriter(CompiledPermissions permissions, String realm, String userStorage) {
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(permissions, writerMatcher, realm, userStorage, null, null)
+                || isAdminRealm(permissions, realm, userStorage),
+        "writer",
+        realm,
+        userStorage);
   }
 
   @Override
   public boolean isAdminRealm(SugoiUser sugoiUser, String realm, String userStorage) {
-    List<String> searchRoleList =
-        getSearchRoleList(realm, userStorage, null, null, regexpAdminRealmList);
-    return checkIfUserGetRoles(sugoiUser, searchRoleList) || isAdmin(sugoiUser);
+    return isAdminRealm(getPermissions(sugoiUser), realm, userStorage);
+  }
+
+  private boolean isAdminRealm(CompiledPermissions permissions, String realm, String userStorage) {
+    return permissions.decide(
+        () ->
+            checkIfUserGetRoles(permissions, adminRealmMatcher, realm, userStorage, null, null)
+                || isAdmin(permissions),
+        "adminRealm",
+        realm,
+        userStorage);
   }
 
   @Override
   public boolean isAdmin(SugoiUser sugoiUser) {
-    return checkIfUserGetRoles(sugoiUser, adminRoleList);
+    return isAdmin(getPermissions(sugoiUser));
   }
 
-  private boolean checkIfUserGetRoles(SugoiUser sugoiUser, List<String> rolesSearch) {
-    logger.debug("Checking if user {} is in : {}", sugoiUser.getName(), rolesSearch);
-    List<String> roles =
-        sugoiUser.getRoles().stream().map(String::toUpperCase).collect(Collectors.toList());
-    logger.debug("User roles: {}", roles);
-    for (String roleSearch : rolesSearch) {
-      logger.trace(roleSearch);
-      if (roles.contains(roleSearch.toUpperCase())) {
-        return true;
-      }
-      for (String role : roles) {
-        if (role.toUpperCase().matches(roleSearch.replace("*", ".*").toUpperCase())) {
-          return true;
-        }
+  private boolean isAdmin(CompiledPermissions permissions) {
+    return permissions.decide(
+        () -> checkIfUserGetRoles(permissions, adminMatcher, null, null, null, null), "admin");
+  }
+
+  private boolean checkIfUserGetRoles(
+      CompiledPermissions permissions,
+      RoleTemplateMatcher matcher,
+      String realm,
+      String userStorage,
+      String application,
+      String group) {
+    logger.debug(
+        "Checking if roles {} are in : {} for realm {}, userStorage {}, application {}, group {}",
+        permissions.getRoles(),
+        matcher.getTemplates(),
+        realm,
+        userStorage,
+        application,
+        group);
+    return permissions.hasAnyRole(matcher, realm, userStorage, application, group);
+  }
+
+  /**
+   * @return the compiled permissions of the roles of sugoiUser, from the cache if they have been
+   *     compiled less than fr.insee.sugoi.api.permissions.cache.ttl milliseconds ago
+   */
+  private CompiledPermissions getPermissions(SugoiUser sugoiUser) {
+    List<String> roles = sugoiUser.getRoles() != null ? sugoiUser.getRoles() : List.of();
+    if (permissionsCacheMaxSize <= 0 || permissionsCacheTtl <= 0) {
+      return new CompiledPermissions(roles);
+    }
+    long now = System.nanoTime();
+    synchronized (permissionsCache) {
+      CachedPermissions cached = permissionsCache.get(roles);
+      if (cached != null
+          && now - cached.compileTime < TimeUnit.MILLISECONDS.toNanos(permissionsCacheTtl)) {
+        return cached.permissions;
       }
     }
-    return false;
+    CompiledPermissions permissions = new CompiledPermissions(roles);
+    synchronized (permissionsCache) {
+      permissionsCache.put(new ArrayList<>(roles), new CachedPermissions(permissions, now));
+    }
+    return permissions;
   }
 
   @Override
   public List<String> getUserRealmReader(SugoiUser sugoiUser) {
-    return getUserRightList(sugoiUser, regexpReaderList);
+    return getPermissions(sugoiUser).getRights(readerMatcher);
   }
 
   @Override
   public List<String> getUserRealmWriter(SugoiUser sugoiUser) {
-    return getUserRightList(sugoiUser, regexpWriterList);
+    return getPermissions(sugoiUser).getRights(writerMatcher);
   }
 
   @Override
   public List<String> getUserRealmPasswordManager(SugoiUser sugoiUser) {
-    return getUserRightList(sugoiUser, passwordManagerRoleList);
+    return getPermissions(sugoiUser).getRights(passwordManagerMatcher);
   }
 
   @Override
   public List<String> getUserRealmAppManager(SugoiUser sugoiUser) {
-    return getUserRightList(sugoiUser, applicationManagerRoleList);
-  }
-
-  private List<String> getUserRightList(SugoiUser sugoiUser, List<String> regexpListToSearch) {
-    List<String> searchRoleList =
-        getSearchRoleList(
-                "(?<realm>.*)",
-                "(?<userStorage>.*)",
-                "(?<application>.*)",
-                "(?<group>.*)",
-                regexpListToSearch)
-            .stream()
-            .map(String::toUpperCase)
-            .collect(Collectors.toList());
-    List<String> roles =
-        sugoiUser.getRoles().stream()
-            .map(String::toUpperCase)
-            .map(
-                role -> {
-                  for (String searchRole : searchRoleList) {
-                    Pattern p = Pattern.compile(searchRole);
-                    Matcher m = p.matcher(role);
-                    if (m.matches()) {
-                      String realm = "";
-                      String userStorage = "";
-                      String application = "";
-                      try {
-                        realm = m.group("REALM");
-                      } catch (Exception e) {
-                      }
-                      try {
-                        userStorage = "_" + m.group("USERSTORAGE");
-                      } catch (Exception e) {
-                      }
-                      try {
-                        if (m.group("APPLICATION") != null) {
-                          if (realm.equals("")) {
-                            realm = "*";
-                            userStorage = "_*";
-                          }
-                          application = "\\" + m.group("APPLICATION");
-                        }
-                      } catch (Exception e) {
-                      }
-                      String res = realm + userStorage + application;
-                      return res;
-                    }
-                  }
-                  return null;
-                })
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-    return roles;
-  }
-
-  private List<String> getSearchRoleList(
-      String realm, String userStorage, String application, String group, List<String> regexpList) {
-    Map<String, String> valueMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    valueMap.put("realm", realm.toUpperCase());
-    if (userStorage != null) {
-      valueMap.put("userStorage", userStorage.toUpperCase());
-    }
-    if (application != null) {
-      valueMap.put("application", application);
-    }
-    if (group != null) {
-      valueMap.put("group", group);
-    }
-    return regexpList.stream()
-        .map(regexp -> StrSubstitutor.replace(regexp, valueMap, "$(", ")"))
-        .collect(Collectors.toList());
+    return getPermissions(sugoiUser).getRights(applicationManagerMatcher);
   }
 
   @Override
@@ -284,4 +307,14 @@ public class PermissionServiceImpl implements PermissionService {
     }
     return false;
   }
+
+  private static class CachedPermissions {
+    private final CompiledPermissions permissions;
+    private final long compileTime;
+
+    private CachedPermissions(CompiledPermissions permissions, long compileTime) {
+      this.permissions = permissions;
+      this.compileTime = compileTime;
+    }
+  }
 }
@@ -0,0 +1,266 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The role templates of a permission level, as set by the fr.insee.sugoi.api.regexp.role.*
+ * properties, compiled once. A template is a regular expression on upper cased roles, in which *
+ * matches anything and $(realm), $(userStorage), $(application) and $(group) are replaced by the
+ * scope of the permission checked.
+ *
+ * <p>All the templates are also compiled into a single pattern with a capture per placeholder,
+ * which tells in one pass whether a role matches one of the templates whatever the scope, and the
+ * scope it gives. A matcher is immutable apart from its cache of substituted templates and can be
+ * shared.
+ */
+public final class RoleTemplateMatcher {
+
+  private static final String[] PLACEHOLDER_NAMES = {
+    "realm", "userStorage", "application", "group"
+  };
+  private static final int REALM = 0;
+  private static final int USER_STORAGE = 1;
+  private static final int APPLICATION = 2;
+
+  private static final Pattern PLACEHOLDER =
+      Pattern.compile("\\$\\((realm|userStorage|application|group)\\)", Pattern.CASE_INSENSITIVE);
+
+  /** Substituted templates made of these characters only match a role equal to them */
+  private static final Pattern LITERAL = Pattern.compile("[A-Z0-9_\\-]*");
+
+  /** Substituted templates are only kept up to this number, as scopes can come from requests */
+  private static final int MAX_CACHED_PATTERNS = 1024;
+
+  private final List<Template> templates = new ArrayList<>();
+  private final Pattern combinedPattern;
+  private final Map<String, Pattern> substitutedPatterns = new ConcurrentHashMap<>();
+
+  private RoleTemplateMatcher(List<String> templates) {
+    List<String> branches = new ArrayList<>();
+    for (String template : templates) {
+      int index = this.templates.size();
+      Template compiledTemplate = new Template(template);
+      branches.add("(?<t" + index + ">" + compiledTemplate.toRegex(index) + ")");
+      this.templates.add(compiledTemplate);
+    }
+    combinedPattern = branches.isEmpty() ? null : Pattern.compile(String.join("|", branches));
+  }
+
+  /**
+   * @param templates role templates, in the order they are tried
+   * @return the compiled templates
+   * @throws java.util.regex.PatternSyntaxException if a template is not a valid regular expression
+   */
+  public static RoleTemplateMatcher compile(List<String> templates) {
+    return new RoleTemplateMatcher(templates != null ? templates : List.of());
+  }
+
+  public List<String> getTemplates() {
+    return templates.stream().map(template -> template.text).collect(Collectors.toList());
+  }
+
+  /**
+   * Select, for each template, the roles which match it for some scope. Roles matching none of the
+   * templates are discarded by the combined pattern.
+   *
+   * @param roles upper cased roles
+   * @return the selection to pass to matches
+   */
+  public Selection select(Collection<String> roles) {
+    List<List<String>> rolesByTemplate = new ArrayList<>();
+    for (int i = 0; i < templates.size(); i++) {
+      rolesByTemplate.add(new ArrayList<>());
+    }
+    if (combinedPattern != null) {
+      for (String role : roles) {
+        if (combinedPattern.matcher(role).matches()) {
+          for (int i = 0; i < templates.size(); i++) {
+            if (templates.get(i).pattern.matcher(role).matches()) {
+              rolesByTemplate.get(i).add(role);
+            }
+          }
+        }
+      }
+    }
+    return new Selection(rolesByTemplate);
+  }
+
+  /**
+   * @param selection roles selected by select
+   * @param realm may be null, as userStorage, application and group, in which case the placeholder
+   *     is left as is
+   * @return true if one of the roles matches one of the templates substituted with the scope
+   */
+  public boolean matches(
+      Selection selection, String realm, String userStorage, String application, String group) {
+    String[] values = {realm, userStorage, application, group};
+    for (int i = 0; i < templates.size(); i++) {
+      List<String> roles = selection.rolesByTemplate.get(i);
+      if (roles.isEmpty()) {
+        continue;
+      }
+      String substitutedTemplate = templates.get(i).substitute(values);
+      if (roles.contains(substitutedTemplate)) {
+        return true;
+      }
+      if (!LITERAL.matcher(substitutedTemplate).matches()) {
+        Pattern pattern = getSubstitutedPattern(substitutedTemplate);
+        for (String role : roles) {
+          if (pattern.matcher(role).matches()) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rights given by the roles, each written realm_userStorage\application depending on the
+   * placeholders of the template the role matches. A role giving an application without a realm
+   * gives it on *_*.
+   *
+   * @param roles upper cased roles
+   * @return the rights, in the order of roles
+   */
+  public List<String> getRights(Collection<String> roles) {
+    List<String> rights = new ArrayList<>();
+    if (combinedPattern == null) {
+      return rights;
+    }
+    for (String role : roles) {
+      Matcher m = combinedPattern.matcher(role);
+      if (m.matches()) {
+        int i = 0;
+        while (m.start("t" + i) < 0) {
+          i++;
+        }
+        Template template = templates.get(i);
+        String realm = "";
+        String userStorage = "";
+        String application = "";
+        if (template.hasPlaceholder(REALM)) {
+          realm = m.group(PLACEHOLDER_NAMES[REALM] + i);
+        }
+        if (template.hasPlaceholder(USER_STORAGE)) {
+          userStorage = "_" + m.group(PLACEHOLDER_NAMES[USER_STORAGE] + i);
+        }
+        if (template.hasPlaceholder(APPLICATION)) {
+          if (realm.equals("")) {
+            realm = "*";
+            userStorage = "_*";
+          }
+          application = "\\" + m.group(PLACEHOLDER_NAMES[APPLICATION] + i);
+        }
+        rights.add(realm + userStorage + application);
+      }
+    }
+    return rights;
+  }
+
+  private Pattern getSubstitutedPattern(String substitutedTemplate) {
+    Pattern pattern = substitutedPatterns.get(substitutedTemplate);
+    if (pattern == null) {
+      pattern = Pattern.compile(substitutedTemplate.replace("*", ".*"));
+      if (substitutedPatterns.size() < MAX_CACHED_PATTERNS) {
+        substitutedPatterns.putIfAbsent(substitutedTemplate, pattern);
+      }
+    }
+    return pattern;
+  }
+
+  /** Roles of a principal which match each template for some scope */
+  public static final class Selection {
+    private final List<List<String>> rolesByTemplate;
+
+    private Selection(List<List<String>> rolesByTemplate) {
+      this.rolesByTemplate = rolesByTemplate;
+    }
+  }
+
+  /** A template split on its placeholders */
+  private static final class Template {
+    private final String text;
+    private final List<String> literals = new ArrayList<>();
+    private final List<Integer> placeholders = new ArrayList<>();
+    private final List<String> unsetPlaceholders = new ArrayList<>();
+    private final Pattern pattern;
+
+    private Template(String template) {
+      text = template.toUpperCase();
+      Matcher m = PLACEHOLDER.matcher(text);
+      int last = 0;
+      while (m.find()) {
+        literals.add(text.substring(last, m.start()));
+        placeholders.add(indexOf(m.group(1)));
+        unsetPlaceholders.add(m.group());
+        last = m.end();
+      }
+      literals.add(text.substring(last));
+      pattern = Pattern.compile(toRegex(-1));
+    }
+
+    private static int indexOf(String placeholderName) {
+      for (int i = 0; i < PLACEHOLDER_NAMES.length; i++) {
+        if (PLACEHOLDER_NAMES[i].equalsIgnoreCase(placeholderName)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException(placeholderName);
+    }
+
+    private boolean hasPlaceholder(int placeholder) {
+      return placeholders.contains(placeholder);
+    }
+
+    /**
+     * @param index suffix of the capture names, to tell the templates apart in the combined
+     *     pattern, or -1 for no suffix
+     * @return the template as a regular expression with a capture per placeholder
+     */
+    private String toRegex(int index) {
+      String suffix = index >= 0 ? String.valueOf(index) : "";
+      StringBuilder regex = new StringBuilder(literals.get(0).replace("*", ".*"));
+      for (int i = 0; i < placeholders.size(); i++) {
+        String name = PLACEHOLDER_NAMES[placeholders.get(i)] + suffix;
+        if (placeholders.subList(0, i).contains(placeholders.get(i))) {
+          regex.append("\\k<").append(name).append(">");
+        } else {
+          regex.append("(?<").append(name).append(">.*)");
+        }
+        regex.append(literals.get(i + 1).replace("*", ".*"));
+      }
+      return regex.toString();
+    }
+
+    private String substitute(String[] values) {
+      StringBuilder substituted = new StringBuilder(literals.get(0));
+      for (int i = 0; i < placeholders.size(); i++) {
+        String value = values[placeholders.get(i)];
+        substituted.append(value != null ? value.toUpperCase() : unsetPlaceholders.get(i));
+        substituted.append(literals.get(i + 1));
+      }
+      return substituted.toString();
+    }
+  }
+}
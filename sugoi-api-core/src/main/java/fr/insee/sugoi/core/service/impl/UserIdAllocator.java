@@ -0,0 +1,153 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates the ids of the users created without one. Candidate ids are generated and checked by
+ * batches, and the free ids which are not used right away are kept in a small pool per realm,
+ * refilled in background, so that most creations do not check any id. Pooled ids are dropped after
+ * freeIdTtl milliseconds since a user may have been created with one of them meanwhile.
+ */
+class UserIdAllocator {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserIdAllocator.class);
+
+  /** Number of batches a background refill tries before giving up */
+  private static final int MAX_REFILL_BATCHES = 10;
+
+  private final int batchSize;
+  private final long freeIdTtl;
+  private final Executor executor;
+  private final Map<String, FreeIds> freeIdsByRealm = new ConcurrentHashMap<>();
+
+  /**
+   * @param batchSize number of candidate ids checked at once, also the size of the pools
+   * @param freeIdTtl time in milliseconds during which a checked id is considered free
+   * @param executor runs the background refills
+   */
+  UserIdAllocator(int batchSize, long freeIdTtl, Executor executor) {
+    this.batchSize = Math.max(1, batchSize);
+    this.freeIdTtl = freeIdTtl;
+    this.executor = executor;
+  }
+
+  /**
+   * @param realm the realm of the user
+   * @param idGenerator generates a random candidate id
+   * @param findUsedIds gives the candidate ids already used in the realm
+   * @return an id not used in the realm
+   */
+  String allocate(
+      String realm, Supplier<String> idGenerator, Function<List<String>, Set<String>> findUsedIds) {
+    FreeIds freeIds = freeIdsByRealm.computeIfAbsent(realm.toLowerCase(), k -> new FreeIds());
+    String id = freeIds.poll(freeIdTtl);
+    while (id == null) {
+      List<String> checkedIds = checkBatch(idGenerator, findUsedIds);
+      if (!checkedIds.isEmpty()) {
+        id = checkedIds.remove(0);
+        freeIds.addAll(checkedIds);
+      }
+    }
+    if (freeIds.size() <= batchSize / 2 && freeIds.startRefill()) {
+      executor.execute(
+          () -> {
+            try {
+              for (int i = 0; i < MAX_REFILL_BATCHES && freeIds.size() < batchSize; i++) {
+                freeIds.addAll(checkBatch(idGenerator, findUsedIds));
+              }
+            } catch (RuntimeException e) {
+              logger.warn("Failed to refill the free ids of realm {}", realm, e);
+            } finally {
+              freeIds.endRefill();
+            }
+          });
+    }
+    return id;
+  }
+
+  /** Generate a batch of candidates and return the free ones */
+  private List<String> checkBatch(
+      Supplier<String> idGenerator, Function<List<String>, Set<String>> findUsedIds) {
+    Set<String> candidates = new LinkedHashSet<>();
+    for (int i = 0; i < batchSize; i++) {
+      candidates.add(idGenerator.get());
+    }
+    List<String> checkedIds = new ArrayList<>(candidates);
+    Set<String> usedIds = findUsedIds.apply(checkedIds);
+    checkedIds.removeIf(
+        candidate -> usedIds.stream().anyMatch(usedId -> usedId.equalsIgnoreCase(candidate)));
+    return checkedIds;
+  }
+
+  private static class FreeIds {
+    private final Deque<FreeId> ids = new ArrayDeque<>();
+    private boolean refilling = false;
+
+    private synchronized String poll(long freeIdTtl) {
+      long now = System.currentTimeMillis();
+      FreeId freeId;
+      while ((freeId = ids.poll()) != null) {
+        if (now - freeId.checkTime < freeIdTtl) {
+          return freeId.id;
+        }
+      }
+      return null;
+    }
+
+    private synchronized void addAll(List<String> checkedIds) {
+      long now = System.currentTimeMillis();
+      checkedIds.forEach(id -> ids.add(new FreeId(id, now)));
+    }
+
+    private synchronized int size() {
+      return ids.size();
+    }
+
+    private synchronized boolean startRefill() {
+      if (refilling) {
+        return false;
+      }
+      refilling = true;
+      return true;
+    }
+
+    private synchronized void endRefill() {
+      refilling = false;
+    }
+  }
+
+  private static class FreeId {
+    private final String id;
+    private final long checkTime;
+
+    private FreeId(String id, long checkTime) {
+      this.id = id;
+      this.checkTime = checkTime;
+    }
+  }
+}
@@ -24,9 +24,11 @@ import fr.insee.sugoi.core.seealso.SeeAlsoService;
 import fr.insee.sugoi.core.service.UserService;
 import fr.insee.sugoi.core.store.ReaderStore;
 import fr.insee.sugoi.core.store.StoreProvider;
+import fr.insee.sugoi.core.store.impl.UserMembershipIndex;
 import fr.insee.sugoi.model.Realm;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.UserStorage;
+import fr.insee.sugoi.model.exceptions.InvalidSearchTokenException;
 import fr.insee.sugoi.model.exceptions.NoCertificateOnUserException;
 import fr.insee.sugoi.model.exceptions.RealmNotFoundException;
 import fr.insee.sugoi.model.exceptions.UnableToUpdateCertificateException;
@@ -37,10 +39,34 @@ import fr.insee.sugoi.model.exceptions.UserStorageNotFoundException;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
 import fr.insee.sugoi.model.paging.SearchType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.passay.CharacterRule;
 import org.passay.PasswordGenerator;
 import org.slf4j.Logger;
@@ -69,6 +95,31 @@ public class UserServiceImpl implements UserService {
 
   private boolean fuzzySearchAllowed = false;
 
+  /* Maximum number of userstorages searched at once on a realm, by all its searches together */
+  private int userSearchParallelism = 4;
+
+  /* Threads of userSearchExecutor each realm may still use, userSearchParallelism - 1 at most */
+  private final Map<String, Semaphore> userSearchPermits = new ConcurrentHashMap<>();
+
+  private final ExecutorService userSearchExecutor =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "user-search");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /* Number of generated ids checked at once, also the number of free ids kept per realm */
+  private int idCreateBatchSize = 10;
+
+  /* Time in milliseconds during which a checked id is kept as free */
+  private long idCreateFreeIdTtl = 60000;
+
+  /* Number of users checked and written at once by an import */
+  private int importBatchSize = 500;
+
+  private UserIdAllocator userIdAllocator;
+
   @Autowired private StoreProvider storeProvider;
 
   @Autowired private RealmProvider realmProvider;
@@ -76,6 +127,9 @@ public class UserServiceImpl implements UserService {
   @Autowired(required = false)
   private SeeAlsoService seeAlsoService;
 
+  @Autowired(required = false)
+  private UserMembershipIndex userMembershipIndex;
+
   protected static final Logger logger = LoggerFactory.getLogger(UserServiceImpl.class);
 
   @Override
@@ -86,60 +140,54 @@ public class UserServiceImpl implements UserService {
     if (!readerStoreAsynchronous) {
 
       Realm realmLoaded = realmProvider.load(realm).get();
+      // a generated id is already known to be unique
+      String usernameToCheck = user.getUsername();
       if (user.getUsername() == null) {
-        // generate id if null
-        boolean idGeneratedAndUnique = false;
-        do {
-          final String id = generateId(true, true, idCreateLength);
-          user.setUsername(id);
-          // unicity requiered at realm level
-          idGeneratedAndUnique =
-              realmLoaded.getUserStorages().stream()
-                  .map(us -> storeProvider.getReaderStore(realm, us.getName()).getUser(id))
-                  .noneMatch(Optional::isPresent);
-        } while (!idGeneratedAndUnique);
-      } else {
-        // check id unicity
-        if (realmLoaded.getUserStorages().stream()
-            .map(
-                us -> storeProvider.getReaderStore(realm, us.getName()).getUser(user.getUsername()))
-            .anyMatch(Optional::isPresent)) {
-          throw new UserAlreadyExistException(
-              "User " + user.getUsername() + " already exist in realm " + realm);
-        }
+        // generate id if null, unicity requiered at realm level
+        user.setUsername(
+            userIdAllocator.allocate(
+                realm,
+                () -> generateId(true, true, idCreateLength),
+                candidates -> findUsedIds(realm, realmLoaded, candidates)));
       }
-
       // check mail unicity if needed
-      if (Boolean.parseBoolean(
-              realmLoaded
-                  .getProperties()
-                  .getOrDefault(
-                      GlobalKeysConfig.VERIFY_MAIL_UNICITY,
-                      List.of(Boolean.toString(verifyUniqueMail)))
-                  .get(0))
-          && user.getMail() != null
-          && realmLoaded.getUserStorages().stream()
-              .map(
-                  us ->
-                      storeProvider
-                          .getReaderStore(realm, us.getName())
-                          .getUserByMail(user.getMail()))
-              .anyMatch(Optional::isPresent)) {
+      String mailToCheck =
+          Boolean.parseBoolean(
+                  realmLoaded
+                      .getProperties()
+                      .getOrDefault(
+                          GlobalKeysConfig.VERIFY_MAIL_UNICITY,
+                          List.of(Boolean.toString(verifyUniqueMail)))
+                      .get(0))
+              ? user.getMail()
+              : null;
+      // id and mail unicity are checked at once
+      List<String> usernames =
+          findUsernamesByUsernameOrMail(realm, realmLoaded, usernameToCheck, mailToCheck);
+      if (usernameToCheck != null
+          && usernames.stream().anyMatch(username -> username.equalsIgnoreCase(usernameToCheck))) {
+        throw new UserAlreadyExistException(
+            "User " + user.getUsername() + " already exist in realm " + realm);
+      }
+      if (!usernames.isEmpty()) {
         throw new UserAlreadyExistException(
             "A user has the same mail " + user.getMail() + " in realm " + realm);
       }
     }
 
+    // Recorded before the write so that the user is never missed by the membership filters
+    recordUser(realm, storage, user);
     ProviderResponse response =
         storeProvider.getWriterStore(realm, storage).createUser(user, providerRequest);
+    if (user.getUsername() == null && response.getEntityId() != null) {
+      recordUser(realm, storage, new User(response.getEntityId()));
+    }
 
-    // TODO Must be done here because at the provider level we don't have the
-    // readerstore
     if (!providerRequest.isAsynchronousAllowed()
         && response.getStatus().equals(ProviderResponseStatus.OK)) {
       user.setUsername(response.getEntityId());
-      response.setEntity(findById(realm, storage, user.getUsername(), false));
     }
+    setWrittenUser(realm, storage, user.getUsername(), response, providerRequest);
     return response;
   }
 
@@ -164,28 +212,212 @@ public class UserServiceImpl implements UserService {
                   .get(0))
           && user.getMail() != null
           && !user.getMail().isBlank()) {
-        if (realmLoaded.getUserStorages().stream()
-            .map(
-                us ->
-                    storeProvider.getReaderStore(realm, us.getName()).getUserByMail(user.getMail()))
-            .anyMatch(
-                u ->
-                    u.isPresent() && !u.get().getUsername().equalsIgnoreCase(user.getUsername()))) {
+        if (findUsernamesByUsernameOrMail(realm, realmLoaded, null, user.getMail()).stream()
+            .anyMatch(username -> !username.equalsIgnoreCase(user.getUsername()))) {
           throw new UserAlreadyExistException(
               "A user has the same mail " + user.getMail() + " in realm " + realm);
         }
       }
     }
 
+    recordUser(realm, storage, user);
     ProviderResponse response =
         storeProvider.getWriterStore(realm, storage).updateUser(user, providerRequest);
-    if (!providerRequest.isAsynchronousAllowed()
-        && response.getStatus().equals(ProviderResponseStatus.OK)) {
-      response.setEntity(findById(realm, storage, user.getUsername(), false));
-    }
+    setWrittenUser(realm, storage, user.getUsername(), response, providerRequest);
     return response;
   }
 
+  /**
+   * Users are imported by batches of importBatchSize. The usernames of a batch are checked with one
+   * search per userstorage, as well as its mails, and the accepted users are written with a single
+   * call to the writer store.
+   */
+  @Override
+  public void importUsers(
+      String realm,
+      String storage,
+      Iterator<User> users,
+      boolean upsert,
+      ProviderRequest providerRequest,
+      Consumer<ProviderResponse> results) {
+    Realm realmLoaded =
+        realmProvider.load(realm).orElseThrow(() -> new RealmNotFoundException(realm));
+    realmLoaded
+        .getUserStorageByName(storage)
+        .orElseThrow(() -> new UserStorageNotFoundException(realm, storage));
+    // usernames and mails of the previous batches, to reject duplicates within the import
+    Set<String> importedUsernames = new HashSet<>();
+    Set<String> importedMails = new HashSet<>();
+    List<User> batch = new ArrayList<>();
+    while (users.hasNext()) {
+      batch.add(users.next());
+      if (batch.size() >= importBatchSize || !users.hasNext()) {
+        importBatch(
+                realm,
+                realmLoaded,
+                storage,
+                batch,
+                upsert,
+                importedUsernames,
+                importedMails,
+                providerRequest)
+            .forEach(results);
+        batch = new ArrayList<>();
+      }
+    }
+  }
+
+  /** @return the responses of the users of the batch, in the order of the batch */
+  private List<ProviderResponse> importBatch(
+      String realm,
+      Realm realmLoaded,
+      String storage,
+      List<User> batch,
+      boolean upsert,
+      Set<String> importedUsernames,
+      Set<String> importedMails,
+      ProviderRequest providerRequest) {
+    Map<Integer, ProviderResponse> rejections = new HashMap<>();
+    if (!readerStoreAsynchronous) {
+      // generated ids are already known to be unique
+      List<String> usernamesToCheck =
+          batch.stream()
+              .map(User::getUsername)
+              .filter(Objects::nonNull)
+              .distinct()
+              .collect(Collectors.toList());
+      for (User user : batch) {
+        if (user.getUsername() == null) {
+          user.setUsername(
+              userIdAllocator.allocate(
+                  realm,
+                  () -> generateId(true, true, idCreateLength),
+                  candidates -> findUsedIds(realm, realmLoaded, candidates)));
+        }
+      }
+      Set<String> usedUsernames =
+          !usernamesToCheck.isEmpty()
+              ? findUsedIds(realm, realmLoaded, usernamesToCheck)
+              : Set.of();
+      // with upsert, users of the storage are updated but users of other storages are rejected
+      Set<String> storageUsernames =
+          upsert && !usedUsernames.isEmpty()
+              ? new HashSet<>(
+                  storeProvider
+                      .getReaderStore(realm, storage)
+                      .getExistingUserIds(new ArrayList<>(usedUsernames)))
+              : Set.of();
+      boolean checkMails =
+          Boolean.parseBoolean(
+              realmLoaded
+                  .getProperties()
+                  .getOrDefault(
+                      GlobalKeysConfig.VERIFY_MAIL_UNICITY,
+                      List.of(Boolean.toString(verifyUniqueMail)))
+                  .get(0));
+      Map<String, List<String>> usernamesByMail =
+          checkMails
+              ? findUsernamesByMails(
+                  realm,
+                  realmLoaded,
+                  batch.stream()
+                      .map(User::getMail)
+                      .filter(mail -> mail != null && !mail.isBlank())
+                      .collect(Collectors.toList()))
+              : Map.of();
+      for (int i = 0; i < batch.size(); i++) {
+        User user = batch.get(i);
+        String username = user.getUsername();
+        String mail =
+            checkMails && user.getMail() != null && !user.getMail().isBlank()
+                ? user.getMail().toLowerCase()
+                : null;
+        RuntimeException rejection = null;
+        if (!importedUsernames.add(username.toLowerCase())) {
+          rejection =
+              new UserAlreadyExistException(
+                  "User " + username + " appears several times in the import");
+        } else if (usedUsernames.contains(username) && !storageUsernames.contains(username)) {
+          rejection =
+              new UserAlreadyExistException(
+                  "User " + username + " already exist in realm " + realm);
+        } else if (mail != null
+            && (!importedMails.add(mail)
+                || usernamesByMail.getOrDefault(mail, List.of()).stream()
+                    .anyMatch(other -> !other.equalsIgnoreCase(username)))) {
+          rejection =
+              new UserAlreadyExistException(
+                  "A user has the same mail " + user.getMail() + " in realm " + realm);
+        }
+        if (rejection != null) {
+          rejections.put(
+              i, new ProviderResponse(username, null, ProviderResponseStatus.KO, null, rejection));
+        }
+      }
+    }
+    List<User> acceptedUsers = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (!rejections.containsKey(i)) {
+        acceptedUsers.add(batch.get(i));
+        // Recorded before the write so that the user is never missed by the membership filters
+        recordUser(realm, storage, batch.get(i));
+      }
+    }
+    List<ProviderResponse> writeResponses;
+    try {
+      writeResponses =
+          !acceptedUsers.isEmpty()
+              ? storeProvider
+                  .getWriterStore(realm, storage)
+                  .importUsers(acceptedUsers, upsert, providerRequest)
+              : List.of();
+    } catch (RuntimeException e) {
+      writeResponses =
+          acceptedUsers.stream()
+              .map(
+                  user ->
+                      new ProviderResponse(
+                          user.getUsername(), null, ProviderResponseStatus.KO, null, e))
+              .collect(Collectors.toList());
+    }
+    Iterator<ProviderResponse> writeResponsesIterator = writeResponses.iterator();
+    List<ProviderResponse> responses = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      responses.add(
+          rejections.containsKey(i) ? rejections.get(i) : writeResponsesIterator.next());
+    }
+    return responses;
+  }
+
+  /**
+   * Set the user as written in the response of a synchronous write, unless the caller asked for a
+   * minimal response. The user returned by the writer store is used when there is one, otherwise
+   * the user is read again.
+   */
+  private void setWrittenUser(
+      String realmName,
+      String storage,
+      String id,
+      ProviderResponse response,
+      ProviderRequest providerRequest) {
+    if (providerRequest.isAsynchronousAllowed()
+        || providerRequest.isMinimalResponse()
+        || !response.getStatus().equals(ProviderResponseStatus.OK)) {
+      response.setEntity(null);
+    } else if (response.getEntity() instanceof User) {
+      Realm realm =
+          realmProvider.load(realmName).orElseThrow(() -> new RealmNotFoundException(realmName));
+      UserStorage userStorage =
+          realm
+              .getUserStorageByName(storage)
+              .orElseThrow(() -> new UserStorageNotFoundException(realmName, storage));
+      response.setEntity(
+          decorateUser(realmName, realm, userStorage, (User) response.getEntity(), false));
+    } else {
+      response.setEntity(findById(realmName, storage, id, false));
+    }
+  }
+
   @Override
   public ProviderResponse delete(
       String realmName, String storage, String id, ProviderRequest providerRequest) {
@@ -195,22 +427,52 @@ public class UserServiceImpl implements UserService {
   @Override
   public User findById(
       String realmName, String storage, String id, boolean externalResolutionAllowed) {
+    return findById(realmName, storage, id, externalResolutionAllowed, false);
+  }
+
+  /**
+   * Binaries such as the certificate are only retrieved when withBinaries is set, they are left out
+   * of other reads.
+   */
+  private User findById(
+      String realmName,
+      String storage,
+      String id,
+      boolean externalResolutionAllowed,
+      boolean withBinaries) {
     Realm realm =
         realmProvider.load(realmName).orElseThrow(() -> new RealmNotFoundException(realmName));
-    UserStorage userStorage =
-        storage == null
-            ? realm.getUserStorages().stream()
-                .filter(us -> exist(realmName, us.getName(), id))
-                .findFirst()
-                .orElseThrow(() -> new UserNotFoundException(realmName, id))
-            : realm
-                .getUserStorageByName(storage)
-                .orElseThrow(() -> new UserStorageNotFoundException(realmName, storage));
-    User user =
-        storeProvider
-            .getReaderStore(realmName, userStorage.getName())
-            .getUser(id)
-            .orElseThrow(() -> new UserNotFoundException(realmName, userStorage.getName(), id));
+    Function<ReaderStore, Optional<User>> lookup =
+        readerStore -> withBinaries ? readerStore.getUserWithBinaries(id) : readerStore.getUser(id);
+    UserStorage userStorage;
+    User user;
+    if (storage == null) {
+      Map.Entry<UserStorage, User> found =
+          findOnUserStorages(
+                  realmName, realm, usName -> mayContainUsername(realmName, usName, id), lookup)
+              .orElseThrow(() -> new UserNotFoundException(realmName, id));
+      userStorage = found.getKey();
+      user = found.getValue();
+    } else {
+      userStorage =
+          realm
+              .getUserStorageByName(storage)
+              .orElseThrow(() -> new UserStorageNotFoundException(realmName, storage));
+      user =
+          lookup
+              .apply(storeProvider.getReaderStore(realmName, userStorage.getName()))
+              .orElseThrow(() -> new UserNotFoundException(realmName, storage, id));
+    }
+    return decorateUser(realmName, realm, userStorage, user, externalResolutionAllowed);
+  }
+
+  /** Complete a user read from a userstorage with its metadatas and computed attributes */
+  private User decorateUser(
+      String realmName,
+      Realm realm,
+      UserStorage userStorage,
+      User user,
+      boolean externalResolutionAllowed) {
     user.addMetadatas(GlobalKeysConfig.REALM.getName(), realmName.toLowerCase());
     user.addMetadatas(GlobalKeysConfig.USERSTORAGE.getName(), userStorage.getName().toLowerCase());
     userStorage
@@ -246,39 +508,440 @@ public class UserServiceImpl implements UserService {
                 .get(0)));
     result.setPageSize(pageable.getSize());
 
-    List<String> userStoragesToBrowse =
-        storage != null
-            ? List.of(storage)
-            : r.getUserStorages().stream().map(UserStorage::getName).collect(Collectors.toList());
-    for (String usName : userStoragesToBrowse) {
-      ReaderStore readerStore = storeProvider.getReaderStore(realm, usName);
-      PageResult<User> temResult =
-          fuzzySearchEnabled && fuzzySearchAllowed
-              ? readerStore.fuzzySearchUsers(userProperties, pageable, typeRecherche.name())
-              : readerStore.searchUsers(userProperties, pageable, typeRecherche.name());
-      temResult
-          .getResults()
-          .forEach(
-              user -> {
-                user.addMetadatas(EventKeysConfig.REALM, realm);
-                user.addMetadatas(EventKeysConfig.USERSTORAGE, usName);
-              });
-      result.getResults().addAll(temResult.getResults());
-      result.setTotalElements(
-          temResult.getTotalElements() == -1
-              ? temResult.getTotalElements()
-              : result.getTotalElements() + temResult.getTotalElements());
-      result.setSearchToken(temResult.getSearchToken());
-      result.setHasMoreResult(temResult.isHasMoreResult());
-      if (result.getResults().size() >= result.getPageSize()) {
-        return result;
-      }
-      pageable.setSize(pageable.getSize() - result.getTotalElements());
+    if (storage != null) {
+      PageResult<User> storageResult =
+          searchUserStorage(
+              realm, storage, userProperties, pageable, typeRecherche, fuzzySearchEnabled);
+      result.getResults().addAll(storageResult.getResults());
+      result.setTotalElements(storageResult.getTotalElements());
+      result.setSearchToken(storageResult.getSearchToken());
+      result.setHasMoreResult(storageResult.isHasMoreResult());
+      return result;
     }
 
+    // Userstorages still having results, with the token to resume their search
+    Map<String, String> pendingStorages = new LinkedHashMap<>();
+    if (pageable.getSearchToken() != null && !pageable.getSearchToken().isBlank()) {
+      pendingStorages.putAll(decodeSearchToken(pageable.getSearchToken()));
+    } else {
+      r.getUserStorages().forEach(us -> pendingStorages.put(us.getName(), null));
+    }
+    Map<String, List<User>> resultsByStorage = new LinkedHashMap<>();
+    // Each userstorage gives its whole total, it is only counted the first time it is searched
+    Set<String> countedStorages = new HashSet<>();
+    pendingStorages.keySet().forEach(usName -> resultsByStorage.put(usName, new ArrayList<>()));
+    int remaining = pageable.getSize();
+    // The remaining size is shared between the userstorages, storages exhausted before their
+    // share is reached leave room for another round on the others
+    while (remaining > 0 && !pendingStorages.isEmpty()) {
+      int share = (remaining + pendingStorages.size() - 1) / pendingStorages.size();
+      Map<String, PageableResult> pageables = new LinkedHashMap<>();
+      for (Map.Entry<String, String> pendingStorage : pendingStorages.entrySet()) {
+        int size = Math.min(share, remaining - pageables.size() * share);
+        if (size > 0) {
+          pageables.put(
+              pendingStorage.getKey(),
+              new PageableResult(size, pageable.getFirst(), pendingStorage.getValue()));
+        }
+      }
+      Map<String, PageResult<User>> storageResults =
+          searchUserStorages(realm, userProperties, pageables, typeRecherche, fuzzySearchEnabled);
+      for (Map.Entry<String, PageResult<User>> storageResult : storageResults.entrySet()) {
+        PageResult<User> temResult = storageResult.getValue();
+        resultsByStorage.get(storageResult.getKey()).addAll(temResult.getResults());
+        remaining -= temResult.getResults().size();
+        if (countedStorages.add(storageResult.getKey())) {
+          result.setTotalElements(
+              temResult.getTotalElements() == -1 || result.getTotalElements() == -1
+                  ? -1
+                  : result.getTotalElements() + temResult.getTotalElements());
+        }
+        if (temResult.isHasMoreResult() && temResult.getSearchToken() != null) {
+          pendingStorages.put(storageResult.getKey(), temResult.getSearchToken());
+        } else {
+          pendingStorages.remove(storageResult.getKey());
+        }
+      }
+      if (storageResults.values().stream()
+          .allMatch(temResult -> temResult.getResults().isEmpty())) {
+        break;
+      }
+    }
+    resultsByStorage.values().forEach(result.getResults()::addAll);
+    result.setHasMoreResult(!pendingStorages.isEmpty());
+    result.setSearchToken(pendingStorages.isEmpty() ? null : encodeSearchToken(pendingStorages));
     return result;
   }
 
+  /**
+   * Find which candidate ids are used in the realm, with one request per userstorage. Userstorages
+   * are checked concurrently, skipping the candidates the membership filters exclude.
+   */
+  private Set<String> findUsedIds(String realm, Realm realmLoaded, List<String> candidates) {
+    return new HashSet<>(
+        onUserStorages(
+            realmLoaded,
+            us -> {
+              List<String> storageCandidates =
+                  candidates.stream()
+                      .filter(candidate -> mayContainUsername(realm, us.getName(), candidate))
+                      .collect(Collectors.toList());
+              return !storageCandidates.isEmpty()
+                  ? storeProvider
+                      .getReaderStore(realm, us.getName())
+                      .getExistingUserIds(storageCandidates)
+                  : null;
+            }));
+  }
+
+  /**
+   * Find the usernames of the users of the realm having the username or the mail, with one request
+   * per userstorage. Userstorages are checked concurrently, skipping the username or the mail when
+   * the membership filters exclude them.
+   */
+  private List<String> findUsernamesByUsernameOrMail(
+      String realm, Realm realmLoaded, String username, String mail) {
+    if (username == null && mail == null) {
+      return new ArrayList<>();
+    }
+    return onUserStorages(
+        realmLoaded,
+        us -> {
+          String storageUsername =
+              mayContainUsername(realm, us.getName(), username) ? username : null;
+          String storageMail = mayContainMail(realm, us.getName(), mail) ? mail : null;
+          return storageUsername != null || storageMail != null
+              ? storeProvider
+                  .getReaderStore(realm, us.getName())
+                  .findUsernamesByUsernameOrMail(storageUsername, storageMail)
+              : null;
+        });
+  }
+
+  /**
+   * Find the usernames of the users of the realm having one of the mails, with one request per
+   * userstorage, skipping the mails the membership filters exclude.
+   *
+   * @return the usernames by lower cased mail
+   */
+  private Map<String, List<String>> findUsernamesByMails(
+      String realm, Realm realmLoaded, List<String> mails) {
+    Map<String, List<String>> usernamesByMail = new HashMap<>();
+    if (mails.isEmpty()) {
+      return usernamesByMail;
+    }
+    onUserStorages(
+            realmLoaded,
+            us -> {
+              List<String> storageMails =
+                  mails.stream()
+                      .filter(mail -> mayContainMail(realm, us.getName(), mail))
+                      .collect(Collectors.toList());
+              return !storageMails.isEmpty()
+                  ? List.of(
+                      storeProvider
+                          .getReaderStore(realm, us.getName())
+                          .findUsernamesByMails(storageMails))
+                  : null;
+            })
+        .forEach(
+            storageUsernamesByMail ->
+                storageUsernamesByMail.forEach(
+                    (mail, usernames) ->
+                        usernamesByMail
+                            .computeIfAbsent(mail, k -> new ArrayList<>())
+                            .addAll(usernames)));
+    return usernamesByMail;
+  }
+
+  /**
+   * Run a check on every userstorage of the realm, userstorages being dispatched between lanes as
+   * by runOnLanes.
+   *
+   * @param check gives the results of a userstorage, null if the userstorage does not need to be
+   *     checked
+   * @return the results of every userstorage, in the order of the userstorages
+   */
+  private <T> List<T> onUserStorages(Realm realmLoaded, Function<UserStorage, List<T>> check) {
+    List<UserStorage> userStorages = realmLoaded.getUserStorages();
+    Map<UserStorage, List<T>> results = new ConcurrentHashMap<>();
+    join(
+        runOnLanes(
+            realmLoaded.getName(),
+            userStorages,
+            us -> {
+              List<T> storageResults = check.apply(us);
+              if (storageResults != null) {
+                results.put(us, storageResults);
+              }
+              return true;
+            }));
+    return userStorages.stream()
+        .map(results::get)
+        .filter(Objects::nonNull)
+        .flatMap(List::stream)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Look a user up on every userstorage of the realm at once, userstorages being dispatched between
+   * lanes as by runOnLanes. The lookup stops as soon as the user is found, so the user is read only
+   * once. A failure on a userstorage is only thrown if the user is found nowhere.
+   *
+   * @return the userstorage where the user was found with the user
+   */
+  private Optional<Map.Entry<UserStorage, User>> findOnUserStorages(
+      String realmName,
+      Realm realm,
+      Predicate<String> mayContain,
+      Function<ReaderStore, Optional<User>> lookup) {
+    List<UserStorage> userStorages =
+        realm.getUserStorages().stream()
+            .filter(us -> mayContain.test(us.getName()))
+            .collect(Collectors.toList());
+    CompletableFuture<Map.Entry<UserStorage, User>> firstHit = new CompletableFuture<>();
+    runOnLanes(
+            realmName,
+            userStorages,
+            userStorage -> {
+              lookup
+                  .apply(storeProvider.getReaderStore(realmName, userStorage.getName()))
+                  .ifPresent(user -> firstHit.complete(Map.entry(userStorage, user)));
+              return !firstHit.isDone();
+            })
+        .whenComplete(
+            (done, failure) -> {
+              if (failure != null) {
+                firstHit.completeExceptionally(failure);
+              } else {
+                firstHit.complete(null);
+              }
+            });
+    return Optional.ofNullable(join(firstHit));
+  }
+
+  /**
+   * Search users on several userstorages at once, userstorages being dispatched between lanes as by
+   * runOnLanes.
+   *
+   * @return the results by userstorage, in the order of pageables
+   */
+  private Map<String, PageResult<User>> searchUserStorages(
+      String realm,
+      User userProperties,
+      Map<String, PageableResult> pageables,
+      SearchType typeRecherche,
+      boolean fuzzySearchEnabled) {
+    List<String> usNames = new ArrayList<>(pageables.keySet());
+    Map<String, PageResult<User>> storageResults = new ConcurrentHashMap<>();
+    join(
+        runOnLanes(
+            realm,
+            usNames,
+            usName -> {
+              storageResults.put(
+                  usName,
+                  searchUserStorage(
+                      realm,
+                      usName,
+                      userProperties,
+                      pageables.get(usName),
+                      typeRecherche,
+                      fuzzySearchEnabled));
+              return true;
+            }));
+    Map<String, PageResult<User>> orderedResults = new LinkedHashMap<>();
+    usNames.forEach(usName -> orderedResults.put(usName, storageResults.get(usName)));
+    return orderedResults;
+  }
+
+  /**
+   * Apply an action to items dispatched between at most userSearchParallelism lanes, each lane
+   * browsing its items one after the other. The calling thread browses the first lane. The other
+   * lanes run on userSearchExecutor while the realm has permits left, so that the searches of a
+   * realm together never use more than userSearchParallelism - 1 threads.
+   *
+   * @param action applied to each item, returns false to stop browsing the lane
+   * @return completed once every lane is browsed, exceptionally if an action failed
+   */
+  private <S> CompletableFuture<Void> runOnLanes(
+      String realm, List<S> items, Predicate<S> action) {
+    Semaphore permits =
+        userSearchPermits.computeIfAbsent(
+            realm.toLowerCase(), k -> new Semaphore(Math.max(0, userSearchParallelism - 1)));
+    int extraLanes = 0;
+    while (extraLanes < Math.min(userSearchParallelism, items.size()) - 1
+        && permits.tryAcquire()) {
+      extraLanes++;
+    }
+    int lanes = extraLanes + 1;
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    for (int lane = 1; lane < lanes; lane++) {
+      int firstItem = lane;
+      tasks.add(
+          CompletableFuture.runAsync(
+                  () -> browseLane(items, firstItem, lanes, action), userSearchExecutor)
+              .whenComplete((done, failure) -> permits.release()));
+    }
+    try {
+      browseLane(items, 0, lanes, action);
+      tasks.add(CompletableFuture.completedFuture(null));
+    } catch (RuntimeException e) {
+      tasks.add(CompletableFuture.failedFuture(e));
+    }
+    return CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new));
+  }
+
+  private static <S> void browseLane(
+      List<S> items, int firstItem, int lanes, Predicate<S> action) {
+    for (int i = firstItem; i < items.size(); i += lanes) {
+      if (!action.test(items.get(i))) {
+        return;
+      }
+    }
+  }
+
+  /** Wait for a future, throwing the runtime exception it failed with */
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private PageResult<User> searchUserStorage(
+      String realm,
+      String usName,
+      User userProperties,
+      PageableResult pageable,
+      SearchType typeRecherche,
+      boolean fuzzySearchEnabled) {
+    ReaderStore readerStore = storeProvider.getReaderStore(realm, usName);
+    PageResult<User> temResult =
+        fuzzySearchEnabled && fuzzySearchAllowed
+            ? readerStore.fuzzySearchUsers(userProperties, pageable, typeRecherche.name())
+            : readerStore.searchUsers(userProperties, pageable, typeRecherche.name());
+    temResult
+        .getResults()
+        .forEach(
+            user -> {
+              user.addMetadatas(EventKeysConfig.REALM, realm);
+              user.addMetadatas(EventKeysConfig.USERSTORAGE, usName);
+            });
+    return temResult;
+  }
+
+  /**
+   * The search token of a realm wide search holds the search token of each userstorage still
+   * having results, empty if the userstorage has not been searched yet. Each userstorage name and
+   * token is encoded in base64 url.
+   */
+  private static String encodeSearchToken(Map<String, String> storageTokens) {
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return storageTokens.entrySet().stream()
+        .map(
+            storageToken ->
+                encoder.encodeToString(storageToken.getKey().getBytes(StandardCharsets.UTF_8))
+                    + "."
+                    + (storageToken.getValue() != null
+                        ? encoder.encodeToString(
+                            storageToken.getValue().getBytes(StandardCharsets.UTF_8))
+                        : ""))
+        .collect(Collectors.joining("~"));
+  }
+
+  private static Map<String, String> decodeSearchToken(String searchToken) {
+    Map<String, String> storageTokens = new LinkedHashMap<>();
+    try {
+      for (String storageToken : searchToken.split("~")) {
+        String[] parts = storageToken.split("\\.", -1);
+        if (parts.length != 2) {
+          throw new IllegalArgumentException();
+        }
+        storageTokens.put(
+            new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8),
+            !parts[1].isEmpty()
+                ? new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8)
+                : null);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new InvalidSearchTokenException("Invalid search token " + searchToken, e);
+    }
+    return storageTokens;
+  }
+
+  @Override
+  public Stream<User> streamByProperties(
+      String realm, String storage, User userProperties, SearchType typeRecherche) {
+    Realm r = realmProvider.load(realm).orElseThrow(() -> new RealmNotFoundException(realm));
+    if (storage != null) {
+      return streamUserStorage(realm, storage, userProperties, typeRecherche);
+    }
+    UserStorageStreams userStorageStreams =
+        new UserStorageStreams(
+            r.getUserStorages().stream().map(UserStorage::getName).iterator(),
+            usName -> streamUserStorage(realm, usName, userProperties, typeRecherche));
+    return StreamSupport.stream(userStorageStreams, false).onClose(userStorageStreams::close);
+  }
+
+  /**
+   * Users of several userstorages, one after the other. Unlike flatMap, which buffers each
+   * userstorage when the stream is iterated, a userstorage stream is only advanced as its users are
+   * consumed. It is opened once the previous one is consumed, and closed then.
+   */
+  private static class UserStorageStreams extends Spliterators.AbstractSpliterator<User> {
+
+    private final Iterator<String> usNames;
+    private final Function<String, Stream<User>> userStorageStream;
+    private Stream<User> current;
+    private Spliterator<User> currentUsers;
+
+    private UserStorageStreams(
+        Iterator<String> usNames, Function<String, Stream<User>> userStorageStream) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.usNames = usNames;
+      this.userStorageStream = userStorageStream;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super User> action) {
+      while (currentUsers == null || !currentUsers.tryAdvance(action)) {
+        close();
+        if (!usNames.hasNext()) {
+          return false;
+        }
+        current = userStorageStream.apply(usNames.next());
+        currentUsers = current.spliterator();
+      }
+      return true;
+    }
+
+    private void close() {
+      if (current != null) {
+        current.close();
+        current = null;
+        currentUsers = null;
+      }
+    }
+  }
+
+  private Stream<User> streamUserStorage(
+      String realm, String usName, User userProperties, SearchType typeRecherche) {
+    return storeProvider
+        .getReaderStore(realm, usName)
+        .streamUsers(userProperties, typeRecherche.name())
+        .map(
+            user -> {
+              user.addMetadatas(EventKeysConfig.REALM, realm);
+              user.addMetadatas(EventKeysConfig.USERSTORAGE, usName);
+              return user;
+            });
+  }
+
   @Override
   public ProviderResponse addAppManagedAttribute(
       String realm,
@@ -310,19 +973,26 @@ public class UserServiceImpl implements UserService {
       String realmName, String storageName, String mail, boolean externalResolutionAllowed) {
     Realm realm =
         realmProvider.load(realmName).orElseThrow(() -> new RealmNotFoundException(realmName));
-    String nonNullStorage =
-        storageName != null
-            ? storageName
-            : realm.getUserStorages().stream()
-                .filter(us -> existByMail(realmName, us.getName(), mail))
-                .findFirst()
-                .orElseThrow(() -> new UserNotFoundByMailException(realmName, mail))
-                .getName();
-    User user =
-        storeProvider
-            .getReaderStore(realmName, storageName)
-            .getUserByMail(mail)
-            .orElseThrow(() -> new UserNotFoundByMailException(realmName, nonNullStorage, mail));
+    String nonNullStorage;
+    User user;
+    if (storageName == null) {
+      Map.Entry<UserStorage, User> found =
+          findOnUserStorages(
+                  realmName,
+                  realm,
+                  usName -> mayContainMail(realmName, usName, mail),
+                  readerStore -> readerStore.getUserByMail(mail))
+              .orElseThrow(() -> new UserNotFoundByMailException(realmName, mail));
+      nonNullStorage = found.getKey().getName();
+      user = found.getValue();
+    } else {
+      nonNullStorage = storageName;
+      user =
+          storeProvider
+              .getReaderStore(realmName, storageName)
+              .getUserByMail(mail)
+              .orElseThrow(() -> new UserNotFoundByMailException(realmName, storageName, mail));
+    }
     user.addMetadatas(GlobalKeysConfig.REALM.getName(), realmName.toLowerCase());
     user.addMetadatas(GlobalKeysConfig.USERSTORAGE.getName(), nonNullStorage.toLowerCase());
     if (externalResolutionAllowed
@@ -337,7 +1007,7 @@ public class UserServiceImpl implements UserService {
 
   @Override
   public byte[] getCertificate(String realm, String userStorage, String userId) {
-    User user = findById(realm, userStorage, userId, false);
+    User user = findById(realm, userStorage, userId, false, true);
     if (user.getCertificate() == null) {
       throw new NoCertificateOnUserException(realm, userId);
     } else {
@@ -353,7 +1023,7 @@ public class UserServiceImpl implements UserService {
       byte[] certificat,
       ProviderRequest providerRequest) {
     try {
-      User user = findById(realm, userStorage, userId, false);
+      User user = findById(realm, userStorage, userId, false, true);
       ProviderResponse response =
           storeProvider
               .getWriterStore(realm, userStorage)
@@ -368,7 +1038,7 @@ public class UserServiceImpl implements UserService {
   @Override
   public ProviderResponse deleteCertificate(
       String realm, String userStorage, String id, ProviderRequest providerRequest) {
-    User user = findById(realm, userStorage, id, false);
+    User user = findById(realm, userStorage, id, false, true);
     ProviderResponse response =
         storeProvider
             .getWriterStore(realm, userStorage)
@@ -433,6 +1103,63 @@ public class UserServiceImpl implements UserService {
     this.fuzzySearchAllowed = fuzzySearchAllowed;
   }
 
+  public int getUserSearchParallelism() {
+    return userSearchParallelism;
+  }
+
+  public void setUserSearchParallelism(int userSearchParallelism) {
+    this.userSearchParallelism = userSearchParallelism;
+  }
+
+  public int getIdCreateBatchSize() {
+    return idCreateBatchSize;
+  }
+
+  public void setIdCreateBatchSize(int idCreateBatchSize) {
+    this.idCreateBatchSize = idCreateBatchSize;
+  }
+
+  public long getIdCreateFreeIdTtl() {
+    return idCreateFreeIdTtl;
+  }
+
+  public void setIdCreateFreeIdTtl(long idCreateFreeIdTtl) {
+    this.idCreateFreeIdTtl = idCreateFreeIdTtl;
+  }
+
+  public int getImportBatchSize() {
+    return importBatchSize;
+  }
+
+  public void setImportBatchSize(int importBatchSize) {
+    this.importBatchSize = importBatchSize;
+  }
+
+  @PostConstruct
+  public void initUserIdAllocator() {
+    userIdAllocator = new UserIdAllocator(idCreateBatchSize, idCreateFreeIdTtl, userSearchExecutor);
+  }
+
+  @PreDestroy
+  public void shutdownUserSearchExecutor() {
+    userSearchExecutor.shutdown();
+  }
+
+  private boolean mayContainUsername(String realm, String storage, String username) {
+    return userMembershipIndex == null
+        || userMembershipIndex.mayContainUsername(realm, storage, username);
+  }
+
+  private boolean mayContainMail(String realm, String storage, String mail) {
+    return userMembershipIndex == null || userMembershipIndex.mayContainMail(realm, storage, mail);
+  }
+
+  private void recordUser(String realm, String storage, User user) {
+    if (userMembershipIndex != null) {
+      userMembershipIndex.addUser(realm, storage, user);
+    }
+  }
+
   private List<String> findUserSeeAlsos(Realm realm, User user) {
     String[] seeAlsosAttributes =
         realm
@@ -452,8 +1179,4 @@ public class UserServiceImpl implements UserService {
     }
     return seeAlsos;
   }
-
-  private boolean existByMail(String realm, String userStorage, String mail) {
-    return storeProvider.getReaderStore(realm, userStorage).getUserByMail(mail).isPresent();
-  }
 }
@@ -19,7 +19,10 @@ import fr.insee.sugoi.model.Organization;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Reader store are responsible of all operations reading a store (to fetch informations) All method
@@ -38,6 +41,42 @@ public interface ReaderStore {
    */
   public Optional<User> getUser(String id);
 
+  /**
+   * Retrieve the user with the given id in the store, including binary properties such as the
+   * certificate that other reads may leave out.
+   *
+   * @param id the id of the user
+   * @return optional of the user with matching id, is empty if no match
+   */
+  public Optional<User> getUserWithBinaries(String id);
+
+  /**
+   * Find which of the given ids are used by users of the store, without retrieving the users.
+   *
+   * @param ids the ids to look for
+   * @return the given ids which are used by a user
+   */
+  public List<String> getExistingUserIds(List<String> ids);
+
+  /**
+   * Find the users having a username or a mail, as needed to check their unicity, without
+   * retrieving the users. Mails are compared ignoring case.
+   *
+   * @param username the username to look for, may be null
+   * @param mail the mail to look for, may be null
+   * @return the usernames of at most two users having the username or the mail
+   */
+  public List<String> findUsernamesByUsernameOrMail(String username, String mail);
+
+  /**
+   * Find the users having one of the mails, as needed to check the unicity of the mails of many
+   * users at once, without retrieving the users. Mails are compared ignoring case.
+   *
+   * @param mails the mails to look for
+   * @return the usernames of the users having each mail found, by lower cased mail
+   */
+  public Map<String, List<String>> findUsernamesByMails(List<String> mails);
+
   /**
    * Only on realms where `unique_emails` is enabled, retrieve the user with the given mail in the
    * store.
@@ -59,6 +98,20 @@ public interface ReaderStore {
   public PageResult<User> searchUsers(
       User userFilter, PageableResult pageable, String searchOperator);
 
+  /**
+   * Search users matching userFilter filled attributes, retrieving only some of their properties.
+   *
+   * @param userFilter an incomplete user with attributes set to be matched with
+   * @param pageable properties for pageable request
+   * @param searchOperator 'OR' or 'AND' to determine if multiple attributes should match or only
+   *     one
+   * @param properties names of the user properties to retrieve as in the user mappings (username,
+   *     mail, attributes.common_name...), the other properties may be left unset
+   * @return a PageResult containing a list of matching users.
+   */
+  public PageResult<User> searchUsers(
+      User userFilter, PageableResult pageable, String searchOperator, List<String> properties);
+
   /**
    * Search users matching userFilter filled attributes. More results are returned than normal
    * search since accents and other special characters are ignored.
@@ -72,6 +125,18 @@ public interface ReaderStore {
   public PageResult<User> fuzzySearchUsers(
       User userFilter, PageableResult pageable, String searchOperator);
 
+  /**
+   * Stream all users matching userFilter filled attributes. Users are read from the store while
+   * the stream is consumed so that memory use does not depend on the number of users found. The
+   * stream must be closed once used.
+   *
+   * @param userFilter an incomplete user with attributes set to be matched with
+   * @param searchOperator 'OR' or 'AND' to determine if multiple attributes should match or only
+   *     one
+   * @return a stream of matching users
+   */
+  public Stream<User> streamUsers(User userFilter, String searchOperator);
+
   /**
    * Retrieve the organization with the given id in the store.
    *
@@ -83,6 +148,18 @@ public interface ReaderStore {
    */
   public Optional<Organization> getOrganization(String id);
 
+  /**
+   * Retrieve the organization with the given id in the store, including binary properties such as
+   * the gpg key that other reads may leave out.
+   *
+   * @param id the id of the organization
+   * @throws UnsupportedOperationException if the configuration for organizations is not set on the
+   *     UserStorage.
+   * @return optional of the organization with matching id. Optional is empty if no organization was
+   *     found
+   */
+  public Optional<Organization> getOrganizationWithBinaries(String id);
+
   /**
    * Search organizations matching organizationFilter filled attributes.
    *
@@ -134,6 +211,21 @@ public interface ReaderStore {
    */
   public Optional<Group> getGroup(String appName, String groupName);
 
+  /**
+   * Tell if the members of the group groupName of the application appName can manage its members.
+   * The flag of the group is used if it is set, the self-managed-groups flag of the application
+   * otherwise. Only these flags are read, not the users of the group nor the groups of the
+   * application.
+   *
+   * @param appName
+   * @param groupName
+   * @throws UnsupportedOperationException if the configuration for applications or groups is not
+   *     set.
+   * @return optional of whether the group is self-managed, empty if the group or the application
+   *     could not be found
+   */
+  public Optional<Boolean> isGroupSelfManaged(String appName, String groupName);
+
   /**
    * Search groups in application appName matching groupFilter filled attributes. Groups are
    * returned with simplified users.
@@ -179,4 +271,13 @@ public interface ReaderStore {
    * @return optional of the manager group with its simplified list of users, empty if not found
    */
   public Optional<Group> getManagerGroup(String applicationName);
+
+  /**
+   * Drop the state the store shares with the stores replacing it once evicted. The store still
+   * serves the requests already using it until it is closed.
+   */
+  public default void retire() {}
+
+  /** Release the resources held by the store, which is not used afterwards. */
+  public default void close() {}
 }
@@ -39,4 +39,16 @@ public class Store {
   public void setReader(ReaderStore reader) {
     this.reader = reader;
   }
+
+  /** Drop the state the writer and the reader share with the stores replacing them */
+  public void retire() {
+    writer.retire();
+    reader.retire();
+  }
+
+  /** Release the resources held by the writer and the reader */
+  public void close() {
+    writer.close();
+    reader.close();
+  }
 }
@@ -34,4 +34,15 @@ public interface StoreStorage {
    * @return the store for the realm/userstorage wanted
    */
   public Store getStore(Realm realm, UserStorage userStorage);
+
+  /**
+   * Drop the stores built for a realm, so that they are built again from the realm configuration on
+   * their next use. Dropped stores are closed after a delay leaving the requests already using them
+   * time to complete.
+   *
+   * @param realmName the realm whose configuration changed (case insensitive)
+   * @param userStorageName the user storage whose store is dropped, all the stores of the realm are
+   *     dropped if null (case insensitive)
+   */
+  public void evict(String realmName, String userStorageName);
 }
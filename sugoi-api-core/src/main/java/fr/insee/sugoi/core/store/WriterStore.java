@@ -19,7 +19,10 @@ import fr.insee.sugoi.model.Application;
 import fr.insee.sugoi.model.Group;
 import fr.insee.sugoi.model.Organization;
 import fr.insee.sugoi.model.User;
+import fr.insee.sugoi.model.exceptions.GroupNotFoundException;
 import fr.insee.sugoi.model.exceptions.InvalidPasswordException;
+import fr.insee.sugoi.model.exceptions.UserNotFoundException;
+import java.util.List;
 import java.util.Map;
 
 /** Writer stores are responsible for all operations modifying the underlying store. */
@@ -29,7 +32,8 @@ public interface WriterStore {
    * Create the user in the store.
    *
    * @param user
-   * @return the user as it has been passed (address location migth have been added).
+   * @return the user as it has been passed (address location migth have been added). The entity of
+   *     the response can be set to the user as written, to save the service a new read.
    */
   ProviderResponse createUser(User user, ProviderRequest providerRequest);
 
@@ -37,7 +41,7 @@ public interface WriterStore {
    * Replace the user with the same id by the updatedUser in the store.
    *
    * @param updatedUser
-   * @return A provider response
+   * @return A provider response, its entity can be set to the user as written
    */
   ProviderResponse updateUser(User updatedUser, ProviderRequest providerRequest);
 
@@ -48,6 +52,18 @@ public interface WriterStore {
    */
   ProviderResponse deleteUser(String id, ProviderRequest providerRequest);
 
+  /**
+   * Create the users in the store, or update the ones which already exist if upsert is set. Users
+   * must have a username, unicity has already been checked by the caller.
+   *
+   * @param users
+   * @param upsert whether existing users are updated, they are rejected otherwise
+   * @return one response per user in the order of users, a user which could not be written gets a
+   *     KO response holding the exception
+   */
+  List<ProviderResponse> importUsers(
+      List<User> users, boolean upsert, ProviderRequest providerRequest);
+
   /**
    * Create the organization in the store.
    *
@@ -119,7 +135,8 @@ public interface WriterStore {
    * @param group
    * @throws UnsupportedOperationException if the configuration for applications or groups are not
    *     set.
-   * @return the group as it has been passed
+   * @return the group as it has been passed, the entity of the response can be set to the group as
+   *     written
    */
   ProviderResponse createGroup(String appName, Group group, ProviderRequest providerRequest);
 
@@ -130,7 +147,8 @@ public interface WriterStore {
    * @param updatedGroup
    * @throws UnsupportedOperationException if the configuration for applications or groups are not
    *     set.
-   * @return the group as it has been passed.
+   * @return the group as it has been passed, the entity of the response can be set to the group as
+   *     written
    */
   ProviderResponse updateGroup(String appName, Group updatedGroup, ProviderRequest providerRequest);
 
@@ -169,6 +187,51 @@ public interface WriterStore {
   ProviderResponse deleteUserFromGroup(
       String appName, String groupName, String userId, ProviderRequest providerRequest);
 
+  /**
+   * Add the users userIds to the group groupName in the application appName. Users already in the
+   * group are ignored.
+   *
+   * @param appName
+   * @param groupName
+   * @param userIds ids of users of this store
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist in the store
+   * @throws UnsupportedOperationException if the configuration for applications or groups is not
+   *     set.
+   */
+  ProviderResponse addUsersToGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest);
+
+  /**
+   * Delete the users userIds from the group groupName in the application appName. Users not in the
+   * group are ignored.
+   *
+   * @param appName
+   * @param groupName
+   * @param userIds ids of users of this store
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist in the store
+   * @throws UnsupportedOperationException if the configuration for applications or groups is not
+   *     set.
+   */
+  ProviderResponse deleteUsersFromGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest);
+
+  /**
+   * Make the users userIds the only members of the group groupName in the application appName
+   * among the users of this store. Members coming from other stores are unchanged.
+   *
+   * @param appName
+   * @param groupName
+   * @param userIds ids of users of this store, may be empty
+   * @throws GroupNotFoundException if group doesn't exist in app
+   * @throws UserNotFoundException if one of the users doesn't exist in the store
+   * @throws UnsupportedOperationException if the configuration for applications or groups is not
+   *     set.
+   */
+  ProviderResponse replaceGroupMembers(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest);
+
   /**
    * Set the password of user to initPassword. If password already exist, changes it.
    *
@@ -250,4 +313,13 @@ public interface WriterStore {
 
   ProviderResponse deleteUserFromManagerGroup(
       String applicationName, String userId, ProviderRequest providerRequest);
+
+  /**
+   * Drop the state the store shares with the stores replacing it once evicted. The store still
+   * serves the requests already using it until it is closed.
+   */
+  default void retire() {}
+
+  /** Release the resources held by the store, which is not used afterwards. */
+  default void close() {}
 }
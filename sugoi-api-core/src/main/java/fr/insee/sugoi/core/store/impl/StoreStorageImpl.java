@@ -19,8 +19,15 @@ import fr.insee.sugoi.core.store.StoreStorage;
 import fr.insee.sugoi.core.store.WriterStore;
 import fr.insee.sugoi.model.Realm;
 import fr.insee.sugoi.model.UserStorage;
-import java.util.HashMap;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,7 +41,23 @@ public class StoreStorageImpl implements StoreStorage {
 
   private static final Logger logger = LoggerFactory.getLogger(StoreStorageImpl.class);
 
-  private static final Map<String, Store> connections = new HashMap<>();
+  /** Stores by lower cased realm name then by lower cased user storage name */
+  private static final Map<String, Map<String, Store>> connections = new ConcurrentHashMap<>();
+
+  /**
+   * Closes evicted stores. Requests do not tell when they stop using a store, so evicted stores
+   * are closed after a delay rather than once the requests using them are over.
+   */
+  private static final ScheduledExecutorService evictedStoresCloser =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "evicted-stores-closer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /* Time in milliseconds an evicted store keeps serving the requests already using it */
+  private long evictedStoreCloseDelay = 60000;
 
   @Autowired private ApplicationContext applicationContext;
 
@@ -46,20 +69,69 @@ public class StoreStorageImpl implements StoreStorage {
       throw new RuntimeException("Realm must have a defaultReaderType and a defaultWriterType");
     }
     String name = realm.getName() + "_" + userStorage.getName();
-    if (!connections.containsKey(name)) {
-      logger.info("Chargement de la configuration {}", name);
-      WriterStore writerStore =
-          (WriterStore) applicationContext.getBean(writerType, realm, userStorage);
-      ReaderStore readerStore =
-          (ReaderStore) applicationContext.getBean(readerType, realm, userStorage);
-      logger.info(
-          "Création de la configuration de type ({},{}) pour {}",
-          readerStore.getClass().getSimpleName(),
-          writerStore.getClass().getSimpleName(),
-          name);
-      connections.put(name, new Store(readerStore, writerStore));
+    Map<String, Store> stores =
+        connections.computeIfAbsent(
+            realm.getName().toLowerCase(Locale.ROOT), k -> new ConcurrentHashMap<>());
+    return stores.computeIfAbsent(
+        userStorage.getName().toLowerCase(Locale.ROOT),
+        key -> {
+          logger.info("Chargement de la configuration {}", name);
+          WriterStore writerStore =
+              (WriterStore) applicationContext.getBean(writerType, realm, userStorage);
+          ReaderStore readerStore =
+              (ReaderStore) applicationContext.getBean(readerType, realm, userStorage);
+          logger.info(
+              "Création de la configuration de type ({},{}) pour {}",
+              readerStore.getClass().getSimpleName(),
+              writerStore.getClass().getSimpleName(),
+              name);
+          return new Store(readerStore, writerStore);
+        });
+  }
+
+  /**
+   * Evicted stores are retired under the lock of their entry, so that the store replacing one is
+   * only created once it no longer shares caches with it. They are closed after
+   * evictedStoreCloseDelay, requests running on them meanwhile being completed.
+   */
+  @Override
+  public void evict(String realmName, String userStorageName) {
+    Map<String, Store> stores = connections.get(realmName.toLowerCase(Locale.ROOT));
+    if (stores != null) {
+      List<String> keys =
+          userStorageName == null
+              ? new ArrayList<>(stores.keySet())
+              : List.of(userStorageName.toLowerCase(Locale.ROOT));
+      keys.forEach(
+          key ->
+              stores.computeIfPresent(
+                  key,
+                  (evictedKey, store) -> {
+                    store.retire();
+                    evictedStoresCloser.schedule(
+                        store::close, evictedStoreCloseDelay, TimeUnit.MILLISECONDS);
+                    return null;
+                  }));
     }
+    logger.info(
+        "Configuration {}_{} will be reloaded",
+        realmName,
+        userStorageName != null ? userStorageName : "*");
+  }
+
+  /** Close the stores in use, and the evicted ones without waiting for their delay */
+  @PreDestroy
+  public void closeStores() {
+    connections.values().forEach(stores -> stores.values().forEach(Store::close));
+    connections.clear();
+    evictedStoresCloser.shutdownNow().forEach(Runnable::run);
+  }
+
+  public long getEvictedStoreCloseDelay() {
+    return evictedStoreCloseDelay;
+  }
 
-    return connections.get(name);
+  public void setEvictedStoreCloseDelay(long evictedStoreCloseDelay) {
+    this.evictedStoreCloseDelay = evictedStoreCloseDelay;
   }
 }
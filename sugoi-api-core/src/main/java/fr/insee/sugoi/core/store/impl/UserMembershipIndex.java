@@ -0,0 +1,282 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.store.impl;
+
+import fr.insee.sugoi.core.realm.RealmProvider;
+import fr.insee.sugoi.core.store.StoreProvider;
+import fr.insee.sugoi.model.User;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bloom filters of the usernames and mails of each userstorage, telling which userstorages
+ * certainly do not contain a user so that realm wide lookups can skip them. Usernames and mails are
+ * compared in lower case.
+ *
+ * <p>Filters are built by streaming every user of a userstorage, at startup or on first use, and
+ * rebuilt every refresh-interval milliseconds to forget deleted users and catch changes made
+ * outside of this instance. Users written through this instance are added as they are written.
+ * Until its filters are built, a userstorage may contain any user.
+ *
+ * <p>Filters are disabled by default since writes made by another instance are only seen on the
+ * next rebuild : they should only be enabled when this instance receives every write, or when a
+ * refresh-interval delay is acceptable.
+ */
+@Component
+public class UserMembershipIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserMembershipIndex.class);
+
+  /** Bits per expected key, giving about 1% of false positives with 7 hash functions */
+  private static final int BITS_PER_KEY = 10;
+
+  private static final int HASH_FUNCTIONS = 7;
+
+  @Value("${fr.insee.sugoi.user-membership-filter.enabled:false}")
+  private boolean enabled;
+
+  @Value("${fr.insee.sugoi.user-membership-filter.refresh-interval:3600000}")
+  private long refreshInterval;
+
+  @Autowired private RealmProvider realmProvider;
+
+  @Autowired private StoreProvider storeProvider;
+
+  private final Map<String, StorageFilters> filters = new ConcurrentHashMap<>();
+
+  private final ExecutorService buildExecutor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "user-membership-index");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void buildAll() {
+    if (enabled) {
+      realmProvider
+          .findAll()
+          .forEach(
+              realm ->
+                  realm
+                      .getUserStorages()
+                      .forEach(us -> getFilters(realm.getName(), us.getName())));
+    }
+  }
+
+  /**
+   * @return false if the userstorage certainly does not contain a user with this username
+   */
+  public boolean mayContainUsername(String realm, String storage, String username) {
+    if (!enabled || username == null) {
+      return true;
+    }
+    BloomFilter usernames = getFilters(realm, storage).usernames;
+    return usernames == null || usernames.mayContain(fold(username));
+  }
+
+  /**
+   * @return false if the userstorage certainly does not contain a user with this mail
+   */
+  public boolean mayContainMail(String realm, String storage, String mail) {
+    if (!enabled || mail == null) {
+      return true;
+    }
+    BloomFilter mails = getFilters(realm, storage).mails;
+    return mails == null || mails.mayContain(fold(mail));
+  }
+
+  /** Record the username and mail of a user written in a userstorage */
+  public void addUser(String realm, String storage, User user) {
+    if (enabled) {
+      getFilters(realm, storage).add(user.getUsername(), user.getMail());
+    }
+  }
+
+  private StorageFilters getFilters(String realm, String storage) {
+    StorageFilters storageFilters =
+        filters.computeIfAbsent(
+            realm.toLowerCase(Locale.ROOT) + "_" + storage.toLowerCase(Locale.ROOT),
+            key -> new StorageFilters());
+    if (storageFilters.startBuildIfDue(refreshInterval)) {
+      buildExecutor.execute(() -> build(realm, storage, storageFilters));
+    }
+    return storageFilters;
+  }
+
+  private void build(String realm, String storage, StorageFilters storageFilters) {
+    long startTime = System.currentTimeMillis();
+    KeyHashes usernameHashes = new KeyHashes();
+    KeyHashes mailHashes = new KeyHashes();
+    try (Stream<User> users =
+        storeProvider.getReaderStore(realm, storage).streamUsers(new User(), "AND")) {
+      users.forEach(
+          user -> {
+            if (user.getUsername() != null) {
+              usernameHashes.add(hash(fold(user.getUsername())));
+            }
+            if (user.getMail() != null) {
+              mailHashes.add(hash(fold(user.getMail())));
+            }
+          });
+      storageFilters.endBuild(usernameHashes.toFilter(), mailHashes.toFilter(), startTime);
+      logger.debug(
+          "Membership filters of {} {} built with {} users",
+          realm,
+          storage,
+          usernameHashes.size);
+    } catch (RuntimeException e) {
+      storageFilters.endBuild(null, null, startTime);
+      logger.warn("Failed to build the membership filters of {} {}", realm, storage, e);
+    }
+  }
+
+  private static String fold(String key) {
+    return key.toLowerCase(Locale.ROOT);
+  }
+
+  /** 64 bits FNV-1a hash of the characters of a key, mixed with the murmur3 finalizer */
+  private static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static class StorageFilters {
+    private volatile BloomFilter usernames;
+    private volatile BloomFilter mails;
+    private long lastBuild = 0;
+    private boolean building = false;
+
+    /** Keys written while a build is running, to add to the filters it builds */
+    private final List<String[]> writtenDuringBuild = new ArrayList<>();
+
+    private synchronized boolean startBuildIfDue(long refreshInterval) {
+      if (building
+          || (lastBuild != 0 && System.currentTimeMillis() - lastBuild < refreshInterval)) {
+        return false;
+      }
+      building = true;
+      writtenDuringBuild.clear();
+      return true;
+    }
+
+    private synchronized void endBuild(
+        BloomFilter builtUsernames, BloomFilter builtMails, long startTime) {
+      if (builtUsernames != null) {
+        writtenDuringBuild.forEach(
+            keys -> {
+              addTo(builtUsernames, keys[0]);
+              addTo(builtMails, keys[1]);
+            });
+        usernames = builtUsernames;
+        mails = builtMails;
+      }
+      writtenDuringBuild.clear();
+      building = false;
+      lastBuild = startTime;
+    }
+
+    private synchronized void add(String username, String mail) {
+      addTo(usernames, username);
+      addTo(mails, mail);
+      if (building) {
+        writtenDuringBuild.add(new String[] {username, mail});
+      }
+    }
+
+    private static void addTo(BloomFilter filter, String key) {
+      if (filter != null && key != null) {
+        filter.add(hash(fold(key)));
+      }
+    }
+  }
+
+  /** Growable array of the hashes of the keys read by a build */
+  private static class KeyHashes {
+    private long[] hashes = new long[1024];
+    private int size = 0;
+
+    private void add(long hash) {
+      if (size == hashes.length) {
+        hashes = Arrays.copyOf(hashes, size * 2);
+      }
+      hashes[size++] = hash;
+    }
+
+    private BloomFilter toFilter() {
+      BloomFilter filter = new BloomFilter(Math.max(1024, size * BITS_PER_KEY));
+      for (int i = 0; i < size; i++) {
+        filter.add(hashes[i]);
+      }
+      return filter;
+    }
+  }
+
+  private static class BloomFilter {
+    private final BitSet bits;
+    private final int size;
+
+    private BloomFilter(int size) {
+      this.bits = new BitSet(size);
+      this.size = size;
+    }
+
+    private synchronized void add(long hash) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 0; i < HASH_FUNCTIONS; i++) {
+        bits.set(Math.floorMod(h1 + i * h2, size));
+      }
+    }
+
+    private boolean mayContain(String key) {
+      long hash = hash(key);
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      synchronized (this) {
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+          if (!bits.get(Math.floorMod(h1 + i * h2, size))) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+}
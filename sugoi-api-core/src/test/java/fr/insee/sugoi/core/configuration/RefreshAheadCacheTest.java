@@ -0,0 +1,149 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.configuration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+public class RefreshAheadCacheTest {
+
+  /** Background reloads run in the reading thread */
+  private RefreshAheadCache newCache(long ttl) {
+    return new RefreshAheadCache(new ConcurrentMapCache("Realm"), ttl, Runnable::run);
+  }
+
+  @Test
+  @DisplayName("Given concurrent loads of the same key, then the value should be loaded once")
+  public void concurrentLoadsAreCollapsed() throws Exception {
+    RefreshAheadCache cache = newCache(60000);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first =
+        CompletableFuture.supplyAsync(
+            () ->
+                cache.get(
+                    "realm",
+                    () -> {
+                      loads.incrementAndGet();
+                      started.countDown();
+                      release.await(5, TimeUnit.SECONDS);
+                      return "loaded";
+                    }));
+    started.await(5, TimeUnit.SECONDS);
+    CompletableFuture<String> second =
+        CompletableFuture.supplyAsync(
+            () ->
+                cache.get(
+                    "realm",
+                    () -> {
+                      loads.incrementAndGet();
+                      return "loaded again";
+                    }));
+    Thread.sleep(50);
+    release.countDown();
+    assertThat("First load gets the value", first.get(5, TimeUnit.SECONDS), is("loaded"));
+    assertThat("Second load waits for the first", second.get(5, TimeUnit.SECONDS), is("loaded"));
+    assertThat("Value is loaded once", loads.get(), is(1));
+  }
+
+  @Test
+  @DisplayName(
+      "Given a value read after half its time to live, "
+          + "then the cached value should be returned and reloaded")
+  public void valueIsRefreshedAhead() throws Exception {
+    RefreshAheadCache cache = newCache(1000);
+    cache.get("realm", () -> "first");
+    Thread.sleep(600);
+    assertThat("Cached value is returned", cache.get("realm", () -> "second"), is("first"));
+    assertThat("Value has been reloaded", cache.get("realm", () -> "third"), is("second"));
+  }
+
+  @Test
+  @DisplayName("Given an expired value, then it should be loaded again")
+  public void expiredValueIsLoaded() throws Exception {
+    RefreshAheadCache cache = newCache(50);
+    cache.get("realm", () -> "first");
+    Thread.sleep(100);
+    assertThat("Expired value is not returned", cache.get("realm"), is((Object) null));
+    assertThat("Value is loaded again", cache.get("realm", () -> "second"), is("second"));
+  }
+
+  @Test
+  @DisplayName(
+      "Given a key evicted while its value is loaded, "
+          + "then the loaded value should not be cached")
+  public void valueLoadedBeforeEvictIsNotCached() {
+    RefreshAheadCache cache = newCache(60000);
+    cache.get("other", () -> "other");
+    String value =
+        cache.get(
+            "realm",
+            () -> {
+              cache.evict("realm");
+              return "stale";
+            });
+    assertThat("Loaded value is returned", value, is("stale"));
+    assertThat("Loaded value is not cached", cache.get("realm", () -> "fresh"), is("fresh"));
+    assertThat("Other keys stay cached", cache.get("other", () -> "reloaded"), is("other"));
+  }
+
+  @Test
+  @DisplayName(
+      "Given another key evicted while a value is loaded, then the loaded value should be cached")
+  public void evictOfAnotherKeyDoesNotPreventCaching() {
+    RefreshAheadCache cache = newCache(60000);
+    cache.get(
+        "realm",
+        () -> {
+          cache.evict("other");
+          return "loaded";
+        });
+    assertThat("Loaded value is cached", cache.get("realm", () -> "reloaded"), is("loaded"));
+  }
+
+  @Test
+  @DisplayName(
+      "Given a key evicted while its value is loaded, "
+          + "then a later read should not wait for that load")
+  public void readAfterEvictStartsANewLoad() throws Exception {
+    RefreshAheadCache cache = newCache(60000);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> stale =
+        CompletableFuture.supplyAsync(
+            () ->
+                cache.get(
+                    "realm",
+                    () -> {
+                      started.countDown();
+                      release.await(5, TimeUnit.SECONDS);
+                      return "stale";
+                    }));
+    started.await(5, TimeUnit.SECONDS);
+    cache.evict("realm");
+    assertThat("Value is loaded again", cache.get("realm", () -> "fresh"), is("fresh"));
+    release.countDown();
+    assertThat("Load before evict gets its value", stale.get(5, TimeUnit.SECONDS), is("stale"));
+    assertThat("Fresh value stays cached", cache.get("realm", () -> "reloaded"), is("fresh"));
+  }
+}
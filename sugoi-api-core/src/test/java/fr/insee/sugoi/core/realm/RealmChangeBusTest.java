@@ -0,0 +1,79 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.realm;
+
+import fr.insee.sugoi.core.store.StoreStorage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+@SpringBootTest(classes = {RealmChangeBus.class})
+public class RealmChangeBusTest {
+
+  @MockitoBean private RealmProvider realmProvider;
+
+  @MockitoBean private StoreStorage storeStorage;
+
+  @MockitoBean private RealmChangeBroadcaster broadcaster;
+
+  @Autowired private RealmChangeBus realmChangeBus;
+
+  @Test
+  @DisplayName("When a change is published, it should be applied and broadcast")
+  public void publishedChangeIsAppliedAndBroadcast() {
+    realmChangeBus.publish("realm", "us1");
+    Mockito.verify(realmProvider).evict("realm");
+    Mockito.verify(storeStorage).evict("realm", "us1");
+    Mockito.verify(broadcaster)
+        .broadcast(
+            Mockito.argThat(
+                change ->
+                    change.getRealmName().equals("realm")
+                        && change.getUserStorageName().equals("us1")));
+  }
+
+  @Test
+  @DisplayName("When a change is received from another instance, it should be applied")
+  public void receivedChangeIsApplied() {
+    realmChangeBus.receive(new RealmChange("other", "realm", null));
+    Mockito.verify(realmProvider).evict("realm");
+    Mockito.verify(storeStorage).evict("realm", null);
+    Mockito.verifyNoInteractions(broadcaster);
+  }
+
+  @Test
+  @DisplayName("When a change made on this instance comes back, it should be ignored")
+  public void ownChangeIsIgnored() {
+    RealmChange[] published = new RealmChange[1];
+    Mockito.doAnswer(invocation -> published[0] = invocation.getArgument(0))
+        .when(broadcaster)
+        .broadcast(Mockito.any());
+    realmChangeBus.publish("realm", null);
+    Mockito.clearInvocations(realmProvider, storeStorage);
+
+    realmChangeBus.receive(published[0]);
+    Mockito.verifyNoInteractions(realmProvider, storeStorage);
+  }
+
+  @Test
+  @DisplayName("When the broadcast fails, the change should still be applied")
+  public void failedBroadcastDoesNotFailTheChange() {
+    Mockito.doThrow(new RuntimeException("broker down")).when(broadcaster).broadcast(Mockito.any());
+    realmChangeBus.publish("realm", null);
+    Mockito.verify(storeStorage).evict("realm", null);
+  }
+}
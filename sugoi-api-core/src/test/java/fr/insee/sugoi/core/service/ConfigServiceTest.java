@@ -21,6 +21,7 @@ import fr.insee.sugoi.core.model.ProviderRequest;
 import fr.insee.sugoi.core.model.ProviderResponse;
 import fr.insee.sugoi.core.model.ProviderResponse.ProviderResponseStatus;
 import fr.insee.sugoi.core.model.SugoiUser;
+import fr.insee.sugoi.core.realm.RealmChangeBus;
 import fr.insee.sugoi.core.realm.RealmProvider;
 import fr.insee.sugoi.core.service.impl.ConfigServiceImpl;
 import fr.insee.sugoi.model.Realm;
@@ -43,6 +44,8 @@ public class ConfigServiceTest {
 
   @MockitoBean private RealmProvider realmProvider;
 
+  @MockitoBean private RealmChangeBus realmChangeBus;
+
   @Autowired private ConfigService configService;
 
   private Realm realm;
@@ -80,6 +83,19 @@ public class ConfigServiceTest {
         is(ProviderResponseStatus.OK));
   }
 
+  @Test
+  @DisplayName("When a realm is updated, the change should be published")
+  public void shouldPublishRealmChangeOnUpdate() {
+    ProviderRequest providerRequest =
+        new ProviderRequest(new SugoiUser("toto", List.of("toto")), false, null);
+    ProviderResponse mockedResponse =
+        new ProviderResponse("1", "1", ProviderResponseStatus.OK, realm, null);
+    Mockito.when(realmProvider.updateRealm(realm, providerRequest)).thenReturn(mockedResponse);
+
+    configService.updateRealm(realm, providerRequest);
+    Mockito.verify(realmChangeBus).publish("realm", null);
+  }
+
   @Test
   public void shouldFindRealmWhenPresent() {
     assertThat("Realm should be found", configService.getRealm("realm").getName(), is("realm"));
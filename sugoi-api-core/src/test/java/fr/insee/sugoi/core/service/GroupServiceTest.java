@@ -13,20 +13,27 @@
 */
 package fr.insee.sugoi.core.service;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import fr.insee.sugoi.core.model.ProviderRequest;
+import fr.insee.sugoi.core.model.ProviderResponse;
+import fr.insee.sugoi.core.model.ProviderResponse.ProviderResponseStatus;
 import fr.insee.sugoi.core.realm.RealmProvider;
 import fr.insee.sugoi.core.service.impl.GroupServiceImpl;
 import fr.insee.sugoi.core.service.impl.UserServiceImpl;
 import fr.insee.sugoi.core.store.ReaderStore;
 import fr.insee.sugoi.core.store.Store;
 import fr.insee.sugoi.core.store.StoreStorage;
+import fr.insee.sugoi.core.store.WriterStore;
 import fr.insee.sugoi.core.store.impl.StoreProviderImpl;
 import fr.insee.sugoi.model.Group;
 import fr.insee.sugoi.model.Realm;
 import fr.insee.sugoi.model.UserStorage;
 import fr.insee.sugoi.model.exceptions.GroupNotFoundException;
 import fr.insee.sugoi.model.exceptions.RealmNotFoundException;
+import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.paging.PageableResult;
 import java.util.List;
 import java.util.Optional;
@@ -54,6 +61,7 @@ public class GroupServiceTest {
 
   @Mock private Store store;
   @Mock private ReaderStore readerStore;
+  @Mock private WriterStore writerStore;
 
   @BeforeEach
   public void setup() {
@@ -68,6 +76,7 @@ public class GroupServiceTest {
 
     Mockito.when(storeStorage.getStore(Mockito.any(), Mockito.any())).thenReturn(store);
     Mockito.when(store.getReader()).thenReturn(readerStore);
+    Mockito.when(store.getWriter()).thenReturn(writerStore);
     Mockito.when(readerStore.getGroup("application", "donotexist")).thenReturn(Optional.empty());
   }
 
@@ -113,4 +122,88 @@ public class GroupServiceTest {
         RealmNotFoundException.class,
         () -> groupService.delete("idonotexist", "application", "toto", null));
   }
+
+  @Test
+  @DisplayName(
+      "Given we add users to a group without storage, "
+          + "then users are looked up with one search and added with one write")
+  public void addUsersToGroupWithoutStorage() {
+    ProviderResponse writerResponse = new ProviderResponse();
+    writerResponse.setStatus(ProviderResponseStatus.OK);
+    Mockito.when(readerStore.getExistingUserIds(List.of("user1", "user2")))
+        .thenReturn(List.of("user1", "user2"));
+    Mockito.when(
+            writerStore.addUsersToGroup(
+                Mockito.eq("application"),
+                Mockito.eq("group"),
+                Mockito.eq(List.of("user1", "user2")),
+                Mockito.any()))
+        .thenReturn(writerResponse);
+    ProviderResponse response =
+        groupService.addUsersToGroup(
+            "realm", null, List.of("user1", "user2", "user1"), "application", "group", null);
+    assertThat("Should be OK", response.getStatus(), is(ProviderResponseStatus.OK));
+    Mockito.verify(readerStore, Mockito.never()).getUser(Mockito.any());
+    Mockito.verify(writerStore, Mockito.never())
+        .addUserToGroup(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  @DisplayName(
+      "Given we add users to a group and one of them does not exist, "
+          + "then throw UserNotFoundException without writing")
+  public void addUsersToGroupShouldFailWhenUserNotFound() {
+    Mockito.when(readerStore.getExistingUserIds(List.of("user1", "donotexist")))
+        .thenReturn(List.of("user1"));
+    assertThrows(
+        UserNotFoundException.class,
+        () ->
+            groupService.addUsersToGroup(
+                "realm", null, List.of("user1", "donotexist"), "application", "group", null));
+    Mockito.verify(writerStore, Mockito.never())
+        .addUsersToGroup(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+  @Test
+  @DisplayName(
+      "Given we check twice if a group is self-managed, "
+          + "then the flags are read once, and read again after the group is updated")
+  public void isSelfManagedShouldReadFlagsOnce() {
+    Mockito.when(readerStore.isGroupSelfManaged("application", "selfmanaged"))
+        .thenReturn(Optional.of(true));
+    assertThat(
+        "Group is self-managed",
+        groupService.isSelfManaged("realm", "application", "selfmanaged"),
+        is(true));
+    assertThat(
+        "Group is still self-managed",
+        groupService.isSelfManaged("realm", "application", "selfmanaged"),
+        is(true));
+    Mockito.verify(readerStore, Mockito.times(1)).isGroupSelfManaged("application", "selfmanaged");
+    Mockito.verify(readerStore, Mockito.never()).getGroup(Mockito.any(), Mockito.any());
+
+    ProviderResponse writerResponse = new ProviderResponse();
+    writerResponse.setStatus(ProviderResponseStatus.OK);
+    Mockito.when(writerStore.updateGroup(Mockito.eq("application"), Mockito.any(), Mockito.any()))
+        .thenReturn(writerResponse);
+    Mockito.when(readerStore.isGroupSelfManaged("application", "selfmanaged"))
+        .thenReturn(Optional.of(false));
+    groupService.update(
+        "realm", "application", new Group("selfmanaged"), new ProviderRequest(null, true, null));
+    assertThat(
+        "Group is no longer self-managed",
+        groupService.isSelfManaged("realm", "application", "selfmanaged"),
+        is(false));
+  }
+
+  @Test
+  @DisplayName("Given a group does not exist, then it is not self-managed")
+  public void isSelfManagedShouldBeFalseWhenGroupNotFound() {
+    Mockito.when(readerStore.isGroupSelfManaged("application", "donotexist"))
+        .thenReturn(Optional.empty());
+    assertThat(
+        "Group is not self-managed",
+        groupService.isSelfManaged("realm", "application", "donotexist"),
+        is(false));
+  }
 }
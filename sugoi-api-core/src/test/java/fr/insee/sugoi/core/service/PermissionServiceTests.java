@@ -16,19 +16,12 @@ package fr.insee.sugoi.core.service;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
-import static org.mockito.AdditionalMatchers.and;
-import static org.mockito.AdditionalMatchers.not;
-import static org.mockito.ArgumentMatchers.eq;
 
 import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
 import fr.insee.sugoi.core.model.SugoiUser;
 import fr.insee.sugoi.core.realm.RealmProvider;
 import fr.insee.sugoi.core.service.impl.PermissionServiceImpl;
-import fr.insee.sugoi.model.Application;
-import fr.insee.sugoi.model.Group;
 import fr.insee.sugoi.model.Realm;
-import fr.insee.sugoi.model.User;
-import fr.insee.sugoi.model.exceptions.ApplicationNotFoundException;
 import java.util.List;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
@@ -45,13 +38,10 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 public class PermissionServiceTests {
 
   @MockitoBean private RealmProvider realmProvider;
-  @MockitoBean private ApplicationService applicationService;
   @MockitoBean private GroupService groupService;
   @Autowired PermissionService permissions;
 
   private Realm realm;
-  private Application selfManagedGroupsApplication = new Application();
-  private Application notSelfManagedGroupsApplication = new Application();
 
   @BeforeEach
   public void setup() {
@@ -64,49 +54,17 @@ public class PermissionServiceTests {
         .getProperties()
         .put(GlobalKeysConfig.APP_MANAGED_ATTRIBUTE_KEYS_LIST, List.of("my-attribute-key"));
 
-    selfManagedGroupsApplication.setName("selfmanaged");
-    selfManagedGroupsApplication.setIsSelfManagedGroupsApp(true);
-    Group selfManagedGroup = new Group("selfManagedGroup");
-    selfManagedGroup.setUsers(List.of(new User("user2")));
-    selfManagedGroup.setIsSelfManaged(true);
+    // Groups named after selfManagedGroup are self-managed, as all groups of selfmanaged
     Mockito.when(
-            groupService.findById(
+            groupService.isSelfManaged(
                 Mockito.eq("test"), Mockito.any(), Mockito.matches("selfManagedGroup.*")))
-        .thenReturn(selfManagedGroup);
-    Group notSelfManagedGroup = new Group("notSelfManagedGroup");
-    notSelfManagedGroup.setUsers(List.of(new User("user3")));
-    notSelfManagedGroup.setIsSelfManaged(false);
+        .thenReturn(true);
     Mockito.when(
-            groupService.findById(
-                Mockito.eq("test"), Mockito.any(), Mockito.matches("notSelfManagedGroup.*")))
-        .thenReturn(notSelfManagedGroup);
-    Group isMember = new Group("ismember");
-    Group isNotMember = new Group("isnotmember");
-    selfManagedGroupsApplication.setGroups(
-        List.of(isMember, isNotMember, selfManagedGroup, notSelfManagedGroup));
-    Mockito.when(
-            groupService.findById(Mockito.eq("test"), Mockito.any(), Mockito.matches("ismember.*")))
-        .thenReturn(isMember);
-    Mockito.when(
-            groupService.findById(
-                Mockito.eq("test"), Mockito.any(), Mockito.matches("isnotmember.*")))
-        .thenReturn(isNotMember);
-    notSelfManagedGroupsApplication.setName("notselfmanaged");
-    notSelfManagedGroupsApplication.setIsSelfManagedGroupsApp(false);
-    Group group = new Group("group");
-    group.setUsers(List.of(new User("user")));
-    Mockito.when(groupService.findById(Mockito.eq("test"), Mockito.any(), Mockito.eq("group")))
-        .thenReturn(group);
-    notSelfManagedGroupsApplication.setGroups(
-        List.of(group, selfManagedGroup, notSelfManagedGroup));
-    Mockito.when(applicationService.findById("test", "selfmanaged"))
-        .thenReturn(selfManagedGroupsApplication);
-    Mockito.when(applicationService.findById("test", "notselfmanaged"))
-        .thenReturn(notSelfManagedGroupsApplication);
-    Mockito.when(
-            applicationService.findById(
-                eq("test"), and(not(eq("notselfmanaged")), not(eq("selfmanaged")))))
-        .thenThrow(ApplicationNotFoundException.class);
+            groupService.isSelfManaged(
+                Mockito.eq("test"),
+                Mockito.eq("selfmanaged"),
+                Mockito.matches("(ismember|isnotmember)_.*")))
+        .thenReturn(true);
   }
 
   @Test
@@ -381,4 +339,48 @@ public class PermissionServiceTests {
         permissions.isApplicationManager(sugoiUser, "test", "appli"),
         is(false));
   }
+
+  @Test
+  @DisplayName(
+      "Given users with the same roles, decisions compiled for the first one "
+          + "should apply to the second one on the right scope only")
+  void compiledPermissionsAreSharedByRoles() {
+    SugoiUser firstUser = new SugoiUser("first", List.of("role_Writer_realm1_sugoi"));
+    SugoiUser secondUser = new SugoiUser("second", List.of("ROLE_WRITER_REALM1_SUGOI"));
+    assertThat(
+        "First user is reader of realm1",
+        permissions.isReader(firstUser, "realm1", null),
+        is(true));
+    assertThat(
+        "Second user is reader of realm1",
+        permissions.isReader(secondUser, "realm1", null),
+        is(true));
+    assertThat(
+        "Second user is not reader of realm2",
+        permissions.isReader(secondUser, "realm2", null),
+        is(false));
+    assertThat(
+        "Second user is writer of realm1",
+        permissions.isWriter(secondUser, "REALM1", "storage"),
+        is(true));
+    assertThat(
+        "Second user has the realm in its writer realms",
+        permissions.getUserRealmWriter(secondUser),
+        is(permissions.getUserRealmWriter(firstUser)));
+  }
+
+  @Test
+  @DisplayName(
+      "Given a user without the role of a group, "
+          + "the group should not be read to check if it is self-managed")
+  void selfManagedGroupIsNotReadWithoutRole() {
+    SugoiUser sugoiUser = new SugoiUser("user", List.of("role_ismember_selfmanaged"));
+    assertThat(
+        "The user should not be able to add a member in a group he is not in",
+        permissions.isMemberOfSelfManagedGroup(
+            sugoiUser, "test", "selfmanaged", "selfManagedGroup_selfmanaged"),
+        is(false));
+    Mockito.verify(groupService, Mockito.never())
+        .isSelfManaged("test", "selfmanaged", "selfManagedGroup_selfmanaged");
+  }
 }
@@ -0,0 +1,77 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import fr.insee.sugoi.core.service.impl.RoleTemplateMatcher;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class RoleTemplateMatcherTest {
+
+  private final RoleTemplateMatcher matcher =
+      RoleTemplateMatcher.compile(
+          List.of(
+              "ROLE_SUGOI_$(realm)_ADMIN",
+              "ROLE_SUGOI_$(realm)_$(userStorage)_ADMIN",
+              "ROLE_ASI_$(application)",
+              "ROLE_*_Adminwildcard"));
+
+  @Test
+  @DisplayName(
+      "Given roles matching templates, "
+          + "then they should only match the scope they are given on")
+  public void matchesOnlyTheScopeOfTheRole() {
+    RoleTemplateMatcher.Selection selection =
+        matcher.select(List.of("ROLE_SUGOI_REALM1_ADMIN", "ROLE_SUGOI_REALM2_US1_ADMIN", "OTHER"));
+    assertThat(
+        "Realm admin on realm1", matcher.matches(selection, "realm1", null, null, null), is(true));
+    assertThat(
+        "Realm admin on realm1 whatever the userstorage",
+        matcher.matches(selection, "realm1", "us2", null, null),
+        is(true));
+    assertThat(
+        "Userstorage admin on us1 of realm2",
+        matcher.matches(selection, "realm2", "us1", null, null),
+        is(true));
+    assertThat(
+        "Not admin of us2 of realm2",
+        matcher.matches(selection, "realm2", "us2", null, null),
+        is(false));
+    assertThat(
+        "Not admin of realm3", matcher.matches(selection, "realm3", null, null, null), is(false));
+  }
+
+  @Test
+  @DisplayName("Given a template with a wildcard, then any role matching it should match")
+  public void matchesWildcardTemplates() {
+    RoleTemplateMatcher.Selection selection = matcher.select(List.of("ROLE_ANY_ADMINWILDCARD"));
+    assertThat(
+        "Wildcard admin matches", matcher.matches(selection, "realm", null, null, null), is(true));
+  }
+
+  @Test
+  @DisplayName("Given roles, then the rights they give should be extracted in the role order")
+  public void extractsRights() {
+    assertThat(
+        "Rights are realm, userstorage and application",
+        matcher.getRights(
+            List.of(
+                "ROLE_ASI_APPLI", "OTHER", "ROLE_SUGOI_REALM2_US1_ADMIN", "ROLE_SUGOI_R_ADMIN")),
+        is(List.of("*_*\\APPLI", "REALM2_US1", "R")));
+  }
+}
@@ -15,6 +15,7 @@ package fr.insee.sugoi.core.service;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
@@ -42,12 +43,16 @@ import java.io.ByteArrayInputStream;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -138,10 +143,15 @@ public class UserServiceTest {
     Mockito.when(storeProvider.getReaderStore("realm", "us1")).thenReturn(readerStore1);
     Mockito.when(readerStore1.getUser("Toto")).thenReturn(Optional.empty());
     Mockito.when(readerStore1.getUserByMail("mail@insee.fr")).thenReturn(Optional.of(new User()));
+    Mockito.when(
+            readerStore1.findUsernamesByUsernameOrMail(Mockito.any(), Mockito.eq("mail@insee.fr")))
+        .thenReturn(List.of("other"));
     Mockito.when(storeProvider.getReaderStore("realm", "us2")).thenReturn(readerStore2);
     Mockito.when(readerStore2.getUser("Toto")).thenReturn(Optional.of(user1));
     Mockito.when(readerStore2.getUser("donotexist")).thenReturn(Optional.empty());
-    Mockito.when(readerStore2.getUser("UserWithCertificate"))
+    Mockito.when(readerStore2.getUserWithBinaries("Toto")).thenReturn(Optional.of(user1));
+    Mockito.when(readerStore2.getUserWithBinaries("donotexist")).thenReturn(Optional.empty());
+    Mockito.when(readerStore2.getUserWithBinaries("UserWithCertificate"))
         .thenReturn(Optional.of(userWithCertificate));
 
     Mockito.when(readerStore1.searchUsers(Mockito.any(), Mockito.any(), Mockito.eq("AND")))
@@ -171,6 +181,28 @@ public class UserServiceTest {
     assertThat("get user Toto", userService.findById("realm", null, "Toto", false), is(user1));
   }
 
+  @Test
+  @DisplayName(
+      "Given we fetch a user without giving its userstorage, "
+          + "then the user should be read only once from its userstorage")
+  public void getUserOnMultipleStorageReadsUserOnce() {
+    User user = userService.findById("realm", null, "Toto", false);
+    assertThat(
+        "User is found on us2", user.getMetadatas().get(EventKeysConfig.USERSTORAGE), is("us2"));
+    Mockito.verify(readerStore2, Mockito.times(1)).getUser("Toto");
+  }
+
+  @Test
+  @DisplayName(
+      "Given we fetch a user by mail without giving its userstorage, "
+          + "then the user should be read only once from its userstorage")
+  public void getUserByMailOnMultipleStorage() {
+    User user = userService.findByMail("realm", null, "mail@insee.fr", false);
+    assertThat(
+        "User is found on us1", user.getMetadatas().get(EventKeysConfig.USERSTORAGE), is("us1"));
+    Mockito.verify(readerStore1, Mockito.times(1)).getUserByMail("mail@insee.fr");
+  }
+
   @Test
   @DisplayName(
       "Given we try to fetch a user on a realm that do not exist, "
@@ -303,6 +335,168 @@ public class UserServiceTest {
     assertThrows(
         UserAlreadyExistException.class,
         () -> userService.create("realm", "us2", user1, new ProviderRequest()));
+    Mockito.verify(readerStore1, Mockito.never()).getUserByMail(Mockito.any());
+    Mockito.verify(readerStore1, Mockito.never()).getUser(Mockito.any());
+  }
+
+  @Test
+  @DisplayName(
+      "Given we create a user whose username is already used on another userstorage, "
+          + "then the username and the mail should be checked with one request per userstorage")
+  public void createUserWithExistingUsername() {
+    Mockito.when(readerStore2.findUsernamesByUsernameOrMail("Toto", "toto@insee.fr"))
+        .thenReturn(List.of("toto"));
+    User user = new User("Toto");
+    user.setMail("toto@insee.fr");
+    UserAlreadyExistException exception =
+        assertThrows(
+            UserAlreadyExistException.class,
+            () -> userService.create("realm", "us1", user, new ProviderRequest()));
+    assertThat(
+        "Exception is about the username",
+        exception.getMessage(),
+        is("User Toto already exist in realm realm"));
+    Mockito.verify(readerStore1, Mockito.times(1))
+        .findUsernamesByUsernameOrMail("Toto", "toto@insee.fr");
+    Mockito.verify(readerStore2, Mockito.times(1))
+        .findUsernamesByUsernameOrMail("Toto", "toto@insee.fr");
+  }
+
+  @Test
+  @DisplayName(
+      "Given the writer store returns the user it has written, "
+          + "then the updated user should be returned without reading it again")
+  public void updateUserReturnsWrittenUser() {
+    User writtenUser = new User("Toto");
+    writtenUser.setMail("toto@insee.fr");
+    Mockito.when(writerStore.updateUser(Mockito.any(), Mockito.any()))
+        .thenReturn(
+            new ProviderResponse("Toto", null, ProviderResponseStatus.OK, writtenUser, null));
+    ProviderResponse response =
+        userService.update("realm", "us2", new User("Toto"), new ProviderRequest());
+    assertThat("Written user is returned", response.getEntity(), is(writtenUser));
+    assertThat(
+        "Written user has its userstorage",
+        writtenUser.getMetadatas().get(EventKeysConfig.USERSTORAGE),
+        is("us2"));
+    Mockito.verify(readerStore2, Mockito.never()).getUser("Toto");
+  }
+
+  @Test
+  @DisplayName(
+      "Given the caller asks for a minimal response, "
+          + "then the updated user should neither be read nor returned")
+  public void updateUserWithMinimalResponse() {
+    Mockito.when(writerStore.updateUser(Mockito.any(), Mockito.any()))
+        .thenReturn(new ProviderResponse("Toto", null, ProviderResponseStatus.OK, null, null));
+    ProviderRequest providerRequest = new ProviderRequest();
+    providerRequest.setMinimalResponse(true);
+    ProviderResponse response =
+        userService.update("realm", "us2", new User("Toto"), providerRequest);
+    assertThat("No user is returned", response.getEntity(), is(nullValue()));
+    Mockito.verify(readerStore2, Mockito.never()).getUser("Toto");
+  }
+
+  @Test
+  @DisplayName(
+      "Given we create a user without username, "
+          + "then a batch of generated ids should be checked once on each userstorage")
+  public void createUserWithGeneratedId() {
+    User user = new User();
+    ProviderRequest providerRequest = new ProviderRequest();
+    providerRequest.setAsynchronousAllowed(true);
+    userService.create("realm", "us2", user, providerRequest);
+    assertThat("An id is generated", user.getUsername().length(), is(7));
+    Mockito.verify(readerStore1, Mockito.times(1)).getExistingUserIds(Mockito.anyList());
+    Mockito.verify(readerStore2, Mockito.times(1)).getExistingUserIds(Mockito.anyList());
+    Mockito.verify(readerStore1, Mockito.never()).getUser(user.getUsername());
+  }
+
+  @Test
+  @DisplayName(
+      "Given we import users, "
+          + "then used or duplicated usernames should be rejected "
+          + "and the other users written at once")
+  public void importUsersShouldRejectUsedUsernames() {
+    mockExistingUserIds(readerStore1, "taken");
+    mockImportUsers();
+    List<ProviderResponse> responses = new ArrayList<>();
+    userService.importUsers(
+        "realm",
+        "us2",
+        List.of(new User("new1"), new User("taken"), new User("NEW1"), new User()).iterator(),
+        false,
+        new ProviderRequest(),
+        responses::add);
+    assertThat("A response per user", responses.size(), is(4));
+    assertThat("New user is written", responses.get(0).getStatus(), is(ProviderResponseStatus.OK));
+    assertThat(
+        "Used username is rejected", responses.get(1).getStatus(), is(ProviderResponseStatus.KO));
+    assertThat(
+        "Used username is rejected as existing",
+        responses.get(1).getException() instanceof UserAlreadyExistException);
+    assertThat(
+        "Duplicated username is rejected",
+        responses.get(2).getStatus(),
+        is(ProviderResponseStatus.KO));
+    assertThat("An id is generated", responses.get(3).getEntityId().length(), is(7));
+    Mockito.verify(writerStore, Mockito.times(1))
+        .importUsers(Mockito.argThat(users -> users.size() == 2), Mockito.eq(false), Mockito.any());
+  }
+
+  @Test
+  @DisplayName(
+      "Given we import users with upsert, "
+          + "then users of the userstorage should be written "
+          + "and users of other userstorages rejected")
+  public void importUsersWithUpsert() {
+    mockExistingUserIds(readerStore1, "taken");
+    mockExistingUserIds(readerStore2, "Toto");
+    mockImportUsers();
+    List<ProviderResponse> responses = new ArrayList<>();
+    userService.importUsers(
+        "realm",
+        "us2",
+        List.of(new User("Toto"), new User("taken")).iterator(),
+        true,
+        new ProviderRequest(),
+        responses::add);
+    assertThat(
+        "User of us2 is written", responses.get(0).getStatus(), is(ProviderResponseStatus.OK));
+    assertThat(
+        "User of us1 is rejected", responses.get(1).getStatus(), is(ProviderResponseStatus.KO));
+  }
+
+  @Test
+  @DisplayName(
+      "Given we import users on a realm checking mail unicity, "
+          + "then mails should be checked once per userstorage for the whole batch")
+  public void importUsersShouldRejectUsedMails() {
+    realm.getProperties().put(GlobalKeysConfig.VERIFY_MAIL_UNICITY, List.of("true"));
+    Mockito.when(readerStore1.findUsernamesByMails(Mockito.anyList()))
+        .thenReturn(Map.of("mail@insee.fr", List.of("other")));
+    mockImportUsers();
+    User userWithUsedMail = new User("a");
+    userWithUsedMail.setMail("MAIL@insee.fr");
+    User userWithNewMail = new User("b");
+    userWithNewMail.setMail("b@insee.fr");
+    User userWithDuplicatedMail = new User("c");
+    userWithDuplicatedMail.setMail("b@insee.fr");
+    List<ProviderResponse> responses = new ArrayList<>();
+    userService.importUsers(
+        "realm",
+        "us2",
+        List.of(userWithUsedMail, userWithNewMail, userWithDuplicatedMail).iterator(),
+        false,
+        new ProviderRequest(),
+        responses::add);
+    assertThat(
+        "Used mail is rejected", responses.get(0).getStatus(), is(ProviderResponseStatus.KO));
+    assertThat("New mail is written", responses.get(1).getStatus(), is(ProviderResponseStatus.OK));
+    assertThat(
+        "Duplicated mail is rejected", responses.get(2).getStatus(), is(ProviderResponseStatus.KO));
+    Mockito.verify(readerStore1, Mockito.times(1)).findUsernamesByMails(Mockito.anyList());
+    Mockito.verify(readerStore2, Mockito.times(1)).findUsernamesByMails(Mockito.anyList());
   }
 
   @Test
@@ -327,6 +521,104 @@ public class UserServiceTest {
             .anyMatch(u -> u.getMetadatas().get(EventKeysConfig.USERSTORAGE).equals("us2")));
   }
 
+  @Test
+  @DisplayName(
+      "Given we page through users on a realm with two storages of 3 and 5 users, "
+          + "then each page should resume every storage where it left off")
+  public void getUsersPagedOnEveryStorage() {
+    Mockito.when(readerStore1.searchUsers(Mockito.any(), Mockito.any(), Mockito.eq("OR")))
+        .thenAnswer(invocation -> mockPagedResultFromNUsersUs(invocation, "us1_", 3));
+    Mockito.when(readerStore2.searchUsers(Mockito.any(), Mockito.any(), Mockito.eq("OR")))
+        .thenAnswer(invocation -> mockPagedResultFromNUsersUs(invocation, "us2_", 5));
+    PageResult<User> firstPage =
+        userService.findByProperties(
+            realm.getName(),
+            null,
+            new User(),
+            new PageableResult(4, 0, null),
+            SearchType.OR,
+            false);
+    assertThat(
+        "First page is shared between storages",
+        firstPage.getResults().stream().map(User::getUsername).collect(Collectors.toList()),
+        is(List.of("us1_0", "us1_1", "us2_0", "us2_1")));
+    assertThat("First page has more results", firstPage.isHasMoreResult(), is(true));
+    PageResult<User> secondPage =
+        userService.findByProperties(
+            realm.getName(),
+            null,
+            new User(),
+            new PageableResult(4, 0, firstPage.getSearchToken()),
+            SearchType.OR,
+            false);
+    assertThat(
+        "Second page resumes both storages",
+        secondPage.getResults().stream().map(User::getUsername).collect(Collectors.toList()),
+        is(List.of("us1_2", "us2_2", "us2_3", "us2_4")));
+    assertThat("Second page is the last one", secondPage.isHasMoreResult(), is(false));
+  }
+
+  @Test
+  @DisplayName(
+      "Given a storage is searched again to fill the page, "
+          + "then its users should be counted once in the total")
+  public void storageSearchedTwiceIsCountedOnce() {
+    Mockito.when(readerStore1.searchUsers(Mockito.any(), Mockito.any(), Mockito.eq("OR")))
+        .thenAnswer(invocation -> mockPagedResultFromNUsersUs(invocation, "us1_", 1));
+    Mockito.when(readerStore2.searchUsers(Mockito.any(), Mockito.any(), Mockito.eq("OR")))
+        .thenAnswer(invocation -> mockPagedResultFromNUsersUs(invocation, "us2_", 10));
+    PageResult<User> page =
+        userService.findByProperties(
+            realm.getName(),
+            null,
+            new User(),
+            new PageableResult(6, 0, null),
+            SearchType.OR,
+            false);
+    assertThat("Page should be filled by the second storage", page.getResults().size(), is(6));
+    assertThat("Total should count each storage once", page.getTotalElements(), is(11));
+  }
+
+  @Test
+  public void streamedUsersAreReadWhileTheyAreExported() {
+    AtomicInteger read = new AtomicInteger();
+    Mockito.when(readerStore1.streamUsers(Mockito.any(), Mockito.any()))
+        .thenAnswer(invocation -> countingUsers(read));
+    Mockito.when(readerStore2.streamUsers(Mockito.any(), Mockito.any()))
+        .thenAnswer(invocation -> countingUsers(read));
+
+    List<Integer> readAtEachRow = new ArrayList<>();
+    try (Stream<User> users =
+        userService.streamByProperties("realm", null, new User(), SearchType.AND)) {
+      users.forEachOrdered(user -> readAtEachRow.add(read.get()));
+    }
+    assertThat("First row should only need one read", readAtEachRow.get(0), is(1));
+    assertThat("Every user should be exported", readAtEachRow.size(), is(2000));
+
+    read.set(0);
+    try (Stream<User> users =
+        userService.streamByProperties("realm", "us1", new User(), SearchType.AND)) {
+      users.iterator().next();
+    }
+    assertThat("A single userstorage should not be buffered", read.get(), is(1));
+
+    read.set(0);
+    try (Stream<User> users =
+        userService.streamByProperties("realm", null, new User(), SearchType.AND)) {
+      Iterator<User> iterator = users.iterator();
+      for (int i = 0; i < 1001; i++) {
+        iterator.next();
+      }
+    }
+    assertThat("Userstorages should not be buffered", read.get(), is(1001));
+  }
+
+  private Stream<User> countingUsers(AtomicInteger read) {
+    return IntStream.range(0, 1000)
+        .peek(i -> read.incrementAndGet())
+        .mapToObj(i -> new User("user" + i));
+  }
+
   @Test
   @DisplayName(
       "When getting a field set via a user userstorage defined attributes, "
@@ -344,6 +636,46 @@ public class UserServiceTest {
                 user1.getAttributes().get("personal_title"))));
   }
 
+  private void mockExistingUserIds(ReaderStore readerStore, String existingId) {
+    Mockito.when(readerStore.getExistingUserIds(Mockito.anyList()))
+        .thenAnswer(
+            invocation ->
+                ((List<String>) invocation.getArgument(0))
+                    .stream().filter(existingId::equals).collect(Collectors.toList()));
+  }
+
+  private void mockImportUsers() {
+    Mockito.when(writerStore.importUsers(Mockito.anyList(), Mockito.anyBoolean(), Mockito.any()))
+        .thenAnswer(
+            invocation ->
+                ((List<User>) invocation.getArgument(0))
+                    .stream()
+                        .map(
+                            user ->
+                                new ProviderResponse(
+                                    user.getUsername(),
+                                    null,
+                                    ProviderResponseStatus.OK,
+                                    null,
+                                    null))
+                        .collect(Collectors.toList()));
+  }
+
+  private PageResult<User> mockPagedResultFromNUsersUs(
+      InvocationOnMock invocation, String prefix, int nbUsersInUs) {
+    PageableResult pageable = invocation.getArgument(1);
+    int start = pageable.getSearchToken() != null ? Integer.parseInt(pageable.getSearchToken()) : 0;
+    int end = Math.min(start + pageable.getSize(), nbUsersInUs);
+    PageResult<User> pageResult = new PageResult<>();
+    for (int i = start; i < end; i++) {
+      pageResult.getResults().add(new User(prefix + i));
+    }
+    pageResult.setTotalElements(nbUsersInUs);
+    pageResult.setHasMoreResult(end < nbUsersInUs);
+    pageResult.setSearchToken(end < nbUsersInUs ? String.valueOf(end) : null);
+    return pageResult;
+  }
+
   private PageResult<User> mockPageResultFromNUsersUs(
       InvocationOnMock invocation, int nbUsersInUs) {
     PageResult<User> pageResult = new PageResult<>();
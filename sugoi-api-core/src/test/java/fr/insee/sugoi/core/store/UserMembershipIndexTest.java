@@ -0,0 +1,86 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.core.store;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import fr.insee.sugoi.core.realm.RealmProvider;
+import fr.insee.sugoi.core.store.impl.UserMembershipIndex;
+import fr.insee.sugoi.model.User;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+@SpringBootTest(classes = UserMembershipIndex.class)
+@TestPropertySource(properties = "fr.insee.sugoi.user-membership-filter.enabled=true")
+public class UserMembershipIndexTest {
+
+  @MockitoBean private StoreProvider storeProvider;
+
+  @MockitoBean private RealmProvider realmProvider;
+
+  @Mock private ReaderStore readerStore;
+
+  @Autowired private UserMembershipIndex userMembershipIndex;
+
+  @BeforeEach
+  public void setup() {
+    User toto = new User("Toto");
+    toto.setMail("Toto@insee.fr");
+    Mockito.when(storeProvider.getReaderStore("realm", "us1")).thenReturn(readerStore);
+    Mockito.when(readerStore.streamUsers(Mockito.any(), Mockito.eq("AND")))
+        .thenAnswer(invocation -> Stream.of(toto, new User("Titi")));
+  }
+
+  @Test
+  @DisplayName(
+      "Given the filters of a userstorage are built, "
+          + "then only users of the userstorage or written since may be contained")
+  public void filtersSkipUnknownUsers() throws InterruptedException {
+    for (int i = 0;
+        i < 100 && userMembershipIndex.mayContainUsername("realm", "us1", "absent");
+        i++) {
+      Thread.sleep(50);
+    }
+    assertThat(
+        "Absent user is not contained",
+        userMembershipIndex.mayContainUsername("realm", "us1", "absent"),
+        is(false));
+    assertThat(
+        "Username is compared in lower case",
+        userMembershipIndex.mayContainUsername("realm", "us1", "toto"),
+        is(true));
+    assertThat(
+        "Mail is compared in lower case",
+        userMembershipIndex.mayContainMail("realm", "us1", "toto@INSEE.fr"),
+        is(true));
+    assertThat(
+        "Absent mail is not contained",
+        userMembershipIndex.mayContainMail("realm", "us1", "titi@insee.fr"),
+        is(false));
+    userMembershipIndex.addUser("realm", "us1", new User("Created"));
+    assertThat(
+        "Written user is contained",
+        userMembershipIndex.mayContainUsername("realm", "us1", "created"),
+        is(true));
+  }
+}
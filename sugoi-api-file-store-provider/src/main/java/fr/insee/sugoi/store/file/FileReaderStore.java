@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.slf4j.Logger;
@@ -82,6 +83,51 @@ public class FileReaderStore implements ReaderStore {
     }
   }
 
+  /** Users are stored as a whole so binaries are already loaded by getUser */
+  @Override
+  public Optional<User> getUserWithBinaries(String id) {
+    return getUser(id);
+  }
+
+  @Override
+  public List<String> getExistingUserIds(List<String> ids) {
+    return ids.stream().filter(id -> getUser(id).isPresent()).collect(Collectors.toList());
+  }
+
+  @Override
+  public List<String> findUsernamesByUsernameOrMail(String username, String mail) {
+    List<String> usernames = new ArrayList<>();
+    if (username != null) {
+      getUser(username).ifPresent(user -> usernames.add(user.getUsername()));
+    }
+    if (mail != null) {
+      getUserByMail(mail)
+          .filter(user -> !usernames.contains(user.getUsername()))
+          .ifPresent(user -> usernames.add(user.getUsername()));
+    }
+    return usernames;
+  }
+
+  @Override
+  public Map<String, List<String>> findUsernamesByMails(List<String> mails) {
+    Map<String, List<String>> usernamesByMail = new HashMap<>();
+    for (String mail : mails) {
+      if (mail == null || usernamesByMail.containsKey(mail.toLowerCase())) {
+        continue;
+      }
+      User searchedUser = new User();
+      searchedUser.setMail(mail);
+      List<String> usernames =
+          searchUsers(searchedUser, null, null).getResults().stream()
+              .map(User::getUsername)
+              .collect(Collectors.toList());
+      if (!usernames.isEmpty()) {
+        usernamesByMail.put(mail.toLowerCase(), usernames);
+      }
+    }
+    return usernamesByMail;
+  }
+
   @Override
   public PageResult<User> searchUsers(
       User searchUser, PageableResult pageable, String searchOperator) {
@@ -94,6 +140,17 @@ public class FileReaderStore implements ReaderStore {
     return pageResult;
   }
 
+  @Override
+  public PageResult<User> searchUsers(
+      User searchUser, PageableResult pageable, String searchOperator, List<String> properties) {
+    return searchUsers(searchUser, pageable, searchOperator);
+  }
+
+  @Override
+  public Stream<User> streamUsers(User searchUser, String searchOperator) {
+    return searchUsers(searchUser, null, searchOperator).getResults().stream();
+  }
+
   @Override
   public PageResult<User> fuzzySearchUsers(
       User userFilter, PageableResult pageable, String searchOperator) {
@@ -110,6 +167,11 @@ public class FileReaderStore implements ReaderStore {
     }
   }
 
+  @Override
+  public Optional<Organization> getOrganizationWithBinaries(String id) {
+    return getOrganization(id);
+  }
+
   @Override
   public PageResult<User> getUsersInGroup(String appName, String groupName) {
     PageResult<User> pageResult = new PageResult<>();
@@ -155,6 +217,24 @@ public class FileReaderStore implements ReaderStore {
         : Optional.empty();
   }
 
+  @Override
+  public Optional<Boolean> isGroupSelfManaged(String appName, String groupName) {
+    Optional<Application> application = getApplication(appName);
+    Optional<Group> group =
+        application
+            .map(Application::getGroups)
+            .flatMap(
+                groups ->
+                    groups.stream()
+                        .filter(g -> g.getName().equalsIgnoreCase(groupName))
+                        .findFirst());
+    return group.map(
+        g ->
+            g.getIsSelfManaged() != null
+                ? g.getIsSelfManaged()
+                : Boolean.TRUE.equals(application.get().getIsSelfManagedGroupsApp()));
+  }
+
   @Override
   public PageResult<Group> searchGroups(
       String appName, Group groupFilter, PageableResult pageable, String searchOperator) {
@@ -27,12 +27,15 @@ import fr.insee.sugoi.model.RealmConfigKeys;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.exceptions.ApplicationNotFoundException;
 import fr.insee.sugoi.model.exceptions.GroupAlreadyExistException;
+import fr.insee.sugoi.model.exceptions.UserAlreadyExistException;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -100,6 +103,32 @@ public class FileWriterStore implements WriterStore {
     }
   }
 
+  @Override
+  public List<ProviderResponse> importUsers(
+      List<User> users, boolean upsert, ProviderRequest providerRequest) {
+    fileReaderStore.setResourceLoader(resourceLoader);
+    List<ProviderResponse> responses = new ArrayList<>();
+    for (User user : users) {
+      try {
+        if (fileReaderStore.getUser(user.getUsername()).isEmpty()) {
+          responses.add(createUser(user, providerRequest));
+        } else if (upsert) {
+          responses.add(updateUser(user, providerRequest));
+        } else {
+          throw new UserAlreadyExistException(
+              "User "
+                  + user.getUsername()
+                  + " already exist in realm "
+                  + config.get(GlobalKeysConfig.REALM));
+        }
+      } catch (RuntimeException e) {
+        responses.add(
+            new ProviderResponse(user.getUsername(), null, ProviderResponseStatus.KO, null, e));
+      }
+    }
+    return responses;
+  }
+
   @Override
   public ProviderResponse deleteGroup(
       String appName, String groupName, ProviderRequest providerRequest) {
@@ -333,6 +362,54 @@ public class FileWriterStore implements WriterStore {
     }
   }
 
+  @Override
+  public ProviderResponse addUsersToGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    List<String> members = getGroupMembers(appName, groupName);
+    userIds.stream()
+        .distinct()
+        .filter(userId -> members.stream().noneMatch(userId::equalsIgnoreCase))
+        .forEach(userId -> addUserToGroup(appName, groupName, userId, providerRequest));
+    ProviderResponse response = new ProviderResponse();
+    response.setEntityId(groupName);
+    response.setStatus(ProviderResponseStatus.OK);
+    return response;
+  }
+
+  @Override
+  public ProviderResponse deleteUsersFromGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    userIds.stream()
+        .distinct()
+        .forEach(userId -> deleteUserFromGroup(appName, groupName, userId, providerRequest));
+    ProviderResponse response = new ProviderResponse();
+    response.setEntityId(groupName);
+    response.setStatus(ProviderResponseStatus.OK);
+    return response;
+  }
+
+  @Override
+  public ProviderResponse replaceGroupMembers(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    getGroupMembers(appName, groupName).stream()
+        .filter(member -> userIds.stream().noneMatch(member::equalsIgnoreCase))
+        .forEach(member -> deleteUserFromGroup(appName, groupName, member, providerRequest));
+    return addUsersToGroup(appName, groupName, userIds, providerRequest);
+  }
+
+  private List<String> getGroupMembers(String appName, String groupName) {
+    fileReaderStore.setResourceLoader(resourceLoader);
+    Group group =
+        fileReaderStore
+            .getGroup(appName, groupName)
+            .orElseThrow(
+                () ->
+                    new RuntimeException("Group " + groupName + " doesn't exist in " + appName));
+    return group.getUsers() != null
+        ? group.getUsers().stream().map(User::getUsername).collect(Collectors.toList())
+        : new ArrayList<>();
+  }
+
   @Override
   public ProviderResponse reinitPassword(
       String userId,
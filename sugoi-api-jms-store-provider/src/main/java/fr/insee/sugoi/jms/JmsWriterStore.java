@@ -27,7 +27,10 @@ import fr.insee.sugoi.model.Organization;
 import fr.insee.sugoi.model.Realm;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.UserStorage;
+import fr.insee.sugoi.model.exceptions.StoreException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.jms.JmsException;
@@ -90,6 +93,43 @@ public class JmsWriterStore implements WriterStore {
     return checkAndSend(Method.UPDATE_USER, params, updatedUser.getUsername(), providerRequest);
   }
 
+  /**
+   * All the users are sent in a single message. When the request is synchronous, the users rejected
+   * by the receiver are reported by their position in the message, the other users get the status
+   * of the request.
+   */
+  @Override
+  public List<ProviderResponse> importUsers(
+      List<User> users, boolean upsert, ProviderRequest providerRequest) {
+    Map<String, Object> params = new HashMap<>();
+    params.put(JmsAtttributes.USERS, users);
+    params.put(JmsAtttributes.UPSERT, upsert);
+    params.put(JmsAtttributes.REALM, realm.getName());
+    params.put(JmsAtttributes.USER_STORAGE, userStorage.getName());
+    ProviderResponse response = checkAndSend(Method.IMPORT_USERS, params, null, providerRequest);
+    Map<?, ?> rejectedUsers =
+        response.getEntity() instanceof Map ? (Map<?, ?>) response.getEntity() : Map.of();
+    List<ProviderResponse> responses = new ArrayList<>();
+    for (int i = 0; i < users.size(); i++) {
+      Object rejection = rejectedUsers.get(String.valueOf(i));
+      responses.add(
+          rejection != null
+              ? new ProviderResponse(
+                  users.get(i).getUsername(),
+                  response.getRequestId(),
+                  ProviderResponseStatus.KO,
+                  null,
+                  new StoreException(rejection.toString(), null))
+              : new ProviderResponse(
+                  users.get(i).getUsername(),
+                  response.getRequestId(),
+                  response.getStatus(),
+                  null,
+                  null));
+    }
+    return responses;
+  }
+
   @Override
   public ProviderResponse deleteGroup(
       String appName, String groupName, ProviderRequest providerRequest) {
@@ -178,6 +218,43 @@ public class JmsWriterStore implements WriterStore {
     return checkAndSend(Method.ADD_USER_TO_GROUP, params, groupName, providerRequest);
   }
 
+  @Override
+  public ProviderResponse addUsersToGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return sendGroupMembers(
+        Method.ADD_USERS_TO_GROUP, appName, groupName, userIds, providerRequest);
+  }
+
+  @Override
+  public ProviderResponse deleteUsersFromGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return sendGroupMembers(
+        Method.DELETE_USERS_FROM_GROUP, appName, groupName, userIds, providerRequest);
+  }
+
+  @Override
+  public ProviderResponse replaceGroupMembers(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return sendGroupMembers(
+        Method.REPLACE_GROUP_MEMBERS, appName, groupName, userIds, providerRequest);
+  }
+
+  /** All the users are sent in a single message */
+  private ProviderResponse sendGroupMembers(
+      String method,
+      String appName,
+      String groupName,
+      List<String> userIds,
+      ProviderRequest providerRequest) {
+    Map<String, Object> params = new HashMap<>();
+    params.put(JmsAtttributes.APP_NAME, appName);
+    params.put(JmsAtttributes.GROUP_NAME, groupName);
+    params.put(JmsAtttributes.USER_IDS, userIds);
+    params.put(JmsAtttributes.REALM, realm.getName());
+    params.put(JmsAtttributes.USER_STORAGE, userStorage.getName());
+    return checkAndSend(method, params, groupName, providerRequest);
+  }
+
   @Override
   public ProviderResponse reinitPassword(
       String userId,
@@ -33,7 +33,10 @@ import java.io.ByteArrayInputStream;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -84,6 +87,28 @@ public class JmsRequestRouter {
           User updatedUser = converter.toUser(request.getmethodParams().get(JmsAtttributes.USER));
           userService.update(realm, userStorage, updatedUser, providerRequest);
           break;
+        case Method.IMPORT_USERS:
+          List<User> importedUsers =
+              converter.toUsers(request.getmethodParams().get(JmsAtttributes.USERS));
+          boolean upsert = (Boolean) request.getmethodParams().get(JmsAtttributes.UPSERT);
+          // rejected users by position, reported to a synchronous sender
+          Map<String, String> rejectedUsers = new LinkedHashMap<>();
+          AtomicInteger position = new AtomicInteger();
+          userService.importUsers(
+              realm,
+              userStorage,
+              importedUsers.iterator(),
+              upsert,
+              providerRequest,
+              userResponse -> {
+                int userPosition = position.getAndIncrement();
+                if (userResponse.getStatus() == ProviderResponseStatus.KO) {
+                  rejectedUsers.put(
+                      String.valueOf(userPosition), String.valueOf(userResponse.getException()));
+                }
+              });
+          response.setEntity(rejectedUsers);
+          break;
         case Method.DELETE_GROUP:
           String appName = (String) request.getmethodParams().get(JmsAtttributes.APP_NAME);
           String groupName = (String) request.getmethodParams().get(JmsAtttributes.GROUP_NAME);
@@ -128,6 +153,39 @@ public class JmsRequestRouter {
           groupService.addUserToGroup(
               realm, userStorage, userId, appName, groupName, providerRequest);
           break;
+        case Method.ADD_USERS_TO_GROUP:
+          appName = (String) request.getmethodParams().get(JmsAtttributes.APP_NAME);
+          groupName = (String) request.getmethodParams().get(JmsAtttributes.GROUP_NAME);
+          groupService.addUsersToGroup(
+              realm,
+              userStorage,
+              converter.toListString(request.getmethodParams().get(JmsAtttributes.USER_IDS)),
+              appName,
+              groupName,
+              providerRequest);
+          break;
+        case Method.DELETE_USERS_FROM_GROUP:
+          appName = (String) request.getmethodParams().get(JmsAtttributes.APP_NAME);
+          groupName = (String) request.getmethodParams().get(JmsAtttributes.GROUP_NAME);
+          groupService.deleteUsersFromGroup(
+              realm,
+              userStorage,
+              converter.toListString(request.getmethodParams().get(JmsAtttributes.USER_IDS)),
+              appName,
+              groupName,
+              providerRequest);
+          break;
+        case Method.REPLACE_GROUP_MEMBERS:
+          appName = (String) request.getmethodParams().get(JmsAtttributes.APP_NAME);
+          groupName = (String) request.getmethodParams().get(JmsAtttributes.GROUP_NAME);
+          groupService.replaceGroupMembers(
+              realm,
+              userStorage,
+              converter.toListString(request.getmethodParams().get(JmsAtttributes.USER_IDS)),
+              appName,
+              groupName,
+              providerRequest);
+          break;
         case Method.REINIT_PWD:
           userId = (String) request.getmethodParams().get(JmsAtttributes.USER_ID);
           boolean pwdChangeRequest =
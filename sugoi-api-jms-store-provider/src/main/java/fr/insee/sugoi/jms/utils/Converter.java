@@ -55,6 +55,12 @@ public class Converter {
     return null;
   }
 
+  public List<User> toUsers(Object object) {
+    return object != null
+        ? ((List<Object>) object).stream().map(this::toUser).collect(Collectors.toList())
+        : null;
+  }
+
   public Organization toOrganization(Object object) {
     LinkedHashMap linkedHashMap = (LinkedHashMap) object;
     if (linkedHashMap != null) {
@@ -147,6 +153,10 @@ public class Converter {
     return (Map<String, String>) linkedHashMap;
   }
 
+  public List<String> toListString(Object object) {
+    return object != null ? new ArrayList<>((List<String>) object) : null;
+  }
+
   public byte[] convertToBytes(Object object) throws IOException {
     try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(bos)) {
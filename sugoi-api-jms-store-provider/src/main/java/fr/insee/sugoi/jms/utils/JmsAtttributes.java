@@ -20,8 +20,14 @@ public class JmsAtttributes {
 
   public static final String USER_ID = "userId";
 
+  public static final String USER_IDS = "userIds";
+
   public static final String USER = "user";
 
+  public static final String USERS = "users";
+
+  public static final String UPSERT = "upsert";
+
   public static final String APP_NAME = "appName";
 
   public static final String GROUP_NAME = "groupName";
@@ -21,6 +21,8 @@ public class Method {
 
   public static final String UPDATE_USER = "updateUser";
 
+  public static final String IMPORT_USERS = "importUsers";
+
   public static final String DELETE_GROUP = "deleteGroup";
 
   public static final String CREATE_GROUP = "createGroup";
@@ -37,6 +39,12 @@ public class Method {
 
   public static final String ADD_USER_TO_GROUP = "addUserToGroup";
 
+  public static final String ADD_USERS_TO_GROUP = "addUsersToGroup";
+
+  public static final String DELETE_USERS_FROM_GROUP = "deleteUsersFromGroup";
+
+  public static final String REPLACE_GROUP_MEMBERS = "replaceGroupMembers";
+
   public static final String DELETE_USER_FROM_MANAGER_GROUP = "deleteUserFromManagerGroup";
 
   public static final String ADD_USER_TO_MANAGER_GROUP = "addUserToManagerGroup";
@@ -96,6 +96,30 @@ public class JmsConfiguration {
     return template;
   }
 
+  /** Template sending to topics, which are read by every instance */
+  @Bean
+  @Qualifier("topic")
+  public JmsTemplate topicJmsTemplate() {
+    JmsTemplate template = new JmsTemplate();
+    template.setPubSubDomain(true);
+    template.setExplicitQosEnabled(true);
+    template.setTimeToLive(synchronousExpiration);
+    template.setConnectionFactory(connectionFactory());
+    template.setMessageConverter(messageConverter());
+    return template;
+  }
+
+  @Bean
+  public JmsListenerContainerFactory<?> topicFactory(
+      ConnectionFactory connectionFactory,
+      DefaultJmsListenerContainerFactoryConfigurer configurer) {
+    DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
+    factory.setMessageConverter(messageConverter());
+    configurer.configure(factory, connectionFactory);
+    factory.setPubSubDomain(true);
+    return factory;
+  }
+
   @Bean
   public JmsListenerContainerFactory<?> myFactory(
       ConnectionFactory connectionFactory,
@@ -0,0 +1,68 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.jms.realm;
+
+import fr.insee.sugoi.core.realm.RealmChange;
+import fr.insee.sugoi.core.realm.RealmChangeBroadcaster;
+import fr.insee.sugoi.core.realm.RealmChangeBus;
+import fr.insee.sugoi.jms.exception.BrokerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.annotation.JmsListener;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends the realm changes made on this instance to a topic of the broker and applies the changes
+ * read on this topic, so that every instance evicts the realms and rebuilds the stores which
+ * changed.
+ */
+@Component
+@ConditionalOnProperty(name = "fr.insee.sugoi.jms.topic.realm-changes.name", matchIfMissing = false)
+public class JmsRealmChangeBroadcaster implements RealmChangeBroadcaster {
+
+  private static final Logger logger = LoggerFactory.getLogger(JmsRealmChangeBroadcaster.class);
+
+  @Value("${fr.insee.sugoi.jms.topic.realm-changes.name}")
+  private String topicName;
+
+  @Autowired
+  @Qualifier("topic")
+  JmsTemplate jmsTemplateTopic;
+
+  @Autowired RealmChangeBus realmChangeBus;
+
+  @Override
+  public void broadcast(RealmChange change) {
+    try {
+      jmsTemplateTopic.convertAndSend(topicName, change);
+      logger.debug("Send {} in topic {}", change, topicName);
+    } catch (JmsException e) {
+      throw new BrokerException(e);
+    }
+  }
+
+  @JmsListener(
+      destination = "${fr.insee.sugoi.jms.topic.realm-changes.name}",
+      containerFactory = "topicFactory")
+  public void onRealmChange(RealmChange change) {
+    logger.debug("New realm change from topic {}: {}", topicName, change);
+    realmChangeBus.receive(change);
+  }
+}
@@ -0,0 +1,45 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.jms;
+
+import fr.insee.sugoi.core.realm.RealmChange;
+import fr.insee.sugoi.core.realm.RealmChangeBus;
+import fr.insee.sugoi.jms.realm.JmsRealmChangeBroadcaster;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+@ActiveProfiles("brokerEmbedded")
+@SpringBootTest(properties = "fr.insee.sugoi.jms.topic.realm-changes.name=topic.realm-changes")
+public class JmsRealmChangeBroadcasterTest {
+
+  @MockitoBean RealmChangeBus realmChangeBus;
+
+  @Autowired JmsRealmChangeBroadcaster broadcaster;
+
+  @Test
+  public void broadcastChangeIsReceived() {
+    broadcaster.broadcast(new RealmChange("instance1", "realm", "us1"));
+    Mockito.verify(realmChangeBus, Mockito.timeout(5000))
+        .receive(
+            Mockito.argThat(
+                change ->
+                    "instance1".equals(change.getOrigin())
+                        && "realm".equals(change.getRealmName())
+                        && "us1".equals(change.getUserStorageName())));
+  }
+}
@@ -14,13 +14,17 @@
 package fr.insee.sugoi.config;
 
 import com.unboundid.ldap.sdk.AddRequest;
+import com.unboundid.ldap.sdk.DN;
 import com.unboundid.ldap.sdk.Filter;
 import com.unboundid.ldap.sdk.LDAPConnectionPool;
 import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPSearchException;
 import com.unboundid.ldap.sdk.ModifyRequest;
+import com.unboundid.ldap.sdk.ResultCode;
 import com.unboundid.ldap.sdk.SearchRequest;
 import com.unboundid.ldap.sdk.SearchResultEntry;
 import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.util.StaticUtils;
 import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
 import fr.insee.sugoi.core.configuration.UiMappingService;
 import fr.insee.sugoi.core.model.ProviderRequest;
@@ -40,14 +44,19 @@ import fr.insee.sugoi.model.UserStorage;
 import fr.insee.sugoi.model.exceptions.RealmAlreadyExistException;
 import fr.insee.sugoi.model.exceptions.RealmNotFoundException;
 import fr.insee.sugoi.model.exceptions.RealmWriteFailureException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -130,17 +139,41 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
   @Value("${fr.insee.sugoi.organizations.maxoutputsize:1000}")
   private String defaultOrganizationMaxOutputSize;
 
+  /** Operational attributes telling whether an entry changed since it was last read */
+  private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+  private static final String ENTRY_CSN = "entryCSN";
+
+  /**
+   * Realms already mapped, by normalized DN of the realm entry, with the versions of the entries
+   * they were mapped from. A realm whose entries did not change is not mapped again.
+   */
+  private final Map<String, MappedRealm> mappedRealms = new ConcurrentHashMap<>();
+
+  /**
+   * Entries of the last findAll, by normalized DN, kept up to date by reading only the entries
+   * changed since then. Guards the fields below.
+   */
+  private final Map<String, SearchResultEntry> subtreeEntries = new LinkedHashMap<>();
+
+  /** Highest modifyTimestamp read, null to read the whole subtree again */
+  private String lastModifyTimestamp;
+
+  private Date lastModified;
+
+  /** Highest entryCSN read, null if the directory does not maintain it */
+  private String lastEntryCsn;
+
   @Override
   public Optional<Realm> load(String realmName) {
-    logger.info("Loading configuration from ldap://{}:{}/{}", url, port, baseDn);
+    logger.debug("Loading realm {} from ldap://{}:{}/{}", realmName, url, port, baseDn);
     try {
-      SearchResultEntry realmEntry = ldapPoolConnection().getEntry(getRealmDn(realmName));
-      if (realmEntry != null) {
-        logger.debug("Found entry {}", realmEntry.getDN());
-        return Optional.of(generateRealmFromSearchEntry(realmEntry));
-      } else {
+      return toRealms(searchSubtree(getRealmDn(realmName)), null).stream().findFirst();
+    } catch (LDAPSearchException e) {
+      if (e.getResultCode().equals(ResultCode.NO_SUCH_OBJECT)) {
         return Optional.empty();
       }
+      throw new RealmNotFoundException("Impossible de charger le realm " + realmName, e);
     } catch (LDAPException e) {
       throw new RealmNotFoundException("Impossible de charger le realm " + realmName, e);
     }
@@ -148,21 +181,29 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
 
   @Override
   public List<Realm> findAll() {
-    logger.info("Loading realms configurations from ldap://{}:{}/{}", url, port, baseDn);
+    logger.debug("Loading realms configurations from ldap://{}:{}/{}", url, port, baseDn);
     try {
-      SearchRequest searchRequest =
-          new SearchRequest(baseDn, SearchScope.ONE, LdapFilter.create(getRealmRDN("*")), "*", "+");
-      List<Realm> realms = new ArrayList<>();
-      for (SearchResultEntry searchEntry :
-          ldapPoolConnection().search(searchRequest).getSearchEntries()) {
-        realms.add(generateRealmFromSearchEntry(searchEntry));
+      List<SearchResultEntry> entries;
+      synchronized (subtreeEntries) {
+        if (lastModifyTimestamp == null || !readChangedEntries()) {
+          readAllEntries();
+        }
+        entries = new ArrayList<>(subtreeEntries.values());
       }
+      Set<String> realmDns = new HashSet<>();
+      List<Realm> realms = toRealms(entries, LdapFilter.create(getRealmRDN("*")), realmDns);
+      mappedRealms.keySet().retainAll(realmDns);
       return realms;
     } catch (LDAPException e) {
       throw new RealmNotFoundException("Impossible de charger les realms", e);
     }
   }
 
+  @Override
+  public void evict(String realmName) {
+    forget(realmName);
+  }
+
   private void addDefaultProperties(
       UserStorage userstorage, Map<RealmConfigKeys, List<String>> defaultRealmProperties) {
     for (Entry<RealmConfigKeys, List<String>> entry : defaultRealmProperties.entrySet()) {
@@ -186,6 +227,7 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
                   UserStorageLdapMapper.mapToAttributes(userStorage));
           ldapConnectionPoolAuthenticated().add(userStorageAddRequest);
         }
+        forget(realm.getName());
         ProviderResponse response = new ProviderResponse();
         response.setStatus(ProviderResponseStatus.OK);
         response.setEntityId(realm.getName());
@@ -215,6 +257,7 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
                 getRealmDn(realm.getName()),
                 RealmLdapMapper.createMods(realm, realmEntryPattern, baseDn));
         ldapConnectionPoolAuthenticated().modify(modifyRequest);
+        forget(realm.getName());
         ProviderResponse response = new ProviderResponse();
         response.setStatus(ProviderResponseStatus.OK);
         response.setEntityId(realm.getName());
@@ -243,6 +286,7 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
         }
       }
       ldapConnectionPoolAuthenticated().delete(getRealmDn(realmName));
+      forget(realmName);
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(realmName);
@@ -252,33 +296,215 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
     }
   }
 
-  private List<UserStorage> loadUserStorages(
-      String realmName, Map<RealmConfigKeys, List<String>> defaultRealmProperties)
-      throws LDAPException {
-    List<UserStorage> userstorages =
+  /** Realm entries and user storage entries under dn, read in a single search */
+  private List<SearchResultEntry> searchSubtree(String dn) throws LDAPSearchException {
+    return ldapPoolConnection()
+        .search(
+            new SearchRequest(
+                dn,
+                SearchScope.SUB,
+                Filter.createPresenceFilter("objectClass"),
+                "*",
+                MODIFY_TIMESTAMP,
+                ENTRY_CSN))
+        .getSearchEntries();
+  }
+
+  /** Read the whole subtree and record the highest versions of its entries */
+  private void readAllEntries() throws LDAPException {
+    subtreeEntries.clear();
+    lastModifyTimestamp = null;
+    lastModified = null;
+    lastEntryCsn = null;
+    boolean versioned = true;
+    for (SearchResultEntry entry : searchSubtree(baseDn)) {
+      subtreeEntries.put(entry.getParsedDN().toNormalizedString(), entry);
+      versioned &= recordVersion(entry);
+    }
+    if (!versioned) {
+      // changes of an entry without modifyTimestamp cannot be searched for
+      lastModifyTimestamp = null;
+    }
+  }
+
+  /**
+   * Update the entries of the last findAll: deleted entries are found with a search returning only
+   * DNs, created and modified entries with a search on the versions higher than those already
+   * read.
+   *
+   * @return false if the entries read do not cover the subtree, which must then be read again
+   */
+  private boolean readChangedEntries() throws LDAPException {
+    Set<String> currentDns = new HashSet<>();
+    for (SearchResultEntry entry :
         ldapPoolConnection()
             .search(
-                getRealmDn(realmName),
-                SearchScope.SUBORDINATE_SUBTREE,
-                Filter.create("objectClass=*"))
-            .getSearchEntries()
-            .stream()
-            .map(
-                searchEntry -> UserStorageLdapMapper.mapFromAttributes(searchEntry.getAttributes()))
-            .collect(Collectors.toList());
-    userstorages.stream()
-        .forEach(userStorage -> addDefaultProperties(userStorage, defaultRealmProperties));
-    return userstorages;
+                new SearchRequest(
+                    baseDn,
+                    SearchScope.SUB,
+                    Filter.createPresenceFilter("objectClass"),
+                    SearchRequest.NO_ATTRIBUTES))
+            .getSearchEntries()) {
+      currentDns.add(entry.getParsedDN().toNormalizedString());
+    }
+    subtreeEntries.keySet().retainAll(currentDns);
+    Filter changed = Filter.createGreaterOrEqualFilter(MODIFY_TIMESTAMP, lastModifyTimestamp);
+    if (lastEntryCsn != null) {
+      changed =
+          Filter.createORFilter(
+              changed, Filter.createGreaterOrEqualFilter(ENTRY_CSN, lastEntryCsn));
+    }
+    boolean versioned = true;
+    for (SearchResultEntry entry :
+        ldapPoolConnection()
+            .search(
+                new SearchRequest(
+                    baseDn, SearchScope.SUB, changed, "*", MODIFY_TIMESTAMP, ENTRY_CSN))
+            .getSearchEntries()) {
+      String dn = entry.getParsedDN().toNormalizedString();
+      if (currentDns.contains(dn)) {
+        subtreeEntries.put(dn, entry);
+        versioned &= recordVersion(entry);
+      }
+    }
+    return versioned && subtreeEntries.keySet().containsAll(currentDns);
   }
 
-  private Realm generateRealmFromSearchEntry(SearchResultEntry searchEntry) throws LDAPException {
-    Realm realm = RealmLdapMapper.mapFromSearchEntry(searchEntry);
-    realm.setUserStorages(loadUserStorages(realm.getName(), realm.getProperties()));
+  /** @return false if the entry has no modifyTimestamp */
+  private boolean recordVersion(SearchResultEntry entry) {
+    String modifyTimestamp = entry.getAttributeValue(MODIFY_TIMESTAMP);
+    if (modifyTimestamp == null) {
+      return false;
+    }
+    try {
+      Date modified = StaticUtils.decodeGeneralizedTime(modifyTimestamp);
+      if (lastModified == null || modified.after(lastModified)) {
+        lastModified = modified;
+        lastModifyTimestamp = modifyTimestamp;
+      }
+    } catch (ParseException e) {
+      return false;
+    }
+    String entryCsn = entry.getAttributeValue(ENTRY_CSN);
+    if (entryCsn != null && (lastEntryCsn == null || entryCsn.compareTo(lastEntryCsn) > 0)) {
+      lastEntryCsn = entryCsn;
+    }
+    return true;
+  }
+
+  private List<Realm> toRealms(List<SearchResultEntry> entries, Filter realmFilter)
+      throws LDAPException {
+    return toRealms(entries, realmFilter, new HashSet<>());
+  }
+
+  /**
+   * Assemble realms from the entries of a subtree search. Realm entries are the entries right under
+   * the base DN, user storages of a realm are all the entries under its realm entry.
+   *
+   * @param entries the entries read, in any order
+   * @param realmFilter filter that realm entries must match, or null to take them all
+   * @param realmDns filled with the normalized DN of each realm found
+   * @return the realms in the order of their entries
+   */
+  private List<Realm> toRealms(
+      List<SearchResultEntry> entries, Filter realmFilter, Set<String> realmDns)
+      throws LDAPException {
+    DN base = new DN(baseDn);
+    Map<DN, List<SearchResultEntry>> entriesByRealm = new LinkedHashMap<>();
+    for (SearchResultEntry entry : entries) {
+      if (base.equals(entry.getParentDN())
+          && (realmFilter == null || realmFilter.matchesEntry(entry))) {
+        entriesByRealm.put(entry.getParsedDN(), new ArrayList<>(List.of(entry)));
+      }
+    }
+    for (SearchResultEntry entry : entries) {
+      DN realmDn = entry.getParentDN();
+      while (realmDn != null && !base.equals(realmDn.getParent())) {
+        realmDn = realmDn.getParent();
+      }
+      if (realmDn != null && entriesByRealm.containsKey(realmDn)) {
+        entriesByRealm.get(realmDn).add(entry);
+      }
+    }
+    List<Realm> realms = new ArrayList<>();
+    for (Entry<DN, List<SearchResultEntry>> realmEntries : entriesByRealm.entrySet()) {
+      String realmDn = realmEntries.getKey().toNormalizedString();
+      String version = getVersion(realmEntries.getValue());
+      MappedRealm mapped = mappedRealms.get(realmDn);
+      if (mapped == null || version == null || !version.equals(mapped.version)) {
+        mapped = new MappedRealm(toRealm(realmEntries.getValue()), version);
+        if (version != null) {
+          mappedRealms.put(realmDn, mapped);
+        }
+      }
+      realmDns.add(realmDn);
+      realms.add(mapped.realm);
+    }
+    return realms;
+  }
+
+  /** @param entries the realm entry followed by the user storage entries */
+  private Realm toRealm(List<SearchResultEntry> entries) {
+    Realm realm = RealmLdapMapper.mapFromSearchEntry(entries.get(0));
+    List<UserStorage> userStorages = new ArrayList<>();
+    for (SearchResultEntry entry : entries.subList(1, entries.size())) {
+      UserStorage userStorage = UserStorageLdapMapper.mapFromAttributes(entry.getAttributes());
+      addDefaultProperties(userStorage, realm.getProperties());
+      userStorages.add(userStorage);
+    }
+    realm.setUserStorages(userStorages);
     addDefaultOnRealm(realm);
     sortUiLists(realm);
     return realm;
   }
 
+  /**
+   * @param entries the entries of a realm
+   * @return the DN and version attributes of the entries, null if an entry has no version
+   */
+  private String getVersion(List<SearchResultEntry> entries) {
+    StringBuilder version = new StringBuilder();
+    for (SearchResultEntry entry : entries) {
+      String modifyTimestamp = entry.getAttributeValue(MODIFY_TIMESTAMP);
+      String entryCsn = entry.getAttributeValue(ENTRY_CSN);
+      if (modifyTimestamp == null && entryCsn == null) {
+        return null;
+      }
+      version
+          .append(entry.getDN())
+          .append('\0')
+          .append(modifyTimestamp)
+          .append('\0')
+          .append(entryCsn)
+          .append('\0');
+    }
+    return version.toString();
+  }
+
+  /** A realm written or evicted is mapped again on its next read whatever its versions */
+  private void forget(String realmName) {
+    try {
+      DN realmDn = new DN(getRealmDn(realmName));
+      mappedRealms.remove(realmDn.toNormalizedString());
+      synchronized (subtreeEntries) {
+        subtreeEntries.keySet().removeIf(dn -> isAtOrBelow(dn, realmDn));
+      }
+    } catch (LDAPException e) {
+      mappedRealms.clear();
+      synchronized (subtreeEntries) {
+        subtreeEntries.clear();
+      }
+    }
+  }
+
+  private static boolean isAtOrBelow(String dn, DN realmDn) {
+    try {
+      return new DN(dn).isDescendantOf(realmDn, true);
+    } catch (LDAPException e) {
+      return true;
+    }
+  }
+
   private void sortUiLists(Realm realm) {
     try {
       // sort ui list of field by order
@@ -386,4 +612,14 @@ public class LdapRealmProviderDAOImpl implements RealmProvider {
   private String getUserStorageDn(String userStorageName, String realmName) {
     return String.format("cn=%s,%s", userStorageName, getRealmDn(realmName));
   }
+
+  private static class MappedRealm {
+    private final Realm realm;
+    private final String version;
+
+    private MappedRealm(Realm realm, String version) {
+      this.realm = realm;
+      this.version = version;
+    }
+  }
 }
@@ -16,6 +16,7 @@ package fr.insee.sugoi.config;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 
 import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
 import fr.insee.sugoi.core.configuration.UiMappingService;
@@ -76,6 +77,22 @@ public class LdapRealmProviderDAOTest {
         is("autreUserStorage"));
   }
 
+  @Test
+  public void unchangedRealmIsNotMappedAgain() {
+    Realm realm = ldapRealmProviderDAOImpl.load("domaine2").get();
+    assertThat(
+        "Same realm should be returned by load",
+        ldapRealmProviderDAOImpl.load("DOMAINE2").get(),
+        sameInstance(realm));
+    assertThat(
+        "Same realm should be returned by findAll",
+        ldapRealmProviderDAOImpl.findAll().stream()
+            .filter(r -> r.getName().equals("domaine2"))
+            .findFirst()
+            .get(),
+        sameInstance(realm));
+  }
+
   @Test
   public void testCaseInsensitivity() {
     List<Realm> realms = ldapRealmProviderDAOImpl.findAll();
@@ -16,6 +16,8 @@ package fr.insee.sugoi.config;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.sdk.LDAPException;
 import fr.insee.sugoi.core.configuration.UiMappingService;
 import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
 import fr.insee.sugoi.model.Realm;
@@ -26,6 +28,7 @@ import fr.insee.sugoi.model.technics.StoreMapping;
 import fr.insee.sugoi.model.technics.UiField;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -40,6 +43,8 @@ public class LdapRealmProviderWriteTest {
 
   @Autowired LdapRealmProviderDAOImpl ldapRealmProviderDAOImpl;
 
+  @Autowired InMemoryDirectoryServer directoryServer;
+
   @MockitoBean private UiMappingService uiMappingService;
 
   @Test
@@ -249,4 +254,47 @@ public class LdapRealmProviderWriteTest {
         ldapRealmProviderDAOImpl.load("tomodify").get().getAppSource(),
         is("ou=Applications,o=insee,c=fr"));
   }
+
+  @Test
+  public void findAllSeesChangesMadeOutsideTheProviderTest() throws LDAPException {
+    String realmDn =
+        "cn=Profil_outofband_WebServiceLdap,cn=profil-contact-WebServicesLdap,"
+            + "ou=WebServicesLdap_Objets,ou=WebServicesLdap,ou=Applications,o=insee,c=fr";
+    String userStorageDn = "cn=default," + realmDn;
+    assertThat("Realm should not exist", findRealm("outofband").isEmpty());
+
+    directoryServer.add(
+        "dn: " + realmDn,
+        "objectClass: inseeOrganizationalRole",
+        "cn: Profil_outofband_WebServiceLdap",
+        "inseepropriete: ldapUrl$localhost");
+    directoryServer.add(
+        "dn: " + userStorageDn,
+        "objectClass: inseeOrganizationalRole",
+        "cn: default",
+        "inseepropriete: brancheContact$ou=SSM,o=insee,c=fr");
+    assertThat("Realm should be found", findRealm("outofband").get().getUrl(), is("localhost"));
+
+    directoryServer.modify(
+        "dn: " + realmDn,
+        "changetype: modify",
+        "replace: inseepropriete",
+        "inseepropriete: ldapUrl$otherhost");
+    assertThat("Realm should be modified", findRealm("outofband").get().getUrl(), is("otherhost"));
+
+    directoryServer.delete(userStorageDn);
+    assertThat(
+        "User storage should be deleted",
+        findRealm("outofband").get().getUserStorages().isEmpty(),
+        is(true));
+
+    directoryServer.delete(realmDn);
+    assertThat("Realm should be deleted", findRealm("outofband").isEmpty());
+  }
+
+  private Optional<Realm> findRealm(String realmName) {
+    return ldapRealmProviderDAOImpl.findAll().stream()
+        .filter(realm -> realm.getName().equals(realmName))
+        .findFirst();
+  }
 }
@@ -0,0 +1,284 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.store.ldap;
+
+import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
+import fr.insee.sugoi.model.RealmConfigKeys;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the user common names of a userstorage, used to resolve fuzzy searches
+ * without reading every user from the ldap. Common names are folded (accents, spaces, hyphens and
+ * apostrophes removed, upper cased) and indexed by trigrams : a search scans the users having the
+ * least common trigram of the searched name and keeps those whose folded name contains it.
+ *
+ * <p>Changing the common name of a user fills a new slot and empties the previous one. Empty slots
+ * are dropped when the index is reloaded, which is due once they outnumber the indexed users. There
+ * is a single index per realm and userstorage, shared by the reader and writer stores and dropped
+ * when they are closed.
+ */
+public class FuzzyUserIndex {
+
+  private static final Map<String, FuzzyUserIndex> indexes = new ConcurrentHashMap<>();
+
+  private static final int GRAM_SIZE = 3;
+
+  /** Number of incremental refreshes after which the index is reloaded to forget deleted users */
+  private static final int REFRESHES_BEFORE_RELOAD = 60;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicBoolean refreshing = new AtomicBoolean(false);
+  private Content content = new Content();
+  private volatile boolean loaded = false;
+  private volatile long lastRefresh = 0;
+  private final AtomicInteger refreshes = new AtomicInteger();
+
+  public static FuzzyUserIndex of(Map<RealmConfigKeys, String> config) {
+    return indexes.computeIfAbsent(
+        config.get(LdapConfigKeys.REALM_NAME) + "_" + config.get(LdapConfigKeys.USERSTORAGE_NAME),
+        key -> new FuzzyUserIndex());
+  }
+
+  /** Drop the index of the realm and userstorage, the next stores get a new one */
+  public static void forget(Map<RealmConfigKeys, String> config) {
+    indexes.remove(
+        config.get(LdapConfigKeys.REALM_NAME) + "_" + config.get(LdapConfigKeys.USERSTORAGE_NAME));
+  }
+
+  /** Common name as compared by fuzzy searches */
+  public static String fold(String commonName) {
+    return Normalizer.normalize(commonName, Normalizer.Form.NFD)
+        .replaceAll("[-'\\s]+", "")
+        .replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * @param refreshInterval minimum time between two refreshes in milliseconds
+   * @return true if the index is not loaded or was last refreshed more than refreshInterval ago
+   */
+  public boolean isRefreshDue(long refreshInterval) {
+    return !loaded || System.currentTimeMillis() - lastRefresh >= refreshInterval;
+  }
+
+  /**
+   * A reload is due when the index is not loaded, has been refreshed incrementally for long or has
+   * more empty slots than indexed users
+   */
+  public boolean isReloadDue() {
+    if (!loaded || refreshes.get() >= REFRESHES_BEFORE_RELOAD) {
+      return true;
+    }
+    lock.readLock().lock();
+    try {
+      return content.emptySlots() > content.slots.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Start time of the last load or refresh, in milliseconds */
+  public long getLastRefresh() {
+    return lastRefresh;
+  }
+
+  /**
+   * @return true if no other refresh is running, the caller then has to call endRefresh
+   */
+  public boolean startRefresh() {
+    return refreshing.compareAndSet(false, true);
+  }
+
+  public void endRefresh() {
+    refreshing.set(false);
+  }
+
+  /**
+   * Replace the content of the index.
+   *
+   * @param users pairs of user id and common name
+   * @param startTime time at which users started to be read
+   */
+  public void reload(Stream<String[]> users, long startTime) {
+    Content newContent = new Content();
+    users.forEach(user -> newContent.put(user[0], user[1]));
+    lock.writeLock().lock();
+    try {
+      content = newContent;
+      refreshes.set(0);
+      lastRefresh = startTime;
+      loaded = true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Apply the users modified since the last refresh.
+   *
+   * @param users pairs of user id and common name, a null common name removes the user
+   * @param startTime time at which users started to be read
+   */
+  public void refresh(Stream<String[]> users, long startTime) {
+    users.forEach(user -> update(user[0], user[1]));
+    lock.writeLock().lock();
+    try {
+      refreshes.incrementAndGet();
+      lastRefresh = startTime;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Index the new common name of a user, nothing is done until the index is loaded */
+  public void update(String id, String commonName) {
+    if (loaded) {
+      lock.writeLock().lock();
+      try {
+        content.put(id, commonName);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  public void remove(String id) {
+    update(id, null);
+  }
+
+  /**
+   * Find the users whose folded common name contains the folded searched name. Results are ranked :
+   * exact matches first, then by position of the match in the name, then by name length.
+   *
+   * @param commonName the searched name
+   * @return the ids of the matching users, best matches first
+   */
+  public List<String> search(String commonName) {
+    String searched = fold(commonName).toUpperCase();
+    lock.readLock().lock();
+    try {
+      return content.search(searched);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static Set<String> grams(String name) {
+    Set<String> grams = new LinkedHashSet<>();
+    for (int i = 0; i + GRAM_SIZE <= name.length(); i++) {
+      grams.add(name.substring(i, i + GRAM_SIZE));
+    }
+    return grams;
+  }
+
+  private static class Content {
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    private void put(String id, String commonName) {
+      String name = commonName != null ? fold(commonName).toUpperCase() : null;
+      Integer previousSlot = slots.get(id);
+      if (previousSlot != null) {
+        if (name != null && name.equals(names.get(previousSlot))) {
+          return;
+        }
+        names.set(previousSlot, null);
+        slots.remove(id);
+      }
+      if (name != null) {
+        int slot = ids.size();
+        ids.add(id);
+        names.add(name);
+        slots.put(id, slot);
+        for (String gram : grams(name)) {
+          postings.computeIfAbsent(gram, g -> new Postings()).add(slot);
+        }
+      }
+    }
+
+    private int emptySlots() {
+      return ids.size() - slots.size();
+    }
+
+    private List<String> search(String searched) {
+      List<Integer> matches = new ArrayList<>();
+      if (searched.length() < GRAM_SIZE) {
+        for (int slot = 0; slot < names.size(); slot++) {
+          addIfMatches(slot, searched, matches);
+        }
+      } else {
+        Postings rarest = null;
+        for (String gram : grams(searched)) {
+          Postings gramPostings = postings.get(gram);
+          if (gramPostings == null) {
+            return new ArrayList<>();
+          }
+          if (rarest == null || gramPostings.size < rarest.size) {
+            rarest = gramPostings;
+          }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+          addIfMatches(rarest.slots[i], searched, matches);
+        }
+      }
+      return matches.stream()
+          .sorted(
+              Comparator.comparingInt((Integer slot) -> names.get(slot).equals(searched) ? 0 : 1)
+                  .thenComparingInt(slot -> names.get(slot).indexOf(searched))
+                  .thenComparingInt(slot -> names.get(slot).length())
+                  .thenComparing(slot -> ids.get(slot)))
+          .map(ids::get)
+          .collect(Collectors.toList());
+    }
+
+    private void addIfMatches(int slot, String searched, List<Integer> matches) {
+      String name = names.get(slot);
+      if (name != null && name.contains(searched)) {
+        matches.add(slot);
+      }
+    }
+  }
+
+  /** Growable list of slots, sorted since slots are only appended */
+  private static class Postings {
+    private int[] slots = new int[4];
+    private int size = 0;
+
+    private void add(int slot) {
+      if (size == slots.length) {
+        slots = Arrays.copyOf(slots, size * 2);
+      }
+      slots[size++] = slot;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.store.ldap;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
+import fr.insee.sugoi.model.RealmConfigKeys;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through cache of the entries which are read again and again while completing users, that is
+ * organizations and addresses. Entries are kept by DN at most entry_cache_ttl milliseconds and the
+ * least recently used ones are evicted past entry_cache_max_size entries. An entry read after half
+ * its time to live is returned as is and reloaded in background, so frequently read entries never
+ * expire on a read. Caching is disabled if either setting is not positive.
+ *
+ * <p>Entries are cached rather than mapped objects since callers modify the objects they get.
+ * There is a single cache per realm and userstorage, the writer store invalidates the DNs it
+ * modifies. The caches of a userstorage are dropped when its stores are closed.
+ *
+ * <p>A second cache per realm and userstorage keeps the users written by this instance, as returned
+ * by the ldap in the write response, for read_your_writes_ttl milliseconds.
+ */
+public class LdapEntryCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapEntryCache.class);
+
+  private static final Map<String, LdapEntryCache> caches = new ConcurrentHashMap<>();
+
+  private final int maxSize;
+  private final long ttl;
+  private final Map<String, CachedEntry> entries;
+  private final Map<String, Boolean> reloading = new ConcurrentHashMap<>();
+
+  /** Time of the last invalidation, entries read before are not cached */
+  private long lastInvalidation = System.nanoTime();
+
+  public static LdapEntryCache of(Map<RealmConfigKeys, String> config) {
+    return caches.computeIfAbsent(
+        config.get(LdapConfigKeys.REALM_NAME) + "_" + config.get(LdapConfigKeys.USERSTORAGE_NAME),
+        key ->
+            new LdapEntryCache(
+                StringUtils.isNotBlank(config.get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE))
+                    ? Integer.parseInt(config.get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE))
+                    : 10000,
+                StringUtils.isNotBlank(config.get(LdapConfigKeys.ENTRY_CACHE_TTL))
+                    ? Long.parseLong(config.get(LdapConfigKeys.ENTRY_CACHE_TTL))
+                    : 300000));
+  }
+
+  /** Users written by this instance, read without a request to the ldap for a short time */
+  public static LdapEntryCache recentWritesOf(Map<RealmConfigKeys, String> config) {
+    return caches.computeIfAbsent(
+        config.get(LdapConfigKeys.REALM_NAME)
+            + "_"
+            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
+            + "_recent_writes",
+        key ->
+            new LdapEntryCache(
+                StringUtils.isNotBlank(config.get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE))
+                    ? Integer.parseInt(config.get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE))
+                    : 10000,
+                StringUtils.isNotBlank(config.get(LdapConfigKeys.READ_YOUR_WRITES_TTL))
+                    ? Long.parseLong(config.get(LdapConfigKeys.READ_YOUR_WRITES_TTL))
+                    : 2000));
+  }
+
+  /** Drop the caches of the realm and userstorage, the next stores get new ones */
+  public static void forget(Map<RealmConfigKeys, String> config) {
+    String key =
+        config.get(LdapConfigKeys.REALM_NAME) + "_" + config.get(LdapConfigKeys.USERSTORAGE_NAME);
+    caches.remove(key);
+    caches.remove(key + "_recent_writes");
+  }
+
+  private LdapEntryCache(int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    this.entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+            return size() > LdapEntryCache.this.maxSize;
+          }
+        };
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0 && ttl > 0;
+  }
+
+  /**
+   * Get an entry from the cache, loading it if it is not cached or expired.
+   *
+   * @param dn the DN of the entry
+   * @param loader reads the entry, returning null if it does not exist
+   * @param executor runs the background reloads
+   * @return the entry or null if it does not exist
+   */
+  public SearchResultEntry get(
+      String dn, Function<String, SearchResultEntry> loader, Executor executor) {
+    if (!isEnabled()) {
+      return loader.apply(dn);
+    }
+    String key = normalize(dn);
+    CachedEntry cached = getCached(key);
+    long age = cached != null ? System.nanoTime() - cached.loadTime : ttl;
+    if (age >= ttl) {
+      return load(key, dn, loader);
+    }
+    if (age >= ttl / 2 && reloading.putIfAbsent(key, Boolean.TRUE) == null) {
+      CompletableFuture.runAsync(
+          () -> {
+            try {
+              load(key, dn, loader);
+            } catch (RuntimeException e) {
+              logger.debug("Failed to reload {}", dn, e);
+            } finally {
+              reloading.remove(key);
+            }
+          },
+          executor);
+    }
+    return cached.entry;
+  }
+
+  /**
+   * @param dn the DN of the entry
+   * @return the cached entry if it has not expired, null otherwise
+   */
+  public SearchResultEntry getIfPresent(String dn) {
+    if (!isEnabled()) {
+      return null;
+    }
+    CachedEntry cached = getCached(normalize(dn));
+    return cached != null && System.nanoTime() - cached.loadTime < ttl ? cached.entry : null;
+  }
+
+  /** Time to pass to put for an entry about to be read */
+  public long startLoad() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Cache an entry read elsewhere, for instance by a batch read. The entry is ignored if the cache
+   * has been invalidated since loadTime.
+   *
+   * @param dn the DN of the entry
+   * @param entry the entry read
+   * @param loadTime the value of startLoad before the entry was read
+   */
+  public synchronized void put(String dn, SearchResultEntry entry, long loadTime) {
+    if (isEnabled() && entry != null && loadTime - lastInvalidation > 0) {
+      entries.put(normalize(dn), new CachedEntry(entry, loadTime));
+    }
+  }
+
+  public synchronized void invalidate(String dn) {
+    lastInvalidation = System.nanoTime();
+    entries.remove(normalize(dn));
+  }
+
+  public synchronized void invalidateAll() {
+    lastInvalidation = System.nanoTime();
+    entries.clear();
+  }
+
+  private synchronized CachedEntry getCached(String key) {
+    return entries.get(key);
+  }
+
+  private SearchResultEntry load(
+      String key, String dn, Function<String, SearchResultEntry> loader) {
+    long loadTime = startLoad();
+    SearchResultEntry entry = loader.apply(dn);
+    synchronized (this) {
+      if (entry == null) {
+        entries.remove(key);
+      } else if (loadTime - lastInvalidation > 0) {
+        entries.put(key, new CachedEntry(entry, loadTime));
+      }
+    }
+    return entry;
+  }
+
+  static String normalize(String dn) {
+    try {
+      return new DN(dn).toNormalizedString();
+    } catch (LDAPException e) {
+      return dn.toLowerCase();
+    }
+  }
+
+  private static class CachedEntry {
+    private final SearchResultEntry entry;
+    private final long loadTime;
+
+    private CachedEntry(SearchResultEntry entry, long loadTime) {
+      this.entry = entry;
+      this.loadTime = loadTime;
+    }
+  }
+}
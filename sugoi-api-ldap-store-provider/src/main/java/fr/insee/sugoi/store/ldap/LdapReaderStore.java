@@ -14,6 +14,7 @@
 package fr.insee.sugoi.store.ldap;
 
 import com.unboundid.ldap.sdk.*;
+import com.unboundid.util.StaticUtils;
 import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
 import fr.insee.sugoi.core.store.ReaderStore;
 import fr.insee.sugoi.ldap.utils.LdapFactory;
@@ -40,26 +41,63 @@ import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
 import fr.insee.sugoi.model.paging.SearchType;
 import fr.insee.sugoi.model.technics.StoreMapping;
-import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.util.Assert;
 
 public class LdapReaderStore extends LdapStore implements ReaderStore {
 
+  /** Runs the chunks of batched entry resolution, bounded by the size of the connection pool. */
+  private final ExecutorService batchExecutor;
+
+  /**
+   * Attributes requested when reading each kind of entry, computed from the mappings. Binary
+   * attributes are left out and only requested by the *WithBinaries reads.
+   */
+  private final String[] userAttributes;
+  private final String[] organizationAttributes;
+  private final String[] groupAttributes;
+  private final String[] applicationAttributes;
+  private final String[] addressAttributes;
+
+  /** Common names of the users, to resolve fuzzy searches without scanning the ldap */
+  private final FuzzyUserIndex fuzzyUserIndex;
+
+  /** Attribute mapped to the common name, null if the common name is not mapped */
+  private final String commonNameAttribute;
+
+  /** Organizations and addresses read while completing users */
+  private final LdapEntryCache entryCache;
+
+  /** Users recently written by this instance */
+  private final LdapEntryCache recentWrites;
+
+  /** Margin on the last refresh of the fuzzy index, for the clock drift with the ldap server */
+  private static final long FUZZY_INDEX_REFRESH_MARGIN = 60000;
+
   public LdapReaderStore(
       Map<RealmConfigKeys, String> config, Map<MappingType, List<StoreMapping>> mappings) {
     logger.debug("Configuring LdapReaderStore with config : {}", config);
     try {
-      if (Boolean.TRUE.equals(
-          Boolean.valueOf(config.get(LdapConfigKeys.READ_CONNECTION_AUTHENTICATED)))) {
+      boolean authenticated =
+          Boolean.TRUE.equals(
+              Boolean.valueOf(config.get(LdapConfigKeys.READ_CONNECTION_AUTHENTICATED)));
+      if (authenticated) {
         this.ldapPoolConnection = LdapFactory.getConnectionPoolAuthenticated(config);
-        this.ldapMonoConnection = LdapFactory.getSingleConnectionAuthenticated(config);
       } else {
         this.ldapPoolConnection = LdapFactory.getConnectionPool(config);
-        this.ldapMonoConnection = LdapFactory.getSingleConnection(config);
       }
+      this.ldapSearchEngine =
+          new LdapSearchEngine(LdapFactory.getSearchConnectionPool(config, authenticated), config);
       this.config = config;
       userLdapMapper = new UserLdapMapper(config, mappings.get(MappingType.USERMAPPING));
       organizationLdapMapper =
@@ -68,6 +106,21 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
       applicationLdapMapper =
           new ApplicationLdapMapper(config, mappings.get(MappingType.APPLICATIONMAPPING));
       addressLdapMapper = new AddressLdapMapper(config);
+      userAttributes = toRequestedAttributes(userLdapMapper.getMappedAttributes(false));
+      organizationAttributes =
+          toRequestedAttributes(organizationLdapMapper.getMappedAttributes(false));
+      groupAttributes = toRequestedAttributes(groupLdapMapper.getMappedAttributes(false));
+      applicationAttributes =
+          toRequestedAttributes(applicationLdapMapper.getMappedAttributes(false));
+      addressAttributes = addressLdapMapper.getMappedAttributes();
+      fuzzyUserIndex = FuzzyUserIndex.of(config);
+      entryCache = LdapEntryCache.of(config);
+      recentWrites = LdapEntryCache.recentWritesOf(config);
+      commonNameAttribute =
+          userLdapMapper.getMappedAttributes(List.of("attributes.common_name"), false).stream()
+              .findFirst()
+              .orElse(null);
+      batchExecutor = createBatchExecutor(config);
     } catch (LDAPException e) {
       throw new StoreException("Failed to create LDAPReaderStore", e);
     }
@@ -79,9 +132,162 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
    */
   @Override
   public Optional<User> getUser(String id) {
+    return getUser(id, false);
+  }
+
+  @Override
+  public Optional<User> getUserWithBinaries(String id) {
+    return getUser(id, true);
+  }
+
+  /** Checked with one search per batch_resolution_chunk_size ids, retrieving no attribute */
+  @Override
+  public List<String> getExistingUserIds(List<String> ids) {
+    Map<DN, SearchResultEntry> userEntries =
+        getEntriesByDns(
+            ids.stream().map(this::getUserDN).collect(Collectors.toList()),
+            config.get(GlobalKeysConfig.USER_SOURCE),
+            null,
+            SearchRequest.NO_ATTRIBUTES);
+    return ids.stream()
+        .filter(id -> userEntries.containsKey(parseDn(getUserDN(id))))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * A single search on the RDN of the username or on the mail attributes, retrieving no attribute
+   * and at most 2 entries. Usernames are read from the DNs.
+   */
+  @Override
+  public List<String> findUsernamesByUsernameOrMail(String username, String mail) {
+    List<Filter> filters = new ArrayList<>();
+    if (username != null) {
+      RDN rdn = parseDn(getUserDN(username)).getRDN();
+      List<Filter> rdnComponents = new ArrayList<>();
+      for (int i = 0; i < rdn.getAttributeNames().length; i++) {
+        rdnComponents.add(
+            Filter.createEqualityFilter(rdn.getAttributeNames()[i], rdn.getAttributeValues()[i]));
+      }
+      filters.add(
+          rdnComponents.size() == 1 ? rdnComponents.get(0) : LdapFilter.and(rdnComponents));
+    }
+    if (mail != null) {
+      userLdapMapper
+          .getMappedAttributes(List.of("mail"), false)
+          .forEach(attribute -> filters.add(Filter.createEqualityFilter(attribute, mail)));
+    }
+    if (filters.isEmpty()) {
+      return new ArrayList<>();
+    }
+    SearchRequest searchRequest =
+        new SearchRequest(
+            config.get(GlobalKeysConfig.USER_SOURCE),
+            SearchScope.SUBORDINATE_SUBTREE,
+            LdapFilter.or(filters),
+            SearchRequest.NO_ATTRIBUTES);
+    searchRequest.setSizeLimit(2);
+    List<SearchResultEntry> entries;
+    try {
+      entries = ldapPoolConnection.search(searchRequest).getSearchEntries();
+    } catch (LDAPSearchException e) {
+      if (e.getResultCode().equals(ResultCode.SIZE_LIMIT_EXCEEDED)) {
+        entries = e.getSearchEntries();
+      } else if (e.getResultCode().equals(ResultCode.NO_SUCH_OBJECT)) {
+        entries = new ArrayList<>();
+      } else {
+        throw new StoreException("Failed to search users by username or mail", e);
+      }
+    }
+    return entries.stream()
+        .map(entry -> parseDn(entry.getDN()))
+        .filter(Objects::nonNull)
+        .map(dn -> dn.getRDN().getAttributeValues()[0])
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * One search per batch_resolution_chunk_size mails, on the mail attributes, retrieving only these
+   * attributes. Usernames are read from the DNs.
+   */
+  @Override
+  public Map<String, List<String>> findUsernamesByMails(List<String> mails) {
+    List<String> mailAttributes =
+        new ArrayList<>(userLdapMapper.getMappedAttributes(List.of("mail"), false));
+    List<String> distinctMails =
+        mails.stream()
+            .filter(Objects::nonNull)
+            .map(String::toLowerCase)
+            .distinct()
+            .collect(Collectors.toList());
+    Map<String, List<String>> usernamesByMail = new HashMap<>();
+    if (mailAttributes.isEmpty()) {
+      return usernamesByMail;
+    }
+    int chunkSize = getBatchResolutionChunkSize();
+    for (int i = 0; i < distinctMails.size(); i += chunkSize) {
+      List<Filter> filters = new ArrayList<>();
+      for (String mail : distinctMails.subList(i, Math.min(i + chunkSize, distinctMails.size()))) {
+        mailAttributes.forEach(
+            attribute -> filters.add(Filter.createEqualityFilter(attribute, mail)));
+      }
+      List<SearchResultEntry> entries;
+      try {
+        entries =
+            ldapPoolConnection
+                .search(
+                    new SearchRequest(
+                        config.get(GlobalKeysConfig.USER_SOURCE),
+                        SearchScope.SUBORDINATE_SUBTREE,
+                        LdapFilter.or(filters),
+                        mailAttributes.toArray(new String[0])))
+                .getSearchEntries();
+      } catch (LDAPSearchException e) {
+        if (!e.getResultCode().equals(ResultCode.NO_SUCH_OBJECT)) {
+          throw new StoreException("Failed to search users by mail", e);
+        }
+        entries = new ArrayList<>();
+      }
+      for (SearchResultEntry entry : entries) {
+        DN dn = parseDn(entry.getDN());
+        if (dn == null) {
+          continue;
+        }
+        String username = dn.getRDN().getAttributeValues()[0];
+        mailAttributes.stream()
+            .map(entry::getAttributeValues)
+            .filter(Objects::nonNull)
+            .flatMap(Arrays::stream)
+            .map(String::toLowerCase)
+            .distinct()
+            .forEach(
+                mail ->
+                    usernamesByMail.computeIfAbsent(mail, k -> new ArrayList<>()).add(username));
+      }
+    }
+    return usernamesByMail;
+  }
+
+  private Optional<User> getUser(String id, boolean withBinaries) {
     logger.debug("Searching user {}", id);
-    SearchResultEntry entry = getEntryByDn(getUserDN(id));
-    User user = (entry != null) ? userLdapMapper.mapFromAttributes(entry.getAttributes()) : null;
+    // a user written by this instance is read as the ldap returned it after the write
+    SearchResultEntry entry = withBinaries ? null : recentWrites.getIfPresent(getUserDN(id));
+    if (entry == null) {
+      entry =
+          getEntryByDn(
+              getUserDN(id),
+              withBinaries
+                  ? toRequestedAttributes(userLdapMapper.getMappedAttributes(true))
+                  : userAttributes);
+    }
+    return Optional.ofNullable(entry != null ? toUser(entry) : null);
+  }
+
+  /**
+   * Map a user entry read with the user attributes, then complete it with its address and
+   * organization
+   */
+  User toUser(SearchResultEntry entry) {
+    User user = userLdapMapper.mapFromAttributes(entry.getAttributes());
     if (user != null && user.getAddress() != null && user.getAddress().getId() != null) {
       PostalAddress address = getAddress(user.getAddress().getId());
       if (address != null) {
@@ -99,7 +305,35 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     if (user != null && user.getGroups() == null) {
       user.setGroups(new ArrayList<>());
     }
-    return Optional.ofNullable(user);
+    return user;
+  }
+
+  /**
+   * Read the entries of several users with the user attributes, see getEntriesByDns.
+   *
+   * @return the entries found by DN
+   */
+  Map<DN, SearchResultEntry> getUserEntries(List<String> ids) {
+    return getEntriesByDns(
+        ids.stream().map(this::getUserDN).collect(Collectors.toList()),
+        config.get(GlobalKeysConfig.USER_SOURCE),
+        null,
+        userAttributes);
+  }
+
+  /** Attributes to request to read a user, binaries left out */
+  String[] getUserAttributes() {
+    return userAttributes;
+  }
+
+  /** Attributes to request to read a group */
+  String[] getGroupAttributes() {
+    return groupAttributes;
+  }
+
+  /** Map a group entry read with the group attributes */
+  Group toGroup(SearchResultEntry entry) {
+    return groupLdapMapper.mapFromAttributes(entry.getAttributes());
   }
 
   /**
@@ -109,7 +343,21 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
   @Override
   public Optional<Organization> getOrganization(String id) {
     if (StringUtils.isNotBlank(config.get(GlobalKeysConfig.ORGANIZATION_SOURCE))) {
-      return getOrganization(id, false);
+      return getOrganization(id, false, true, organizationAttributes);
+    } else {
+      throw new UnsupportedOperationException(
+          "Organizations feature not configured for this storage");
+    }
+  }
+
+  @Override
+  public Optional<Organization> getOrganizationWithBinaries(String id) {
+    if (StringUtils.isNotBlank(config.get(GlobalKeysConfig.ORGANIZATION_SOURCE))) {
+      return getOrganization(
+          id,
+          false,
+          false,
+          toRequestedAttributes(organizationLdapMapper.getMappedAttributes(true)));
     } else {
       throw new UnsupportedOperationException(
           "Organizations feature not configured for this storage");
@@ -120,44 +368,97 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
   @Override
   public PageResult<User> searchUsers(
       User userFilter, PageableResult pageable, String typeRecherche) {
+    return searchUsers(userFilter, pageable, typeRecherche, userAttributes);
+  }
+
+  /** Same as searchUsers but only the attributes mapped to properties are requested */
+  @Override
+  public PageResult<User> searchUsers(
+      User userFilter, PageableResult pageable, String typeRecherche, List<String> properties) {
+    return searchUsers(
+        userFilter,
+        pageable,
+        typeRecherche,
+        toRequestedAttributes(userLdapMapper.getMappedAttributes(properties, false)));
+  }
+
+  private PageResult<User> searchUsers(
+      User userFilter, PageableResult pageable, String typeRecherche, String[] attributes) {
     try {
       return searchOnLdap(
           config.get(GlobalKeysConfig.USER_SOURCE),
           SearchScope.SUBORDINATE_SUBTREE,
           getFilterFromObject(userFilter, userLdapMapper, typeRecherche),
           pageable,
-          userLdapMapper);
+          userLdapMapper,
+          attributes);
     } catch (LDAPSearchException e) {
       throw new StoreException("Fail to execute user search", e);
     }
   }
 
+  /**
+   * Stream users matching userFilter set properties under the user_source. Entries are mapped as
+   * the ldap returns them.
+   */
+  @Override
+  public Stream<User> streamUsers(User userFilter, String typeRecherche) {
+    try {
+      return ldapSearchEngine.stream(
+          new SearchRequest(
+              config.get(GlobalKeysConfig.USER_SOURCE),
+              SearchScope.SUBORDINATE_SUBTREE,
+              getFilterFromObject(userFilter, userLdapMapper, typeRecherche),
+              userAttributes),
+          entry -> userLdapMapper.mapFromAttributes(entry.getAttributes()));
+    } catch (LDAPSearchException e) {
+      throw new StoreException("Fail to execute user search", e);
+    }
+  }
+
+  /**
+   * Search users whose common name contains the searched one, ignoring accents, spaces and other
+   * special characters. Once the fuzzy user index is loaded, matching users are found in the index,
+   * ranked, and only the users of the requested page are read, the other criterias being checked at
+   * that time. Until then or if the other criterias are alternatives to the common name, users are
+   * searched with a wildcard filter and filtered in memory.
+   */
   @Override
   public PageResult<User> fuzzySearchUsers(
       User userFilter, PageableResult pageable, String typeRecherche) {
     String initialCommonName = (String) userFilter.getAttributes().get("common_name");
     if (initialCommonName == null) {
       return searchUsers(userFilter, pageable, typeRecherche);
+    }
+    refreshFuzzyUserIndex();
+    Map<String, Object> otherAttributes = new HashMap<>(userFilter.getAttributes());
+    otherAttributes.remove("common_name");
+    Filter criterias =
+        getFuzzySearchCriterias(withAttributes(userFilter, otherAttributes), typeRecherche);
+    if (fuzzyUserIndex.isLoaded() && criterias != null) {
+      return searchFuzzyUserIndex(initialCommonName, criterias, pageable);
     } else {
       try {
-        userFilter
-            .getAttributes()
-            .put(
-                "common_name",
-                initialCommonName
-                    .replaceAll(
-                        "[ÀÁÂÃÄAÅÇCÈÉÊËEÌÍIÎÏÐÒÓÔOÕÖÙUÚÛÜÝYŸàáâãäåçèéêëìíîïðòóôõöùúûüýÿaeiouc \\-']",
-                        "*")
-                    .replaceAll("\\*+", "*"));
-        int originalPageSize = pageable.getSize();
-        pageable.setSize(50000);
+        Map<String, Object> wildcardAttributes = new HashMap<>(userFilter.getAttributes());
+        wildcardAttributes.put(
+            "common_name",
+            initialCommonName
+                .replaceAll(
+                    "[ÀÁÂÃÄAÅÇCÈÉÊËEÌÍIÎÏÐÒÓÔOÕÖÙUÚÛÜÝYŸàáâãäåçèéêëìíîïðòóôõöùúûüýÿaeiouc \\-']",
+                    "*")
+                .replaceAll("\\*+", "*"));
         PageResult<User> results =
             searchOnLdap(
                 config.get(GlobalKeysConfig.USER_SOURCE),
                 SearchScope.SUBORDINATE_SUBTREE,
-                getFilterFromObject(userFilter, userLdapMapper, typeRecherche, false),
-                pageable,
-                userLdapMapper);
+                getFilterFromObject(
+                    withAttributes(userFilter, wildcardAttributes),
+                    userLdapMapper,
+                    typeRecherche,
+                    false),
+                new PageableResult(50000, pageable.getFirst(), pageable.getSearchToken()),
+                userLdapMapper,
+                userAttributes);
         String normalizedCommonName = removeSpecialChars(initialCommonName);
         List<User> filteredUsers =
             results.getResults().stream()
@@ -166,7 +467,7 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
                         removeSpecialChars((String) u.getAttributes().get("common_name"))
                             .toUpperCase()
                             .contains(normalizedCommonName.toUpperCase()))
-                .limit(originalPageSize)
+                .limit(pageable.getSize())
                 .collect(Collectors.toList());
         results.setResults(filteredUsers);
         return results;
@@ -176,23 +477,434 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     }
   }
 
+  /**
+   * Filter on the criterias of a fuzzy search other than the common name.
+   *
+   * @return null if the search cannot be resolved with the fuzzy user index because the other
+   *     criterias are alternatives to the common name
+   */
+  private Filter getFuzzySearchCriterias(User userFilter, String typeRecherche) {
+    if (typeRecherche.equalsIgnoreCase("OR")
+        && !getAttributesFilters(userLdapMapper.createAttributesForFilter(userFilter), true)
+            .isEmpty()) {
+      return null;
+    }
+    return getFilterFromObject(userFilter, userLdapMapper, "AND");
+  }
+
+  /**
+   * Copy of a user filter with other attributes, the filter itself being shared by the searches of
+   * several userstorages running at once.
+   */
+  private static User withAttributes(User userFilter, Map<String, Object> attributes) {
+    User copy = new User(userFilter.getUsername());
+    copy.setLastName(userFilter.getLastName());
+    copy.setFirstName(userFilter.getFirstName());
+    copy.setMail(userFilter.getMail());
+    copy.setCertificate(userFilter.getCertificate());
+    copy.setOrganization(userFilter.getOrganization());
+    copy.setGroups(userFilter.getGroups());
+    copy.setHabilitations(userFilter.getHabilitations());
+    copy.setAddress(userFilter.getAddress());
+    copy.setMetadatas(userFilter.getMetadatas());
+    copy.setAttributes(attributes);
+    return copy;
+  }
+
+  /**
+   * Read the users found in the fuzzy user index, best matches first, until the page is filled.
+   * The search token is the position of the first match not examined yet.
+   */
+  private PageResult<User> searchFuzzyUserIndex(
+      String commonName, Filter criterias, PageableResult pageable) {
+    List<String> rankedIds = fuzzyUserIndex.search(commonName);
+    List<User> users = new ArrayList<>();
+    int position =
+        StringUtils.isNotEmpty(pageable.getSearchToken())
+                && StringUtils.isNumeric(pageable.getSearchToken())
+            ? Integer.parseInt(pageable.getSearchToken())
+            : 0;
+    while (users.size() < pageable.getSize() && position < rankedIds.size()) {
+      List<String> candidates =
+          rankedIds.subList(
+              position,
+              Math.min(
+                  rankedIds.size(),
+                  position + Math.min(getBatchResolutionChunkSize(), pageable.getSize())));
+      Map<DN, SearchResultEntry> entries =
+          getEntriesByDns(
+              candidates.stream().map(this::getUserDN).collect(Collectors.toList()),
+              config.get(GlobalKeysConfig.USER_SOURCE),
+              criterias,
+              userAttributes);
+      for (String candidate : candidates) {
+        position++;
+        SearchResultEntry entry = entries.get(parseDn(getUserDN(candidate)));
+        if (entry != null) {
+          users.add(userLdapMapper.mapFromAttributes(entry.getAttributes()));
+          if (users.size() == pageable.getSize()) {
+            break;
+          }
+        }
+      }
+    }
+    PageResult<User> page = new PageResult<>();
+    page.setResults(users);
+    page.setPageSize(pageable.getSize());
+    page.setTotalElements(rankedIds.size());
+    page.setHasMoreResult(position < rankedIds.size());
+    page.setSearchToken(page.isHasMoreResult() ? String.valueOf(position) : null);
+    page.setNextStart(position);
+    return page;
+  }
+
+  /**
+   * Load the fuzzy user index if it is not, or apply the users modified since its last refresh once
+   * fuzzy_index_refresh_interval has elapsed. The index is refreshed in background, searches go on
+   * with the current content meanwhile. The index is not used if the interval is not positive.
+   */
+  private void refreshFuzzyUserIndex() {
+    long refreshInterval = getFuzzyIndexRefreshInterval();
+    if (commonNameAttribute == null
+        || refreshInterval <= 0
+        || !fuzzyUserIndex.isRefreshDue(refreshInterval)
+        || !fuzzyUserIndex.startRefresh()) {
+      return;
+    }
+    CompletableFuture.runAsync(
+        () -> {
+          long startTime = System.currentTimeMillis();
+          boolean reload = fuzzyUserIndex.isReloadDue();
+          Filter filter = getFilterFromObject(new User(), userLdapMapper, "AND");
+          if (!reload) {
+            String since =
+                StaticUtils.encodeGeneralizedTime(
+                    fuzzyUserIndex.getLastRefresh() - FUZZY_INDEX_REFRESH_MARGIN);
+            filter =
+                LdapFilter.and(
+                    List.of(
+                        filter,
+                        LdapFilter.or(
+                            List.of(
+                                LdapFilter.greaterThan("modifyTimestamp", since),
+                                LdapFilter.greaterThan("createTimestamp", since)))));
+          }
+          try (Stream<String[]> users =
+              ldapSearchEngine.stream(
+                  new SearchRequest(
+                      config.get(GlobalKeysConfig.USER_SOURCE),
+                      SearchScope.SUBORDINATE_SUBTREE,
+                      filter,
+                      commonNameAttribute),
+                  entry ->
+                      new String[] {
+                        LdapUtils.getNodeValueFromDN(entry.getDN()),
+                        entry.getAttributeValue(commonNameAttribute)
+                      })) {
+            if (reload) {
+              fuzzyUserIndex.reload(users, startTime);
+            } else {
+              fuzzyUserIndex.refresh(users, startTime);
+            }
+          } catch (LDAPException | StoreException e) {
+            logger.error("Failed to refresh the fuzzy user index", e);
+          } finally {
+            fuzzyUserIndex.endRefresh();
+          }
+        },
+        batchExecutor);
+  }
+
+  private long getFuzzyIndexRefreshInterval() {
+    return StringUtils.isNotBlank(config.get(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL))
+        ? Long.parseLong(config.get(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL))
+        : 60000;
+  }
+
+  /**
+   * Members are resolved in batch : user entries are fetched with chunked OR filters, then the
+   * distinct organizations and addresses they reference are fetched the same way.
+   */
   @Override
   public PageResult<User> getUsersInGroup(String appName, String groupName) {
     PageResult<User> page = new PageResult<>();
-    SearchResultEntry entry = getEntryByDn(getGroupDN(appName, groupName));
+    SearchResultEntry entry = getEntryByDn(getGroupDN(appName, groupName), "uniqueMember");
     if (entry != null && entry.hasAttribute("uniqueMember")) {
       page.setResults(
-          Arrays.stream(entry.getAttribute("uniqueMember").getValues())
-              .map(uniqueMember -> getUser(LdapUtils.getNodeValueFromDN(uniqueMember)))
-              .filter(Optional::isPresent)
-              .map(Optional::get)
-              .collect(Collectors.toList()));
+          getUsers(
+              Arrays.stream(entry.getAttribute("uniqueMember").getValues())
+                  .map(LdapUtils::getNodeValueFromDN)
+                  .filter(Objects::nonNull)
+                  .distinct()
+                  .collect(Collectors.toList())));
     } else {
       page.setResults(new ArrayList<>());
     }
     return page;
   }
 
+  /**
+   * Retrieve users by ids the same way getUser does but with a constant number of search rounds
+   * whatever the number of ids.
+   *
+   * @param ids the ids of the users to retrieve
+   * @return the users found, in the order of ids
+   */
+  private List<User> getUsers(List<String> ids) {
+    Map<DN, SearchResultEntry> userEntries =
+        getEntriesByDns(
+            ids.stream().map(this::getUserDN).collect(Collectors.toList()),
+            config.get(GlobalKeysConfig.USER_SOURCE),
+            null,
+            userAttributes);
+    List<User> users = new ArrayList<>();
+    for (String id : ids) {
+      SearchResultEntry userEntry = userEntries.get(parseDn(getUserDN(id)));
+      if (userEntry != null) {
+        users.add(userLdapMapper.mapFromAttributes(userEntry.getAttributes()));
+      }
+    }
+
+    Map<String, Organization> organizations =
+        getOrganizations(
+            users.stream()
+                .map(User::getOrganization)
+                .filter(Objects::nonNull)
+                .map(Organization::getIdentifiant)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList()));
+
+    List<String> addressIds = new ArrayList<>();
+    users.stream()
+        .map(User::getAddress)
+        .filter(address -> address != null && address.getId() != null)
+        .forEach(address -> addressIds.add(address.getId()));
+    organizations.values().stream()
+        .flatMap(org -> Stream.of(org, org.getOrganization()))
+        .filter(org -> org != null && org.getAddress() != null && org.getAddress().getId() != null)
+        .forEach(org -> addressIds.add(org.getAddress().getId()));
+    Map<String, PostalAddress> addresses = getAddresses(addressIds);
+
+    for (User user : users) {
+      if (user.getAddress() != null && addresses.containsKey(user.getAddress().getId())) {
+        user.setAddress(addresses.get(user.getAddress().getId()));
+      }
+      if (user.getOrganization() != null) {
+        user.setOrganization(organizations.get(user.getOrganization().getIdentifiant()));
+      }
+      if (user.getHabilitations() == null) {
+        user.setHabilitations(new ArrayList<>());
+      }
+      if (user.getGroups() == null) {
+        user.setGroups(new ArrayList<>());
+      }
+    }
+    organizations.values().stream()
+        .flatMap(org -> Stream.of(org, org.getOrganization()))
+        .filter(org -> org != null && org.getAddress() != null)
+        .filter(org -> addresses.containsKey(org.getAddress().getId()))
+        .forEach(org -> org.setAddress(addresses.get(org.getAddress().getId())));
+    return users;
+  }
+
+  /**
+   * Retrieve organizations by ids with their parent organization, without resolving addresses.
+   * Parent organizations are themselves retrieved without their own parent as getOrganization
+   * does.
+   *
+   * @param ids the ids of the organizations to retrieve
+   * @return a map of the organizations found by id. Each map value is a distinct instance.
+   */
+  private Map<String, Organization> getOrganizations(List<String> ids) {
+    Map<String, Organization> organizations = new HashMap<>();
+    if (ids.isEmpty()) {
+      return organizations;
+    }
+    if (StringUtils.isBlank(config.get(GlobalKeysConfig.ORGANIZATION_SOURCE))) {
+      throw new UnsupportedOperationException(
+          "Organizations feature not configured for this storage");
+    }
+    organizations.putAll(mapOrganizationEntries(ids));
+    Map<String, Organization> parentOrganizations =
+        mapOrganizationEntries(
+            organizations.values().stream()
+                .map(Organization::getOrganization)
+                .filter(Objects::nonNull)
+                .map(Organization::getIdentifiant)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList()));
+    for (Organization organization : organizations.values()) {
+      if (organization.getOrganization() != null) {
+        organization.setOrganization(
+            parentOrganizations.get(organization.getOrganization().getIdentifiant()));
+      }
+    }
+    return organizations;
+  }
+
+  private Map<String, Organization> mapOrganizationEntries(List<String> ids) {
+    Map<String, SearchResultEntry> entries =
+        getCachedEntriesByDns(
+            ids.stream().map(this::getOrganizationDN).collect(Collectors.toList()),
+            config.get(GlobalKeysConfig.ORGANIZATION_SOURCE),
+            organizationAttributes);
+    Map<String, Organization> organizations = new HashMap<>();
+    for (String id : ids) {
+      SearchResultEntry entry = entries.get(getOrganizationDN(id));
+      if (entry != null) {
+        organizations.put(id, organizationLdapMapper.mapFromAttributes(entry.getAttributes()));
+      }
+    }
+    return organizations;
+  }
+
+  private Map<String, PostalAddress> getAddresses(List<String> ids) {
+    Map<String, PostalAddress> addresses = new HashMap<>();
+    if (ids.isEmpty() || StringUtils.isBlank(config.get(GlobalKeysConfig.ADDRESS_SOURCE))) {
+      return addresses;
+    }
+    List<String> distinctIds = ids.stream().distinct().collect(Collectors.toList());
+    Map<String, SearchResultEntry> entries =
+        getCachedEntriesByDns(
+            distinctIds.stream().map(this::getAddressDN).collect(Collectors.toList()),
+            config.get(GlobalKeysConfig.ADDRESS_SOURCE),
+            addressAttributes);
+    for (String id : distinctIds) {
+      SearchResultEntry entry = entries.get(getAddressDN(id));
+      if (entry != null) {
+        PostalAddress address = addressLdapMapper.getAddressFromSearchEntry(entry);
+        address.setId(id);
+        addresses.put(id, address);
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * Same as getEntriesByDns for entries kept in the entry cache : only the entries which are not
+   * cached are fetched, then cached.
+   *
+   * @return the entries found by DN, as given in dns
+   */
+  private Map<String, SearchResultEntry> getCachedEntriesByDns(
+      List<String> dns, String baseDn, String... attributes) {
+    Map<String, SearchResultEntry> entries = new HashMap<>();
+    List<String> missingDns = new ArrayList<>();
+    for (String dn : dns) {
+      SearchResultEntry entry = entryCache.getIfPresent(dn);
+      if (entry != null) {
+        entries.put(dn, entry);
+      } else {
+        missingDns.add(dn);
+      }
+    }
+    if (!missingDns.isEmpty()) {
+      long loadTime = entryCache.startLoad();
+      Map<DN, SearchResultEntry> fetchedEntries =
+          getEntriesByDns(missingDns, baseDn, null, attributes);
+      for (String dn : missingDns) {
+        SearchResultEntry entry = fetchedEntries.get(parseDn(dn));
+        if (entry != null) {
+          entryCache.put(dn, entry, loadTime);
+          entries.put(dn, entry);
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Fetch several entries located under baseDn. The DNs are split in chunks of
+   * batch_resolution_chunk_size and each chunk is fetched with a single search on a filter made of
+   * the RDNs of the chunk. Chunks are searched concurrently.
+   *
+   * @param dns the DNs of the entries to fetch
+   * @param baseDn a common ancestor of the entries
+   * @param criterias a filter the entries should also match, may be null
+   * @param attributes the attributes to retrieve on each entry
+   * @return the entries found by parsed DN
+   */
+  private Map<DN, SearchResultEntry> getEntriesByDns(
+      List<String> dns, String baseDn, Filter criterias, String... attributes) {
+    Set<DN> wantedDns =
+        dns.stream().map(this::parseDn).filter(Objects::nonNull).collect(Collectors.toSet());
+    List<DN> orderedDns = new ArrayList<>(wantedDns);
+    int chunkSize = getBatchResolutionChunkSize();
+    List<CompletableFuture<List<SearchResultEntry>>> chunkSearches = new ArrayList<>();
+    for (int i = 0; i < orderedDns.size(); i += chunkSize) {
+      List<DN> chunk = orderedDns.subList(i, Math.min(i + chunkSize, orderedDns.size()));
+      chunkSearches.add(
+          CompletableFuture.supplyAsync(
+              () -> searchEntriesByRdn(baseDn, chunk, criterias, attributes), batchExecutor));
+    }
+    Map<DN, SearchResultEntry> entries = new HashMap<>();
+    for (CompletableFuture<List<SearchResultEntry>> chunkSearch : chunkSearches) {
+      try {
+        for (SearchResultEntry entry : chunkSearch.join()) {
+          DN entryDn = parseDn(entry.getDN());
+          if (wantedDns.contains(entryDn)) {
+            entries.put(entryDn, entry);
+          }
+        }
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof StoreException
+            ? (StoreException) e.getCause()
+            : new StoreException("Failed to fetch entries under " + baseDn, e.getCause());
+      }
+    }
+    return entries;
+  }
+
+  private List<SearchResultEntry> searchEntriesByRdn(
+      String baseDn, List<DN> dns, Filter criterias, String... attributes) {
+    List<Filter> rdnFilters = new ArrayList<>();
+    for (DN dn : dns) {
+      RDN rdn = dn.getRDN();
+      List<Filter> rdnComponents = new ArrayList<>();
+      for (int i = 0; i < rdn.getAttributeNames().length; i++) {
+        rdnComponents.add(
+            Filter.createEqualityFilter(rdn.getAttributeNames()[i], rdn.getAttributeValues()[i]));
+      }
+      rdnFilters.add(
+          rdnComponents.size() == 1 ? rdnComponents.get(0) : LdapFilter.and(rdnComponents));
+    }
+    try {
+      logger.debug("Fetching {} entries under {}", dns.size(), baseDn);
+      return ldapPoolConnection
+          .search(
+              new SearchRequest(
+                  baseDn,
+                  SearchScope.SUBORDINATE_SUBTREE,
+                  criterias != null
+                      ? LdapFilter.and(List.of(criterias, LdapFilter.or(rdnFilters)))
+                      : LdapFilter.or(rdnFilters),
+                  attributes))
+          .getSearchEntries();
+    } catch (LDAPSearchException e) {
+      if (e.getResultCode().equals(ResultCode.NO_SUCH_OBJECT)) {
+        return new ArrayList<>();
+      }
+      throw new StoreException("Failed to fetch entries under " + baseDn, e);
+    }
+  }
+
+  private DN parseDn(String dn) {
+    try {
+      return new DN(dn);
+    } catch (LDAPException e) {
+      logger.info(String.format("%s is not a DN", dn));
+      return null;
+    }
+  }
+
+  private int getBatchResolutionChunkSize() {
+    return StringUtils.isNotBlank(config.get(LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE))
+        ? Integer.parseInt(config.get(LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE))
+        : 200;
+  }
+
   @Override
   public PageResult<Organization> searchOrganizations(
       Organization organizationFilter, PageableResult pageable, String searchOperator) {
@@ -203,7 +915,8 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
             SearchScope.SUBORDINATE_SUBTREE,
             getFilterFromObject(organizationFilter, organizationLdapMapper, searchOperator),
             pageable,
-            organizationLdapMapper);
+            organizationLdapMapper,
+            organizationAttributes);
       } catch (LDAPSearchException e) {
         throw new StoreException("Fail to search organizations in ldap", e);
       }
@@ -215,14 +928,18 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
 
   /**
    * Retrieve the specified group with the members' username. A check is made ex post to verify that
-   * the retrieve object is a group as defined in the group_filter_pattern
+   * the retrieve object is a group as defined in the group_filter_pattern, so the attributes used
+   * by this filter are requested along with the mapped ones.
    */
   @Override
   public Optional<Group> getGroup(String appName, String groupName) {
     try {
-      SearchResultEntry entry = getEntryByDn(getGroupDN(appName, groupName));
-      return ((entry != null)
-              && (Filter.create(getGroupWildcardFilter(appName)).matchesEntry(entry)))
+      Filter groupFilter = Filter.create(getGroupWildcardFilter(appName));
+      Set<String> attributes = new LinkedHashSet<>(Arrays.asList(groupAttributes));
+      addFilterAttributes(groupFilter, attributes);
+      SearchResultEntry entry =
+          getEntryByDn(getGroupDN(appName, groupName), attributes.toArray(new String[0]));
+      return ((entry != null) && (groupFilter.matchesEntry(entry)))
           ? Optional.of(groupLdapMapper.mapFromAttributes(entry.getAttributes()))
           : Optional.empty();
     } catch (LDAPException e) {
@@ -230,6 +947,46 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     }
   }
 
+  /**
+   * Read the group entry with only the attributes mapped to isSelfManaged and those of the group
+   * filter, then the application entry with only the attributes mapped to isSelfManagedGroupsApp if
+   * the group has no flag.
+   */
+  @Override
+  public Optional<Boolean> isGroupSelfManaged(String appName, String groupName) {
+    try {
+      Filter groupFilter = Filter.create(getGroupWildcardFilter(appName));
+      Set<String> attributes =
+          new LinkedHashSet<>(groupLdapMapper.getMappedAttributes(List.of("isSelfManaged"), false));
+      addFilterAttributes(groupFilter, attributes);
+      SearchResultEntry groupEntry =
+          getEntryByDn(getGroupDN(appName, groupName), toFlagAttributes(attributes));
+      if (groupEntry == null || !groupFilter.matchesEntry(groupEntry)) {
+        return Optional.empty();
+      }
+      Boolean isSelfManaged =
+          groupLdapMapper.mapFromAttributes(groupEntry.getAttributes()).getIsSelfManaged();
+      if (isSelfManaged != null) {
+        return Optional.of(isSelfManaged);
+      }
+      SearchResultEntry applicationEntry =
+          getEntryByDn(
+              getApplicationDN(appName),
+              toFlagAttributes(
+                  applicationLdapMapper.getMappedAttributes(
+                      List.of("isSelfManagedGroupsApp"), false)));
+      return applicationEntry != null
+          ? Optional.of(
+              Boolean.TRUE.equals(
+                  applicationLdapMapper
+                      .mapFromAttributes(applicationEntry.getAttributes())
+                      .getIsSelfManagedGroupsApp()))
+          : Optional.empty();
+    } catch (LDAPException e) {
+      throw new StoreException("Fail to get group in ldap", e);
+    }
+  }
+
   /** Search groups with the group_filter under the group source */
   @Override
   public PageResult<Group> searchGroups(
@@ -242,7 +999,8 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
               Filter.create(getGroupWildcardFilter(appName)),
               getFilterFromObject(groupFilter, groupLdapMapper, searchOperator)),
           pageable,
-          groupLdapMapper);
+          groupLdapMapper,
+          groupAttributes);
     } catch (LDAPException e) {
       throw new StoreException("Fail to search groups in ldap", e);
     }
@@ -259,7 +1017,8 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
 
   @Override
   public Optional<Application> getApplication(String applicationName) {
-    SearchResultEntry entry = getEntryByDn(getApplicationDN(applicationName));
+    SearchResultEntry entry =
+        getEntryByDn(getApplicationDN(applicationName), applicationAttributes);
     Application application =
         (entry != null) ? applicationLdapMapper.mapFromAttributes(entry.getAttributes()) : null;
     if (application != null) {
@@ -285,7 +1044,8 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
             SearchScope.ONE,
             getFilterFromObject(applicationFilter, applicationLdapMapper, searchOperator),
             pageable,
-            applicationLdapMapper);
+            applicationLdapMapper,
+            applicationAttributes);
       } else {
         throw new UnsupportedOperationException(
             "Applications feature not configured for this realm");
@@ -375,11 +1135,11 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     return filters;
   }
 
-  private SearchResultEntry getEntryByDn(String dn) {
+  private SearchResultEntry getEntryByDn(String dn, String... attributes) {
     try {
       logger.debug("Fetching {}", dn);
 
-      return ldapPoolConnection.getEntry(dn, "+", "*");
+      return ldapPoolConnection.getEntry(dn, attributes);
     } catch (LDAPException e) {
       throw new StoreException("Failed to execute " + dn, e);
     }
@@ -392,6 +1152,7 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
    * @param filter filter to apply on the search
    * @param pageableResult
    * @param mapper mapper to convert the attributes found to a ResultType
+   * @param attributes the attributes to retrieve on each entry found
    * @return
    * @throws LDAPSearchException
    */
@@ -400,42 +1161,18 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
       SearchScope scope,
       Filter filter,
       PageableResult pageableResult,
-      LdapMapper<R> mapper)
+      LdapMapper<R> mapper,
+      String... attributes)
       throws LDAPSearchException {
-    SearchRequest searchRequest = new SearchRequest(baseDn, scope, filter, "*", "+");
-    if (pageableResult != null) {
-      LdapUtils.setRequestControls(searchRequest, pageableResult, config);
-    }
-    SearchResult searchResult = null;
-    try {
-      searchResult = ldapMonoConnection.search(searchRequest);
-    } catch (LDAPException e) {
-      try {
-        logger.info("Retry connection for error code " + e.getResultCode().intValue());
-        if (Boolean.TRUE.equals(
-            Boolean.valueOf(config.get(LdapConfigKeys.READ_CONNECTION_AUTHENTICATED)))) {
-          ldapMonoConnection = LdapFactory.getSingleConnectionAuthenticated(config, true);
-        } else {
-          ldapMonoConnection = LdapFactory.getSingleConnection(config, true);
-        }
-      } catch (LDAPException e1) {
-        throw new StoreException("Failed to reopen connection", e1);
-      }
-      searchResult = ldapMonoConnection.search(searchRequest);
-    }
-    PageResult<R> pageResult = new PageResult<>();
-    pageResult.setResults(
-        searchResult.getSearchEntries().stream()
-            .map(e -> mapper.mapFromAttributes(e.getAttributes()))
-            .collect(Collectors.toList()));
-    LdapUtils.setResponseControls(pageResult, searchResult);
-    int first = pageableResult != null ? pageableResult.getFirst() : 0;
-    pageResult.setNextStart(first + pageResult.getPageSize());
-    return pageResult;
+    SearchRequest searchRequest = new SearchRequest(baseDn, scope, filter, attributes);
+    return ldapSearchEngine.search(
+        searchRequest, pageableResult, entry -> mapper.mapFromAttributes(entry.getAttributes()));
   }
 
   private PostalAddress getAddress(String addressId) {
-    SearchResultEntry addressResult = getEntryByDn(getAddressDN(addressId));
+    SearchResultEntry addressResult =
+        entryCache.get(
+            getAddressDN(addressId), dn -> getEntryByDn(dn, addressAttributes), batchExecutor);
     return addressResult != null
         ? addressLdapMapper.getAddressFromSearchEntry(addressResult)
         : null;
@@ -474,7 +1211,8 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
   @Override
   public Optional<Group> getManagerGroup(String applicationName) {
     try {
-      SearchResultEntry entry = getEntryByDn(getGroupManagerSource(applicationName));
+      SearchResultEntry entry =
+          getEntryByDn(getGroupManagerSource(applicationName), groupAttributes);
       return (entry != null)
           ? Optional.of(groupLdapMapper.mapFromAttributes(entry.getAttributes()))
           : Optional.empty();
@@ -483,8 +1221,17 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     }
   }
 
-  private Optional<Organization> getOrganization(String id, boolean isSubOrganization) {
-    SearchResultEntry entry = getEntryByDn(getOrganizationDN(id));
+  /**
+   * @param cacheable whether the entry may be read from and kept in the entry cache, which only
+   *     holds entries read with organizationAttributes
+   */
+  private Optional<Organization> getOrganization(
+      String id, boolean isSubOrganization, boolean cacheable, String... attributes) {
+    SearchResultEntry entry =
+        cacheable
+            ? entryCache.get(
+                getOrganizationDN(id), dn -> getEntryByDn(dn, attributes), batchExecutor)
+            : getEntryByDn(getOrganizationDN(id), attributes);
     Organization org =
         (entry != null) ? organizationLdapMapper.mapFromAttributes(entry.getAttributes()) : null;
     if (org != null && org.getAddress() != null && org.getAddress().getId() != null) {
@@ -496,14 +1243,89 @@ public class LdapReaderStore extends LdapStore implements ReaderStore {
     }
     if (org != null && !isSubOrganization && org.getOrganization() != null) {
       org.setOrganization(
-          getOrganization(org.getOrganization().getIdentifiant(), true).orElse(null));
+          getOrganization(
+                  org.getOrganization().getIdentifiant(), true, true, organizationAttributes)
+              .orElse(null));
     }
     return Optional.ofNullable(org);
   }
 
+  /** Attributes to request to read flags, no attribute at all if no flag is mapped */
+  private static String[] toFlagAttributes(Collection<String> mappedAttributes) {
+    return mappedAttributes.isEmpty()
+        ? new String[] {SearchRequest.NO_ATTRIBUTES}
+        : mappedAttributes.toArray(new String[0]);
+  }
+
+  /**
+   * Attributes to request on a read. Every user and operational attribute is requested when
+   * nothing is mapped, as reads did before mapping-driven projection.
+   */
+  private static String[] toRequestedAttributes(Collection<String> mappedAttributes) {
+    return mappedAttributes.isEmpty()
+        ? new String[] {"*", "+"}
+        : mappedAttributes.toArray(new String[0]);
+  }
+
+  private static void addFilterAttributes(Filter filter, Set<String> attributes) {
+    if (filter.getAttributeName() != null) {
+      attributes.add(filter.getAttributeName());
+    }
+    if (filter.getNOTComponent() != null) {
+      addFilterAttributes(filter.getNOTComponent(), attributes);
+    }
+    for (Filter component : filter.getComponents()) {
+      addFilterAttributes(component, attributes);
+    }
+  }
+
+  /**
+   * Drop the caches and the fuzzy index of the userstorage, the store keeps using its own until it
+   * is closed
+   */
+  @Override
+  public void retire() {
+    LdapEntryCache.forget(config);
+    FuzzyUserIndex.forget(config);
+  }
+
+  /**
+   * Stop the threads resolving batches, running resolutions are completed, and release the search
+   * cursors and the connection pools
+   */
+  @Override
+  public void close() {
+    batchExecutor.shutdown();
+    ldapSearchEngine.close();
+    LdapFactory.releaseConnectionPool(ldapPoolConnection);
+  }
+
+  private static ExecutorService createBatchExecutor(Map<RealmConfigKeys, String> config) {
+    String threadPrefix =
+        "ldap-batch-"
+            + config.get(LdapConfigKeys.REALM_NAME)
+            + "_"
+            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
+            + "-";
+    AtomicInteger threadCount = new AtomicInteger();
+    int poolSize = Integer.parseInt(config.get(LdapConfigKeys.POOL_SIZE));
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, threadPrefix + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   public String removeSpecialChars(String string) {
-    return Normalizer.normalize(string, Normalizer.Form.NFD)
-        .replaceAll("[-'\\s]+", "")
-        .replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+    return FuzzyUserIndex.fold(string);
   }
 }
@@ -0,0 +1,129 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.store.ldap;
+
+import com.unboundid.ldap.sdk.AddRequest;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncResultListener;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.ModifyRequest;
+import fr.insee.sugoi.model.exceptions.StoreException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Sends add and modify requests on a single connection of the pool without waiting for their
+ * results, with at most window requests waiting for a result at a time. The result of each request
+ * is handed to its callback by the thread reading the connection, callbacks must be short. Results
+ * handled by callbacks are visible to the sending thread once awaitAll has returned.
+ */
+class LdapRequestPipeline implements AutoCloseable {
+
+  private final LDAPConnectionPool pool;
+  private final LDAPConnection connection;
+  private final int window;
+  private final Semaphore inFlight;
+  private volatile boolean defunct = false;
+
+  LdapRequestPipeline(LDAPConnectionPool pool, int window) throws LDAPException {
+    this.pool = pool;
+    this.window = Math.max(window, 1);
+    this.inFlight = new Semaphore(this.window);
+    this.connection = pool.getConnection();
+  }
+
+  void add(AddRequest request, Consumer<LDAPResult> callback) throws LDAPException {
+    acquire();
+    try {
+      connection.asyncAdd(request, new Listener(callback));
+    } catch (LDAPException e) {
+      inFlight.release();
+      defunct = true;
+      throw e;
+    }
+  }
+
+  void modify(ModifyRequest request, Consumer<LDAPResult> callback) throws LDAPException {
+    acquire();
+    try {
+      connection.asyncModify(request, new Listener(callback));
+    } catch (LDAPException e) {
+      inFlight.release();
+      defunct = true;
+      throw e;
+    }
+  }
+
+  /** Wait for the results of all the requests sent */
+  void awaitAll() {
+    try {
+      inFlight.acquire(window);
+      inFlight.release(window);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      defunct = true;
+      throw new StoreException("Interrupted while waiting for ldap results", e);
+    }
+  }
+
+  /** Wait for the pending results and give the connection back to the pool */
+  @Override
+  public void close() {
+    try {
+      if (!defunct) {
+        awaitAll();
+      }
+    } finally {
+      if (defunct) {
+        pool.releaseDefunctConnection(connection);
+      } else {
+        pool.releaseConnection(connection);
+      }
+    }
+  }
+
+  private void acquire() {
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      defunct = true;
+      throw new StoreException("Interrupted while sending ldap requests", e);
+    }
+  }
+
+  private class Listener implements AsyncResultListener {
+
+    private final Consumer<LDAPResult> callback;
+
+    private Listener(Consumer<LDAPResult> callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public void ldapResultReceived(AsyncRequestID requestID, LDAPResult ldapResult) {
+      if (!ldapResult.getResultCode().isConnectionUsable()) {
+        defunct = true;
+      }
+      try {
+        callback.accept(ldapResult);
+      } finally {
+        inFlight.release();
+      }
+    }
+  }
+}
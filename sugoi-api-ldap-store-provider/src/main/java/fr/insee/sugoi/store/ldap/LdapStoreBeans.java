@@ -45,6 +45,48 @@ public class LdapStoreBeans {
   @Value("${fr.insee.sugoi.ldap.default.pool:}")
   private String defaultPoolSize;
 
+  @Value("${fr.insee.sugoi.ldap.default.search-pool:}")
+  private String defaultSearchPoolSize;
+
+  @Value("${fr.insee.sugoi.ldap.default.search-cursor-ttl:300000}")
+  private String defaultSearchCursorTtl;
+
+  @Value("${fr.insee.sugoi.ldap.default.search-stream-page-size:500}")
+  private String defaultSearchStreamPageSize;
+
+  @Value("${fr.insee.sugoi.ldap.default.fuzzy-index-refresh-interval:60000}")
+  private String defaultFuzzyIndexRefreshInterval;
+
+  @Value("${fr.insee.sugoi.ldap.default.entry-cache-max-size:10000}")
+  private String defaultEntryCacheMaxSize;
+
+  @Value("${fr.insee.sugoi.ldap.default.entry-cache-ttl:300000}")
+  private String defaultEntryCacheTtl;
+
+  @Value("${fr.insee.sugoi.ldap.default.pool-initial-size:}")
+  private String defaultPoolInitialSize;
+
+  @Value("${fr.insee.sugoi.ldap.default.pool-health-check-interval:60000}")
+  private String defaultPoolHealthCheckInterval;
+
+  @Value("${fr.insee.sugoi.ldap.default.pool-connection-age-jitter:20000}")
+  private String defaultPoolConnectionAgeJitter;
+
+  @Value("${fr.insee.sugoi.ldap.default.pool-min-idle:}")
+  private String defaultPoolMinIdle;
+
+  @Value("${fr.insee.sugoi.ldap.default.pool-max-wait:}")
+  private String defaultPoolMaxWait;
+
+  @Value("${fr.insee.sugoi.ldap.default.read-your-writes-ttl:2000}")
+  private String defaultReadYourWritesTtl;
+
+  @Value("${fr.insee.sugoi.ldap.default.group-members-chunk-size:1000}")
+  private String defaultGroupMembersChunkSize;
+
+  @Value("${fr.insee.sugoi.ldap.default.bulk-write-window:64}")
+  private String defaultBulkWriteWindow;
+
   @Value("${fr.insee.sugoi.ldap.default.connection.timeout:30000}")
   private String defaultConnectionTimeout;
 
@@ -102,6 +144,9 @@ public class LdapStoreBeans {
   @Value("${fr.insee.sugoi.config.ldap.default.max-pool-connection-age:60000}")
   private String maxPoolConnectionAge;
 
+  @Value("${fr.insee.sugoi.ldap.default.batch-resolution-chunk-size:200}")
+  private String batchResolutionChunkSize;
+
   @Value(
       "#{'${fr.insee.sugoi.ldap.default.organization-mapping:identifiant:uid,String,rw;address:inseeAdressePostaleDN,address,rw;organization:inseeOrganisationDN,organization,rw}'.split(';')}")
   private List<String> defaultOrganizationMapping;
@@ -141,6 +186,7 @@ public class LdapStoreBeans {
         LdapConfigKeys.READ_CONNECTION_AUTHENTICATED,
         String.valueOf(useAuthenticatedConnectionForReading));
     config.put(LdapConfigKeys.POOL_SIZE, defaultPoolSize);
+    config.put(LdapConfigKeys.SEARCH_POOL_SIZE, defaultSearchPoolSize);
     config.put(
         LdapConfigKeys.LDAP_CONNECTION_TIMEOUT,
         userStorage.getProperties().get(LdapConfigKeys.LDAP_CONNECTION_TIMEOUT) != null
@@ -206,6 +252,90 @@ public class LdapStoreBeans {
                 && !realm.getProperties().get(LdapConfigKeys.MAX_POOL_CONNECTION_AGE).isEmpty()
             ? realm.getProperties().get(LdapConfigKeys.MAX_POOL_CONNECTION_AGE).get(0)
             : maxPoolConnectionAge);
+    config.put(
+        LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE,
+        realm.getProperties().get(LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE) != null
+                && !realm.getProperties().get(LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.BATCH_RESOLUTION_CHUNK_SIZE).get(0)
+            : batchResolutionChunkSize);
+    config.put(
+        LdapConfigKeys.SEARCH_CURSOR_TTL,
+        realm.getProperties().get(LdapConfigKeys.SEARCH_CURSOR_TTL) != null
+                && !realm.getProperties().get(LdapConfigKeys.SEARCH_CURSOR_TTL).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.SEARCH_CURSOR_TTL).get(0)
+            : defaultSearchCursorTtl);
+    config.put(
+        LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE,
+        realm.getProperties().get(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE) != null
+                && !realm.getProperties().get(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE).get(0)
+            : defaultSearchStreamPageSize);
+    config.put(
+        LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL,
+        realm.getProperties().get(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL) != null
+                && !realm.getProperties().get(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL).get(0)
+            : defaultFuzzyIndexRefreshInterval);
+    config.put(
+        LdapConfigKeys.ENTRY_CACHE_MAX_SIZE,
+        realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE) != null
+                && !realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_MAX_SIZE).get(0)
+            : defaultEntryCacheMaxSize);
+    config.put(
+        LdapConfigKeys.ENTRY_CACHE_TTL,
+        realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_TTL) != null
+                && !realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_TTL).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.ENTRY_CACHE_TTL).get(0)
+            : defaultEntryCacheTtl);
+    config.put(
+        LdapConfigKeys.POOL_INITIAL_SIZE,
+        realm.getProperties().get(LdapConfigKeys.POOL_INITIAL_SIZE) != null
+                && !realm.getProperties().get(LdapConfigKeys.POOL_INITIAL_SIZE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.POOL_INITIAL_SIZE).get(0)
+            : defaultPoolInitialSize);
+    config.put(
+        LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL,
+        realm.getProperties().get(LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL) != null
+                && !realm.getProperties().get(LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL).get(0)
+            : defaultPoolHealthCheckInterval);
+    config.put(
+        LdapConfigKeys.POOL_CONNECTION_AGE_JITTER,
+        realm.getProperties().get(LdapConfigKeys.POOL_CONNECTION_AGE_JITTER) != null
+                && !realm.getProperties().get(LdapConfigKeys.POOL_CONNECTION_AGE_JITTER).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.POOL_CONNECTION_AGE_JITTER).get(0)
+            : defaultPoolConnectionAgeJitter);
+    config.put(
+        LdapConfigKeys.POOL_MIN_IDLE,
+        realm.getProperties().get(LdapConfigKeys.POOL_MIN_IDLE) != null
+                && !realm.getProperties().get(LdapConfigKeys.POOL_MIN_IDLE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.POOL_MIN_IDLE).get(0)
+            : defaultPoolMinIdle);
+    config.put(
+        LdapConfigKeys.POOL_MAX_WAIT,
+        realm.getProperties().get(LdapConfigKeys.POOL_MAX_WAIT) != null
+                && !realm.getProperties().get(LdapConfigKeys.POOL_MAX_WAIT).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.POOL_MAX_WAIT).get(0)
+            : defaultPoolMaxWait);
+    config.put(
+        LdapConfigKeys.READ_YOUR_WRITES_TTL,
+        realm.getProperties().get(LdapConfigKeys.READ_YOUR_WRITES_TTL) != null
+                && !realm.getProperties().get(LdapConfigKeys.READ_YOUR_WRITES_TTL).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.READ_YOUR_WRITES_TTL).get(0)
+            : defaultReadYourWritesTtl);
+    config.put(
+        LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE,
+        realm.getProperties().get(LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE) != null
+                && !realm.getProperties().get(LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE).get(0)
+            : defaultGroupMembersChunkSize);
+    config.put(
+        LdapConfigKeys.BULK_WRITE_WINDOW,
+        realm.getProperties().get(LdapConfigKeys.BULK_WRITE_WINDOW) != null
+                && !realm.getProperties().get(LdapConfigKeys.BULK_WRITE_WINDOW).isEmpty()
+            ? realm.getProperties().get(LdapConfigKeys.BULK_WRITE_WINDOW).get(0)
+            : defaultBulkWriteWindow);
     config.put(
         LdapConfigKeys.USER_OBJECT_CLASSES,
         userStorage.getProperties().get(LdapConfigKeys.USER_OBJECT_CLASSES) != null
@@ -15,16 +15,24 @@ package fr.insee.sugoi.store.ldap;
 
 import com.unboundid.ldap.sdk.AddRequest;
 import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.DN;
 import com.unboundid.ldap.sdk.DeleteRequest;
 import com.unboundid.ldap.sdk.ExtendedResult;
 import com.unboundid.ldap.sdk.LDAPConnectionPool;
 import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
 import com.unboundid.ldap.sdk.Modification;
 import com.unboundid.ldap.sdk.ModificationType;
 import com.unboundid.ldap.sdk.ModifyRequest;
 import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.controls.PostReadRequestControl;
+import com.unboundid.ldap.sdk.controls.PostReadResponseControl;
 import com.unboundid.ldap.sdk.extensions.PasswordModifyExtendedRequest;
 import com.unboundid.util.SubtreeDeleter;
+import fr.insee.sugoi.core.configuration.GlobalKeysConfig;
 import fr.insee.sugoi.core.model.ProviderRequest;
 import fr.insee.sugoi.core.model.ProviderResponse;
 import fr.insee.sugoi.core.model.ProviderResponse.ProviderResponseStatus;
@@ -32,6 +40,7 @@ import fr.insee.sugoi.core.service.CertificateService;
 import fr.insee.sugoi.core.service.impl.CertificateServiceImpl;
 import fr.insee.sugoi.core.store.WriterStore;
 import fr.insee.sugoi.ldap.utils.LdapFactory;
+import fr.insee.sugoi.ldap.utils.LdapUtils;
 import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
 import fr.insee.sugoi.ldap.utils.mapper.AddressLdapMapper;
 import fr.insee.sugoi.ldap.utils.mapper.ApplicationLdapMapper;
@@ -56,14 +65,27 @@ import fr.insee.sugoi.model.exceptions.StoragePolicyNotMetException;
 import fr.insee.sugoi.model.exceptions.StoreException;
 import fr.insee.sugoi.model.exceptions.UnableToUpdateCertificateException;
 import fr.insee.sugoi.model.exceptions.UnabletoUpdateGPGKeyException;
+import fr.insee.sugoi.model.exceptions.UserAlreadyExistException;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.technics.StoreMapping;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +103,9 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
 
   private final LdapReaderStore ldapReaderStore;
 
+  /** Users written by this instance, shared with the reader stores of the userstorage */
+  private final LdapEntryCache recentWrites;
+
   public LdapWriterStore(
       Map<RealmConfigKeys, String> config, Map<MappingType, List<StoreMapping>> mappings) {
     try {
@@ -94,11 +119,23 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
           new ApplicationLdapMapper(config, mappings.get(MappingType.APPLICATIONMAPPING));
       addressLdapMapper = new AddressLdapMapper(config);
       ldapReaderStore = new LdapReaderStore(config, mappings);
+      recentWrites = LdapEntryCache.recentWritesOf(config);
     } catch (LDAPException e) {
       throw new StoreException("Failed to create LDAPWriterStore", e);
     }
   }
 
+  @Override
+  public void retire() {
+    ldapReaderStore.retire();
+  }
+
+  @Override
+  public void close() {
+    ldapReaderStore.close();
+    LdapFactory.releaseConnectionPool(ldapPoolConnection);
+  }
+
   /** Delete a user and its address */
   @Override
   public ProviderResponse deleteUser(String id, ProviderRequest providerRequest) {
@@ -122,6 +159,8 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
       }
       DeleteRequest dr = new DeleteRequest(getUserDN(id));
       ldapPoolConnection.delete(dr);
+      recentWrites.invalidate(getUserDN(id));
+      FuzzyUserIndex.of(config).remove(id);
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(id);
@@ -133,10 +172,12 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
 
   /**
    * Create a user in ldap. If the user has an address, a ldap resource address is generated with a
-   * random value as id An organization link can be created but may not exist
+   * random value as id An organization link can be created but may not exist. The created user is
+   * returned in the response if the ldap supports the post-read control.
    */
   @Override
   public ProviderResponse createUser(User user, ProviderRequest providerRequest) {
+    User writtenUser;
     try {
       if (user.getAddress() != null && user.getAddress().isNotEmpty()) {
         UUID addressUuid = createAddress(user.getAddress());
@@ -145,29 +186,45 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
       AddRequest userAddRequest =
           new AddRequest(
               getUserDN(user.getUsername()), userLdapMapper.mapToAttributesForCreation(user));
-      ldapPoolConnection.add(userAddRequest);
+      userAddRequest.addControl(
+          new PostReadRequestControl(false, ldapReaderStore.getUserAttributes()));
+      long writeTime = recentWrites.startLoad();
+      LDAPResult result = ldapPoolConnection.add(userAddRequest);
+      writtenUser = toWrittenUser(getUserDN(user.getUsername()), result, writeTime);
+      FuzzyUserIndex.of(config)
+          .update(user.getUsername(), (String) user.getAttributes().get("common_name"));
     } catch (LDAPException e) {
       throw new StoreException("Failed to create user. Provider message : " + e.getMessage(), e);
     }
     ProviderResponse response = new ProviderResponse();
     response.setStatus(ProviderResponseStatus.OK);
     response.setEntityId(user.getUsername());
+    response.setEntity(writtenUser);
     return response;
   }
 
-  /** Update the ldap properties of a user. Current user is read to retrieve user address link */
+  /**
+   * Update the ldap properties of a user. The modified attributes and the address link of the
+   * current user are read so that only changes are written. The updated user is returned in the
+   * response if the ldap supports the post-read control.
+   */
   @Override
   public ProviderResponse updateUser(User updatedUser, ProviderRequest providerRequest) {
+    User writtenUser = null;
     try {
-      User currentUser =
-          ldapReaderStore
-              .getUser(updatedUser.getUsername())
-              .orElseThrow(
-                  () ->
-                      new UserNotFoundException(
-                          config.get(LdapConfigKeys.REALM_NAME),
-                          config.get(LdapConfigKeys.USERSTORAGE_NAME),
-                          updatedUser.getUsername()));
+      String dn = getUserDN(updatedUser.getUsername());
+      SearchResultEntry currentEntry =
+          getCurrentEntry(
+              dn,
+              userLdapMapper.createMods(updatedUser),
+              userLdapMapper.getMappedAttributes(List.of("address"), false));
+      if (currentEntry == null) {
+        throw new UserNotFoundException(
+            config.get(LdapConfigKeys.REALM_NAME),
+            config.get(LdapConfigKeys.USERSTORAGE_NAME),
+            updatedUser.getUsername());
+      }
+      User currentUser = userLdapMapper.mapFromAttributes(currentEntry.getAttributes());
       if (updatedUser.getAddress() != null && updatedUser.getAddress().isNotEmpty()) {
         if (currentUser.getAddress() != null && currentUser.getAddress().getId() != null) {
           updateAddress(currentUser.getAddress().getId(), updatedUser.getAddress());
@@ -177,19 +234,276 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
           updatedUser.setAddress(newAddress);
         }
       }
-      ModifyRequest mr =
-          new ModifyRequest(
-              getUserDN(updatedUser.getUsername()), userLdapMapper.createMods(updatedUser));
-      ldapPoolConnection.modify(mr);
+      long writeTime = recentWrites.startLoad();
+      LDAPResult result =
+          modifyChanges(
+              currentEntry,
+              userLdapMapper.createMods(updatedUser),
+              new PostReadRequestControl(false, ldapReaderStore.getUserAttributes()));
+      if (result != null) {
+        writtenUser = toWrittenUser(dn, result, writeTime);
+      }
+      if (updatedUser.getAttributes().containsKey("common_name")) {
+        FuzzyUserIndex.of(config)
+            .update(
+                updatedUser.getUsername(),
+                (String) updatedUser.getAttributes().get("common_name"));
+      }
     } catch (LDAPException e) {
       throw new StoreException("Failed to update user while writing to LDAP", e);
     }
     ProviderResponse response = new ProviderResponse();
     response.setStatus(ProviderResponseStatus.OK);
     response.setEntityId(updatedUser.getUsername());
+    response.setEntity(writtenUser);
     return response;
   }
 
+  /**
+   * Import users with pipelined asynchronous requests. The current entries of the users are read by
+   * batch, then the requests are sent on a single connection with at most bulk_write_window
+   * requests waiting for their result : addresses first, then the users whose address has been
+   * written. Only changes are written for existing users. Users are not returned as written.
+   */
+  @Override
+  public List<ProviderResponse> importUsers(
+      List<User> users, boolean upsert, ProviderRequest providerRequest) {
+    Map<DN, SearchResultEntry> currentEntries =
+        ldapReaderStore.getUserEntries(
+            users.stream().map(User::getUsername).collect(Collectors.toList()));
+    Map<Integer, RuntimeException> failures = new ConcurrentHashMap<>();
+    Map<Integer, List<Modification>> retries = new ConcurrentHashMap<>();
+    List<SearchResultEntry> userEntries = new ArrayList<>();
+    try (LdapRequestPipeline pipeline =
+        new LdapRequestPipeline(ldapPoolConnection, getBulkWriteWindow())) {
+      for (int i = 0; i < users.size(); i++) {
+        User user = users.get(i);
+        SearchResultEntry currentEntry =
+            currentEntries.get(new DN(getUserDN(user.getUsername())));
+        userEntries.add(currentEntry);
+        if (currentEntry != null && !upsert) {
+          failures.put(
+              i,
+              new UserAlreadyExistException(
+                  "User "
+                      + user.getUsername()
+                      + " already exist in realm "
+                      + config.get(LdapConfigKeys.REALM_NAME)));
+        } else if (user.getAddress() != null && user.getAddress().isNotEmpty()) {
+          sendAddress(pipeline, i, user, currentEntry, failures);
+        }
+      }
+      pipeline.awaitAll();
+      for (int i = 0; i < users.size(); i++) {
+        if (!failures.containsKey(i)) {
+          sendUser(pipeline, i, users.get(i), userEntries.get(i), failures, retries);
+        }
+      }
+      pipeline.awaitAll();
+    } catch (LDAPException e) {
+      throw new StoreException("Failed to import users. Provider message : " + e.getMessage(), e);
+    }
+    List<ProviderResponse> responses = new ArrayList<>();
+    for (int i = 0; i < users.size(); i++) {
+      User user = users.get(i);
+      String dn = getUserDN(user.getUsername());
+      if (retries.containsKey(i)) {
+        try {
+          ldapPoolConnection.modify(new ModifyRequest(dn, retries.get(i)));
+        } catch (LDAPException e) {
+          failures.put(i, toImportFailure(user.getUsername(), e.toLDAPResult()));
+        }
+      }
+      if (failures.containsKey(i)) {
+        responses.add(
+            new ProviderResponse(
+                user.getUsername(), null, ProviderResponseStatus.KO, null, failures.get(i)));
+        continue;
+      }
+      recentWrites.invalidate(dn);
+      if (userEntries.get(i) == null || user.getAttributes().containsKey("common_name")) {
+        FuzzyUserIndex.of(config)
+            .update(user.getUsername(), (String) user.getAttributes().get("common_name"));
+      }
+      ProviderResponse response = new ProviderResponse();
+      response.setStatus(ProviderResponseStatus.OK);
+      response.setEntityId(user.getUsername());
+      responses.add(response);
+    }
+    return responses;
+  }
+
+  /**
+   * Send the creation or the update of the address of an imported user. A created address is linked
+   * to the user as in createUser and updateUser.
+   */
+  private void sendAddress(
+      LdapRequestPipeline pipeline,
+      int index,
+      User user,
+      SearchResultEntry currentEntry,
+      Map<Integer, RuntimeException> failures) {
+    String addressId =
+        currentEntry != null
+            ? Optional.ofNullable(
+                    userLdapMapper.mapFromAttributes(currentEntry.getAttributes()).getAddress())
+                .map(PostalAddress::getId)
+                .orElse(null)
+            : null;
+    Consumer<LDAPResult> onResult =
+        result -> {
+          if (!result.getResultCode().equals(ResultCode.SUCCESS)) {
+            failures.put(index, toImportFailure(user.getUsername(), result));
+          }
+        };
+    try {
+      if (addressId != null) {
+        pipeline.modify(
+            new ModifyRequest(
+                getAddressDN(addressId), addressLdapMapper.createMods(user.getAddress())),
+            onResult);
+        LdapEntryCache.of(config).invalidate(getAddressDN(addressId));
+      } else {
+        String newAddressId = UUID.randomUUID().toString();
+        pipeline.add(
+            new AddRequest(
+                getAddressDN(newAddressId),
+                addressLdapMapper.addressToAttributes(user.getAddress())),
+            onResult);
+        if (currentEntry != null) {
+          user.setAddress(new PostalAddress(newAddressId));
+        } else {
+          user.getAddress().setId(newAddressId);
+        }
+      }
+    } catch (LDAPException e) {
+      failures.put(index, toImportFailure(user.getUsername(), e.toLDAPResult()));
+    }
+  }
+
+  /**
+   * Send the creation of an imported user, or only the changes of an existing one. Changes rejected
+   * because the entry changed since it was read are kept in retries, to be applied in full.
+   */
+  private void sendUser(
+      LdapRequestPipeline pipeline,
+      int index,
+      User user,
+      SearchResultEntry currentEntry,
+      Map<Integer, RuntimeException> failures,
+      Map<Integer, List<Modification>> retries) {
+    try {
+      if (currentEntry == null) {
+        pipeline.add(
+            new AddRequest(
+                getUserDN(user.getUsername()), userLdapMapper.mapToAttributesForCreation(user)),
+            result -> {
+              if (!result.getResultCode().equals(ResultCode.SUCCESS)) {
+                failures.put(index, toImportFailure(user.getUsername(), result));
+              }
+            });
+        return;
+      }
+      List<Modification> modifications = userLdapMapper.createMods(user);
+      List<Modification> changes =
+          LdapUtils.getChangingModifications(currentEntry, modifications);
+      if (changes.isEmpty()) {
+        return;
+      }
+      pipeline.modify(
+          new ModifyRequest(currentEntry.getDN(), changes),
+          result -> {
+            if (result.getResultCode().equals(ResultCode.ATTRIBUTE_OR_VALUE_EXISTS)
+                || result.getResultCode().equals(ResultCode.NO_SUCH_ATTRIBUTE)) {
+              retries.put(index, modifications);
+            } else if (!result.getResultCode().equals(ResultCode.SUCCESS)) {
+              failures.put(index, toImportFailure(user.getUsername(), result));
+            }
+          });
+    } catch (LDAPException e) {
+      failures.put(index, toImportFailure(user.getUsername(), e.toLDAPResult()));
+    }
+  }
+
+  private RuntimeException toImportFailure(String username, LDAPResult result) {
+    if (result.getResultCode().equals(ResultCode.ENTRY_ALREADY_EXISTS)) {
+      return new UserAlreadyExistException(
+          "User " + username + " already exist in realm " + config.get(LdapConfigKeys.REALM_NAME));
+    }
+    return new StoreException(
+        "Failed to import user "
+            + username
+            + ". Provider message : "
+            + result.getDiagnosticMessage(),
+        new LDAPException(result));
+  }
+
+  /**
+   * Map the user entry returned by the ldap with the post-read control and keep it for
+   * read_your_writes_ttl, so that this instance reads its own writes without a new request.
+   *
+   * @return the user as written, null if the ldap did not return the entry
+   */
+  private User toWrittenUser(String dn, LDAPResult result, long writeTime) throws LDAPException {
+    SearchResultEntry entry = getPostReadEntry(result);
+    if (entry == null) {
+      recentWrites.invalidate(dn);
+      return null;
+    }
+    recentWrites.put(dn, entry, writeTime);
+    return ldapReaderStore.toUser(entry);
+  }
+
+  /**
+   * Read the current state of an entry before modifying it.
+   *
+   * @param modifications the modifications which are going to be applied
+   * @param otherAttributes other attributes to read
+   * @return the entry with the attributes of the modifications, null if it does not exist
+   */
+  private SearchResultEntry getCurrentEntry(
+      String dn, List<Modification> modifications, Collection<String> otherAttributes)
+      throws LDAPException {
+    Set<String> attributes = new LinkedHashSet<>(otherAttributes);
+    modifications.forEach(modification -> attributes.add(modification.getAttributeName()));
+    return ldapPoolConnection.getEntry(
+        dn,
+        attributes.isEmpty()
+            ? new String[] {SearchRequest.NO_ATTRIBUTES}
+            : attributes.toArray(new String[0]));
+  }
+
+  /**
+   * Apply only the modifications which change the current entry, see
+   * LdapUtils.getChangingModifications. The modifications are applied in full if the entry has
+   * changed since it was read.
+   *
+   * @return the result of the modify request, null if nothing changes
+   */
+  private LDAPResult modifyChanges(
+      SearchResultEntry currentEntry, List<Modification> modifications, Control... controls)
+      throws LDAPException {
+    List<Modification> changes = LdapUtils.getChangingModifications(currentEntry, modifications);
+    if (changes.isEmpty()) {
+      return null;
+    }
+    try {
+      return ldapPoolConnection.modify(new ModifyRequest(currentEntry.getDN(), changes, controls));
+    } catch (LDAPException e) {
+      if (!e.getResultCode().equals(ResultCode.ATTRIBUTE_OR_VALUE_EXISTS)
+          && !e.getResultCode().equals(ResultCode.NO_SUCH_ATTRIBUTE)) {
+        throw e;
+      }
+      return ldapPoolConnection.modify(
+          new ModifyRequest(currentEntry.getDN(), modifications, controls));
+    }
+  }
+
+  private static SearchResultEntry getPostReadEntry(LDAPResult result) throws LDAPException {
+    PostReadResponseControl postRead = PostReadResponseControl.get(result);
+    return postRead != null ? new SearchResultEntry(postRead.getEntry()) : null;
+  }
+
   @Override
   public ProviderResponse deleteGroup(
       String appName, String groupName, ProviderRequest providerRequest) {
@@ -202,6 +516,8 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                       config.get(LdapConfigKeys.REALM_NAME), appName, groupName));
       DeleteRequest dr = new DeleteRequest(getGroupDN(appName, groupName));
       ldapPoolConnection.delete(dr);
+      // memberOf of the members changes
+      recentWrites.invalidateAll();
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(groupName);
@@ -214,7 +530,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
   @Override
   public ProviderResponse createGroup(
       String appName, Group group, ProviderRequest providerRequest) {
-
+    SearchResultEntry writtenEntry;
     try {
       if (ldapReaderStore.getApplication(appName).isEmpty()) {
         throw new ApplicationNotFoundException(appName);
@@ -240,7 +556,10 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
             new AddRequest(
                 getGroupDN(appName, group.getName()),
                 groupLdapMapper.mapToAttributesForCreation(group));
-        ldapPoolConnection.add(ar);
+        ar.addControl(new PostReadRequestControl(false, ldapReaderStore.getGroupAttributes()));
+        writtenEntry = getPostReadEntry(ldapPoolConnection.add(ar));
+        invalidateMembers(
+            ar.getAttributes().stream().flatMap(attribute -> Arrays.stream(attribute.getValues())));
       } else {
         throw new StoragePolicyNotMetException("Group pattern won't match");
       }
@@ -250,24 +569,33 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
     ProviderResponse response = new ProviderResponse();
     response.setStatus(ProviderResponseStatus.OK);
     response.setEntityId(group.getName());
+    response.setEntity(writtenEntry != null ? ldapReaderStore.toGroup(writtenEntry) : null);
     return response;
   }
 
   @Override
   public ProviderResponse updateGroup(
       String appName, Group updatedGroup, ProviderRequest providerRequest) {
+    SearchResultEntry writtenEntry = null;
     try {
-      ldapReaderStore
-          .getGroup(appName, updatedGroup.getName())
-          .orElseThrow(
-              () ->
-                  new GroupNotFoundException(
-                      config.get(LdapConfigKeys.REALM_NAME), appName, updatedGroup.getName()));
-      ModifyRequest mr =
-          new ModifyRequest(
-              getGroupDN(appName, updatedGroup.getName()),
-              groupLdapMapper.createMods(updatedGroup));
-      ldapPoolConnection.modify(mr);
+      List<Modification> modifications = groupLdapMapper.createMods(updatedGroup);
+      SearchResultEntry currentEntry =
+          getCurrentEntry(getGroupDN(appName, updatedGroup.getName()), modifications, List.of());
+      if (currentEntry == null) {
+        throw new GroupNotFoundException(
+            config.get(LdapConfigKeys.REALM_NAME), appName, updatedGroup.getName());
+      }
+      LDAPResult result =
+          modifyChanges(
+              currentEntry,
+              modifications,
+              new PostReadRequestControl(false, ldapReaderStore.getGroupAttributes()));
+      if (result != null) {
+        writtenEntry = getPostReadEntry(result);
+        invalidateMembers(
+            LdapUtils.getChangingModifications(currentEntry, modifications).stream()
+                .flatMap(modification -> Arrays.stream(modification.getValues())));
+      }
     } catch (LDAPException e) {
       throw new StoreException(
           "Failed to update group " + updatedGroup.getName() + " while writing to LDAP", e);
@@ -275,6 +603,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
     ProviderResponse response = new ProviderResponse();
     response.setStatus(ProviderResponseStatus.OK);
     response.setEntityId(updatedGroup.getName());
+    response.setEntity(writtenEntry != null ? ldapReaderStore.toGroup(writtenEntry) : null);
     return response;
   }
 
@@ -297,6 +626,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
       }
       DeleteRequest dr = new DeleteRequest(getOrganizationDN(name));
       ldapPoolConnection.delete(dr);
+      LdapEntryCache.of(config).invalidate(getOrganizationDN(name));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(name);
@@ -344,25 +674,30 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
   }
 
   /**
-   * Update the ldap properties of a organization. Current organization is read to retrieve address
-   * link
+   * Update the ldap properties of a organization. The modified attributes and the address link of
+   * the current organization are read so that only changes are written.
    */
   @Override
   public ProviderResponse updateOrganization(
       Organization updatedOrganization, ProviderRequest providerRequest) {
     try {
+      SearchResultEntry currentEntry =
+          getCurrentEntry(
+              getOrganizationDN(updatedOrganization.getIdentifiant()),
+              organizationLdapMapper.createMods(updatedOrganization),
+              organizationLdapMapper.getMappedAttributes(List.of("address"), false));
+      if (currentEntry == null) {
+        throw new OrganizationNotFoundException(
+            config.get(LdapConfigKeys.REALM_NAME),
+            config.get(LdapConfigKeys.USERSTORAGE_NAME),
+            updatedOrganization.getIdentifiant());
+      }
       Organization currentOrganization =
-          ldapReaderStore
-              .getOrganization(updatedOrganization.getIdentifiant())
-              .orElseThrow(
-                  () ->
-                      new OrganizationNotFoundException(
-                          config.get(LdapConfigKeys.REALM_NAME),
-                          config.get(LdapConfigKeys.USERSTORAGE_NAME),
-                          updatedOrganization.getIdentifiant()));
+          organizationLdapMapper.mapFromAttributes(currentEntry.getAttributes());
       if (updatedOrganization.getAddress() != null
           && updatedOrganization.getAddress().isNotEmpty()) {
-        if (currentOrganization.getAddress().getId() != null) {
+        if (currentOrganization.getAddress() != null
+            && currentOrganization.getAddress().getId() != null) {
           updateAddress(currentOrganization.getAddress().getId(), updatedOrganization.getAddress());
         } else {
           PostalAddress newAddress =
@@ -370,11 +705,8 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
           updatedOrganization.setAddress(newAddress);
         }
       }
-      ModifyRequest mr =
-          new ModifyRequest(
-              getOrganizationDN(updatedOrganization.getIdentifiant()),
-              organizationLdapMapper.createMods(updatedOrganization));
-      ldapPoolConnection.modify(mr);
+      modifyChanges(currentEntry, organizationLdapMapper.createMods(updatedOrganization));
+      LdapEntryCache.of(config).invalidate(getOrganizationDN(updatedOrganization.getIdentifiant()));
     } catch (LDAPException e) {
       throw new StoreException(
           "Failed to update organization "
@@ -407,6 +739,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getGroupDN(appName, groupName),
               new Modification(ModificationType.DELETE, "uniqueMember", getUserDN(userId)));
       ldapPoolConnection.modify(mr);
+      recentWrites.invalidate(getUserDN(userId));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
@@ -441,6 +774,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getGroupDN(appName, groupName),
               new Modification(ModificationType.ADD, "uniqueMember", getUserDN(userId)));
       ldapPoolConnection.modify(mr);
+      recentWrites.invalidate(getUserDN(userId));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
@@ -456,6 +790,165 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
     }
   }
 
+  @Override
+  public ProviderResponse addUsersToGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return writeGroupMembers(appName, groupName, userIds, true, false);
+  }
+
+  @Override
+  public ProviderResponse deleteUsersFromGroup(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return writeGroupMembers(appName, groupName, userIds, false, true);
+  }
+
+  @Override
+  public ProviderResponse replaceGroupMembers(
+      String appName, String groupName, List<String> userIds, ProviderRequest providerRequest) {
+    return writeGroupMembers(appName, groupName, userIds, true, true);
+  }
+
+  /**
+   * Users to add are checked with one batched search. Users are compared to the current members of
+   * the group, so that only the missing members are added and only the present ones are removed, by
+   * modifications of at most group_members_chunk_size values. Users only removed are not checked,
+   * so that members whose user has been deleted can be removed.
+   *
+   * @param add whether users not in the group are added
+   * @param remove whether users in the group are removed : the given users if add is false, the
+   *     members of this userstorage other than the given users otherwise
+   */
+  private ProviderResponse writeGroupMembers(
+      String appName, String groupName, List<String> userIds, boolean add, boolean remove) {
+    String groupDN = getGroupDN(appName, groupName);
+    try {
+      SearchResultEntry groupEntry = ldapPoolConnection.getEntry(groupDN, "uniqueMember");
+      if (groupEntry == null) {
+        throw new GroupNotFoundException(config.get(LdapConfigKeys.REALM_NAME), appName, groupName);
+      }
+      Set<String> distinctIds = new LinkedHashSet<>(userIds);
+      List<String> memberIds = new ArrayList<>(distinctIds);
+      if (add) {
+        memberIds = ldapReaderStore.getExistingUserIds(memberIds);
+        if (memberIds.size() < distinctIds.size()) {
+          distinctIds.removeAll(memberIds);
+          throw new UserNotFoundException(
+              config.get(LdapConfigKeys.REALM_NAME), distinctIds.iterator().next());
+        }
+      }
+      Map<String, String> currentMembers = new HashMap<>();
+      String[] memberValues = groupEntry.getAttributeValues("uniqueMember");
+      if (memberValues != null) {
+        for (String member : memberValues) {
+          currentMembers.put(LdapEntryCache.normalize(member), member);
+        }
+      }
+      Map<String, String> requestedMembers = new LinkedHashMap<>();
+      for (String userId : memberIds) {
+        String userDN = getUserDN(userId);
+        requestedMembers.put(LdapEntryCache.normalize(userDN), userDN);
+      }
+      List<String> added = new ArrayList<>();
+      List<String> removed = new ArrayList<>();
+      if (add) {
+        requestedMembers.forEach(
+            (normalizedDN, userDN) -> {
+              if (!currentMembers.containsKey(normalizedDN)) {
+                added.add(userDN);
+              }
+            });
+      }
+      if (remove && !add) {
+        requestedMembers.keySet().stream()
+            .filter(currentMembers::containsKey)
+            .map(currentMembers::get)
+            .forEach(removed::add);
+      } else if (remove) {
+        DN userSource = new DN(config.get(GlobalKeysConfig.USER_SOURCE));
+        for (Map.Entry<String, String> member : currentMembers.entrySet()) {
+          if (!requestedMembers.containsKey(member.getKey())
+              && isDescendantOf(member.getValue(), userSource)) {
+            removed.add(member.getValue());
+          }
+        }
+      }
+      modifyGroupMembers(groupDN, ModificationType.ADD, added);
+      modifyGroupMembers(groupDN, ModificationType.DELETE, removed);
+      added.forEach(recentWrites::invalidate);
+      removed.forEach(recentWrites::invalidate);
+    } catch (LDAPException e) {
+      throw new StoreException("Failed to write members of group " + groupName, e);
+    }
+    ProviderResponse response = new ProviderResponse();
+    response.setStatus(ProviderResponseStatus.OK);
+    response.setEntityId(groupName);
+    return response;
+  }
+
+  /**
+   * Values already added or already removed by a concurrent write make a whole modification fail,
+   * the values of such a modification are then written one by one.
+   */
+  private void modifyGroupMembers(String groupDN, ModificationType type, List<String> members)
+      throws LDAPException {
+    int chunkSize = getGroupMembersChunkSize();
+    for (int i = 0; i < members.size(); i += chunkSize) {
+      List<String> chunk = members.subList(i, Math.min(i + chunkSize, members.size()));
+      try {
+        ldapPoolConnection.modify(
+            new ModifyRequest(
+                groupDN, new Modification(type, "uniqueMember", chunk.toArray(new String[0]))));
+      } catch (LDAPException e) {
+        if (!isMembershipConflict(e)) {
+          throw e;
+        }
+        if (chunk.size() > 1) {
+          for (String member : chunk) {
+            try {
+              ldapPoolConnection.modify(
+                  new ModifyRequest(groupDN, new Modification(type, "uniqueMember", member)));
+            } catch (LDAPException memberException) {
+              if (!isMembershipConflict(memberException)) {
+                throw memberException;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isMembershipConflict(LDAPException e) {
+    return e.getResultCode().equals(ResultCode.ATTRIBUTE_OR_VALUE_EXISTS)
+        || e.getResultCode().equals(ResultCode.NO_SUCH_ATTRIBUTE);
+  }
+
+  /** Users added to or removed from a group are no longer up to date in recentWrites */
+  private void invalidateMembers(Stream<String> values) throws LDAPException {
+    DN userSource = new DN(config.get(GlobalKeysConfig.USER_SOURCE));
+    values.filter(value -> isDescendantOf(value, userSource)).forEach(recentWrites::invalidate);
+  }
+
+  private static boolean isDescendantOf(String dn, DN parent) {
+    try {
+      return new DN(dn).isDescendantOf(parent, false);
+    } catch (LDAPException e) {
+      return false;
+    }
+  }
+
+  private int getBulkWriteWindow() {
+    return StringUtils.isNotBlank(config.get(LdapConfigKeys.BULK_WRITE_WINDOW))
+        ? Integer.parseInt(config.get(LdapConfigKeys.BULK_WRITE_WINDOW))
+        : 64;
+  }
+
+  private int getGroupMembersChunkSize() {
+    return StringUtils.isNotBlank(config.get(LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE))
+        ? Integer.parseInt(config.get(LdapConfigKeys.GROUP_MEMBERS_CHUNK_SIZE))
+        : 1000;
+  }
+
   @Override
   public ProviderResponse reinitPassword(
       String userId,
@@ -474,6 +967,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                 () -> new UserNotFoundException(config.get(LdapConfigKeys.REALM_NAME), userId));
     try {
       ldapPoolConnection.modify(getUserDN(user.getUsername()), mod);
+      recentWrites.invalidate(getUserDN(user.getUsername()));
       changePasswordResetStatus(userId, changePasswordResetStatus);
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
@@ -498,6 +992,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                 () -> new UserNotFoundException(config.get(LdapConfigKeys.REALM_NAME), userId));
     try {
       ldapPoolConnection.modify(getUserDN(user.getUsername()), mod);
+      recentWrites.invalidate(getUserDN(user.getUsername()));
       changePasswordResetStatus(userId, changePasswordResetStatus);
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
@@ -559,6 +1054,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                 () -> new UserNotFoundException(config.get(LdapConfigKeys.REALM_NAME), userId));
     try {
       ldapPoolConnection.modify(getUserDN(user.getUsername()), mod);
+      recentWrites.invalidate(getUserDN(user.getUsername()));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(user.getUsername());
@@ -618,11 +1114,14 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                 new ApplicationNotFoundException(
                     config.get(LdapConfigKeys.REALM_NAME), updatedApplication.getName()));
     try {
-      ModifyRequest mr =
-          new ModifyRequest(
-              getApplicationDN(updatedApplication.getName()),
-              applicationLdapMapper.createMods(updatedApplication));
-      ldapPoolConnection.modify(mr);
+      List<Modification> modifications = applicationLdapMapper.createMods(updatedApplication);
+      SearchResultEntry currentEntry =
+          getCurrentEntry(getApplicationDN(updatedApplication.getName()), modifications, List.of());
+      if (currentEntry == null) {
+        throw new ApplicationNotFoundException(
+            config.get(LdapConfigKeys.REALM_NAME), updatedApplication.getName());
+      }
+      modifyChanges(currentEntry, modifications);
       List<Group> alreadyExistingGroups =
           ldapReaderStore
               .getApplication(updatedApplication.getName())
@@ -672,6 +1171,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                     config.get(LdapConfigKeys.REALM_NAME), applicationName));
     try {
       (new SubtreeDeleter()).delete(ldapPoolConnection, getApplicationDN(applicationName));
+      recentWrites.invalidateAll();
     } catch (LDAPException e) {
       throw new StoreException("Failed to delete application " + applicationName, e);
     }
@@ -695,6 +1195,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getUserDN(userId),
               new Modification(ModificationType.ADD, attributeKey, attributeValue));
       ldapPoolConnection.modify(modifyAttributeRequest);
+      recentWrites.invalidate(getUserDN(userId));
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
     } catch (LDAPException e) {
@@ -727,6 +1228,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getUserDN(userId),
               new Modification(ModificationType.DELETE, attributeKey, attributeValue));
       ldapPoolConnection.modify(modifyAttributeRequest);
+      recentWrites.invalidate(getUserDN(userId));
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
     } catch (LDAPException e) {
@@ -765,11 +1267,13 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
     ModifyRequest modifyRequest =
         new ModifyRequest(getAddressDN(id), addressLdapMapper.createMods(newAddress));
     ldapPoolConnection.modify(modifyRequest);
+    LdapEntryCache.of(config).invalidate(getAddressDN(id));
   }
 
   private void deleteAddress(String id) throws LDAPException {
     DeleteRequest deleteRequest = new DeleteRequest(getAddressDN(id));
     ldapPoolConnection.delete(deleteRequest);
+    LdapEntryCache.of(config).invalidate(getAddressDN(id));
   }
 
   @Override
@@ -806,6 +1310,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                       ModificationType.ADD, "usercertificate;binary", certificate.getEncoded()),
                   new Modification(
                       ModificationType.ADD, "inseePropriete", "certificateId$" + certificateId))));
+      recentWrites.invalidate(getUserDN(user.getUsername()));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(user.getUsername());
@@ -835,6 +1340,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
                         ModificationType.DELETE,
                         "inseePropriete",
                         "certificateId$" + certificateId))));
+        recentWrites.invalidate(getUserDN(user.getUsername()));
         ProviderResponse response = new ProviderResponse();
         response.setStatus(ProviderResponseStatus.OK);
         response.setEntityId(user.getUsername());
@@ -904,6 +1410,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getGroupManagerSource(applicationName),
               new Modification(ModificationType.ADD, "uniqueMember", getUserDN(userId)));
       ldapPoolConnection.modify(mr);
+      recentWrites.invalidate(getUserDN(userId));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
@@ -932,6 +1439,7 @@ public class LdapWriterStore extends LdapStore implements WriterStore {
               getGroupManagerSource(applicationName),
               new Modification(ModificationType.DELETE, "uniqueMember", getUserDN(userId)));
       ldapPoolConnection.modify(mr);
+      recentWrites.invalidate(getUserDN(userId));
       ProviderResponse response = new ProviderResponse();
       response.setStatus(ProviderResponseStatus.OK);
       response.setEntityId(userId);
@@ -19,15 +19,20 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
 import fr.insee.sugoi.model.*;
+import fr.insee.sugoi.model.exceptions.InvalidSearchTokenException;
 import fr.insee.sugoi.model.exceptions.MultipleUserWithSameMailException;
 import fr.insee.sugoi.model.fixtures.StoreMappingFixture;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
+import fr.insee.sugoi.store.ldap.FuzzyUserIndex;
 import fr.insee.sugoi.store.ldap.LdapReaderStore;
 import fr.insee.sugoi.store.ldap.LdapStoreBeans;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -82,6 +87,8 @@ public class LdapReaderStoreTest {
     realm.setAppSource(appSource);
     realm.getProperties().put(LdapConfigKeys.GROUP_FILTER_PATTERN, List.of(groupFilterPattern));
     realm.getProperties().put(LdapConfigKeys.GROUP_SOURCE_PATTERN, List.of(groupSourcePattern));
+    realm.getProperties().put(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE, List.of("2"));
+    realm.getProperties().put(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL, List.of("0"));
     realm.setGroupMappings(StoreMappingFixture.getGroupStoreMappings());
     realm.setApplicationMappings(StoreMappingFixture.getApplicationStoreMappings());
 
@@ -116,6 +123,19 @@ public class LdapReaderStoreTest {
     assertThat("Suborga must have address", suborga.getAddress().getLines()[0], is("Insee"));
   }
 
+  @Test
+  public void testGetCachedOrganization() {
+    Organization organization = ldapReaderStore.getOrganization("testo").get();
+    organization.addAttributes("description", "modified");
+    organization.getAddress().getLines()[0] = "modified";
+    Organization cachedOrganization = ldapReaderStore.getOrganization("testo").get();
+    assertThat(
+        "Modifying a read organization should not modify the next ones",
+        cachedOrganization.getAttributes().get("description"),
+        is("Insee"));
+    assertThat("Nor their address", cachedOrganization.getAddress().getLines()[0], is("Insee"));
+  }
+
   @Test
   public void testGetNonexistentOrganization() {
     assertThat("Should get null", ldapReaderStore.getOrganization("nottesto").isEmpty());
@@ -200,6 +220,38 @@ public class LdapReaderStoreTest {
         users.stream().anyMatch(user -> user.getUsername().equals("nogroup")));
   }
 
+  @Test
+  public void testSearchUsersNextPage() {
+    PageableResult pageableResult = new PageableResult(2, 0, null);
+    PageResult<User> firstPage = ldapReaderStore.searchUsers(new User(), pageableResult, "AND");
+    assertThat("First page should be full", firstPage.getResults().size(), is(2));
+    assertThat("Should have more results", firstPage.isHasMoreResult(), is(true));
+    PageResult<User> secondPage =
+        ldapReaderStore.searchUsers(
+            new User(), new PageableResult(2, 0, firstPage.getSearchToken()), "AND");
+    assertThat("Second page should be full", secondPage.getResults().size(), is(2));
+    assertThat(
+        "Second page should continue the first one",
+        secondPage.getResults().stream()
+            .noneMatch(
+                user ->
+                    firstPage.getResults().stream()
+                        .anyMatch(u -> u.getUsername().equals(user.getUsername()))));
+  }
+
+  @Test
+  public void testSearchUsersNextPageOfLostCursor() {
+    PageResult<User> firstPage =
+        ldapReaderStore.searchUsers(new User(), new PageableResult(2, 0, null), "AND");
+    String searchToken = firstPage.getSearchToken();
+    String lostCursorToken = "lost" + searchToken.substring(searchToken.indexOf(':'));
+    assertThrows(
+        InvalidSearchTokenException.class,
+        () ->
+            ldapReaderStore.searchUsers(
+                new User(), new PageableResult(2, 0, lostCursorToken), "AND"));
+  }
+
   @Test
   public void testSearchUserWithMatchingMail() {
     PageableResult pageableResult = new PageableResult();
@@ -224,9 +276,14 @@ public class LdapReaderStoreTest {
   void testFuzzySearchUserWithCommonName() {
     User testUser = new User();
     testUser.getAttributes().put("common_name", "Charlés d'Artagnan");
-    List<User> users =
-        ldapReaderStore.fuzzySearchUsers(testUser, new PageableResult(), "AND").getResults();
+    PageableResult pageable = new PageableResult();
+    List<User> users = ldapReaderStore.fuzzySearchUsers(testUser, pageable, "AND").getResults();
     assertThat("Should find two results", users.size(), is(2));
+    assertThat(
+        "Filter should be left as is",
+        testUser.getAttributes().get("common_name"),
+        is("Charlés d'Artagnan"));
+    assertThat("Pageable should be left as is", pageable.getSize(), is(20));
     assertThat(
         "One result should be dartagnan1",
         users.stream().anyMatch(u -> u.getUsername().equals("dartagnan1")));
@@ -243,6 +300,46 @@ public class LdapReaderStoreTest {
             .anyMatch(u -> u.getUsername().equals("dartagnan5")));
   }
 
+  @Test
+  void testFuzzySearchUserWithIndex() throws InterruptedException {
+    Realm indexedRealm = realm();
+    indexedRealm.setName("domaine1_fuzzy");
+    indexedRealm
+        .getProperties()
+        .put(LdapConfigKeys.FUZZY_INDEX_REFRESH_INTERVAL, List.of("60000"));
+    LdapReaderStore indexedStore =
+        (LdapReaderStore) context.getBean("LdapReaderStore", indexedRealm, userStorage());
+    User testUser = new User();
+    testUser.getAttributes().put("common_name", "Charles d'Artagnan");
+    indexedStore.fuzzySearchUsers(testUser, new PageableResult(), "AND");
+    Map<RealmConfigKeys, String> config = new HashMap<>();
+    config.put(LdapConfigKeys.REALM_NAME, "domaine1_fuzzy");
+    config.put(LdapConfigKeys.USERSTORAGE_NAME, "default");
+    for (int i = 0; i < 50 && !FuzzyUserIndex.of(config).isLoaded(); i++) {
+      Thread.sleep(100);
+    }
+    assertThat("Index should be loaded", FuzzyUserIndex.of(config).isLoaded());
+    PageResult<User> firstPage =
+        indexedStore.fuzzySearchUsers(testUser, new PageableResult(2, 0, null), "AND");
+    assertThat(
+        "Best matches should come first",
+        firstPage.getResults().stream().map(User::getUsername).collect(Collectors.toList()),
+        is(List.of("dartagnan1", "dartagnan3")));
+    assertThat("Should have more results", firstPage.isHasMoreResult());
+    PageResult<User> secondPage =
+        indexedStore.fuzzySearchUsers(
+            testUser, new PageableResult(2, 0, firstPage.getSearchToken()), "AND");
+    assertThat(
+        "Second page should hold the last match",
+        secondPage.getResults().stream().map(User::getUsername).collect(Collectors.toList()),
+        is(List.of("dartagnan5")));
+    testUser.setMail("nomatch@insee.fr");
+    assertThat(
+        "Other criterias should be checked",
+        indexedStore.fuzzySearchUsers(testUser, new PageableResult(), "AND").getResults().size(),
+        is(0));
+  }
+
   @Test
   void testSearchUsersWithMatchingGroup() {
     User testUser = new User();
@@ -321,6 +418,17 @@ public class LdapReaderStoreTest {
         group.getUsers().stream().anyMatch(user -> user.getUsername().equals("testc")));
   }
 
+  @Test
+  public void testIsGroupSelfManaged() {
+    assertThat(
+        "Utilisateurs_Applitest should not be self-managed",
+        ldapReaderStore.isGroupSelfManaged("Applitest", "Utilisateurs_Applitest"),
+        is(Optional.of(false)));
+    assertThat(
+        "A group which does not exist should not be found",
+        ldapReaderStore.isGroupSelfManaged("Applitest", "donotexist").isEmpty());
+  }
+
   @Test
   public void testSearchAllGroups() {
     PageableResult pageableResult = new PageableResult();
@@ -345,6 +453,26 @@ public class LdapReaderStoreTest {
     assertThat("Should be readers", users.get(0).getUsername(), is("testc"));
   }
 
+  @Test
+  public void testGetUsersInGroupResolvesOrganizationsAndAddresses() {
+    List<User> users =
+        ldapReaderStore.getUsersInGroup("Applitest", "Reader_Applitest").getResults();
+    User testc = users.get(0);
+    assertThat("Member should have its address", testc.getAddress().getLines()[0], is("Insee"));
+    assertThat(
+        "Member should have its organization",
+        testc.getOrganization().getIdentifiant(),
+        is("testo"));
+    assertThat(
+        "Member organization should have its address",
+        testc.getOrganization().getAddress().getLines()[0],
+        is("Insee"));
+    assertThat(
+        "Member organization should have its parent organization",
+        testc.getOrganization().getOrganization().getIdentifiant(),
+        is("testi"));
+  }
+
   @Test
   public void validateCredential() {
     User user = ldapReaderStore.getUser("testc").get();
@@ -447,4 +575,55 @@ public class LdapReaderStoreTest {
         MultipleUserWithSameMailException.class,
         () -> ldapReaderStore.getUserByMail("conflictingmail@insee.fr"));
   }
+
+  @Test
+  @DisplayName(
+      "Given we search users restricted to some properties, "
+          + "only those properties should be retrieved")
+  public void testSearchUsersWithProjection() {
+    List<User> users =
+        ldapReaderStore
+            .searchUsers(
+                new User("testc"),
+                new PageableResult(10, 0, null),
+                "AND",
+                List.of("username", "mail"))
+            .getResults();
+    assertThat("Should find testc", users.size(), is(1));
+    assertThat("Should get mail", users.get(0).getMail(), is("test@test.fr"));
+    assertThat(
+        "Should not get common name",
+        users.get(0).getAttributes().containsKey("common_name"),
+        is(false));
+    assertThat("Should not get organization", users.get(0).getOrganization() == null, is(true));
+  }
+
+  @Test
+  @DisplayName(
+      "Given we stream users by pages of 2, every user found by a search should be streamed")
+  public void testStreamUsers() {
+    List<String> searchedUsers =
+        ldapReaderStore
+            .searchUsers(new User(), new PageableResult(1000, 0, null), "AND")
+            .getResults()
+            .stream()
+            .map(User::getUsername)
+            .collect(Collectors.toList());
+    try (Stream<User> users = ldapReaderStore.streamUsers(new User(), "AND")) {
+      List<String> streamedUsers = users.map(User::getUsername).collect(Collectors.toList());
+      assertThat("Should stream several pages", streamedUsers.size() > 2, is(true));
+      assertThat("Should stream every user", streamedUsers.size(), is(searchedUsers.size()));
+      assertThat(
+          "Should stream the same users", streamedUsers.containsAll(searchedUsers), is(true));
+    }
+  }
+
+  @Test
+  @DisplayName("Given we stop consuming a stream of users, the search should be abandoned")
+  public void testStreamUsersClosedEarly() {
+    try (Stream<User> users = ldapReaderStore.streamUsers(new User(), "AND")) {
+      assertThat("Should get the first user", users.findFirst().isPresent(), is(true));
+    }
+    assertThat("Should still search users", ldapReaderStore.getUser("testc").isPresent(), is(true));
+  }
 }
@@ -26,6 +26,7 @@ import fr.insee.sugoi.model.*;
 import fr.insee.sugoi.model.exceptions.ApplicationNotFoundException;
 import fr.insee.sugoi.model.exceptions.InvalidPasswordException;
 import fr.insee.sugoi.model.exceptions.StoragePolicyNotMetException;
+import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.fixtures.StoreMappingFixture;
 import fr.insee.sugoi.store.ldap.LdapReaderStore;
 import fr.insee.sugoi.store.ldap.LdapStoreBeans;
@@ -34,6 +35,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -214,6 +216,49 @@ public class LdapWriterStoreTest {
     assertThat("TitiNoAddress shouldn't have an address", retrievedUser.getAddress() == null);
   }
 
+  @Test
+  public void testImportUsers() {
+    User user1 = new User("ImportedUser1");
+    user1.setLastName("Imported");
+    user1.setMail("imported1@insee.fr");
+    user1.setAddress(addressToto);
+    User user2 = new User("ImportedUser2");
+    user2.setLastName("Imported");
+    List<ProviderResponse> responses =
+        ldapWriterStore.importUsers(List.of(user1, user2), false, null);
+    assertThat(
+        "Users should have been created",
+        responses.stream().map(ProviderResponse::getStatus).collect(Collectors.toList()),
+        is(List.of(ProviderResponseStatus.OK, ProviderResponseStatus.OK)));
+    assertThat(
+        "ImportedUser1 should have an address",
+        ldapReaderStore.getUser("ImportedUser1").get().getAddress().getLines()[0],
+        is("Toto"));
+    assertThat("ImportedUser2 should exist", ldapReaderStore.getUser("ImportedUser2").isPresent());
+
+    User updatedUser1 = new User("ImportedUser1");
+    updatedUser1.setLastName("Updated");
+    updatedUser1.setMail("imported1@insee.fr");
+    ProviderResponse rejectedResponse =
+        ldapWriterStore.importUsers(List.of(updatedUser1), false, null).get(0);
+    assertThat(
+        "Existing user should be rejected without upsert",
+        rejectedResponse.getStatus(),
+        is(ProviderResponseStatus.KO));
+    assertThat(
+        "ImportedUser1 should be unchanged",
+        ldapReaderStore.getUser("ImportedUser1").get().getLastName(),
+        is("Imported"));
+    assertThat(
+        "Existing user should be updated with upsert",
+        ldapWriterStore.importUsers(List.of(updatedUser1), true, null).get(0).getStatus(),
+        is(ProviderResponseStatus.OK));
+    assertThat(
+        "ImportedUser1 should have been updated",
+        ldapReaderStore.getUser("ImportedUser1").get().getLastName(),
+        is("Updated"));
+  }
+
   @Test
   public void testUpdateUser() {
     User user = ldapReaderStore.getUser("testo").get();
@@ -226,6 +271,22 @@ public class LdapWriterStoreTest {
     assertThat("testo should have an address", modifiedUser.getAddress().getLines()[0], is("Toto"));
   }
 
+  @Test
+  public void testUpdateUserReturnsWrittenUser() {
+    User user = ldapReaderStore.getUser("testo").get();
+    user.setMail("written@insee.fr");
+    ProviderResponse response =
+        ldapWriterStore.updateUser(user, new ProviderRequest(null, false, null));
+    assertThat(
+        "Written user should have the new mail",
+        ((User) response.getEntity()).getMail(),
+        is("written@insee.fr"));
+    assertThat(
+        "testo should be read with the new mail",
+        ldapReaderStore.getUser("testo").get().getMail(),
+        is("written@insee.fr"));
+  }
+
   @Test
   public void testUpdateUserWithSameMailWithoutUnicityNeeded() {
     User user = ldapReaderStore.getUser("testo").get();
@@ -474,6 +535,64 @@ public class LdapWriterStoreTest {
                         && user.getUsername().equals("agarder")));
   }
 
+  @Test
+  public void testBulkGroupMembers() {
+    ldapWriterStore.createGroup("Applitest", new Group("Bulk_Applitest", "Applitest"), null);
+    ldapWriterStore.addUsersToGroup(
+        "Applitest", "Bulk_Applitest", List.of("dartagnan1", "dartagnan2", "dartagnan1"), null);
+    ldapWriterStore.addUsersToGroup(
+        "Applitest", "Bulk_Applitest", List.of("dartagnan2", "dartagnan3"), null);
+    assertThat(
+        "Group should contain the added users once",
+        getUsernamesInGroup("Applitest", "Bulk_Applitest"),
+        containsInAnyOrder("dartagnan1", "dartagnan2", "dartagnan3"));
+    ldapWriterStore.deleteUsersFromGroup(
+        "Applitest", "Bulk_Applitest", List.of("dartagnan1", "dartagnan5"), null);
+    assertThat(
+        "Group should not contain dartagnan1",
+        getUsernamesInGroup("Applitest", "Bulk_Applitest"),
+        containsInAnyOrder("dartagnan2", "dartagnan3"));
+    ldapWriterStore.replaceGroupMembers(
+        "Applitest", "Bulk_Applitest", List.of("dartagnan3", "dartagnan4"), null);
+    assertThat(
+        "Group should only contain the replacing users",
+        getUsernamesInGroup("Applitest", "Bulk_Applitest"),
+        containsInAnyOrder("dartagnan3", "dartagnan4"));
+    ldapWriterStore.deleteGroup("Applitest", "Bulk_Applitest", null);
+  }
+
+  @Test
+  public void testBulkGroupMembersUserNotFound() {
+    assertThrows(
+        UserNotFoundException.class,
+        () ->
+            ldapWriterStore.addUsersToGroup(
+                "Applitest", "Reader_Applitest", List.of("testc", "donotexist"), null));
+  }
+
+  @Test
+  public void testDeleteMemberWhoseUserDoesNotExist() {
+    Group group = new Group("Dangling_Applitest", "Applitest");
+    group.setUsers(List.of(new User("dartagnan1"), new User("donotexist")));
+    ldapWriterStore.createGroup("Applitest", group, null);
+    ldapWriterStore.deleteUsersFromGroup(
+        "Applitest", "Dangling_Applitest", List.of("donotexist"), null);
+    assertThat(
+        "Group should only contain dartagnan1",
+        ldapReaderStore.getGroup("Applitest", "Dangling_Applitest").get().getUsers().stream()
+            .map(User::getUsername)
+            .collect(Collectors.toList()),
+        contains("dartagnan1"));
+    ldapWriterStore.deleteGroup("Applitest", "Dangling_Applitest", null);
+  }
+
+  private List<String> getUsernamesInGroup(String appName, String groupName) {
+    return ldapReaderStore.getUsersInGroup(appName, groupName).getResults().stream()
+        .filter(user -> user != null && user.getUsername() != null)
+        .map(User::getUsername)
+        .collect(Collectors.toList());
+  }
+
   @Test
   public void testUpdateGroup() {
     Group group = ldapReaderStore.getGroup("Applitest", "Amodifier_Applitest").get();
@@ -14,22 +14,51 @@
 package fr.insee.sugoi.ldap.utils;
 
 import com.unboundid.ldap.sdk.BindResult;
+import com.unboundid.ldap.sdk.GetEntryLDAPConnectionPoolHealthCheck;
 import com.unboundid.ldap.sdk.LDAPConnection;
 import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPConnectionPoolStatistics;
 import com.unboundid.ldap.sdk.LDAPException;
 import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
 import fr.insee.sugoi.model.RealmConfigKeys;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+/**
+ * Registry of the connection pools of the userstorages. A single pool is registered per
+ * userstorage and kind of connection, even under concurrent first accesses, which wait for the
+ * first one to establish its connections. When the configuration of a userstorage changes, a new
+ * pool replaces the previous one, which is retired once the new one is created and closed once
+ * every store using it has released it.
+ *
+ * <p>Pools open pool_initial_size connections on creation (pool_size if not set) and check idle
+ * connections every pool_health_check_interval milliseconds by reading the root DSE. Connections
+ * are replaced after max_pool_connection_age plus up to pool_connection_age_jitter milliseconds.
+ * The statistics of each pool are published as ldap.pool.* meters.
+ */
 @Component
 public class LdapFactory {
 
-  private static final Map<String, LDAPConnectionPool> openLdapPoolConnection = new HashMap<>();
-  private static final Map<String, String> openLdapPoolConnectionConfig = new HashMap<>();
-  private static final Map<String, String> openLdapMonoConnectionConfig = new HashMap<>();
-  private static final Map<String, LDAPConnection> openLdapMonoConnection = new HashMap<>();
+  private static final Logger logger = LoggerFactory.getLogger(LdapFactory.class);
+
+  private static final Map<String, PoolRegistration> connectionPools = new ConcurrentHashMap<>();
+
+  /** Every open pool, registered or retired, by pool */
+  private static final Map<LDAPConnectionPool, RegisteredPool> registeredPools =
+      new ConcurrentHashMap<>();
 
   /**
    * Give an unauthenticated Ldap Connection Pool
@@ -40,75 +69,10 @@ public class LdapFactory {
    */
   public static LDAPConnectionPool getConnectionPool(Map<RealmConfigKeys, String> config)
       throws LDAPException {
-    // Check if a ldap connection pool already exist for this userStorage and create
-    // it if it doesn't exist
-    String key =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_"
-            + config.hashCode()
-            + "_R";
-    String name =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_R";
-
-    if (!openLdapPoolConnectionConfig.containsKey(key)) {
-      if (openLdapPoolConnection.containsKey(name)) {
-        openLdapPoolConnection.get(name).close();
-      }
-      LDAPConnection ldapConnection =
-          new LDAPConnection(
-              config.get(LdapConfigKeys.URL), Integer.parseInt(config.get(LdapConfigKeys.PORT)));
-      setConnectionTimeout(ldapConnection, config);
-      LDAPConnectionPool ldapConnectionPool =
-          new LDAPConnectionPool(
-              ldapConnection, Integer.parseInt(config.get(LdapConfigKeys.POOL_SIZE)));
-      ldapConnectionPool.setMaxConnectionAgeMillis(
-          Integer.parseInt(config.get(LdapConfigKeys.MAX_POOL_CONNECTION_AGE)));
-      openLdapPoolConnection.put(name, ldapConnectionPool);
-      // Only put key if ldap connection correctly open
-      openLdapPoolConnectionConfig.put(key, name);
-    }
-    return openLdapPoolConnection.get(name);
-  }
-
-  public static LDAPConnection getSingleConnection(Map<RealmConfigKeys, String> config)
-      throws LDAPException {
-    return getSingleConnection(config, false);
-  }
-
-  public static LDAPConnection getSingleConnection(
-      Map<RealmConfigKeys, String> config, boolean forceErase) throws LDAPException {
-    String key =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_"
-            + config.hashCode()
-            + "_R";
-    String name =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_R";
-
-    if (!openLdapMonoConnectionConfig.containsKey(key) || forceErase) {
-      if (openLdapMonoConnection.containsKey(name) && openLdapMonoConnection.get(name) != null
-          || forceErase) {
-        openLdapMonoConnection.get(name).close();
-      }
-      LDAPConnection ldapConnection =
-          new LDAPConnection(
-              config.get(LdapConfigKeys.URL), Integer.valueOf(config.get(LdapConfigKeys.PORT)));
-      setConnectionTimeout(ldapConnection, config);
-      openLdapMonoConnection.put(name, ldapConnection);
-      // Only put key if ldap connection correctly open
-      openLdapMonoConnectionConfig.put(key, name);
-    }
-    return openLdapMonoConnection.get(name);
+    return getOrCreatePool(
+        config,
+        "R",
+        () -> createPool(config, false, config.get(LdapConfigKeys.POOL_SIZE)));
   }
 
   /**
@@ -120,80 +84,247 @@ public class LdapFactory {
    */
   public static LDAPConnectionPool getConnectionPoolAuthenticated(
       Map<RealmConfigKeys, String> config) throws LDAPException {
-    // Check if a ldap connection pool already exist for this userStorage and create
-    // it if it doesn't exist
-    String name =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_RW";
-    String key =
-        config.get(LdapConfigKeys.REALM_NAME)
-            + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_"
-            + config.hashCode()
-            + "_RW";
+    return getOrCreatePool(
+        config,
+        "RW",
+        () -> createPool(config, true, config.get(LdapConfigKeys.POOL_SIZE)));
+  }
 
-    if (!openLdapPoolConnectionConfig.containsKey(key)) {
-      if (openLdapPoolConnection.containsKey(name)) {
-        openLdapPoolConnection.get(name).close();
-      }
-      LDAPConnection ldapConnection =
-          new LDAPConnection(
-              config.get(LdapConfigKeys.URL),
-              Integer.parseInt(config.get(LdapConfigKeys.PORT)),
-              config.get(LdapConfigKeys.USERNAME),
-              config.get(LdapConfigKeys.PASSWORD));
-      setConnectionTimeout(ldapConnection, config);
-      LDAPConnectionPool ldapConnectionPool =
-          new LDAPConnectionPool(
-              ldapConnection, Integer.parseInt(config.get(LdapConfigKeys.POOL_SIZE)));
-      ldapConnectionPool.setMaxConnectionAgeMillis(
-          Integer.parseInt(config.get(LdapConfigKeys.MAX_POOL_CONNECTION_AGE)));
-      openLdapPoolConnection.put(name, ldapConnectionPool);
-      // Only put key if ldap connection correctly open
-      openLdapPoolConnectionConfig.put(key, name);
+  /**
+   * Give a Ldap Connection Pool dedicated to searches, so that connections pinned by paged search
+   * cursors do not starve the other operations. Its size is search_pool_size or pool_size if not
+   * set.
+   *
+   * @param config
+   * @param authenticated true to bind the connections with the configured credentials
+   * @return
+   * @throws LDAPException
+   */
+  public static LDAPConnectionPool getSearchConnectionPool(
+      Map<RealmConfigKeys, String> config, boolean authenticated) throws LDAPException {
+    String searchPoolSize =
+        config.get(LdapConfigKeys.SEARCH_POOL_SIZE) != null
+                && !config.get(LdapConfigKeys.SEARCH_POOL_SIZE).isBlank()
+            ? config.get(LdapConfigKeys.SEARCH_POOL_SIZE)
+            : config.get(LdapConfigKeys.POOL_SIZE);
+    return getOrCreatePool(
+        config,
+        authenticated ? "SRW" : "S",
+        () -> createPool(config, authenticated, searchPoolSize));
+  }
+
+  /**
+   * Tell that a pool given by this factory is no longer used by the caller. A pool which has been
+   * replaced is closed once every user has released it.
+   */
+  public static void releaseConnectionPool(LDAPConnectionPool pool) {
+    RegisteredPool registeredPool = registeredPools.get(pool);
+    if (registeredPool != null) {
+      registeredPool.release();
     }
-    return openLdapPoolConnection.get(name);
   }
 
-  public static LDAPConnection getSingleConnectionAuthenticated(Map<RealmConfigKeys, String> config)
-      throws LDAPException {
-    return getSingleConnectionAuthenticated(config, false);
+  /** Close every pool, when the application stops */
+  @PreDestroy
+  public void closeConnectionPools() {
+    registeredPools.keySet().forEach(LDAPConnectionPool::close);
+    registeredPools.clear();
+    connectionPools.clear();
   }
 
-  public static LDAPConnection getSingleConnectionAuthenticated(
-      Map<RealmConfigKeys, String> config, boolean forceErase) throws LDAPException {
+  /**
+   * Get the pool of this kind registered for the userstorage if it was created with the same
+   * configuration, otherwise register a pool in place of the previous one, which is retired. The
+   * pool is registered before being created, so that only the thread registering it opens
+   * connections, the others waiting for it to be created.
+   */
+  private static LDAPConnectionPool getOrCreatePool(
+      Map<RealmConfigKeys, String> config, String kind, PoolCreator poolCreator)
+      throws LDAPException {
     String name =
         config.get(LdapConfigKeys.REALM_NAME)
             + "_"
             + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_RW";
-    String key =
-        config.get(LdapConfigKeys.REALM_NAME)
             + "_"
-            + config.get(LdapConfigKeys.USERSTORAGE_NAME)
-            + "_"
-            + config.hashCode()
-            + "_RW";
-    if (!openLdapMonoConnectionConfig.containsKey(key) || forceErase) {
-      if (openLdapMonoConnection.containsKey(name) && openLdapMonoConnection.get(name) != null
-          || forceErase) {
-        openLdapMonoConnection.get(name).close();
+            + kind;
+    while (true) {
+      PoolRegistration currentRegistration = connectionPools.get(name);
+      if (currentRegistration != null && currentRegistration.config.equals(config)) {
+        RegisteredPool currentPool = currentRegistration.await();
+        if (currentPool.acquire()) {
+          return currentPool.pool;
+        }
+        // Retired and closed meanwhile, its replacement is registered
+        continue;
+      }
+      PoolRegistration registration = new PoolRegistration(new HashMap<>(config));
+      boolean registered =
+          currentRegistration == null
+              ? connectionPools.putIfAbsent(name, registration) == null
+              : connectionPools.replace(name, currentRegistration, registration);
+      if (!registered) {
+        // Registered concurrently, wait for that pool on the next turn
+        continue;
+      }
+      RegisteredPool createdPool;
+      try {
+        createdPool = poolCreator.create();
+      } catch (LDAPException | RuntimeException e) {
+        connectionPools.remove(name, registration);
+        registration.pool.completeExceptionally(e);
+        throw e;
       }
-      LDAPConnection ldapConnection =
-          new LDAPConnection(
-              config.get(LdapConfigKeys.URL),
-              Integer.valueOf(config.get(LdapConfigKeys.PORT)),
-              config.get(LdapConfigKeys.USERNAME),
-              config.get(LdapConfigKeys.PASSWORD));
-      setConnectionTimeout(ldapConnection, config);
-      openLdapMonoConnection.put(name, ldapConnection);
-      // Only put key if ldap connection correctly open
-      openLdapMonoConnectionConfig.put(key, name);
+      createdPool.acquire();
+      registeredPools.put(createdPool.pool, createdPool);
+      registration.pool.complete(createdPool);
+      registerMetrics(name, config, kind);
+      if (currentRegistration != null) {
+        logger.info("Configuration of {} changed, its previous connection pool is retired", name);
+        currentRegistration.pool.thenAccept(RegisteredPool::retire);
+      }
+      return createdPool.pool;
     }
-    return openLdapMonoConnection.get(name);
+  }
+
+  /**
+   * Publish the statistics of a pool to the global meter registry, which Spring Boot exports. The
+   * meters look the pool up by name so that they follow its replacements.
+   */
+  private static void registerMetrics(
+      String name, Map<RealmConfigKeys, String> config, String kind) {
+    Tags tags =
+        Tags.of(
+            "realm",
+            String.valueOf(config.get(LdapConfigKeys.REALM_NAME)),
+            "userstorage",
+            String.valueOf(config.get(LdapConfigKeys.USERSTORAGE_NAME)),
+            "pool",
+            kind);
+    Gauge.builder(
+            "ldap.pool.connections.idle",
+            () -> getPoolStatistic(name, pool -> pool.pool.getCurrentAvailableConnections()))
+        .description("Connections available in the pool")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    Gauge.builder(
+            "ldap.pool.connections.active",
+            () -> getPoolStatistic(name, pool -> pool.healthCheck.getCheckedOutConnections()))
+        .description("Connections checked out of the pool")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    Gauge.builder(
+            "ldap.pool.connections.max",
+            () -> getPoolStatistic(name, pool -> pool.pool.getMaximumAvailableConnections()))
+        .description("Maximum number of connections available in the pool")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    FunctionCounter.builder(
+            "ldap.pool.connections.created",
+            connectionPools,
+            pools ->
+                getConnectionPoolStatistic(
+                    name, LDAPConnectionPoolStatistics::getNumSuccessfulConnectionAttempts))
+        .description("Connections created by the pool")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    FunctionCounter.builder(
+            "ldap.pool.connections.creation.failed",
+            connectionPools,
+            pools ->
+                getConnectionPoolStatistic(
+                    name, LDAPConnectionPoolStatistics::getNumFailedConnectionAttempts))
+        .description("Connection attempts of the pool which failed")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    FunctionCounter.builder(
+            "ldap.pool.checkouts.waited",
+            connectionPools,
+            pools ->
+                getConnectionPoolStatistic(
+                    name, LDAPConnectionPoolStatistics::getNumSuccessfulCheckoutsAfterWaiting))
+        .description("Checkouts which had to wait for a connection to be released")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+    FunctionCounter.builder(
+            "ldap.pool.checkouts.failed",
+            connectionPools,
+            pools ->
+                getConnectionPoolStatistic(
+                    name, LDAPConnectionPoolStatistics::getNumFailedCheckouts))
+        .description("Checkouts which failed to get a connection")
+        .tags(tags)
+        .register(Metrics.globalRegistry);
+  }
+
+  private static double getPoolStatistic(
+      String name, ToDoubleFunction<RegisteredPool> statistic) {
+    PoolRegistration registration = connectionPools.get(name);
+    RegisteredPool registeredPool = registration != null ? registration.created() : null;
+    return registeredPool != null ? statistic.applyAsDouble(registeredPool) : Double.NaN;
+  }
+
+  private static double getConnectionPoolStatistic(
+      String name, ToLongFunction<LDAPConnectionPoolStatistics> statistic) {
+    return getPoolStatistic(
+        name, pool -> statistic.applyAsLong(pool.pool.getConnectionPoolStatistics()));
+  }
+
+  private static RegisteredPool createPool(
+      Map<RealmConfigKeys, String> config, boolean authenticated, String poolSize)
+      throws LDAPException {
+    LDAPConnection ldapConnection =
+        authenticated
+            ? new LDAPConnection(
+                config.get(LdapConfigKeys.URL),
+                Integer.parseInt(config.get(LdapConfigKeys.PORT)),
+                config.get(LdapConfigKeys.USERNAME),
+                config.get(LdapConfigKeys.PASSWORD))
+            : new LDAPConnection(
+                config.get(LdapConfigKeys.URL), Integer.parseInt(config.get(LdapConfigKeys.PORT)));
+    setConnectionTimeout(ldapConnection, config);
+    int maxConnections = Integer.parseInt(poolSize);
+    int initialConnections =
+        isSet(config, LdapConfigKeys.POOL_INITIAL_SIZE)
+            ? Math.min(
+                Math.max(1, Integer.parseInt(config.get(LdapConfigKeys.POOL_INITIAL_SIZE))),
+                maxConnections)
+            : maxConnections;
+    LDAPConnectionPool ldapConnectionPool =
+        new LDAPConnectionPool(ldapConnection, initialConnections, maxConnections);
+    // Connection age is enforced by the health check, which adds a jitter
+    ldapConnectionPool.setMaxConnectionAgeMillis(0);
+    LdapPoolHealthCheck healthCheck =
+        new LdapPoolHealthCheck(
+            new GetEntryLDAPConnectionPoolHealthCheck(
+                "",
+                Long.parseLong(config.get(LdapConfigKeys.LDAP_CONNECTION_TIMEOUT)),
+                false,
+                false,
+                false,
+                true,
+                true),
+            Long.parseLong(config.get(LdapConfigKeys.MAX_POOL_CONNECTION_AGE)),
+            isSet(config, LdapConfigKeys.POOL_CONNECTION_AGE_JITTER)
+                ? Long.parseLong(config.get(LdapConfigKeys.POOL_CONNECTION_AGE_JITTER))
+                : 0);
+    ldapConnectionPool.setHealthCheck(healthCheck);
+    if (isSet(config, LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL)) {
+      ldapConnectionPool.setHealthCheckIntervalMillis(
+          Long.parseLong(config.get(LdapConfigKeys.POOL_HEALTH_CHECK_INTERVAL)));
+    }
+    if (isSet(config, LdapConfigKeys.POOL_MIN_IDLE)) {
+      ldapConnectionPool.setMinimumAvailableConnectionGoal(
+          Math.min(Integer.parseInt(config.get(LdapConfigKeys.POOL_MIN_IDLE)), maxConnections));
+    }
+    if (isSet(config, LdapConfigKeys.POOL_MAX_WAIT)) {
+      ldapConnectionPool.setMaxWaitTimeMillis(
+          Long.parseLong(config.get(LdapConfigKeys.POOL_MAX_WAIT)));
+    }
+    return new RegisteredPool(ldapConnectionPool, healthCheck);
+  }
+
+  private static boolean isSet(Map<RealmConfigKeys, String> config, LdapConfigKeys key) {
+    return config.get(key) != null && !config.get(key).isBlank();
   }
 
   public static boolean validateUserPassword(
@@ -218,4 +349,82 @@ public class LdapFactory {
         .setResponseTimeoutMillis(
             Integer.parseInt(config.get(LdapConfigKeys.LDAP_CONNECTION_TIMEOUT)));
   }
+
+  private interface PoolCreator {
+    RegisteredPool create() throws LDAPException;
+  }
+
+  /** The pool registered for a configuration, completed once its connections are established */
+  private static class PoolRegistration {
+    private final Map<RealmConfigKeys, String> config;
+    private final CompletableFuture<RegisteredPool> pool = new CompletableFuture<>();
+
+    private PoolRegistration(Map<RealmConfigKeys, String> config) {
+      this.config = config;
+    }
+
+    /** Wait for the pool to be created, throwing the exception its creation failed with */
+    private RegisteredPool await() throws LDAPException {
+      try {
+        return pool.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof LDAPException) {
+          throw (LDAPException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    /** @return the pool, null if not created yet or if its creation failed */
+    private RegisteredPool created() {
+      return pool.isDone() && !pool.isCompletedExceptionally() ? pool.join() : null;
+    }
+  }
+
+  /** A pool with the number of stores using it, closed when unused once it has been replaced */
+  private static class RegisteredPool {
+    private final LDAPConnectionPool pool;
+    private final LdapPoolHealthCheck healthCheck;
+    private int users = 0;
+    private boolean retired = false;
+    private boolean closed = false;
+
+    private RegisteredPool(LDAPConnectionPool pool, LdapPoolHealthCheck healthCheck) {
+      this.pool = pool;
+      this.healthCheck = healthCheck;
+    }
+
+    /**
+     * @return false if the pool has already been closed
+     */
+    private synchronized boolean acquire() {
+      if (closed) {
+        return false;
+      }
+      users++;
+      return true;
+    }
+
+    private synchronized void release() {
+      users--;
+      closeIfUnused();
+    }
+
+    private synchronized void retire() {
+      retired = true;
+      closeIfUnused();
+    }
+
+    /** Connections still checked out are closed when they are given back to the pool */
+    private void closeIfUnused() {
+      if (retired && users <= 0 && !closed) {
+        closed = true;
+        registeredPools.remove(pool);
+        pool.close();
+      }
+    }
+  }
 }
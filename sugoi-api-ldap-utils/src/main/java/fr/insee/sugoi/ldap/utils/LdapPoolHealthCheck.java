@@ -0,0 +1,113 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.ldap.utils;
+
+import com.unboundid.ldap.sdk.BindResult;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPoolHealthCheck;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Health check of the connection pools created by LdapFactory. It delegates the validation of the
+ * connections to another health check and in addition :
+ *
+ * <ul>
+ *   <li>expires connections after the max age plus a jitter specific to each connection, so that
+ *       connections created together are not all replaced at the same time
+ *   <li>keeps track of the connections checked out, which the pool does not expose
+ * </ul>
+ */
+final class LdapPoolHealthCheck extends LDAPConnectionPoolHealthCheck {
+
+  private final LDAPConnectionPoolHealthCheck delegate;
+  private final long maxConnectionAge;
+  private final long connectionAgeJitter;
+  private final Set<LDAPConnection> checkedOutConnections = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param delegate the health check validating the connections
+   * @param maxConnectionAge age in milliseconds after which a connection is replaced, 0 to never
+   *     replace connections
+   * @param connectionAgeJitter maximum time in milliseconds added to the age of each connection
+   */
+  LdapPoolHealthCheck(
+      LDAPConnectionPoolHealthCheck delegate, long maxConnectionAge, long connectionAgeJitter) {
+    this.delegate = delegate;
+    this.maxConnectionAge = maxConnectionAge;
+    this.connectionAgeJitter = Math.max(0, connectionAgeJitter);
+  }
+
+  /** Number of connections currently checked out of the pool */
+  int getCheckedOutConnections() {
+    checkedOutConnections.removeIf(connection -> !connection.isConnected());
+    return checkedOutConnections.size();
+  }
+
+  @Override
+  public void ensureNewConnectionValid(LDAPConnection connection) throws LDAPException {
+    delegate.ensureNewConnectionValid(connection);
+  }
+
+  @Override
+  public void ensureConnectionValidAfterAuthentication(
+      LDAPConnection connection, BindResult bindResult) throws LDAPException {
+    delegate.ensureConnectionValidAfterAuthentication(connection, bindResult);
+  }
+
+  @Override
+  public void ensureConnectionValidForCheckout(LDAPConnection connection) throws LDAPException {
+    ensureNotExpired(connection);
+    delegate.ensureConnectionValidForCheckout(connection);
+    checkedOutConnections.removeIf(checkedOut -> !checkedOut.isConnected());
+    checkedOutConnections.add(connection);
+  }
+
+  @Override
+  public void ensureConnectionValidForRelease(LDAPConnection connection) throws LDAPException {
+    checkedOutConnections.remove(connection);
+    ensureNotExpired(connection);
+    delegate.ensureConnectionValidForRelease(connection);
+  }
+
+  @Override
+  public void ensureConnectionValidForContinuedUse(LDAPConnection connection)
+      throws LDAPException {
+    ensureNotExpired(connection);
+    delegate.ensureConnectionValidForContinuedUse(connection);
+  }
+
+  @Override
+  public void ensureConnectionValidAfterException(
+      LDAPConnection connection, LDAPException exception) throws LDAPException {
+    delegate.ensureConnectionValidAfterException(connection, exception);
+  }
+
+  private void ensureNotExpired(LDAPConnection connection) throws LDAPException {
+    if (maxConnectionAge > 0
+        && System.currentTimeMillis() - connection.getConnectTime()
+            > maxConnectionAge + jitter(connection)) {
+      throw new LDAPException(ResultCode.CONNECT_ERROR, "Connection reached its max age");
+    }
+  }
+
+  /** Same value for the whole life of a connection, evenly spread among connections */
+  private long jitter(LDAPConnection connection) {
+    return connectionAgeJitter > 0
+        ? Math.floorMod(System.identityHashCode(connection), connectionAgeJitter + 1)
+        : 0;
+  }
+}
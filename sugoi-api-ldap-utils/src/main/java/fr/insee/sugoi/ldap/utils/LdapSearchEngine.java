@@ -0,0 +1,432 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.ldap.utils;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncSearchResultListener;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchResultReference;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
+import fr.insee.sugoi.model.RealmConfigKeys;
+import fr.insee.sugoi.model.exceptions.InvalidSearchTokenException;
+import fr.insee.sugoi.model.exceptions.StoreException;
+import fr.insee.sugoi.model.paging.PageResult;
+import fr.insee.sugoi.model.paging.PageableResult;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run searches on a connection pool dedicated to searches. Paged results cookies and virtual list
+ * view contexts are only valid on the connection that issued them : when a search has more
+ * results, its connection is pinned to a cursor whose id is prefixed to the search token, and the
+ * next page is requested on that same connection. Cursors that are not continued within
+ * search_cursor_ttl milliseconds give their connection back to the pool, continuing them then
+ * fails with an InvalidSearchTokenException.
+ *
+ * <p>Searches can also be streamed : entries are handed to the consumer as the server returns
+ * them, at most search_stream_page_size entries being held in memory at once.
+ */
+public class LdapSearchEngine {
+
+  private static final Logger logger = LoggerFactory.getLogger(LdapSearchEngine.class);
+
+  private static final String CURSOR_SEPARATOR = ":";
+
+  private static final long DEFAULT_CURSOR_TTL = 300000;
+
+  private static final int DEFAULT_STREAM_PAGE_SIZE = 500;
+
+  private static final ScheduledExecutorService cursorReaper =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "ldap-search-cursor-reaper");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final LDAPConnectionPool searchPool;
+  private final Map<RealmConfigKeys, String> config;
+  private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+  private final long cursorTtl;
+  private final int maxCursors;
+  private final int streamPageSize;
+  private final ScheduledFuture<?> cursorReaping;
+
+  public LdapSearchEngine(LDAPConnectionPool searchPool, Map<RealmConfigKeys, String> config) {
+    this.searchPool = searchPool;
+    this.config = config;
+    this.cursorTtl =
+        StringUtils.isNotBlank(config.get(LdapConfigKeys.SEARCH_CURSOR_TTL))
+            ? Long.parseLong(config.get(LdapConfigKeys.SEARCH_CURSOR_TTL))
+            : DEFAULT_CURSOR_TTL;
+    this.streamPageSize =
+        StringUtils.isNotBlank(config.get(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE))
+            ? Integer.parseInt(config.get(LdapConfigKeys.SEARCH_STREAM_PAGE_SIZE))
+            : DEFAULT_STREAM_PAGE_SIZE;
+    // Reclaim idle cursors early once half of the pool is pinned
+    this.maxCursors = Math.max(1, searchPool.getMaximumAvailableConnections() / 2);
+    long reapPeriod = Math.max(1000, cursorTtl / 2);
+    this.cursorReaping =
+        cursorReaper.scheduleWithFixedDelay(
+            this::reclaimIdleCursors, reapPeriod, reapPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop reclaiming the idle cursors of this engine and give their connections back to the pool,
+   * which is then released to the LdapFactory. Streams still open keep their connection until they
+   * are closed.
+   */
+  public void close() {
+    cursorReaping.cancel(false);
+    cursors.keySet().forEach(this::release);
+    LdapFactory.releaseConnectionPool(searchPool);
+  }
+
+  /**
+   * Execute a search and map its entries.
+   *
+   * @param <R> the type of the resource searched
+   * @param searchRequest the search to execute, paging controls are added if pageableResult is set
+   * @param pageableResult paging properties, the search token may be one given by a previous call
+   * @param mapper used to convert each entry found
+   * @return a page of the mapped entries
+   * @throws LDAPSearchException
+   * @throws InvalidSearchTokenException if the cursor of the search token has been reclaimed, the
+   *     search must then be started again
+   */
+  public <R> PageResult<R> search(
+      SearchRequest searchRequest,
+      PageableResult pageableResult,
+      Function<SearchResultEntry, R> mapper)
+      throws LDAPSearchException {
+    String cursorId = null;
+    PageableResult ldapPageable = null;
+    if (pageableResult != null) {
+      String ldapToken = pageableResult.getSearchToken();
+      if (ldapToken != null && ldapToken.contains(CURSOR_SEPARATOR)) {
+        cursorId = ldapToken.substring(0, ldapToken.indexOf(CURSOR_SEPARATOR));
+        ldapToken = ldapToken.substring(ldapToken.indexOf(CURSOR_SEPARATOR) + 1);
+      }
+      ldapPageable =
+          new PageableResult(pageableResult.getSize(), pageableResult.getFirst(), ldapToken);
+      LdapUtils.setRequestControls(searchRequest, ldapPageable, config);
+    }
+
+    Cursor cursor = cursorId != null ? cursors.remove(cursorId) : null;
+    if (cursorId != null && cursor == null) {
+      // The paging state lives on the connection of the cursor, no other connection accepts it
+      throw new InvalidSearchTokenException(
+          "Search token expired after " + cursorTtl + " ms without use, start the search again");
+    }
+    LDAPConnection connection = cursor != null ? cursor.connection : checkout();
+    SearchResult searchResult;
+    try {
+      searchResult = connection.search(searchRequest);
+    } catch (LDAPException e) {
+      searchPool.releaseConnectionAfterException(connection, e);
+      if (cursor != null || e.getResultCode().isConnectionUsable()) {
+        throw e instanceof LDAPSearchException
+            ? (LDAPSearchException) e
+            : new LDAPSearchException(e);
+      }
+      logger.info("Retry search on a new connection for error code {}", e.getResultCode());
+      connection = checkout();
+      try {
+        searchResult = connection.search(searchRequest);
+      } catch (LDAPException retryException) {
+        searchPool.releaseConnectionAfterException(connection, retryException);
+        throw retryException instanceof LDAPSearchException
+            ? (LDAPSearchException) retryException
+            : new LDAPSearchException(retryException);
+      }
+    }
+
+    PageResult<R> pageResult = new PageResult<>();
+    pageResult.setResults(
+        searchResult.getSearchEntries().stream().map(mapper).collect(Collectors.toList()));
+    LdapUtils.setResponseControls(pageResult, searchResult);
+    if (pageResult.isHasMoreResult() && pageResult.getSearchToken() != null) {
+      String newCursorId = cursorId != null ? cursorId : newCursorId();
+      pin(newCursorId, connection);
+      pageResult.setSearchToken(newCursorId + CURSOR_SEPARATOR + pageResult.getSearchToken());
+    } else {
+      searchPool.releaseConnection(connection);
+    }
+    int first = ldapPageable != null ? ldapPageable.getFirst() : 0;
+    pageResult.setNextStart(first + pageResult.getPageSize());
+    return pageResult;
+  }
+
+  /**
+   * Execute a search and stream its entries. The search is run asynchronously and requested by
+   * pages of search_stream_page_size entries on a single connection, the next page being requested
+   * when the previous one has been consumed. The server is held back while the consumer lags, so
+   * memory use does not depend on the number of entries found.
+   *
+   * <p>The stream holds a connection until it is fully consumed or closed, it should be used in a
+   * try-with-resources statement. Failures while streaming are thrown as StoreException.
+   *
+   * @param <R> the type of the resource searched
+   * @param searchRequest the search to execute, paging controls are added
+   * @param mapper used to convert each entry found
+   * @return a stream of the mapped entries
+   * @throws LDAPSearchException if the search cannot be started
+   */
+  public <R> Stream<R> stream(SearchRequest searchRequest, Function<SearchResultEntry, R> mapper)
+      throws LDAPSearchException {
+    SearchStream<R> searchStream = new SearchStream<>(checkout(), searchRequest, mapper);
+    try {
+      searchStream.requestPage(null);
+    } catch (LDAPException e) {
+      searchStream.release(e);
+      throw e instanceof LDAPSearchException
+          ? (LDAPSearchException) e
+          : new LDAPSearchException(e);
+    }
+    return StreamSupport.stream(searchStream, false).onClose(searchStream::close);
+  }
+
+  private LDAPConnection checkout() throws LDAPSearchException {
+    try {
+      return searchPool.getConnection();
+    } catch (LDAPException e) {
+      throw new LDAPSearchException(e);
+    }
+  }
+
+  /**
+   * Cursors are only reclaimed once idle for search_cursor_ttl milliseconds, which is done right
+   * away when half of the pool is pinned. Cursors still in use are kept beyond that, new searches
+   * then waiting for a connection of the pool.
+   */
+  private void pin(String cursorId, LDAPConnection connection) {
+    if (cursors.size() >= maxCursors) {
+      reclaimIdleCursors();
+      if (cursors.size() >= maxCursors) {
+        logger.debug("{} search cursors in use, more than half of the search pool", cursors.size());
+      }
+    }
+    cursors.put(cursorId, new Cursor(connection));
+  }
+
+  private void release(String cursorId) {
+    Cursor cursor = cursors.remove(cursorId);
+    if (cursor != null) {
+      searchPool.releaseConnection(cursor.connection);
+    }
+  }
+
+  private void reclaimIdleCursors() {
+    long expiration = System.currentTimeMillis() - cursorTtl;
+    cursors.entrySet().stream()
+        .filter(entry -> entry.getValue().lastAccess < expiration)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList())
+        .forEach(
+            cursorId -> {
+              logger.debug("Reclaiming idle search cursor {}", cursorId);
+              release(cursorId);
+            });
+  }
+
+  private static String newCursorId() {
+    return UUID.randomUUID().toString().replace("-", "");
+  }
+
+  /**
+   * Receives the entries of a streamed search on the connection reader thread and hands them to the
+   * consuming thread through a queue of one page. The reader thread blocks while the queue is full,
+   * for at most search_cursor_ttl milliseconds, after which the stream is considered abandoned.
+   */
+  private class SearchStream<R> extends Spliterators.AbstractSpliterator<R>
+      implements AsyncSearchResultListener {
+
+    private final LDAPConnection connection;
+    private final SearchRequest searchRequest;
+    private final Function<SearchResultEntry, R> mapper;
+    private final BlockingQueue<Object> received = new ArrayBlockingQueue<>(streamPageSize + 1);
+    private volatile boolean stalled = false;
+    private volatile boolean closed = false;
+    private AsyncRequestID pageRequestId;
+    private boolean finished = false;
+
+    private SearchStream(
+        LDAPConnection connection,
+        SearchRequest searchRequest,
+        Function<SearchResultEntry, R> mapper) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.connection = connection;
+      this.searchRequest = searchRequest;
+      this.mapper = mapper;
+    }
+
+    private void requestPage(ASN1OctetString cookie) throws LDAPException {
+      SearchRequest pageRequest =
+          new SearchRequest(
+              this,
+              searchRequest.getBaseDN(),
+              searchRequest.getScope(),
+              searchRequest.getDereferencePolicy(),
+              searchRequest.getSizeLimit(),
+              searchRequest.getTimeLimitSeconds(),
+              searchRequest.typesOnly(),
+              searchRequest.getFilter(),
+              searchRequest.getAttributes());
+      pageRequest.setControls(searchRequest.getControls());
+      // Not critical : a server without paging support streams every entry in a single page
+      pageRequest.addControl(new SimplePagedResultsControl(streamPageSize, cookie, false));
+      pageRequestId = connection.asyncSearch(pageRequest);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super R> action) {
+      while (!finished) {
+        Object next = nextReceived();
+        if (next instanceof SearchResultEntry) {
+          action.accept(mapper.apply((SearchResultEntry) next));
+          return true;
+        }
+        endPage((SearchResult) next);
+      }
+      return false;
+    }
+
+    private Object nextReceived() {
+      try {
+        Object next = stalled ? null : received.poll(cursorTtl, TimeUnit.MILLISECONDS);
+        if (next == null) {
+          close();
+          throw new StoreException(
+              "Failed to stream " + searchRequest.getBaseDN(),
+              new LDAPException(ResultCode.TIMEOUT, "No response within " + cursorTtl + " ms"));
+        }
+        return next;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new StoreException("Interrupted while streaming " + searchRequest.getBaseDN(), e);
+      }
+    }
+
+    private void endPage(SearchResult pageResult) {
+      pageRequestId = null;
+      try {
+        if (!pageResult.getResultCode().equals(ResultCode.SUCCESS)) {
+          throw new LDAPSearchException(pageResult);
+        }
+        SimplePagedResultsControl pagedResults = SimplePagedResultsControl.get(pageResult);
+        if (pagedResults != null && pagedResults.moreResultsToReturn()) {
+          requestPage(pagedResults.getCookie());
+        } else {
+          close();
+        }
+      } catch (LDAPException e) {
+        release(e);
+        throw new StoreException("Failed to stream " + searchRequest.getBaseDN(), e);
+      }
+    }
+
+    @Override
+    public void searchEntryReturned(SearchResultEntry searchEntry) {
+      hand(searchEntry);
+    }
+
+    @Override
+    public void searchReferenceReturned(SearchResultReference searchReference) {
+      // Referrals are not followed, as for other searches
+    }
+
+    @Override
+    public void searchResultReceived(AsyncRequestID requestID, SearchResult searchResult) {
+      hand(searchResult);
+    }
+
+    private void hand(Object response) {
+      try {
+        if (!closed
+            && !stalled
+            && !received.offer(response, cursorTtl, TimeUnit.MILLISECONDS)) {
+          logger.debug("Search stream on {} not consumed, dropping it", searchRequest.getBaseDN());
+          stalled = true;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        stalled = true;
+      }
+    }
+
+    /** Stop the search if it is still running and give the connection back to the pool */
+    private synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      finished = true;
+      received.clear();
+      if (pageRequestId != null) {
+        try {
+          connection.abandon(pageRequestId);
+        } catch (LDAPException e) {
+          searchPool.releaseDefunctConnection(connection);
+          return;
+        }
+      }
+      searchPool.releaseConnection(connection);
+    }
+
+    private synchronized void release(LDAPException e) {
+      if (!closed) {
+        closed = true;
+        finished = true;
+        received.clear();
+        searchPool.releaseConnectionAfterException(connection, e);
+      }
+    }
+  }
+
+  private static class Cursor {
+    private final LDAPConnection connection;
+    private final long lastAccess = System.currentTimeMillis();
+
+    private Cursor(LDAPConnection connection) {
+      this.connection = connection;
+    }
+  }
+}
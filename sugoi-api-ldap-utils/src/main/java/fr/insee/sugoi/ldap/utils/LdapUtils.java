@@ -17,6 +17,7 @@ import com.unboundid.asn1.ASN1OctetString;
 import com.unboundid.ldap.sdk.Attribute;
 import com.unboundid.ldap.sdk.Control;
 import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
 import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.ldap.sdk.Modification;
 import com.unboundid.ldap.sdk.ModificationType;
@@ -33,9 +34,12 @@ import fr.insee.sugoi.model.RealmConfigKeys;
 import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.paging.PageableResult;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,7 +69,9 @@ public class LdapUtils {
       if (control instanceof VirtualListViewResponseControl) {
         VirtualListViewResponseControl vlvc = (VirtualListViewResponseControl) control;
         page.setPageSize(searchResult.getEntryCount());
-        page.setHasMoreResult(true);
+        // The target position is the offset of the first entry of the page, starting at 1
+        page.setHasMoreResult(
+            vlvc.getTargetPosition() + searchResult.getEntryCount() - 1 < vlvc.getContentCount());
         page.setTotalElements(vlvc.getContentCount());
         page.setSearchToken(vlvc.getContextID().stringValue());
       }
@@ -153,4 +159,62 @@ public class LdapUtils {
 
     return new Modification(ModificationType.REPLACE, attributeName, newValues);
   }
+
+  /**
+   * Keep only the modifications which change the current state of an entry. Replacements by the
+   * current values are dropped. A replacement is turned into the deletion of the removed values and
+   * the addition of the new ones when fewer values are sent this way, as for a value added to a
+   * multi-valued attribute. Values are compared byte for byte.
+   *
+   * @param currentEntry the entry, read with at least the attributes of the modifications
+   * @param modifications modifications from convertAttributesToModifications
+   * @return the modifications to apply, empty if nothing changes
+   */
+  public static List<Modification> getChangingModifications(
+      Entry currentEntry, List<Modification> modifications) {
+    List<Modification> changes = new ArrayList<>();
+    for (Modification modification : modifications) {
+      if (modification.getModificationType() != ModificationType.REPLACE) {
+        changes.add(modification);
+        continue;
+      }
+      Attribute currentAttribute = currentEntry.getAttribute(modification.getAttributeName());
+      Set<ASN1OctetString> currentValues =
+          currentAttribute != null
+              ? new LinkedHashSet<>(Arrays.asList(currentAttribute.getRawValues()))
+              : Set.of();
+      Set<ASN1OctetString> newValues =
+          new LinkedHashSet<>(Arrays.asList(modification.getRawValues()));
+      if (currentValues.equals(newValues)) {
+        continue;
+      }
+      List<ASN1OctetString> removedValues =
+          currentValues.stream()
+              .filter(value -> !newValues.contains(value))
+              .collect(Collectors.toList());
+      List<ASN1OctetString> addedValues =
+          newValues.stream()
+              .filter(value -> !currentValues.contains(value))
+              .collect(Collectors.toList());
+      if (newValues.isEmpty() || removedValues.size() + addedValues.size() >= newValues.size()) {
+        changes.add(modification);
+        continue;
+      }
+      if (!removedValues.isEmpty()) {
+        changes.add(
+            new Modification(
+                ModificationType.DELETE,
+                modification.getAttributeName(),
+                removedValues.toArray(new ASN1OctetString[0])));
+      }
+      if (!addedValues.isEmpty()) {
+        changes.add(
+            new Modification(
+                ModificationType.ADD,
+                modification.getAttributeName(),
+                addedValues.toArray(new ASN1OctetString[0])));
+      }
+    }
+    return changes;
+  }
 }
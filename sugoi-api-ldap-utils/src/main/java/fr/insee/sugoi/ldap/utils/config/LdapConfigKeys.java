@@ -42,7 +42,22 @@ public enum LdapConfigKeys implements RealmConfigKeys {
   USERSTORAGE_NAME("userstorage_name"),
   READ_CONNECTION_AUTHENTICATED("read_connection_authenticated"),
   LDAP_CONNECTION_TIMEOUT("ldap_connection_timeout"),
-  MAX_POOL_CONNECTION_AGE("max_pool_connection_age");
+  MAX_POOL_CONNECTION_AGE("max_pool_connection_age"),
+  BATCH_RESOLUTION_CHUNK_SIZE("batch_resolution_chunk_size"),
+  SEARCH_POOL_SIZE("search_pool_size"),
+  SEARCH_CURSOR_TTL("search_cursor_ttl"),
+  SEARCH_STREAM_PAGE_SIZE("search_stream_page_size"),
+  FUZZY_INDEX_REFRESH_INTERVAL("fuzzy_index_refresh_interval"),
+  ENTRY_CACHE_MAX_SIZE("entry_cache_max_size"),
+  ENTRY_CACHE_TTL("entry_cache_ttl"),
+  POOL_INITIAL_SIZE("pool_initial_size"),
+  POOL_HEALTH_CHECK_INTERVAL("pool_health_check_interval"),
+  POOL_CONNECTION_AGE_JITTER("pool_connection_age_jitter"),
+  POOL_MIN_IDLE("pool_min_idle"),
+  POOL_MAX_WAIT("pool_max_wait"),
+  READ_YOUR_WRITES_TTL("read_your_writes_ttl"),
+  GROUP_MEMBERS_CHUNK_SIZE("group_members_chunk_size"),
+  BULK_WRITE_WINDOW("bulk_write_window");
 
   private String name;
 
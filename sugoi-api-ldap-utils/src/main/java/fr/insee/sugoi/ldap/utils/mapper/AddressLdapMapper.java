@@ -36,6 +36,15 @@ public class AddressLdapMapper {
     // }
   }
 
+  /** Ldap attributes holding the address lines. */
+  public String[] getMappedAttributes() {
+    String[] attributes = new String[7];
+    for (int i = 1; i <= attributes.length; i++) {
+      attributes[i - 1] = "inseeAdressePostaleCorrespondantLigne" + i;
+    }
+    return attributes;
+  }
+
   public PostalAddress getAddressFromSearchEntry(SearchResultEntry searchResultEntry) {
     PostalAddress address = new PostalAddress();
     String[] lines = new String[7];
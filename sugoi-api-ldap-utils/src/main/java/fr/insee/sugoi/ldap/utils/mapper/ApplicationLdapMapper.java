@@ -32,10 +32,10 @@ public class ApplicationLdapMapper extends LdapMapper<Application> {
           Arrays.asList(config.get(LdapConfigKeys.APPLICATION_OBJECT_CLASSES).split(","));
     }
     this.mappings = mappings;
+    this.mappedClass = Application.class;
   }
 
   public Application mapFromAttributes(Collection<Attribute> attributes) {
-    return GenericLdapMapper.mapLdapAttributesToObject(
-        attributes, Application.class, config, mappings);
+    return GenericLdapMapper.mapLdapAttributesToObject(attributes, getMappingPlan());
   }
 }
@@ -29,14 +29,12 @@ import fr.insee.sugoi.model.SugoiObject;
 import fr.insee.sugoi.model.User;
 import fr.insee.sugoi.model.technics.ModelType;
 import fr.insee.sugoi.model.technics.StoreMapping;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -52,72 +50,79 @@ public class GenericLdapMapper {
       Class<R> returnClazz,
       Map<RealmConfigKeys, String> config,
       List<StoreMapping> mappings) {
-    try {
-      R mappedEntity = returnClazz.getDeclaredConstructor().newInstance();
-      for (StoreMapping mappingDefinition : mappings) {
-        try {
+    return mapLdapAttributesToObject(
+        attributes, LdapMappingPlan.compile(returnClazz, config, mappings));
+  }
 
-          List<Attribute> correspondingAttributes =
-              attributes.stream()
-                  .filter(
-                      attribute ->
-                          mappingDefinition.getStoreName().equalsIgnoreCase(attribute.getName()))
-                  .collect(Collectors.toList());
-          if (!correspondingAttributes.isEmpty()) {
-            mappedEntity.set(
-                mappingDefinition.getSugoiName(),
-                transformLdapAttributeToSugoiAttribute(
-                    mappingDefinition.getModelType(), correspondingAttributes, config));
-          } else if (mappingDefinition.getModelType() == ModelType.EXISTS) {
-            mappedEntity.set(mappingDefinition.getSugoiName(), false);
-          }
-        } catch (Exception e) {
-          throw new LdapMappingConfigurationException(
-              "Error occured while mapping attribute to Ldap. Must be caused by the configuration "
-                  + mappingDefinition
-                  + " for entity "
-                  + returnClazz.getName(),
-              e);
+  /**
+   * Map ldap attributes to an object following a compiled plan. Attributes are dispatched to their
+   * mappings in a single pass, then the mappings are applied in their order.
+   */
+  @SuppressWarnings("unchecked")
+  public static <R extends SugoiObject> R mapLdapAttributesToObject(
+      Collection<Attribute> attributes, LdapMappingPlan<R> plan) {
+    R mappedEntity = plan.newInstance();
+    List<LdapMappingPlan<R>.Step> steps = plan.getSteps();
+    List<List<Attribute>> correspondingAttributes = new ArrayList<>(steps.size());
+    for (int i = 0; i < steps.size(); i++) {
+      correspondingAttributes.add(null);
+    }
+    for (Attribute attribute : attributes) {
+      for (int stepIndex : plan.getStepIndexes(attribute.getName())) {
+        if (correspondingAttributes.get(stepIndex) == null) {
+          correspondingAttributes.set(stepIndex, new ArrayList<>(1));
         }
+        correspondingAttributes.get(stepIndex).add(attribute);
       }
-      return mappedEntity;
-    } catch (InstantiationException
-        | IllegalAccessException
-        | IllegalArgumentException
-        | InvocationTargetException
-        | NoSuchMethodException
-        | SecurityException e) {
-      throw new LdapMappingConfigurationException(
-          "Exception while getting the entity " + returnClazz.getName(), e);
     }
+    Map<Object, Object>[] ownedMaps = new Map[plan.getMapFieldCount()];
+    for (int i = 0; i < steps.size(); i++) {
+      LdapMappingPlan<R>.Step step = steps.get(i);
+      try {
+        if (correspondingAttributes.get(i) != null) {
+          step.set(
+              mappedEntity,
+              transformLdapAttributeToSugoiAttribute(
+                  step.getModelType(), correspondingAttributes.get(i), plan),
+              ownedMaps);
+        } else if (step.getModelType() == ModelType.EXISTS) {
+          step.set(mappedEntity, false, ownedMaps);
+        }
+      } catch (Throwable e) {
+        throw new LdapMappingConfigurationException(
+            "Error occured while mapping attribute to Ldap. Must be caused by the configuration "
+                + step.getMapping()
+                + " for entity "
+                + mappedEntity.getClass().getName(),
+            e);
+      }
+    }
+    return mappedEntity;
   }
 
   private static <S extends SugoiObject> List<Attribute> mapObjectToLdapAttributes(
-      S entity,
-      Map<RealmConfigKeys, String> config,
-      List<StoreMapping> mappings,
-      List<String> objectClasses,
-      boolean isToWrite) {
+      S entity, LdapMappingPlan<S> plan, List<String> objectClasses, boolean isToWrite) {
     List<Attribute> attributes = new ArrayList<>();
     if (objectClasses != null && !objectClasses.isEmpty()) {
       attributes.add(new Attribute("objectClass", objectClasses));
     }
-    for (StoreMapping mappingDefinition : mappings) {
+    for (LdapMappingPlan<S>.Step step : plan.getSteps()) {
+      StoreMapping mappingDefinition = step.getMapping();
       if (mappingDefinition.isWritable() || !isToWrite) {
         try {
-          Optional<Object> sugoiValue = entity.get(mappingDefinition.getSugoiName());
-          if (sugoiValue.isPresent()) {
+          Object sugoiValue = step.get(entity);
+          if (sugoiValue != null) {
             Attribute mappedValue =
                 transformSugoiToAttribute(
                     mappingDefinition.getModelType(),
                     mappingDefinition.getStoreName(),
-                    sugoiValue.get(),
-                    config);
+                    sugoiValue,
+                    plan.getConfig());
             if (mappedValue != null) {
               attributes.add(mappedValue);
             }
           }
-        } catch (Exception e) {
+        } catch (Throwable e) {
           throw new LdapMappingConfigurationException(
               "Error occured while mapping attribute to Ldap. Must be caused by the configuration "
                   + mappingDefinition
@@ -131,7 +136,7 @@ public class GenericLdapMapper {
   }
 
   private static Object transformLdapAttributeToSugoiAttribute(
-      ModelType type, List<Attribute> attrs, Map<RealmConfigKeys, String> config) {
+      ModelType type, List<Attribute> attrs, LdapMappingPlan<?> plan) {
     switch (type) {
       case STRING:
         return attrs.get(0).getValue();
@@ -161,14 +166,8 @@ public class GenericLdapMapper {
             .map(attributeValue -> new User(LdapUtils.getNodeValueFromDN(attributeValue)))
             .collect(Collectors.toList());
       case LIST_GROUP:
-        Pattern patternSuffixGroup =
-            Pattern.compile(
-                config.get(LdapConfigKeys.GROUP_SOURCE_PATTERN).replace("{appliname}", "(.*)"));
-        Pattern patternGroupManager =
-            Pattern.compile(
-                config
-                    .get(LdapConfigKeys.GROUP_MANAGER_SOURCE_PATTERN)
-                    .replace("{appliname}", "(.*)"));
+        Pattern patternSuffixGroup = plan.getGroupSourcePattern();
+        Pattern patternGroupManager = plan.getGroupManagerSourcePattern();
         return attrs.stream()
             .flatMap(attribute -> Arrays.stream(attribute.getValues()))
             .map(
@@ -280,8 +279,14 @@ public class GenericLdapMapper {
       Map<RealmConfigKeys, String> config,
       List<StoreMapping> mappings,
       List<String> objectClasses) {
+    return mapObjectToLdapAttributesForCreation(
+        entity, compile(entity, config, mappings), objectClasses);
+  }
+
+  public static <S extends SugoiObject> List<Attribute> mapObjectToLdapAttributesForCreation(
+      S entity, LdapMappingPlan<S> plan, List<String> objectClasses) {
     return getAttributesWithoutEmptyValue(
-        mapObjectToLdapAttributes(entity, config, mappings, objectClasses, true));
+        mapObjectToLdapAttributes(entity, plan, objectClasses, true));
   }
 
   public static <S extends SugoiObject> List<Attribute> mapObjectToLdapAttributesForFilter(
@@ -289,15 +294,32 @@ public class GenericLdapMapper {
       Map<RealmConfigKeys, String> config,
       List<StoreMapping> mappings,
       List<String> objectClasses) {
+    return mapObjectToLdapAttributesForFilter(
+        entity, compile(entity, config, mappings), objectClasses);
+  }
+
+  public static <S extends SugoiObject> List<Attribute> mapObjectToLdapAttributesForFilter(
+      S entity, LdapMappingPlan<S> plan, List<String> objectClasses) {
     return getAttributesWithoutEmptyValue(
-        mapObjectToLdapAttributes(entity, config, mappings, objectClasses, false));
+        mapObjectToLdapAttributes(entity, plan, objectClasses, false));
   }
 
   public static <O extends SugoiObject> List<Modification> createMods(
       O entity, Map<RealmConfigKeys, String> config, List<StoreMapping> mappings) {
+    return createMods(entity, compile(entity, config, mappings));
+  }
+
+  public static <O extends SugoiObject> List<Modification> createMods(
+      O entity, LdapMappingPlan<O> plan) {
     return LdapUtils.convertAttributesToModifications(
         // Modification => no need to specify object classes
-        mapObjectToLdapAttributes(entity, config, mappings, null, true));
+        mapObjectToLdapAttributes(entity, plan, null, true));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <S extends SugoiObject> LdapMappingPlan<S> compile(
+      S entity, Map<RealmConfigKeys, String> config, List<StoreMapping> mappings) {
+    return LdapMappingPlan.compile((Class<S>) entity.getClass(), config, mappings);
   }
 
   private static List<Attribute> getAttributesWithoutEmptyValue(List<Attribute> attributes) {
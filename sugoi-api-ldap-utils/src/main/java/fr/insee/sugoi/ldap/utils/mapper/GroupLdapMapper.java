@@ -31,10 +31,11 @@ public class GroupLdapMapper extends LdapMapper<Group> {
       objectClasses = Arrays.asList(config.get(LdapConfigKeys.GROUP_OBJECT_CLASSES).split(","));
     }
     this.mappings = mappings;
+    this.mappedClass = Group.class;
   }
 
   @Override
   public Group mapFromAttributes(Collection<Attribute> attributes) {
-    return GenericLdapMapper.mapLdapAttributesToObject(attributes, Group.class, config, mappings);
+    return GenericLdapMapper.mapLdapAttributesToObject(attributes, getMappingPlan());
   }
 }
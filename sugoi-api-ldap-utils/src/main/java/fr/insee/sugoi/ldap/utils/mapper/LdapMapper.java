@@ -17,30 +17,82 @@ import com.unboundid.ldap.sdk.Attribute;
 import com.unboundid.ldap.sdk.Modification;
 import fr.insee.sugoi.model.RealmConfigKeys;
 import fr.insee.sugoi.model.SugoiObject;
+import fr.insee.sugoi.model.technics.ModelType;
 import fr.insee.sugoi.model.technics.StoreMapping;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class LdapMapper<R extends SugoiObject> {
 
   protected Map<RealmConfigKeys, String> config;
   protected List<String> objectClasses;
   protected List<StoreMapping> mappings;
+  protected Class<R> mappedClass;
+
+  private volatile LdapMappingPlan<R> mappingPlan;
 
   public abstract R mapFromAttributes(Collection<Attribute> attributes);
 
   public List<Attribute> mapToAttributesForCreation(R object) {
     return GenericLdapMapper.mapObjectToLdapAttributesForCreation(
-        object, config, mappings, objectClasses);
+        object, getMappingPlan(), objectClasses);
   }
 
   public List<Modification> createMods(R object) {
-    return GenericLdapMapper.createMods(object, config, mappings);
+    return GenericLdapMapper.createMods(object, getMappingPlan());
   }
 
   public List<Attribute> createAttributesForFilter(R object) {
     return GenericLdapMapper.mapObjectToLdapAttributesForFilter(
-        object, config, mappings, objectClasses);
+        object, getMappingPlan(), objectClasses);
+  }
+
+  /** Plan of the mappings, compiled on first use as config and mappings are set by subclasses */
+  protected LdapMappingPlan<R> getMappingPlan() {
+    LdapMappingPlan<R> plan = mappingPlan;
+    if (plan == null) {
+      plan = LdapMappingPlan.compile(mappedClass, config, mappings);
+      mappingPlan = plan;
+    }
+    return plan;
+  }
+
+  /**
+   * Ldap attributes to request so that every mapped property can be read.
+   *
+   * @param withBinaries whether attributes mapped as BYTE_ARRAY should be requested
+   * @return the store names of the mappings
+   */
+  public Set<String> getMappedAttributes(boolean withBinaries) {
+    return getMappedAttributes(null, withBinaries);
+  }
+
+  /**
+   * Ldap attributes to request so that the given properties can be read.
+   *
+   * @param sugoiNames names of the properties as in the mappings, a name also selects its nested
+   *     properties ("attributes" selects every "attributes.xxx"). All properties if null.
+   * @param withBinaries whether attributes mapped as BYTE_ARRAY should be requested
+   * @return the store names of the selected mappings
+   */
+  public Set<String> getMappedAttributes(Collection<String> sugoiNames, boolean withBinaries) {
+    Set<String> attributes = new LinkedHashSet<>();
+    if (mappings != null) {
+      for (StoreMapping mapping : mappings) {
+        if ((withBinaries || mapping.getModelType() != ModelType.BYTE_ARRAY)
+            && (sugoiNames == null
+                || sugoiNames.stream()
+                    .anyMatch(
+                        name ->
+                            mapping.getSugoiName().equals(name)
+                                || mapping.getSugoiName().startsWith(name + ".")))) {
+          attributes.add(mapping.getStoreName());
+        }
+      }
+    }
+    return attributes;
   }
 }
@@ -0,0 +1,264 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.ldap.utils.mapper;
+
+import fr.insee.sugoi.ldap.utils.config.LdapConfigKeys;
+import fr.insee.sugoi.ldap.utils.exception.LdapMappingConfigurationException;
+import fr.insee.sugoi.model.RealmConfigKeys;
+import fr.insee.sugoi.model.SugoiObject;
+import fr.insee.sugoi.model.technics.ModelType;
+import fr.insee.sugoi.model.technics.StoreMapping;
+import fr.insee.sugoi.model.technics.SugoiObjectAccessors;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Everything GenericLdapMapper needs to map a type of object, computed once from the configuration
+ * and the mappings : the mappings by lower cased ldap attribute name, method handles on the
+ * accessors of the mapped fields and the group DN patterns. A plan is immutable and can be shared.
+ *
+ * @param <R> the type of object mapped
+ */
+public final class LdapMappingPlan<R extends SugoiObject> {
+
+  private static final int[] NO_STEPS = new int[0];
+
+  private final Class<R> clazz;
+  private final Map<RealmConfigKeys, String> config;
+  private MethodHandle constructor;
+  private ReflectiveOperationException missingConstructor;
+  private final List<Step> steps = new ArrayList<>();
+  private final Map<String, int[]> stepsByAttribute = new HashMap<>();
+  private final List<String> mapFields = new ArrayList<>();
+  private final Pattern groupSourcePattern;
+  private final Pattern groupManagerSourcePattern;
+
+  private LdapMappingPlan(
+      Class<R> clazz, Map<RealmConfigKeys, String> config, List<StoreMapping> mappings) {
+    this.clazz = clazz;
+    this.config = config;
+    try {
+      constructor =
+          MethodHandles.publicLookup()
+              .findConstructor(clazz, MethodType.methodType(void.class))
+              .asType(MethodType.methodType(Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      missingConstructor = e;
+    }
+    Map<String, List<Integer>> indexes = new HashMap<>();
+    for (StoreMapping mapping : mappings != null ? mappings : List.<StoreMapping>of()) {
+      Step step = new Step(mapping);
+      indexes
+          .computeIfAbsent(mapping.getStoreName().toLowerCase(Locale.ROOT), k -> new ArrayList<>())
+          .add(steps.size());
+      steps.add(step);
+    }
+    indexes.forEach(
+        (attributeName, stepIndexes) ->
+            stepsByAttribute.put(
+                attributeName, stepIndexes.stream().mapToInt(Integer::intValue).toArray()));
+    groupSourcePattern = compileGroupPattern(config.get(LdapConfigKeys.GROUP_SOURCE_PATTERN));
+    groupManagerSourcePattern =
+        compileGroupPattern(config.get(LdapConfigKeys.GROUP_MANAGER_SOURCE_PATTERN));
+  }
+
+  public static <R extends SugoiObject> LdapMappingPlan<R> compile(
+      Class<R> clazz, Map<RealmConfigKeys, String> config, List<StoreMapping> mappings) {
+    return new LdapMappingPlan<>(clazz, config, mappings);
+  }
+
+  Map<RealmConfigKeys, String> getConfig() {
+    return config;
+  }
+
+  List<Step> getSteps() {
+    return steps;
+  }
+
+  /** Number of fields holding a map, such as attributes, set through nested mappings */
+  int getMapFieldCount() {
+    return mapFields.size();
+  }
+
+  /**
+   * @param attributeName the name of an ldap attribute, in any case
+   * @return the indexes in getSteps of the mappings of this attribute
+   */
+  int[] getStepIndexes(String attributeName) {
+    return stepsByAttribute.getOrDefault(attributeName.toLowerCase(Locale.ROOT), NO_STEPS);
+  }
+
+  Pattern getGroupSourcePattern() {
+    if (groupSourcePattern == null) {
+      throw new IllegalStateException("group_source_pattern is not set");
+    }
+    return groupSourcePattern;
+  }
+
+  Pattern getGroupManagerSourcePattern() {
+    if (groupManagerSourcePattern == null) {
+      throw new IllegalStateException("group_manager_source_pattern is not set");
+    }
+    return groupManagerSourcePattern;
+  }
+
+  @SuppressWarnings("unchecked")
+  R newInstance() {
+    if (missingConstructor != null) {
+      throw new LdapMappingConfigurationException(
+          "Exception while getting the entity " + clazz.getName(), missingConstructor);
+    }
+    try {
+      return (R) (Object) constructor.invokeExact();
+    } catch (Throwable e) {
+      throw new LdapMappingConfigurationException(
+          "Exception while getting the entity " + clazz.getName(), e);
+    }
+  }
+
+  private static Pattern compileGroupPattern(String sourcePattern) {
+    return sourcePattern != null
+        ? Pattern.compile(sourcePattern.replace("{appliname}", "(.*)"))
+        : null;
+  }
+
+  /** Handle on an accessor, as used by SugoiObject, with a generic type */
+  private static MethodHandle toHandle(Method accessor, MethodType type)
+      throws NoSuchFieldException {
+    try {
+      return MethodHandles.publicLookup().unreflect(accessor).asType(type);
+    } catch (IllegalAccessException | WrongMethodTypeException e) {
+      NoSuchFieldException exception =
+          new NoSuchFieldException(
+              String.format(
+                  "%s is not usable in object %s",
+                  accessor.getName(), accessor.getDeclaringClass().getSimpleName()));
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  /** A mapping with the accessors of its field */
+  final class Step {
+    private final StoreMapping mapping;
+    private final String key;
+    private final int mapField;
+    private MethodHandle getter;
+    private MethodHandle setter;
+    private NoSuchFieldException missingGetter;
+    private NoSuchFieldException missingSetter;
+
+    private Step(StoreMapping mapping) {
+      this.mapping = mapping;
+      String[] splittedName = mapping.getSugoiName().split("\\.");
+      String field = splittedName[0];
+      key = splittedName.length > 1 ? splittedName[1] : null;
+      if (key != null) {
+        int index = mapFields.indexOf(field);
+        if (index < 0) {
+          index = mapFields.size();
+          mapFields.add(field);
+        }
+        mapField = index;
+      } else {
+        mapField = -1;
+      }
+      try {
+        getter =
+            toHandle(
+                SugoiObjectAccessors.of(clazz).getGetter(field),
+                MethodType.methodType(Object.class, Object.class));
+      } catch (NoSuchFieldException e) {
+        missingGetter = e;
+      }
+      try {
+        setter =
+            toHandle(
+                SugoiObjectAccessors.of(clazz).getSetter(field),
+                MethodType.methodType(void.class, Object.class, Object.class));
+      } catch (NoSuchFieldException e) {
+        missingSetter = e;
+      }
+    }
+
+    StoreMapping getMapping() {
+      return mapping;
+    }
+
+    ModelType getModelType() {
+      return mapping.getModelType();
+    }
+
+    /** Same as SugoiObject.get, a missing key of a nested field gives null */
+    Object get(Object entity) throws Throwable {
+      Object value = invokeGetter(entity);
+      if (key == null) {
+        return value;
+      } else if (value instanceof Map) {
+        return ((Map<?, ?>) value).get(key);
+      } else {
+        throw nestedFieldException();
+      }
+    }
+
+    /**
+     * Same as SugoiObject.set. The map of a nested field is copied on its first update and kept in
+     * ownedMaps, so that it is copied only once per entity.
+     */
+    @SuppressWarnings("unchecked")
+    void set(Object entity, Object value, Map<Object, Object>[] ownedMaps) throws Throwable {
+      if (missingSetter != null) {
+        throw missingSetter;
+      }
+      if (key == null) {
+        setter.invokeExact(entity, value);
+        return;
+      }
+      Map<Object, Object> map = ownedMaps[mapField];
+      if (map == null) {
+        Object currentMap = invokeGetter(entity);
+        if (!(currentMap instanceof Map)) {
+          throw nestedFieldException();
+        }
+        map = new HashMap<>((Map<Object, Object>) currentMap);
+        setter.invokeExact(entity, (Object) map);
+        ownedMaps[mapField] = map;
+      }
+      map.put(key, value);
+    }
+
+    private Object invokeGetter(Object entity) throws Throwable {
+      if (missingGetter != null) {
+        throw missingGetter;
+      }
+      return (Object) getter.invokeExact(entity);
+    }
+
+    private ClassCastException nestedFieldException() {
+      return new ClassCastException(
+          String.format(
+              "field %s is not a map, fieldname %s should not contain . ",
+              mapFields.get(mapField), mapping.getSugoiName()));
+    }
+  }
+}
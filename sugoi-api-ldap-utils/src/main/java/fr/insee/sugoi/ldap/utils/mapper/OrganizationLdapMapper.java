@@ -32,11 +32,11 @@ public class OrganizationLdapMapper extends LdapMapper<Organization> {
           Arrays.asList(config.get(LdapConfigKeys.ORGANIZATION_OBJECT_CLASSES).split(","));
     }
     this.mappings = mappings;
+    this.mappedClass = Organization.class;
   }
 
   @Override
   public Organization mapFromAttributes(Collection<Attribute> attributes) {
-    return GenericLdapMapper.mapLdapAttributesToObject(
-        attributes, Organization.class, config, mappings);
+    return GenericLdapMapper.mapLdapAttributesToObject(attributes, getMappingPlan());
   }
 }
@@ -39,12 +39,12 @@ public class UserLdapMapper extends LdapMapper<User> {
       objectClasses = Arrays.asList(config.get(LdapConfigKeys.USER_OBJECT_CLASSES).split(","));
     }
     this.mappings = mappings;
+    this.mappedClass = User.class;
   }
 
   @Override
   public User mapFromAttributes(Collection<Attribute> attributes) {
-    User user =
-        GenericLdapMapper.mapLdapAttributesToObject(attributes, User.class, config, mappings);
+    User user = GenericLdapMapper.mapLdapAttributesToObject(attributes, getMappingPlan());
     if (user.getCertificate() != null) {
       try {
         user.addMetadatas("cert", getParsedCertMetadatas(user));
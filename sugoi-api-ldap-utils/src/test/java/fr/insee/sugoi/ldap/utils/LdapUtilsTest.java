@@ -0,0 +1,135 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.ldap.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.controls.VirtualListViewResponseControl;
+import fr.insee.sugoi.model.paging.PageResult;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class LdapUtilsTest {
+
+  private final Entry currentEntry =
+      new Entry(
+          "uid=testo,ou=contacts,o=insee,c=fr",
+          new Attribute("mail", "testo@insee.fr"),
+          new Attribute("cn", "Testo"),
+          new Attribute("inseeGroupeDefaut", "admin_Applitest", "reader_Applitest", "x_Appli"));
+
+  @Test
+  public void unchangedAttributesAreSkipped() {
+    List<Modification> changes =
+        LdapUtils.getChangingModifications(
+            currentEntry,
+            List.of(
+                new Modification(ModificationType.REPLACE, "mail", "testo@insee.fr"),
+                new Modification(
+                    ModificationType.REPLACE,
+                    "inseeGroupeDefaut",
+                    "reader_Applitest",
+                    "admin_Applitest",
+                    "x_Appli"),
+                new Modification(ModificationType.REPLACE, "cn", "Testo")));
+    assertThat("Nothing should change", changes.isEmpty());
+  }
+
+  @Test
+  public void singleValuedAttributeIsReplaced() {
+    List<Modification> changes =
+        LdapUtils.getChangingModifications(
+            currentEntry,
+            List.of(
+                new Modification(ModificationType.REPLACE, "mail", "other@insee.fr"),
+                new Modification(ModificationType.REPLACE, "cn", "testo")));
+    assertThat("Both attributes should change", changes.size(), is(2));
+    assertThat(
+        "Mail should be replaced",
+        changes.get(0).getModificationType(),
+        is(ModificationType.REPLACE));
+    assertThat("Case change should be written", changes.get(1).getValues()[0], is("testo"));
+  }
+
+  @Test
+  public void multiValuedAttributeChangesValueByValue() {
+    List<Modification> changes =
+        LdapUtils.getChangingModifications(
+            currentEntry,
+            List.of(
+                new Modification(
+                    ModificationType.REPLACE,
+                    "inseeGroupeDefaut",
+                    "admin_Applitest",
+                    "reader_Applitest",
+                    "writer_Applitest")));
+    assertThat("A value should be deleted and one added", changes.size(), is(2));
+    assertThat(
+        "Removed value is deleted",
+        changes.get(0).getModificationType(),
+        is(ModificationType.DELETE));
+    assertThat("Removed value is deleted", changes.get(0).getValues()[0], is("x_Appli"));
+    assertThat(
+        "New value is added", changes.get(1).getModificationType(), is(ModificationType.ADD));
+    assertThat("New value is added", changes.get(1).getValues()[0], is("writer_Applitest"));
+  }
+
+  @Test
+  public void removedAttributeIsReplacedByNothing() {
+    List<Modification> changes =
+        LdapUtils.getChangingModifications(
+            currentEntry,
+            List.of(
+                new Modification(ModificationType.REPLACE, "mail"),
+                new Modification(ModificationType.REPLACE, "description")));
+    assertThat("Only the mail should be removed", changes.size(), is(1));
+    assertThat("Mail should be removed", changes.get(0).getAttributeName(), is("mail"));
+  }
+
+  @Test
+  public void virtualListViewHasMoreResultsUntilTheLastPage() {
+    PageResult<Object> firstPage = new PageResult<>();
+    LdapUtils.setResponseControls(firstPage, vlvSearchResult(1, 10, 25));
+    assertThat("First page should have more results", firstPage.isHasMoreResult());
+
+    PageResult<Object> lastPage = new PageResult<>();
+    LdapUtils.setResponseControls(lastPage, vlvSearchResult(21, 5, 25));
+    assertThat("Last page should not have more results", !lastPage.isHasMoreResult());
+    assertThat("Total should be the content count", lastPage.getTotalElements(), is(25));
+  }
+
+  private SearchResult vlvSearchResult(int targetPosition, int entryCount, int contentCount) {
+    return new SearchResult(
+        1,
+        ResultCode.SUCCESS,
+        null,
+        null,
+        null,
+        entryCount,
+        0,
+        new Control[] {
+          new VirtualListViewResponseControl(
+              targetPosition, contentCount, ResultCode.SUCCESS, new ASN1OctetString("context"))
+        });
+  }
+}
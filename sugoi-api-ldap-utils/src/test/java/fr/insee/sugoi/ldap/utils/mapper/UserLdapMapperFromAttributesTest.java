@@ -193,6 +193,23 @@ public class UserLdapMapperFromAttributesTest {
         mappedUser.getGroups().stream().anyMatch(group -> group.getAppName().equals("toto")));
   }
 
+  @Test
+  public void getUserFromAttributesInAnyCase() {
+    Collection<Attribute> attributes =
+        List.of(new Attribute("SN", "Toto"), new Attribute("CN", "Toto Tata"));
+    User mappedUser = userLdapMapper.mapFromAttributes(attributes);
+    assertThat("Should have a lastname", mappedUser.getLastName(), is("Toto"));
+    assertThat("Should have a cn", mappedUser.getAttributes().get("common_name"), is("Toto Tata"));
+    assertThat(
+        "Other attributes should still be mapped",
+        mappedUser.getAttributes().get("hasPassword"),
+        is(false));
+    assertThat(
+        "Mapping again should give a distinct object",
+        userLdapMapper.mapFromAttributes(attributes).getAttributes(),
+        not(sameInstance(mappedUser.getAttributes())));
+  }
+
   @Test
   public void getInseeRolesApplicatifsFromAttributes() {
 
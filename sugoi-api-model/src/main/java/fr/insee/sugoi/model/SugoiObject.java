@@ -13,10 +13,11 @@
 */
 package fr.insee.sugoi.model;
 
+import fr.insee.sugoi.model.technics.SugoiObjectAccessors;
+import fr.insee.sugoi.model.technics.SugoiObjectAccessors.FieldPath;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -24,20 +25,20 @@ import java.util.Optional;
 public interface SugoiObject extends Serializable {
   default Optional<Object> get(String fieldName) throws NoSuchFieldException {
     try {
-      String[] splittedAttributeName = fieldName.split("\\.");
-      if (splittedAttributeName.length > 1) {
-        Method getterMethod = getGetterMethod(splittedAttributeName[0]);
-        Object value = getterMethod.invoke(this);
+      SugoiObjectAccessors accessors = SugoiObjectAccessors.of(getClass());
+      FieldPath path = accessors.getPath(fieldName);
+      if (path.isMapKey()) {
+        Object value = accessors.getGetter(path.getField()).invoke(this);
         if (value instanceof Map) {
-          if (((Map<?, ?>) value).containsKey(splittedAttributeName[1])) {
-            return Optional.ofNullable(((Map<?, ?>) value).get(splittedAttributeName[1]));
+          if (((Map<?, ?>) value).containsKey(path.getKey())) {
+            return Optional.ofNullable(((Map<?, ?>) value).get(path.getKey()));
           } else return Optional.empty();
         } else
           throw new ClassCastException(
               String.format(
                   "Field %s is not a map, fieldname %s should not contain . ",
-                  splittedAttributeName[0], fieldName));
-      } else return Optional.ofNullable(getGetterMethod(fieldName).invoke(this));
+                  path.getField(), fieldName));
+      } else return Optional.ofNullable(accessors.getGetter(fieldName).invoke(this));
     } catch (InvocationTargetException | IllegalAccessException e) {
       throw new UnsupportedOperationException(e);
     }
@@ -46,47 +47,24 @@ public interface SugoiObject extends Serializable {
   default void set(String fieldName, Object fieldValue)
       throws NoSuchFieldException, IllegalAccessException {
     try {
-      String[] splittedAttributeName = fieldName.split("\\.");
-      if (splittedAttributeName.length > 1) {
-        Method setterMethod = getSetterMethod(splittedAttributeName[0]);
-        Method getterMethod = getGetterMethod(splittedAttributeName[0]);
+      SugoiObjectAccessors accessors = SugoiObjectAccessors.of(getClass());
+      FieldPath path = accessors.getPath(fieldName);
+      if (path.isMapKey()) {
+        Method setterMethod = accessors.getSetter(path.getField());
+        Method getterMethod = accessors.getGetter(path.getField());
         var currentMap = getterMethod.invoke(this);
         if (currentMap instanceof Map) {
           HashMap<Object, Object> nullableTypeCheckedMap = new HashMap<>((Map<?, ?>) currentMap);
-          nullableTypeCheckedMap.put(splittedAttributeName[1], fieldValue);
+          nullableTypeCheckedMap.put(path.getKey(), fieldValue);
           setterMethod.invoke(this, nullableTypeCheckedMap);
         } else
           throw new ClassCastException(
               String.format(
                   "field %s is not a map, fieldname %s should not contain . ",
-                  splittedAttributeName[0], fieldName));
-      } else getSetterMethod(fieldName).invoke(this, fieldValue);
+                  path.getField(), fieldName));
+      } else accessors.getSetter(fieldName).invoke(this, fieldValue);
     } catch (InvocationTargetException e) {
       throw new UnsupportedOperationException(e);
     }
   }
-
-  private Method getGetterMethod(String fieldName) throws NoSuchFieldException {
-    return Arrays.stream(this.getClass().getMethods())
-        .filter(method -> method.getName().equalsIgnoreCase("get" + fieldName))
-        .findFirst()
-        .orElseThrow(
-            () ->
-                new NoSuchFieldException(
-                    String.format(
-                        "getter for %s not found in object %s",
-                        fieldName, this.getClass().getSimpleName())));
-  }
-
-  private Method getSetterMethod(String fieldName) throws NoSuchFieldException {
-    return Arrays.stream(this.getClass().getMethods())
-        .filter(method -> method.getName().equalsIgnoreCase("set" + fieldName))
-        .findFirst()
-        .orElseThrow(
-            () ->
-                new NoSuchFieldException(
-                    String.format(
-                        "setter for %s not found in object %s",
-                        fieldName, this.getClass().getSimpleName())));
-  }
 }
@@ -0,0 +1,128 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.model.technics;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accessors of the fields of a class, as used by SugoiObject get and set. They are looked up once
+ * per class : the accessor of a field is the first public method named get or set followed by the
+ * field name, ignoring case. Field paths such as "attributes.key" are parsed once as well.
+ */
+public final class SugoiObjectAccessors {
+
+  private static final ClassValue<SugoiObjectAccessors> registry =
+      new ClassValue<>() {
+        @Override
+        protected SugoiObjectAccessors computeValue(Class<?> type) {
+          return new SugoiObjectAccessors(type);
+        }
+      };
+
+  /** Parsed paths are only kept up to this number per class, as paths can come from requests */
+  private static final int MAX_CACHED_PATHS = 1024;
+
+  private final String className;
+  private final Map<String, Method> getters = new HashMap<>();
+  private final Map<String, Method> setters = new HashMap<>();
+  private final Map<String, FieldPath> paths = new ConcurrentHashMap<>();
+
+  private SugoiObjectAccessors(Class<?> type) {
+    className = type.getSimpleName();
+    for (Method method : type.getMethods()) {
+      String name = method.getName().toLowerCase(Locale.ROOT);
+      if (name.startsWith("get")) {
+        getters.putIfAbsent(name.substring(3), method);
+      } else if (name.startsWith("set")) {
+        setters.putIfAbsent(name.substring(3), method);
+      }
+    }
+  }
+
+  public static SugoiObjectAccessors of(Class<?> type) {
+    return registry.get(type);
+  }
+
+  /**
+   * @param fieldName name of the field, in any case
+   * @return the getter of the field
+   * @throws NoSuchFieldException if the class has no such getter
+   */
+  public Method getGetter(String fieldName) throws NoSuchFieldException {
+    Method getter = getters.get(fieldName.toLowerCase(Locale.ROOT));
+    if (getter == null) {
+      throw new NoSuchFieldException(
+          String.format("getter for %s not found in object %s", fieldName, className));
+    }
+    return getter;
+  }
+
+  /**
+   * @param fieldName name of the field, in any case
+   * @return the setter of the field
+   * @throws NoSuchFieldException if the class has no such setter
+   */
+  public Method getSetter(String fieldName) throws NoSuchFieldException {
+    Method setter = setters.get(fieldName.toLowerCase(Locale.ROOT));
+    if (setter == null) {
+      throw new NoSuchFieldException(
+          String.format("setter for %s not found in object %s", fieldName, className));
+    }
+    return setter;
+  }
+
+  /**
+   * @param path a field name, or the name of a map field and a key separated by a dot. Anything
+   *     after a second dot is ignored.
+   * @return the parsed path
+   */
+  public FieldPath getPath(String path) {
+    FieldPath fieldPath = paths.get(path);
+    if (fieldPath == null) {
+      fieldPath = new FieldPath(path);
+      if (paths.size() < MAX_CACHED_PATHS) {
+        paths.putIfAbsent(path, fieldPath);
+      }
+    }
+    return fieldPath;
+  }
+
+  public static final class FieldPath {
+    private final String field;
+    private final String key;
+
+    private FieldPath(String path) {
+      String[] splittedPath = path.split("\\.");
+      field = splittedPath[0];
+      key = splittedPath.length > 1 ? splittedPath[1] : null;
+    }
+
+    public String getField() {
+      return field;
+    }
+
+    /** Key in the map field, null if the path is a simple field */
+    public String getKey() {
+      return key;
+    }
+
+    public boolean isMapKey() {
+      return key != null;
+    }
+  }
+}
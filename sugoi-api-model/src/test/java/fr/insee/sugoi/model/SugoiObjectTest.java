@@ -17,6 +17,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import fr.insee.sugoi.model.technics.SugoiObjectAccessors;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -56,4 +57,18 @@ class SugoiObjectTest {
     // not existing map
     assertThrows(NoSuchFieldException.class, () -> user.set("azoeia.yolo", "yolo"));
   }
+
+  @Test
+  void testAccessorsAreSharedByClass() throws Exception {
+    assertThat(
+        SugoiObjectAccessors.of(User.class) == SugoiObjectAccessors.of(User.class), is(true));
+    assertThat(
+        SugoiObjectAccessors.of(User.class).getGetter("LASTNAME"),
+        is(User.class.getMethod("getLastName")));
+    User user = new User();
+    // only the first key of a dotted path is used
+    user.set("attributes.first.second", "value");
+    assertThat(user.get("attributes.first"), is(Optional.of("value")));
+    assertThat(user.get("attributes.first.other"), is(Optional.of("value")));
+  }
 }
@@ -14,6 +14,7 @@
 package fr.insee.sugoi.services;
 
 import fr.insee.sugoi.core.model.ProviderResponse;
+import java.util.Arrays;
 import org.springframework.http.HttpStatus;
 
 public class Utils {
@@ -41,4 +42,15 @@ public class Utils {
         throw new RuntimeException("unknown provider status");
     }
   }
+
+  /**
+   * @param prefer value of the Prefer header (RFC 7240)
+   * @return true if the client asks for a response without the written entity
+   */
+  public static boolean isMinimalResponsePreferred(String prefer) {
+    return prefer != null
+        && Arrays.stream(prefer.split(","))
+            .map(String::trim)
+            .anyMatch(preference -> preference.equalsIgnoreCase("return=minimal"));
+  }
 }
@@ -24,7 +24,6 @@ import fr.insee.sugoi.model.exceptions.StoreException;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
 import fr.insee.sugoi.model.exceptions.UserStorageNotFoundException;
 import fr.insee.sugoi.model.paging.PageResult;
-import fr.insee.sugoi.model.paging.PageableResult;
 import fr.insee.sugoi.model.paging.SearchType;
 import fr.insee.sugoi.model.technics.StoreMapping;
 import io.swagger.v3.oas.annotations.Operation;
@@ -38,10 +37,12 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirements;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -60,9 +61,6 @@ public class ExportController {
   @Value("${fr.insee.sugoi.export.maxSizeOutput:10000}")
   private int maxSizeOutput;
 
-  @Value("${fr.insee.sugoi.export.pagesize:2000}")
-  private int pageSize;
-
   @Autowired private UserService userService;
   @Autowired private GroupService groupService;
 
@@ -259,30 +257,23 @@ public class ExportController {
       String realm,
       SearchType typeRecherche,
       CSVPrinter csvPrinter) {
-    try {
-
-      // set the page to maintain the search request pagination
-      PageableResult pageable = new PageableResult(pageSize, 0, null);
-
-      while (true) {
-        PageResult<User> foundUsers =
-            userService.findByProperties(
-                realm, storageName, searchUser, pageable, typeRecherche, false);
-        for (User foundUser : foundUsers.getResults()) {
-          List<String> attributesToPrint = getCsvLineFromUser(headerMappings, foundUser);
-          csvPrinter.printRecord(attributesToPrint);
-          csvPrinter.flush();
-        }
-
-        if (foundUsers.isHasMoreResult()) {
-          pageable = new PageableResult(pageSize, 0, foundUsers.getSearchToken());
-        } else {
-          break;
-        }
-      }
+    // users are streamed so that the export does not hold every user found in memory, rows being
+    // sent as the response buffer fills up
+    try (Stream<User> foundUsers =
+        userService.streamByProperties(realm, storageName, searchUser, typeRecherche)) {
+      foundUsers.forEachOrdered(
+          user -> {
+            try {
+              csvPrinter.printRecord(getCsvLineFromUser(headerMappings, user));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
       csvPrinter.flush();
     } catch (IOException e) {
       e.printStackTrace();
+    } catch (UncheckedIOException e) {
+      e.getCause().printStackTrace();
     }
   }
 
@@ -34,6 +34,7 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.security.SecurityRequirements;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import java.net.URI;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -165,6 +166,11 @@ public class GroupController {
       @Parameter(description = "Transaction Id", required = false)
           @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
           String transactionId,
+      @Parameter(
+              description = "return=minimal to get no entity in the response",
+              required = false)
+          @RequestHeader(name = "Prefer", required = false)
+          String prefer,
       Authentication authentication,
       @Parameter(description = "Group to create", required = true) @RequestBody
           GroupView groupView) {
@@ -174,20 +180,23 @@ public class GroupController {
     group.setDescription(groupView.getDescription());
     group.setName(groupView.getName());
 
+    ProviderRequest providerRequest =
+        new ProviderRequest(
+            new SugoiUser(
+                authentication.getName(),
+                authentication.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())),
+            isAsynchronous,
+            transactionId);
+    providerRequest.setMinimalResponse(Utils.isMinimalResponsePreferred(prefer));
     ProviderResponse response =
         groupService.create(
             realm,
             applicationName,
             group,
-            new ProviderRequest(
-                new SugoiUser(
-                    authentication.getName(),
-                    authentication.getAuthorities().stream()
-                        .map(GrantedAuthority::getAuthority)
-                        .map(String::toUpperCase)
-                        .collect(Collectors.toList())),
-                isAsynchronous,
-                transactionId));
+            providerRequest);
 
     URI location =
         ServletUriComponentsBuilder.fromCurrentRequest()
@@ -244,6 +253,11 @@ public class GroupController {
       @Parameter(description = "Transaction Id", required = false)
           @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
           String transactionId,
+      @Parameter(
+              description = "return=minimal to get no entity in the response",
+              required = false)
+          @RequestHeader(name = "Prefer", required = false)
+          String prefer,
       Authentication authentication,
       @Parameter(description = "Group to update", required = true) @RequestBody
           GroupView groupView) {
@@ -258,23 +272,27 @@ public class GroupController {
     group.setName(groupView.getName());
     group.setIsSelfManaged(groupView.getIsSelfManaged());
 
+    ProviderRequest providerRequest =
+        new ProviderRequest(
+            new SugoiUser(
+                authentication.getName(),
+                authentication.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())),
+            isAsynchronous,
+            transactionId);
+    providerRequest.setMinimalResponse(Utils.isMinimalResponsePreferred(prefer));
     ProviderResponse response =
         groupService.update(
             realm,
             applicationName,
             group,
-            new ProviderRequest(
-                new SugoiUser(
-                    authentication.getName(),
-                    authentication.getAuthorities().stream()
-                        .map(GrantedAuthority::getAuthority)
-                        .map(String::toUpperCase)
-                        .collect(Collectors.toList())),
-                isAsynchronous,
-                transactionId));
+            providerRequest);
 
     URI location = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
-    return ResponseEntity.status(Utils.convertStatusTHttpStatus(response, false, false))
+    return ResponseEntity.status(
+            Utils.convertStatusTHttpStatus(response, false, providerRequest.isMinimalResponse()))
         .header(HttpHeaders.LOCATION, location.toString())
         .header("X-SUGOI-TRANSACTION-ID", response.getRequestId())
         .header("X-SUGOI-REQUEST-STATUS", response.getStatus().toString())
@@ -470,6 +488,153 @@ public class GroupController {
         .build();
   }
 
+  @PostMapping(
+      value = {"/realms/{realm}/applications/{application}/groups/{group_id}/members"},
+      consumes = {MediaType.APPLICATION_JSON_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE})
+  @Operation(summary = "Add users to group")
+  @PreAuthorize("@NewAuthorizeMethodDecider.isGroupManager(#realm,#applicationName,#groupId)")
+  public ResponseEntity<?> addUsersToGroup(
+      @PathVariable("realm") String realm,
+      @PathVariable("group_id") String groupId,
+      @PathVariable("application") String applicationName,
+      @Parameter(
+              description = "Name of the userStorage where the users are located",
+              required = false)
+          @RequestParam(name = "storage", required = false)
+          String storage,
+      @Parameter(description = "Allowed asynchronous request", required = false)
+          @RequestHeader(name = "X-SUGOI-ASYNCHRONOUS-ALLOWED-REQUEST", defaultValue = "false")
+          boolean isAsynchronous,
+      @Parameter(description = "Transaction Id", required = false)
+          @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
+          String transactionId,
+      Authentication authentication,
+      @Parameter(description = "Ids of the users to add", required = true) @RequestBody
+          List<String> userIds) {
+
+    ProviderResponse response =
+        groupService.addUsersToGroup(
+            realm,
+            storage,
+            userIds,
+            applicationName,
+            groupId,
+            new ProviderRequest(
+                new SugoiUser(
+                    authentication.getName(),
+                    authentication.getAuthorities().stream()
+                        .map(GrantedAuthority::getAuthority)
+                        .map(String::toUpperCase)
+                        .collect(Collectors.toList())),
+                isAsynchronous,
+                transactionId));
+    URI location = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
+    return ResponseEntity.status(Utils.convertStatusTHttpStatus(response, false, true))
+        .header(HttpHeaders.LOCATION, location.toString())
+        .header("X-SUGOI-TRANSACTION-ID", response.getRequestId())
+        .header("X-SUGOI-REQUEST-STATUS", response.getStatus().toString())
+        .build();
+  }
+
+  @DeleteMapping(
+      value = {"/realms/{realm}/applications/{application}/groups/{group_id}/members"},
+      consumes = {MediaType.APPLICATION_JSON_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE})
+  @Operation(summary = "Delete users from group")
+  @PreAuthorize("@NewAuthorizeMethodDecider.isGroupManager(#realm,#applicationName,#groupId)")
+  public ResponseEntity<?> deleteUsersFromGroup(
+      @PathVariable("realm") String realm,
+      @PathVariable("group_id") String groupId,
+      @PathVariable("application") String applicationName,
+      @Parameter(
+              description = "Name of the userStorage where the users are located",
+              required = false)
+          @RequestParam(name = "storage", required = false)
+          String storage,
+      @Parameter(description = "Allowed asynchronous request", required = false)
+          @RequestHeader(name = "X-SUGOI-ASYNCHRONOUS-ALLOWED-REQUEST", defaultValue = "false")
+          boolean isAsynchronous,
+      @Parameter(description = "Transaction Id", required = false)
+          @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
+          String transactionId,
+      Authentication authentication,
+      @Parameter(description = "Ids of the users to remove", required = true) @RequestBody
+          List<String> userIds) {
+
+    ProviderResponse response =
+        groupService.deleteUsersFromGroup(
+            realm,
+            storage,
+            userIds,
+            applicationName,
+            groupId,
+            new ProviderRequest(
+                new SugoiUser(
+                    authentication.getName(),
+                    authentication.getAuthorities().stream()
+                        .map(GrantedAuthority::getAuthority)
+                        .map(String::toUpperCase)
+                        .collect(Collectors.toList())),
+                isAsynchronous,
+                transactionId));
+    URI location = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
+    return ResponseEntity.status(Utils.convertStatusTHttpStatus(response, false, true))
+        .header(HttpHeaders.LOCATION, location.toString())
+        .header("X-SUGOI-TRANSACTION-ID", response.getRequestId())
+        .header("X-SUGOI-REQUEST-STATUS", response.getStatus().toString())
+        .build();
+  }
+
+  @PutMapping(
+      value = {"/realms/{realm}/applications/{application}/groups/{group_id}/members"},
+      consumes = {MediaType.APPLICATION_JSON_VALUE},
+      produces = {MediaType.APPLICATION_JSON_VALUE})
+  @Operation(summary = "Replace the users of group, only in storage if it is set")
+  @PreAuthorize("@NewAuthorizeMethodDecider.isGroupManager(#realm,#applicationName,#groupId)")
+  public ResponseEntity<?> replaceGroupMembers(
+      @PathVariable("realm") String realm,
+      @PathVariable("group_id") String groupId,
+      @PathVariable("application") String applicationName,
+      @Parameter(
+              description = "Name of the userStorage where the users are located",
+              required = false)
+          @RequestParam(name = "storage", required = false)
+          String storage,
+      @Parameter(description = "Allowed asynchronous request", required = false)
+          @RequestHeader(name = "X-SUGOI-ASYNCHRONOUS-ALLOWED-REQUEST", defaultValue = "false")
+          boolean isAsynchronous,
+      @Parameter(description = "Transaction Id", required = false)
+          @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
+          String transactionId,
+      Authentication authentication,
+      @Parameter(description = "Ids of all the users of the group", required = true) @RequestBody
+          List<String> userIds) {
+
+    ProviderResponse response =
+        groupService.replaceGroupMembers(
+            realm,
+            storage,
+            userIds,
+            applicationName,
+            groupId,
+            new ProviderRequest(
+                new SugoiUser(
+                    authentication.getName(),
+                    authentication.getAuthorities().stream()
+                        .map(GrantedAuthority::getAuthority)
+                        .map(String::toUpperCase)
+                        .collect(Collectors.toList())),
+                isAsynchronous,
+                transactionId));
+    URI location = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
+    return ResponseEntity.status(Utils.convertStatusTHttpStatus(response, false, true))
+        .header(HttpHeaders.LOCATION, location.toString())
+        .header("X-SUGOI-TRANSACTION-ID", response.getRequestId())
+        .header("X-SUGOI-REQUEST-STATUS", response.getStatus().toString())
+        .build();
+  }
+
   @GetMapping(
       value = {"/realms/{realm}/applications/{application}/group_manager"},
       produces = {MediaType.APPLICATION_JSON_VALUE})
@@ -0,0 +1,335 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.services.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.sugoi.core.model.ProviderRequest;
+import fr.insee.sugoi.core.model.SugoiUser;
+import fr.insee.sugoi.core.service.ConfigService;
+import fr.insee.sugoi.core.service.UserService;
+import fr.insee.sugoi.model.Habilitation;
+import fr.insee.sugoi.model.Organization;
+import fr.insee.sugoi.model.User;
+import fr.insee.sugoi.model.exceptions.UserStorageNotFoundException;
+import fr.insee.sugoi.model.technics.ModelType;
+import fr.insee.sugoi.model.technics.StoreMapping;
+import fr.insee.sugoi.services.view.ImportResultView;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.security.SecurityRequirements;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@Tag(name = "Import objects", description = "Endpoints to import many objects at once")
+@RequestMapping(value = {"/v2", "/"})
+@SecurityRequirements(
+    value = {@SecurityRequirement(name = "oAuth"), @SecurityRequirement(name = "basic")})
+public class ImportController {
+
+  public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+  @Autowired private UserService userService;
+
+  @Autowired private ConfigService configService;
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  @PostMapping(
+      path = {"/realms/{realm}/storages/{storage}/import/users"},
+      consumes = {APPLICATION_NDJSON_VALUE},
+      produces = {APPLICATION_NDJSON_VALUE})
+  @Operation(summary = "Import users given as one json user per line")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "200",
+            description = "Result of each user, as one json object per line",
+            content = {
+              @Content(
+                  mediaType = APPLICATION_NDJSON_VALUE,
+                  schema = @Schema(implementation = ImportResultView.class))
+            })
+      })
+  @PreAuthorize("@NewAuthorizeMethodDecider.isWriter(#realm,#storage)")
+  public ResponseEntity<Void> importJsonUsers(
+      @Parameter(
+              description = "Name of the realm where the operation will be made",
+              required = true)
+          @PathVariable("realm")
+          String realm,
+      @Parameter(
+              description = "Name of the userStorage where the operation will be made",
+              required = true)
+          @PathVariable("storage")
+          String storage,
+      @Parameter(description = "Update the users of the userStorage which already exist")
+          @RequestParam(name = "upsert", defaultValue = "false")
+          boolean upsert,
+      @Parameter(description = "Allowed asynchronous request", required = false)
+          @RequestHeader(name = "X-SUGOI-ASYNCHRONOUS-ALLOWED-REQUEST", defaultValue = "false")
+          boolean isAsynchronous,
+      Authentication authentication,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    Iterator<Supplier<User>> records =
+        request
+            .getReader()
+            .lines()
+            .filter(line -> !line.isBlank())
+            .map(line -> (Supplier<User>) () -> parseJsonUser(line))
+            .iterator();
+    importUsers(realm, storage, upsert, isAsynchronous, authentication, records, response);
+    return ResponseEntity.ok().build();
+  }
+
+  @PostMapping(
+      path = {"/realms/{realm}/storages/{storage}/import/users"},
+      consumes = {"text/csv"},
+      produces = {APPLICATION_NDJSON_VALUE})
+  @Operation(summary = "Import users given as csv, with the same header as the export of users")
+  @ApiResponses(
+      value = {
+        @ApiResponse(
+            responseCode = "200",
+            description = "Result of each user, as one json object per line",
+            content = {
+              @Content(
+                  mediaType = APPLICATION_NDJSON_VALUE,
+                  schema = @Schema(implementation = ImportResultView.class))
+            })
+      })
+  @PreAuthorize("@NewAuthorizeMethodDecider.isWriter(#realm,#storage)")
+  public ResponseEntity<Void> importCsvUsers(
+      @Parameter(
+              description = "Name of the realm where the operation will be made",
+              required = true)
+          @PathVariable("realm")
+          String realm,
+      @Parameter(
+              description = "Name of the userStorage where the operation will be made",
+              required = true)
+          @PathVariable("storage")
+          String storage,
+      @Parameter(description = "Update the users of the userStorage which already exist")
+          @RequestParam(name = "upsert", defaultValue = "false")
+          boolean upsert,
+      @Parameter(description = "Allowed asynchronous request", required = false)
+          @RequestHeader(name = "X-SUGOI-ASYNCHRONOUS-ALLOWED-REQUEST", defaultValue = "false")
+          boolean isAsynchronous,
+      Authentication authentication,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    Map<String, ModelType> modelTypes =
+        configService
+            .getRealm(realm)
+            .getUserStorageByName(storage)
+            .orElseThrow(() -> new UserStorageNotFoundException(realm, storage))
+            .getUserMappings()
+            .stream()
+            .collect(
+                Collectors.toMap(
+                    StoreMapping::getSugoiName,
+                    StoreMapping::getModelType,
+                    (modelType, otherModelType) -> modelType));
+    CSVParser csvParser =
+        CSVFormat.DEFAULT
+            .builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .get()
+            .parse(request.getReader());
+    Iterator<Supplier<User>> records =
+        csvParser.stream()
+            .map(record -> (Supplier<User>) () -> parseCsvUser(record, modelTypes))
+            .iterator();
+    importUsers(realm, storage, upsert, isAsynchronous, authentication, records, response);
+    return ResponseEntity.ok().build();
+  }
+
+  /**
+   * Users are parsed as the service reads them and each result is written as soon as it is known,
+   * so that neither the input nor the results are held in memory. A record which cannot be parsed
+   * gives a KO result at once.
+   *
+   * @param records the records of the input, parsing a record throws IllegalArgumentException if
+   *     it is not a valid user
+   */
+  private void importUsers(
+      String realm,
+      String storage,
+      boolean upsert,
+      boolean isAsynchronous,
+      Authentication authentication,
+      Iterator<Supplier<User>> records,
+      HttpServletResponse response)
+      throws IOException {
+    ProviderRequest providerRequest =
+        new ProviderRequest(
+            new SugoiUser(
+                authentication.getName(),
+                authentication.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())),
+            isAsynchronous,
+            null);
+    response.setCharacterEncoding("UTF-8");
+    response.setContentType(APPLICATION_NDJSON_VALUE);
+    PrintWriter writer = response.getWriter();
+    // the service gives the results in the order of the users
+    Queue<Long> positions = new ArrayDeque<>();
+    Iterator<User> users =
+        new Iterator<>() {
+          private long position = 0;
+          private User next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null && records.hasNext()) {
+              Supplier<User> record = records.next();
+              position++;
+              try {
+                next = record.get();
+                positions.add(position);
+              } catch (IllegalArgumentException e) {
+                writeResult(writer, new ImportResultView(position, null, "KO", e.getMessage()));
+              }
+            }
+            return next != null;
+          }
+
+          @Override
+          public User next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            User user = next;
+            next = null;
+            return user;
+          }
+        };
+    userService.importUsers(
+        realm,
+        storage,
+        users,
+        upsert,
+        providerRequest,
+        userResponse ->
+            writeResult(
+                writer,
+                new ImportResultView(
+                    positions.remove(),
+                    userResponse.getEntityId(),
+                    userResponse.getStatus().toString(),
+                    userResponse.getException() != null
+                        ? userResponse.getException().getMessage()
+                        : null)));
+    writer.flush();
+  }
+
+  private User parseJsonUser(String line) {
+    try {
+      return objectMapper.readValue(line, User.class);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Invalid user : " + e.getOriginalMessage(), e);
+    }
+  }
+
+  /**
+   * Columns are named after the sugoi names of the user mappings, as in the export of users. Empty
+   * cells are left out, addresses and groups are not imported.
+   */
+  private User parseCsvUser(CSVRecord record, Map<String, ModelType> modelTypes) {
+    User user = new User();
+    try {
+      for (Map.Entry<String, String> cell : record.toMap().entrySet()) {
+        String value = cell.getValue();
+        if (value == null || value.isEmpty()) {
+          continue;
+        }
+        switch (modelTypes.getOrDefault(cell.getKey(), ModelType.STRING)) {
+          case STRING:
+            user.set(cell.getKey(), value);
+            break;
+          case ORGANIZATION:
+            Organization organization = new Organization();
+            organization.setIdentifiant(value);
+            user.set(cell.getKey(), organization);
+            break;
+          case LIST_HABILITATION:
+            user.set(
+                cell.getKey(),
+                splitValues(value).stream().map(Habilitation::new).collect(Collectors.toList()));
+            break;
+          case LIST_STRING:
+            user.set(cell.getKey(), splitValues(value));
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (NoSuchFieldException | IllegalAccessException e) {
+      throw new IllegalArgumentException("Invalid column : " + e.getMessage(), e);
+    }
+    return user;
+  }
+
+  private List<String> splitValues(String value) {
+    return Arrays.stream(value.split(","))
+        .map(String::trim)
+        .filter(splitValue -> !splitValue.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  private void writeResult(PrintWriter writer, ImportResultView result) {
+    try {
+      writer.write(objectMapper.writeValueAsString(result) + "\n");
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(e);
+    }
+    writer.flush();
+  }
+}
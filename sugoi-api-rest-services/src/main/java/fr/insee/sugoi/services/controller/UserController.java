@@ -336,23 +336,31 @@ public class UserController {
       @Parameter(description = "Transaction Id", required = false)
           @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
           String transactionId,
+      @Parameter(
+              description = "return=minimal to get no entity in the response",
+              required = false)
+          @RequestHeader(name = "Prefer", required = false)
+          String prefer,
       Authentication authentication,
       @Parameter(description = "User to create", required = true) @RequestBody User user) {
 
+    ProviderRequest providerRequest =
+        new ProviderRequest(
+            new SugoiUser(
+                authentication.getName(),
+                authentication.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())),
+            isAsynchronous,
+            transactionId);
+    providerRequest.setMinimalResponse(Utils.isMinimalResponsePreferred(prefer));
     ProviderResponse response =
         userService.create(
             realm,
             storage,
             user,
-            new ProviderRequest(
-                new SugoiUser(
-                    authentication.getName(),
-                    authentication.getAuthorities().stream()
-                        .map(GrantedAuthority::getAuthority)
-                        .map(String::toUpperCase)
-                        .collect(Collectors.toList())),
-                isAsynchronous,
-                transactionId));
+            providerRequest);
     URI location =
         ServletUriComponentsBuilder.fromCurrentRequest()
             .path("/" + user.getUsername())
@@ -409,6 +417,11 @@ public class UserController {
       @Parameter(description = "Transaction Id", required = false)
           @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
           String transactionId,
+      @Parameter(
+              description = "return=minimal to get no entity in the response",
+              required = false)
+          @RequestHeader(name = "Prefer", required = false)
+          String prefer,
       Authentication authentication,
       @Parameter(description = "User to update", required = true) @RequestBody User user) {
 
@@ -416,22 +429,26 @@ public class UserController {
       throw new IdNotMatchingException(id, user.getUsername());
     }
 
+    ProviderRequest providerRequest =
+        new ProviderRequest(
+            new SugoiUser(
+                authentication.getName(),
+                authentication.getAuthorities().stream()
+                    .map(GrantedAuthority::getAuthority)
+                    .map(String::toUpperCase)
+                    .collect(Collectors.toList())),
+            isAsynchronous,
+            null);
+    providerRequest.setMinimalResponse(Utils.isMinimalResponsePreferred(prefer));
     ProviderResponse response =
         userService.update(
             realm,
             storage,
             user,
-            new ProviderRequest(
-                new SugoiUser(
-                    authentication.getName(),
-                    authentication.getAuthorities().stream()
-                        .map(GrantedAuthority::getAuthority)
-                        .map(String::toUpperCase)
-                        .collect(Collectors.toList())),
-                isAsynchronous,
-                null));
+            providerRequest);
     URI location = ServletUriComponentsBuilder.fromCurrentRequest().build().toUri();
-    return ResponseEntity.status(Utils.convertStatusTHttpStatus(response, false, false))
+    return ResponseEntity.status(
+            Utils.convertStatusTHttpStatus(response, false, providerRequest.isMinimalResponse()))
         .header(HttpHeaders.LOCATION, location.toString())
         .header("X-SUGOI-TRANSACTION-ID", response.getRequestId())
         .header("X-SUGOI-REQUEST-STATUS", response.getStatus().toString())
@@ -477,6 +494,11 @@ public class UserController {
       @Parameter(description = "Transaction Id", required = false)
           @RequestHeader(name = "X-SUGOI-TRANSACTION-ID", required = false)
           String transactionId,
+      @Parameter(
+              description = "return=minimal to get no entity in the response",
+              required = false)
+          @RequestHeader(name = "Prefer", required = false)
+          String prefer,
       Authentication authentication,
       @Parameter(description = "User to update", required = true) @RequestBody User user) {
 
@@ -490,6 +512,7 @@ public class UserController {
         id,
         isAsynchronous,
         transactionId,
+        prefer,
         authentication,
         user);
   }
@@ -39,13 +39,7 @@ public class AuthorizeMethodDecider {
   public boolean isReader(String realm, String userStorage) {
     if (enable) {
       logger.debug("Check if user is reader on realm {} and userStorage {}", realm, userStorage);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isReader(sugoiUser, realm, userStorage)
           || permissionService.isWriter(sugoiUser, realm, userStorage)
           || permissionService.isPasswordManager(sugoiUser, realm, userStorage);
@@ -57,13 +51,7 @@ public class AuthorizeMethodDecider {
   public boolean isAppManager(String realm, String application) {
     if (enable) {
       logger.debug("Check if user is at least reader on realm {}", realm);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isApplicationManager(sugoiUser, realm, application)
           || permissionService.isAdminRealm(sugoiUser, realm, null);
     }
@@ -74,13 +62,7 @@ public class AuthorizeMethodDecider {
   public boolean isGroupManager(String realm, String application, String groupName) {
     if (enable) {
       logger.debug("Check if user is at least group manager on realm {}", realm);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isMemberOfSelfManagedGroup(sugoiUser, realm, application, groupName)
           || permissionService.isGroupManager(sugoiUser, realm, application, groupName)
           || permissionService.isApplicationManager(sugoiUser, realm, application)
@@ -94,13 +76,7 @@ public class AuthorizeMethodDecider {
     if (enable) {
       logger.debug(
           "Check if user is at least reader on realm {} and userStorage {}", realm, userStorage);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isPasswordManager(sugoiUser, realm, userStorage)
           || permissionService.isWriter(sugoiUser, realm, userStorage);
     }
@@ -114,13 +90,7 @@ public class AuthorizeMethodDecider {
           "Check if user is at least password validator on realm {} and userStorage {}",
           realm,
           userStorage);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isPasswordManager(sugoiUser, realm, userStorage)
           || permissionService.isWriter(sugoiUser, realm, userStorage)
           || permissionService.isPasswordValidator(sugoiUser, realm, userStorage);
@@ -133,13 +103,7 @@ public class AuthorizeMethodDecider {
     if (enable) {
       logger.debug(
           "Check if user is at least writer on realm {} and userStorage {}", realm, userStorage);
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isWriter(sugoiUser, realm, userStorage);
     }
     logger.warn("PreAuthorize on request is disabled, can cause security problem");
@@ -149,16 +113,24 @@ public class AuthorizeMethodDecider {
   public boolean isAdmin() {
     if (enable) {
       logger.debug("Check if user is admin");
-      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      List<String> roles =
-          authentication.getAuthorities().stream()
-              .map(GrantedAuthority::getAuthority)
-              .map(String::toUpperCase)
-              .collect(Collectors.toList());
-      SugoiUser sugoiUser = new SugoiUser(authentication.getName(), roles);
+      SugoiUser sugoiUser = getCurrentUser();
       return permissionService.isAdmin(sugoiUser);
     }
     logger.warn("PreAuthorize on request is disabled, can cause security problem");
     return true;
   }
+
+  /**
+   * The roles of the authenticated user are upper cased, permissions compiled from them are cached
+   * by the permission service for later requests with the same roles.
+   */
+  private SugoiUser getCurrentUser() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    List<String> roles =
+        authentication.getAuthorities().stream()
+            .map(GrantedAuthority::getAuthority)
+            .map(String::toUpperCase)
+            .collect(Collectors.toList());
+    return new SugoiUser(authentication.getName(), roles);
+  }
 }
@@ -16,7 +16,6 @@ package fr.insee.sugoi.services.controller;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
 
 import fr.insee.sugoi.commons.services.controller.technics.SugoiAdviceController;
@@ -25,12 +24,12 @@ import fr.insee.sugoi.core.service.GroupService;
 import fr.insee.sugoi.core.service.UserService;
 import fr.insee.sugoi.model.*;
 import fr.insee.sugoi.model.exceptions.UserNotFoundException;
-import fr.insee.sugoi.model.paging.PageResult;
 import fr.insee.sugoi.model.technics.ModelType;
 import fr.insee.sugoi.model.technics.StoreMapping;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -107,18 +106,11 @@ public class ExportControllerTest {
     userAttribute.setAttributes(
         Map.of("description", "this is a description", "common_name", "common name"));
 
-    PageResult<User> pageResultUserStorage1 = new PageResult<>();
+    Mockito.when(userService.streamByProperties(any(), eq("storage"), any(), any()))
+        .thenAnswer(invocation -> Stream.of(user, userAttribute));
 
-    pageResultUserStorage1.setResults(List.of(user, userAttribute));
-    Mockito.when(
-            userService.findByProperties(any(), eq("storage"), any(), any(), any(), anyBoolean()))
-        .thenReturn(pageResultUserStorage1);
-
-    PageResult<User> pageResultUserStorage2 = new PageResult<>();
-    pageResultUserStorage2.setResults(List.of(user1));
-    Mockito.when(
-            userService.findByProperties(any(), eq("storage2"), any(), any(), any(), anyBoolean()))
-        .thenReturn(pageResultUserStorage2);
+    Mockito.when(userService.streamByProperties(any(), eq("storage2"), any(), any()))
+        .thenAnswer(invocation -> Stream.of(user1));
 
     UserStorage userStorage2 = new UserStorage();
     userStorage2.setName("storage2");
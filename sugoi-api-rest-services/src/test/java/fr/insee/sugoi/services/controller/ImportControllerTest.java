@@ -0,0 +1,187 @@
+/*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package fr.insee.sugoi.services.controller;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.insee.sugoi.commons.services.controller.technics.SugoiAdviceController;
+import fr.insee.sugoi.core.model.ProviderResponse;
+import fr.insee.sugoi.core.model.ProviderResponse.ProviderResponseStatus;
+import fr.insee.sugoi.core.service.ConfigService;
+import fr.insee.sugoi.core.service.UserService;
+import fr.insee.sugoi.model.Realm;
+import fr.insee.sugoi.model.User;
+import fr.insee.sugoi.model.UserStorage;
+import fr.insee.sugoi.model.exceptions.UserAlreadyExistException;
+import fr.insee.sugoi.model.technics.ModelType;
+import fr.insee.sugoi.model.technics.StoreMapping;
+import fr.insee.sugoi.services.view.ImportResultView;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+@SpringBootTest(
+    classes = {ImportController.class, SugoiAdviceController.class},
+    properties = "spring.config.location=classpath:/controller/application.properties")
+@AutoConfigureMockMvc
+@EnableWebMvc
+public class ImportControllerTest {
+
+  @Autowired MockMvc mockMvc;
+
+  @MockitoBean private UserService userService;
+
+  @MockitoBean private ConfigService configService;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final List<User> importedUsers = new ArrayList<>();
+
+  @BeforeEach
+  public void setup() {
+    Realm realm = new Realm();
+    realm.setName("realm");
+    UserStorage userStorage = new UserStorage();
+    userStorage.setName("storage");
+    userStorage.setUserMappings(
+        List.of(
+            new StoreMapping("username", "uid", ModelType.STRING, true),
+            new StoreMapping("mail", "mail", ModelType.STRING, true),
+            new StoreMapping("attributes.common_name", "cn", ModelType.STRING, true),
+            new StoreMapping(
+                "habilitations", "inseeGroupeDefaut", ModelType.LIST_HABILITATION, true),
+            new StoreMapping("organization", "inseeOrganisationDN", ModelType.ORGANIZATION, true),
+            new StoreMapping("groups", "memberOf", ModelType.LIST_GROUP, false)));
+    realm.setUserStorages(List.of(userStorage));
+    Mockito.when(configService.getRealm("realm")).thenReturn(realm);
+
+    importedUsers.clear();
+    // users named existing are rejected, the other ones are created
+    Mockito.doAnswer(
+            invocation -> {
+              Iterator<User> users = invocation.getArgument(2);
+              Consumer<ProviderResponse> results = invocation.getArgument(5);
+              users.forEachRemaining(importedUsers::add);
+              importedUsers.forEach(user -> results.accept(importResponse(user)));
+              return null;
+            })
+        .when(userService)
+        .importUsers(eq("realm"), eq("storage"), any(), anyBoolean(), any(), any());
+  }
+
+  @Test
+  @WithMockUser
+  public void importJsonUsersShouldGiveOneResultPerLine() throws Exception {
+    List<ImportResultView> results =
+        getResults(
+            importRequest(
+                ImportController.APPLICATION_NDJSON_VALUE,
+                "{\"username\":\"user1\",\"mail\":\"user1@insee.fr\"}\n"
+                    + "{not a user\n"
+                    + "\n"
+                    + "{\"username\":\"existing\"}\n"));
+    assertThat("Should have imported two users", importedUsers.size(), is(2));
+    assertThat("Should have a result per line", results.size(), is(3));
+    // the invalid line is reported as soon as it is read
+    assertThat("Invalid line is second", results.get(0).getPosition(), is(2L));
+    assertThat("Invalid line is KO", results.get(0).getStatus(), is("KO"));
+    assertThat("Invalid line has no username", results.get(0).getUsername(), nullValue());
+    assertThat("First user is first", results.get(1).getPosition(), is(1L));
+    assertThat("First user is created", results.get(1).getStatus(), is("OK"));
+    assertThat("First user mail", importedUsers.get(0).getMail(), is("user1@insee.fr"));
+    assertThat("Existing user is third", results.get(2).getPosition(), is(3L));
+    assertThat("Existing user is rejected", results.get(2).getStatus(), is("KO"));
+    assertThat(
+        "Existing user has a message",
+        results.get(2).getMessage(),
+        is("User existing already exist"));
+  }
+
+  @Test
+  @WithMockUser
+  public void importCsvUsersShouldUseExportHeader() throws Exception {
+    List<ImportResultView> results =
+        getResults(
+            importRequest(
+                "text/csv",
+                "username,mail,attributes.common_name,habilitations,organization,groups\n"
+                    + "user1,user1@insee.fr,User One,\"app1_role1,app2_role2\",organization1,"
+                    + "group1 (app1)\n"
+                    + "user2,,,,,\n"));
+    assertThat("Should have a result per user", results.size(), is(2));
+    assertThat("Second user is second", results.get(1).getPosition(), is(2L));
+    User user1 = importedUsers.get(0);
+    assertThat("Should have username", user1.getUsername(), is("user1"));
+    assertThat("Should have mail", user1.getMail(), is("user1@insee.fr"));
+    assertThat(
+        "Should have common name", user1.getAttributes().get("common_name"), is("User One"));
+    assertThat(
+        "Should have habilitations",
+        user1.getHabilitations().stream().map(Object::toString).collect(Collectors.toList()),
+        is(List.of("app1_role1", "app2_role2")));
+    assertThat(
+        "Should have organization", user1.getOrganization().getIdentifiant(), is("organization1"));
+    assertThat("Groups are not imported", user1.getGroups(), nullValue());
+    assertThat("Empty cells are left out", importedUsers.get(1).getMail(), nullValue());
+  }
+
+  private ProviderResponse importResponse(User user) {
+    return user.getUsername().equals("existing")
+        ? new ProviderResponse(
+            user.getUsername(),
+            null,
+            ProviderResponseStatus.KO,
+            null,
+            new UserAlreadyExistException("User existing already exist"))
+        : new ProviderResponse(user.getUsername(), null, ProviderResponseStatus.OK, null, null);
+  }
+
+  private RequestBuilder importRequest(String contentType, String content) {
+    return MockMvcRequestBuilders.post("/realms/realm/storages/storage/import/users")
+        .contentType(contentType)
+        .content(content)
+        .with(csrf());
+  }
+
+  private List<ImportResultView> getResults(RequestBuilder requestBuilder) throws Exception {
+    MockHttpServletResponse response = mockMvc.perform(requestBuilder).andReturn().getResponse();
+    List<ImportResultView> results = new ArrayList<>();
+    for (String line : response.getContentAsString().lines().collect(Collectors.toList())) {
+      results.add(objectMapper.readValue(line, ImportResultView.class));
+    }
+    return results;
+  }
+}